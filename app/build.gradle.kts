@@ -65,6 +65,13 @@ android {
         jvmTarget = "11"
     }
 
+    testOptions {
+        // 离线基准测试在 JVM 上运行，android.* 桩方法返回默认值而不是抛异常
+        unitTests.isReturnDefaultValues = true
+        // AgentLoopBenchmarkTest 把各阶段耗时汇总打印到标准输出，显示在 CI 日志中
+        unitTests.all { it.testLogging.showStandardStreams = true }
+    }
+
     buildFeatures {
         viewBinding = true
         buildConfig = true
@@ -125,6 +132,7 @@ dependencies {
     }
 
     testImplementation(libs.junit)
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.12.0")
     androidTestImplementation(libs.androidx.junit)
     androidTestImplementation(libs.androidx.espresso.core)
 }
\ No newline at end of file
@@ -30,12 +30,14 @@ import androidx.core.view.ViewCompat
 import androidx.core.view.WindowCompat
 import androidx.core.view.WindowInsetsCompat
 import androidx.lifecycle.lifecycleScope
+import com.ai.phoneagent.core.agent.StepMetrics
 import com.ai.phoneagent.core.tools.AIToolHandler
 import com.ai.phoneagent.core.tools.ToolRegistration
 import com.ai.phoneagent.databinding.ActivityAutomationBinding
 import com.ai.phoneagent.net.AutoGlmClient
 import com.ai.phoneagent.speech.SherpaSpeechRecognizer
 import com.google.android.material.button.MaterialButton
+import java.io.File
 import kotlin.coroutines.resume
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
@@ -348,7 +350,7 @@ class AutomationActivityNew : AppCompatActivity() {
         agentJob =
                 lifecycleScope.launch {
                     try {
-                        val agent = UiAutomationAgent()
+                        val agent = UiAutomationAgent(traceDir = File(filesDir, "agent_traces"))
                         val result =
                                 agent.run(
                                         apiKey = apiKey,
@@ -388,6 +390,7 @@ class AutomationActivityNew : AppCompatActivity() {
                                                 },
                                         onLog = { msg -> appendLog(msg) },
                                 )
+                        StepMetrics.summarize(agent.lastRunMetrics)?.let { appendLog(it.format()) }
                         appendLog("结束：${result.message}（steps=${result.steps}）")
                         AutomationOverlay.complete(result.message)
                     } catch (e: Exception) {
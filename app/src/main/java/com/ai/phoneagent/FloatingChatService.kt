@@ -30,6 +30,7 @@ import android.view.animation.AccelerateInterpolator
 import android.view.animation.OvershootInterpolator
 import android.view.ContextThemeWrapper
 import com.ai.phoneagent.R
+import com.ai.phoneagent.data.ConversationStore
 import com.ai.phoneagent.helper.StreamRenderHelper
 import com.ai.phoneagent.net.AutoGlmClient
 import android.view.inputmethod.InputMethodManager
@@ -163,8 +164,9 @@ class FloatingChatService : Service() {
     // 窗口参数
     private var layoutParams: WindowManager.LayoutParams? = null
     
-    // 消息列表
+    // 消息列表（逐条写入 ConversationStore）
     private val messages = mutableListOf<String>()
+    private val conversationStore by lazy { ConversationStore.getInstance(this) }
     private val chatHistory = mutableListOf<ChatRequestMessage>()  // 用于 AI 对话上下文
     
     // 回调
@@ -232,14 +234,12 @@ class FloatingChatService : Service() {
         intent?.getStringArrayListExtra("messages")?.let {
             messages.clear()
             messages.addAll(it)
+            conversationStore.replaceFloatingMessages(it)
             // 从消息中恢复聊天历史
             restoreChatHistory(it)
         } ?: run {
-            // 如果没有传入消息，从本地存储恢复
-            restoreMessagesFromPrefs()
-            if (messages.isNotEmpty()) {
-                restoreChatHistory(messages)
-            }
+            // 如果没有传入消息，在后台从本地存储恢复
+            restoreMessagesFromStore()
         }
         
         // 获取初始位置和尺寸
@@ -275,7 +275,6 @@ class FloatingChatService : Service() {
         serviceScope.cancel()  // 取消协程
         hideFloatingWindow()
         saveWindowState()
-        saveMessagesToPrefs()  // 保存消息到本地存储
     }
 
     private fun scheduleStopAfterReturnTimeout() {
@@ -981,6 +980,7 @@ class FloatingChatService : Service() {
                             }
                             if (messages.lastOrNull()?.startsWith("Aries:") == true) {
                                 messages.removeAt(messages.size - 1)
+                                conversationStore.removeLastFloatingMessage()
                             }
                             
                             // 重试请求
@@ -1008,7 +1008,7 @@ class FloatingChatService : Service() {
                     if (delta.isNotBlank() && vh != null) {
                         reasoningSb.append(delta)
                         Handler(Looper.getMainLooper()).post {
-                            StreamRenderHelper.processReasoningDelta(vh, delta, serviceScope) {
+                            StreamRenderHelper.processReasoningDelta(vh, delta) {
                                 floatingView?.findViewById<ScrollView>(R.id.scrollArea)?.fullScroll(View.FOCUS_DOWN)
                             }
                         }
@@ -1021,7 +1021,6 @@ class FloatingChatService : Service() {
                             StreamRenderHelper.processContentDelta(
                                 vh,
                                 delta,
-                                serviceScope,
                                 this@FloatingChatService,
                                 onScroll = {
                                     floatingView?.findViewById<ScrollView>(R.id.scrollArea)?.fullScroll(View.FOCUS_DOWN)
@@ -1060,8 +1059,7 @@ class FloatingChatService : Service() {
                     answerContent
                 }
                 
-                messages.add("Aries: $persistText")
-                saveMessagesToPrefs()
+                recordMessage("Aries: $persistText")
                 
                 chatHistory.add(ChatRequestMessage(role = "assistant", content = persistText))
             }
@@ -1096,7 +1094,7 @@ class FloatingChatService : Service() {
     fun appendExternalReasoningDelta(delta: String) {
         val vh = currentStreamViewHolder ?: return
         Handler(Looper.getMainLooper()).post {
-             StreamRenderHelper.processReasoningDelta(vh, delta, serviceScope) {
+             StreamRenderHelper.processReasoningDelta(vh, delta) {
                  floatingView?.findViewById<ScrollView>(R.id.scrollArea)?.fullScroll(View.FOCUS_DOWN)
              }
         }
@@ -1109,7 +1107,6 @@ class FloatingChatService : Service() {
             StreamRenderHelper.processContentDelta(
                 vh,
                 delta,
-                serviceScope,
                 this@FloatingChatService,
                 onScroll = {
                     floatingView?.findViewById<ScrollView>(R.id.scrollArea)?.fullScroll(View.FOCUS_DOWN)
@@ -1147,8 +1144,7 @@ class FloatingChatService : Service() {
                  finalContent
              }
              
-             messages.add("Aries: $persistText")
-             saveMessagesToPrefs()
+             recordMessage("Aries: $persistText")
         }
     }
 
@@ -1328,12 +1324,9 @@ class FloatingChatService : Service() {
      * @param isThinking 是否是"思考中"消息（不同步）
      */
     fun addMessage(message: String, isUser: Boolean = false, isThinking: Boolean = false) {
-        messages.add(message)
+        recordMessage(message)
         updateMessagesUI()
         
-        // 持久化消息到 SharedPreferences
-        saveMessagesToPrefs()
-        
         // 同步消息到主界面（不同步"思考中"消息）
         if (!isThinking) {
             val listener = messageSyncListener
@@ -1348,32 +1341,30 @@ class FloatingChatService : Service() {
     }
     
     /**
-     * 保存消息到本地存储
+     * 记录一条消息，并只把这一条追加到本地存储
      */
-    private fun saveMessagesToPrefs() {
-        try {
-            val json = com.google.gson.Gson().toJson(messages)
-            prefs.edit()
-                .putString("floating_messages", json)
-                .putLong("floating_messages_updated_at", System.currentTimeMillis())
-                .apply()
-        } catch (e: Exception) {
-            // ignore
-        }
+    private fun recordMessage(message: String) {
+        messages.add(message)
+        conversationStore.appendFloatingMessage(message)
     }
     
     /**
-     * 从本地存储恢复消息
+     * 从本地存储恢复消息（不阻塞主线程），恢复后重建聊天历史并刷新界面
+     *
+     * 读取立即排入存储线程，之后新记录的消息不在读取结果中，历史放在它们之前。
      */
-    private fun restoreMessagesFromPrefs() {
-        try {
-            val json = prefs.getString("floating_messages", null) ?: return
-            val type = object : com.google.gson.reflect.TypeToken<List<String>>() {}.type
-            val list: List<String> = com.google.gson.Gson().fromJson(json, type) ?: emptyList()
-            messages.clear()
-            messages.addAll(list)
-        } catch (e: Exception) {
-            // ignore
+    private fun restoreMessagesFromStore() {
+        messages.clear()
+        serviceScope.launch(start = CoroutineStart.UNDISPATCHED) {
+            val list = try {
+                conversationStore.loadFloatingMessages()
+            } catch (e: Exception) {
+                return@launch
+            }
+            if (list.isEmpty()) return@launch
+            messages.addAll(0, list)
+            restoreChatHistory(messages)
+            updateMessagesUI()
         }
     }
     
@@ -20,7 +20,6 @@ import android.graphics.drawable.Drawable
 import android.os.Bundle
 import android.text.Editable
 import android.text.TextWatcher
-import android.view.Gravity
 import android.view.MotionEvent
 import android.view.View
 import android.view.ViewGroup
@@ -50,9 +49,11 @@ import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.ItemTouchHelper
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
+import com.ai.phoneagent.data.ConversationStore
 import com.ai.phoneagent.databinding.ActivityMainBinding
 import com.ai.phoneagent.net.AutoGlmClient
 import com.ai.phoneagent.net.ChatRequestMessage
+import com.ai.phoneagent.ui.ChatTranscriptAdapter
 import com.ai.phoneagent.updates.ReleaseRepository
 import com.ai.phoneagent.updates.ReleaseEntry
 import com.ai.phoneagent.updates.ReleaseUiUtil
@@ -95,16 +96,28 @@ class MainActivity : AppCompatActivity() {
             var title: String,
             val messages: MutableList<UiMessage>,
             var updatedAt: Long,
+            // 消息总数；从存储恢复的对话先只有对话头，messages 在打开时只读取末尾一页
+            var messageCount: Int = messages.size,
+            var messagesLoaded: Boolean = true,
+            // messages 中最早一条在存储中的 seq，向上滚动时从这里往前分页
+            var oldestLoadedSeq: Long = Long.MAX_VALUE,
     )
 
     private lateinit var binding: ActivityMainBinding
 
     private val prefs by lazy { getSharedPreferences("app_prefs", MODE_PRIVATE) }
 
+    private val conversationStore by lazy { ConversationStore.getInstance(this) }
+
     private val conversations = mutableListOf<Conversation>()
 
     private var activeConversation: Conversation? = null
 
+    // 启动时在后台恢复对话，未完成前依赖当前对话的操作需等待
+    private var restoreJob: Job? = null
+
+    private var loadingOlderMessages = false
+
     private var sherpaSpeechRecognizer: SherpaSpeechRecognizer? = null
 
     private var isListening = false
@@ -115,8 +128,7 @@ class MainActivity : AppCompatActivity() {
 
     private var micAnimator: ObjectAnimator? = null
 
-    private var thinkingView: View? = null
-    private var thinkingTextView: TextView? = null
+    private lateinit var transcript: ChatTranscriptAdapter
 
     // 防止并发请求导致重试时更容易出现空回复/失败提示
     private var isRequestInFlight: Boolean = false
@@ -138,7 +150,11 @@ class MainActivity : AppCompatActivity() {
     private val NOTIFICATION_PERMISSION_REQUEST_CODE = 1235
     private var pendingEnterMiniWindowAfterNotifPerm: Boolean = false
 
-    private val conversationsKey = "conversations_json"
+    // 打开对话时读取的末尾消息数，也是向上滚动时每页读取的条数
+    private val MESSAGE_PAGE_SIZE = 30
+    // 第一条可见消息的位置不大于此值时预加载更早的消息
+    private val LOAD_OLDER_THRESHOLD = 5
+
     private val activeConversationIdKey = "active_conversation_id"
 
     @Volatile private var remoteApiOk: Boolean? = null
@@ -156,33 +172,119 @@ class MainActivity : AppCompatActivity() {
     @Volatile private var suppressApiInputWatcher: Boolean = false
     @Volatile private var apiNeedsRecheckToastShown: Boolean = false
 
-    private fun persistConversations() {
-        try {
-            val json = com.google.gson.Gson().toJson(conversations)
-            prefs.edit()
-                    .putString(conversationsKey, json)
-                    .putLong(activeConversationIdKey, activeConversation?.id ?: -1L)
-                    .apply()
-        } catch (_: Exception) {
+    private fun persistActiveConversationId() {
+        prefs.edit().putLong(activeConversationIdKey, activeConversation?.id ?: -1L).apply()
+    }
+
+    /** 向对话追加一条消息，存储中只写入这一条 */
+    private fun appendToConversation(c: Conversation, message: UiMessage) {
+        c.messages.add(message)
+        c.messageCount++
+        c.updatedAt = System.currentTimeMillis()
+        conversationStore.appendMessage(
+                conversationId = c.id,
+                title = c.title,
+                updatedAt = c.updatedAt,
+                author = message.author,
+                content = message.content,
+                isUser = message.isUser,
+        )
+    }
+
+    private suspend fun loadMessagePage(c: Conversation, beforeSeq: Long): List<ConversationStore.Message> =
+        runCatching {
+            conversationStore.loadMessages(c.id, beforeSeq = beforeSeq, limit = MESSAGE_PAGE_SIZE)
+        }.getOrDefault(emptyList())
+
+    /** 切换到对话；未打开过的对话先在后台读取末尾一页消息 */
+    private suspend fun openConversation(c: Conversation) {
+        activeConversation = c
+        persistActiveConversationId()
+        if (!c.messagesLoaded) {
+            transcript.clear()
+            val tail = loadMessagePage(c, Long.MAX_VALUE)
+            if (c.messagesLoaded) return
+            // 读取期间可能已追加了新消息，历史放在它们之前
+            c.messages.addAll(0, tail.map { UiMessage(author = it.author, content = it.content, isUser = it.isUser) })
+            c.oldestLoadedSeq = tail.firstOrNull()?.seq ?: Long.MAX_VALUE
+            if (tail.isEmpty()) c.messageCount = c.messages.size
+            c.messagesLoaded = true
+            if (activeConversation !== c) return
         }
+        renderConversation(c)
     }
 
-    private fun tryRestoreConversations(): Boolean {
-        val json = prefs.getString(conversationsKey, null) ?: return false
-        return try {
-            val type = object : com.google.gson.reflect.TypeToken<List<Conversation>>() {}.type
-            val list: List<Conversation> = com.google.gson.Gson().fromJson(json, type) ?: emptyList()
-            conversations.clear()
-            conversations.addAll(list.toMutableList())
+    /**
+     * 后台恢复对话：先读对话头，再只读当前对话末尾一页，首帧不等待存储
+     */
+    private fun restoreConversationsAsync() {
+        restoreJob = lifecycleScope.launch {
+            val headers =
+                runCatching { conversationStore.loadHeaders() }
+                    .getOrDefault(emptyList())
+
+            // 恢复期间用户可能已开始新对话，保留它并把历史对话排在后面
+            val current = activeConversation
+            headers.filter { it.id != current?.id }.mapTo(conversations) { h ->
+                Conversation(
+                        id = h.id,
+                        title = h.title,
+                        messages = mutableListOf(),
+                        updatedAt = h.updatedAt,
+                        messageCount = h.messageCount,
+                        messagesLoaded = false,
+                )
+            }
+            if (current != null) return@launch
 
+            if (conversations.isEmpty()) {
+                startNewChat(clearUi = true)
+                return@launch
+            }
             val activeId = prefs.getLong(activeConversationIdKey, -1L)
-            activeConversation = conversations.firstOrNull { it.id == activeId } ?: conversations.firstOrNull()
+            openConversation(conversations.firstOrNull { it.id == activeId } ?: conversations.first())
+        }
+    }
 
-            binding.messagesContainer.removeAllViews()
-            activeConversation?.let { renderConversation(it) }
-            true
-        } catch (_: Exception) {
-            false
+    /** 在对话恢复完成后执行（已完成则立即执行） */
+    private fun afterRestore(block: () -> Unit) {
+        val job = restoreJob
+        if (job == null || job.isCompleted) {
+            block()
+        } else {
+            lifecycleScope.launch {
+                job.join()
+                block()
+            }
+        }
+    }
+
+    /** 向上滚动接近顶部时，读取当前对话更早的一页消息插到列表顶部 */
+    private fun loadOlderMessages() {
+        val c = activeConversation ?: return
+        if (loadingOlderMessages || !c.messagesLoaded || c.messages.size >= c.messageCount) return
+        loadingOlderMessages = true
+        lifecycleScope.launch {
+            val page = loadMessagePage(c, c.oldestLoadedSeq)
+            loadingOlderMessages = false
+            if (activeConversation !== c) return@launch
+            if (page.isEmpty()) {
+                c.messageCount = c.messages.size
+                return@launch
+            }
+            val older = page.map { UiMessage(author = it.author, content = it.content, isUser = it.isUser) }
+            c.messages.addAll(0, older)
+            c.oldestLoadedSeq = page.first().seq
+
+            // 插入后保持当前可见的消息不动
+            val list = binding.messagesList
+            val lm = list.layoutManager as LinearLayoutManager
+            val first = lm.findFirstVisibleItemPosition()
+            val top = if (first != RecyclerView.NO_POSITION) lm.findViewByPosition(first)?.top ?: 0 else 0
+            transcript.prepend(toTranscriptItems(older))
+            if (first != RecyclerView.NO_POSITION) {
+                lm.scrollToPositionWithOffset(first + older.size, top - list.paddingTop)
+            }
         }
     }
 
@@ -210,9 +312,9 @@ class MainActivity : AppCompatActivity() {
 
         elevateAiBar()
 
-        if (!tryRestoreConversations()) {
-            startNewChat(clearUi = true)
-        }
+        setupTranscript()
+
+        restoreConversationsAsync()
 
         binding.topAppBar.post { attachAnimatedBorderRing(binding.topAppBar, 2f, 18f) }
         binding.inputContainer.post { attachAnimatedBorderRing(binding.inputContainer, 2f, 20f) }
@@ -617,37 +719,39 @@ class MainActivity : AppCompatActivity() {
             override fun onMessageAdded(message: String, isUser: Boolean) {
                 // 在主线程更新 UI
                 runOnUiThread {
-                    val c = requireActiveConversation()
-                    val content =
-                        message
-                            .removePrefix("我: ")
-                            .removePrefix("AI: ")
-                            .removePrefix("Aries: ")
-                    val author = if (isUser) "我" else "Aries AI"
-                    
-                    // 检查是否已存在该消息（避免重复）
-                    val exists = c.messages.any { it.content == content && it.isUser == isUser }
-                    if (!exists) {
-                        c.messages.add(UiMessage(author = author, content = content, isUser = isUser))
-                        c.updatedAt = System.currentTimeMillis()
-                        if (isUser) {
-                            appendComplexUserMessage(author, content, animate = false)
-                        } else {
-                            appendComplexAiMessage(author, content, animate = false, timeCostMs = 0)
-                        }
-                        persistConversations()
-                    }
+                    afterRestore { onFloatingMessageAdded(message, isUser) }
                 }
             }
             
             override fun onMessagesCleared() {
                 runOnUiThread {
-                    binding.messagesContainer.removeAllViews()
+                    transcript.clear()
                 }
             }
         })
     }
     
+    private fun onFloatingMessageAdded(message: String, isUser: Boolean) {
+        val c = requireActiveConversation()
+        val content =
+            message
+                .removePrefix("我: ")
+                .removePrefix("AI: ")
+                .removePrefix("Aries: ")
+        val author = if (isUser) "我" else "Aries AI"
+
+        // 检查是否已存在该消息（避免重复）
+        val exists = c.messages.any { it.content == content && it.isUser == isUser }
+        if (!exists) {
+            appendToConversation(c, UiMessage(author = author, content = content, isUser = isUser))
+            if (isUser) {
+                appendComplexUserMessage(content, animate = false)
+            } else {
+                appendComplexAiMessage(author, content)
+            }
+        }
+    }
+
     /**
      * 处理从悬浮窗返回的动画和消息同步
      */
@@ -675,41 +779,37 @@ class MainActivity : AppCompatActivity() {
                 .start()
         }
 
-        // 同步悬浮窗中的消息到主界面
-        syncMessagesFromFloatingWindow()
+        // 同步悬浮窗中的消息到主界面（需等当前对话恢复完成）
+        afterRestore { syncMessagesFromFloatingWindow() }
     }
     
     /**
      * 从悬浮窗同步消息到主界面
      */
     private fun syncMessagesFromFloatingWindow() {
-        val c = requireActiveConversation()
-        var floatingMessages: List<String>? = null
-
         // 首先尝试从运行中的服务获取消息
-        val floatingService = FloatingChatService.getInstance()
-        if (floatingService != null) {
-            floatingMessages = floatingService.getMessages()
+        val fromService = FloatingChatService.getInstance()?.getMessages().orEmpty()
+        if (fromService.isNotEmpty()) {
+            applyFloatingMessages(fromService)
+            return
         }
 
-        // 如果服务未运行，从 SharedPreferences 恢复消息
-        if (floatingMessages == null || floatingMessages.isEmpty()) {
-            try {
-                val floatingPrefs = getSharedPreferences("floating_chat_prefs", MODE_PRIVATE)
-                val json = floatingPrefs.getString("floating_messages", null)
-                if (json != null) {
-                    val type = object : com.google.gson.reflect.TypeToken<List<String>>() {}.type
-                    floatingMessages = com.google.gson.Gson().fromJson(json, type) ?: emptyList()
-                }
-            } catch (e: Exception) {
-                floatingMessages = emptyList()
-            }
+        // 如果服务未运行，在后台从存储恢复消息
+        lifecycleScope.launch {
+            val stored = runCatching { conversationStore.loadFloatingMessages() }.getOrDefault(emptyList())
+            applyFloatingMessages(stored)
         }
+    }
 
-        if (floatingMessages?.isEmpty() != false) return
+    /**
+     * 把悬浮窗消息合并到当前对话，完成后清空悬浮窗消息存储
+     */
+    private fun applyFloatingMessages(floatingMessages: List<String>) {
+        if (floatingMessages.isEmpty()) return
+        val c = requireActiveConversation()
 
         // 解析悬浮窗消息并添加到当前对话
-        for (msg in floatingMessages.orEmpty()) {
+        for (msg in floatingMessages) {
             val isUser = msg.startsWith("我:") || msg.startsWith("我: ")
             val content =
                 msg.removePrefix("我: ")
@@ -727,7 +827,7 @@ class MainActivity : AppCompatActivity() {
             val exists = c.messages.any { it.content == content && it.isUser == isUser }
             if (!exists) {
                 val author = if (isUser) "我" else "Aries AI"
-                c.messages.add(UiMessage(author = author, content = content, isUser = isUser))
+                appendToConversation(c, UiMessage(author = author, content = content, isUser = isUser))
             }
         }
 
@@ -735,15 +835,9 @@ class MainActivity : AppCompatActivity() {
 
         // 重新渲染对话
         renderConversation(c)
-        persistConversations()
 
         // 清空浮窗消息存储（已同步完成）
-        try {
-            val floatingPrefs = getSharedPreferences("floating_chat_prefs", MODE_PRIVATE)
-            floatingPrefs.edit().remove("floating_messages").apply()
-        } catch (e: Exception) {
-            // ignore
-        }
+        conversationStore.clearFloatingMessages()
     }
     
     /**
@@ -1385,9 +1479,7 @@ class MainActivity : AppCompatActivity() {
 
             val imeVisible = insets.isVisible(WindowInsetsCompat.Type.ime())
             if (imeVisible && !lastImeVisible) {
-                binding.scrollArea.post {
-                    binding.scrollArea.smoothScrollTo(0, binding.messagesContainer.height)
-                }
+                smoothScrollToBottom()
             }
             lastImeVisible = imeVisible
 
@@ -1429,7 +1521,7 @@ class MainActivity : AppCompatActivity() {
         
         if (clearUi) {
             // 逐步缩小收敛一气呵成向上收缩：不再只是平移，而是带有一种“消失”的速度感
-            binding.messagesContainer.animate()
+            binding.messagesList.animate()
                 .translationY(-1000f) // 冲刺距离加大，一气呵成
                 .scaleX(0.6f)         // 收缩更明显
                 .scaleY(0.6f)
@@ -1437,15 +1529,15 @@ class MainActivity : AppCompatActivity() {
                 .setDuration(400)      // 稍微加快，更显果断
                 .setInterpolator(AccelerateInterpolator(1.8f)) // 纯加速，无回弹
                 .withEndAction {
-                    binding.messagesContainer.removeAllViews()
+                    transcript.clear()
                     
                     // 状态瞬间回位
-                    binding.messagesContainer.translationY = 0f
-                    binding.messagesContainer.scaleX = 1f
-                    binding.messagesContainer.scaleY = 1f
+                    binding.messagesList.translationY = 0f
+                    binding.messagesList.scaleX = 1f
+                    binding.messagesList.scaleY = 1f
                     
                     // 新对话界面原地极其自然地透出来
-                    binding.messagesContainer.animate()
+                    binding.messagesList.animate()
                         .alpha(1.0f)
                         .setDuration(500)
                         .setInterpolator(DecelerateInterpolator())
@@ -1453,7 +1545,8 @@ class MainActivity : AppCompatActivity() {
                 }
                 .start()
         }
-        persistConversations()
+        conversationStore.saveHeader(c.id, c.title, c.updatedAt)
+        persistActiveConversationId()
     }
 
     private fun requireActiveConversation(): Conversation {
@@ -1469,33 +1562,27 @@ class MainActivity : AppCompatActivity() {
                 )
     }
 
-    private fun renderConversation(conversation: Conversation) {
-        binding.messagesContainer.removeAllViews()
+    private fun toTranscriptItems(messages: List<UiMessage>): List<ChatTranscriptAdapter.Item> {
         var lastUserContent: String? = null
-        for (m in conversation.messages) {
-            // 历史消息全部使用新的复杂气泡（如果是AI），确保视觉风格统一
-            if (!m.isUser) {
-                // 无论是包含 <think> 还是普通消息，都使用 appendComplexAiMessage
-                // 使用 animate = false 立即显示
-                appendComplexAiMessage(
-                    m.author,
-                    m.content,
-                    animate = false,
-                    timeCostMs = 0,
-                    retryUserText = lastUserContent
-                )
-            } else {
+        return messages.map { m ->
+            // 历史 AI 消息统一使用复杂气泡，确保视觉风格统一
+            if (m.isUser) {
                 lastUserContent = m.content
-                appendComplexUserMessage(m.author, m.content, animate = false)
+                ChatTranscriptAdapter.Item.User(m.content)
+            } else {
+                ChatTranscriptAdapter.Item.Ai(m.author, m.content, retryUserText = lastUserContent)
             }
         }
-        
-        // 渲染完后滚动到底部
-        binding.messagesContainer.post {
-            (binding.messagesContainer.parent as? android.widget.ScrollView)?.smoothScrollTo(
-                0,
-                binding.messagesContainer.height
-            )
+    }
+
+    /** 渲染对话中已读入的消息（通常是末尾一页，更早的在向上滚动时加载） */
+    private fun renderConversation(conversation: Conversation) {
+        val items = toTranscriptItems(conversation.messages)
+        transcript.submit(items)
+
+        // 直接定位到底部，长对话不做逐屏的平滑滚动
+        if (items.isNotEmpty()) {
+            binding.messagesList.scrollToPosition(items.size - 1)
         }
     }
 
@@ -1523,11 +1610,9 @@ class MainActivity : AppCompatActivity() {
         }
         
         if (resendUser) {
-            c.messages.add(UiMessage(author = "我", content = text, isUser = true))
-            c.updatedAt = System.currentTimeMillis()
-            persistConversations()
+            appendToConversation(c, UiMessage(author = "我", content = text, isUser = true))
 
-            appendComplexUserMessage("我", text, animate = true)
+            appendComplexUserMessage(text, animate = true)
             
             // 同步消息到悬浮窗（如果运行中）
             if (FloatingChatService.isRunning()) {
@@ -1543,8 +1628,8 @@ class MainActivity : AppCompatActivity() {
         val startTime = System.currentTimeMillis()
 
         // 使用 StreamRenderHelper 绑定视图
-        val aiView = layoutInflater.inflate(R.layout.item_ai_message_complex, binding.messagesContainer, false)
-        binding.messagesContainer.addView(aiView)
+        val aiView = layoutInflater.inflate(R.layout.item_ai_message_complex, binding.messagesList, false)
+        transcript.appendLive(aiView)
         val vh = StreamRenderHelper.bindViews(aiView)
         StreamRenderHelper.initThinkingState(vh)
 
@@ -1617,7 +1702,7 @@ class MainActivity : AppCompatActivity() {
                                 reasoningSb.append(delta)
                                 runOnUiThread {
                                     // 使用新的处理方法
-                                    StreamRenderHelper.processReasoningDelta(vh, delta, lifecycleScope) {
+                                    StreamRenderHelper.processReasoningDelta(vh, delta) {
                                         smoothScrollToBottom()
                                     }
                                 }
@@ -1634,7 +1719,6 @@ class MainActivity : AppCompatActivity() {
                                     StreamRenderHelper.processContentDelta(
                                         vh, 
                                         delta, 
-                                        lifecycleScope,
                                         this@MainActivity,
                                         onScroll = { smoothScrollToBottom() },
                                         onPhaseChange = { isAnswerPhase ->
@@ -1701,9 +1785,18 @@ class MainActivity : AppCompatActivity() {
                 }
 
                 val cc = requireActiveConversation()
-                cc.messages.add(UiMessage(author = "Aries AI", content = persistContent, isUser = false))
-                cc.updatedAt = System.currentTimeMillis()
-                persistConversations()
+                appendToConversation(cc, UiMessage(author = "Aries AI", content = persistContent, isUser = false))
+
+                // 流式视图换成普通消息，之后可随列表复用
+                transcript.completeLive(
+                    ChatTranscriptAdapter.Item.Ai(
+                        author = "Aries AI",
+                        content = persistContent,
+                        retryUserText = text,
+                        timeCostSec = timeCost
+                    )
+                )
+                StreamRenderHelper.cleanup(vh)
 
             } finally {
                 isRequestInFlight = false
@@ -1763,478 +1856,112 @@ class MainActivity : AppCompatActivity() {
     }
 
     /**
-     * 解析并显示复杂的 AI 消息（包含思考过程）
-     * 支持淡蓝色液态玻璃框、思考过程折叠、打字机动画、丝滑滚动
+     * 追加一条已完成的 AI 消息（可包含 <think> 思考过程）
      */
     private fun appendComplexAiMessage(
         author: String,
         fullContent: String,
-        animate: Boolean,
-        timeCostMs: Long,
         retryUserText: String? = null
     ) {
-        // 1. Inflate 复杂布局
-        val view = layoutInflater.inflate(R.layout.item_ai_message_complex, binding.messagesContainer, false)
-        binding.messagesContainer.addView(view)
-        
-        val thinkingLayout = view.findViewById<LinearLayout>(R.id.thinking_layout)
-        val thinkingHeader = view.findViewById<LinearLayout>(R.id.thinking_header)
-        val thinkingText = view.findViewById<TextView>(R.id.thinking_text)
-        val thinkingIndicator = view.findViewById<TextView>(R.id.thinking_indicator_text)
-        val messageContent = view.findViewById<TextView>(R.id.message_content)
-        val authorName = view.findViewById<TextView>(R.id.ai_author_name)
-        
-        // 解析内容
-        val thinkRegex = "<think>([\\s\\S]*?)</think>([\\s\\S]*)".toRegex()
-        val match = thinkRegex.find(fullContent)
-        
-        val thinkContent = match?.groupValues?.get(1)?.trim()
-        val realContent = match?.groupValues?.get(2)?.trim() ?: fullContent
-        
-        // 设置作者名
-        authorName.text = if (author == "Aries") "Aries AI" else author
-        authorName.visibility = View.VISIBLE
-        
-        // 设置思考部分交互
-        if (!thinkContent.isNullOrBlank()) {
-            thinkingLayout.visibility = View.VISIBLE
-            val seconds = (timeCostMs / 1000).coerceAtLeast(1)
-            val headerTitle = thinkingHeader.getChildAt(0) as TextView
-            headerTitle.text = "已思考 (用时 ${seconds} 秒)"
-            
-            var isExpanded = true
-            thinkingHeader.setOnClickListener {
-                isExpanded = !isExpanded
-                if (isExpanded) {
-                    thinkingText.visibility = View.VISIBLE
-                    thinkingIndicator.text = " ⌄" // Down arrow (expanded)
-                    (view.findViewById<View>(R.id.thinking_content_area)).visibility = View.VISIBLE
-                } else {
-                    thinkingText.visibility = View.GONE
-                    thinkingIndicator.text = " ›" // Right arrow (collapsed)
-                    (view.findViewById<View>(R.id.thinking_content_area)).visibility = View.GONE
-                }
-            }
-        } else {
-            thinkingLayout.visibility = View.GONE
-        }
-        
+        transcript.append(ChatTranscriptAdapter.Item.Ai(author, fullContent, retryUserText))
         smoothScrollToBottom()
-
-        if (!animate) {
-            if (!thinkContent.isNullOrBlank()) {
-                StreamRenderHelper.applyMarkdownToHistory(thinkingText, thinkContent)
-            }
-            StreamRenderHelper.applyMarkdownToHistory(messageContent, realContent)
-            view.findViewById<View>(R.id.action_area).visibility = View.VISIBLE
-
-            val btnCopy = view.findViewById<View>(R.id.btn_copy)
-            btnCopy.setOnClickListener {
-                val cm = getSystemService(android.content.Context.CLIPBOARD_SERVICE) as android.content.ClipboardManager
-                val clip = android.content.ClipData.newPlainText("AI Reply", realContent)
-                cm.setPrimaryClip(clip)
-                Toast.makeText(this@MainActivity, "已复制内容", Toast.LENGTH_SHORT).show()
-            }
-
-            val btnRetry = view.findViewById<View>(R.id.btn_retry)
-            btnRetry.setOnClickListener {
-                val retryText = retryUserText ?: activeConversation?.messages?.findLast { it.isUser }?.content
-                if (!retryText.isNullOrBlank()) {
-                    sendMessage(retryText, resendUser = false)
-                } else {
-                    Toast.makeText(this@MainActivity, "未找到可重试的用户问题", Toast.LENGTH_SHORT).show()
-                }
-            }
-            return
-        }
-        
-        // 动画显示逻辑
-        lifecycleScope.launch {
-            // 1. 如果有思考内容，先播放思考打字机
-            if (!thinkContent.isNullOrBlank()) {
-                val sb = StringBuilder()
-                val chunkSize = 5
-                var index = 0
-                while (index < thinkContent.length) {
-                    val end = minOf(index + chunkSize, thinkContent.length)
-                    sb.append(thinkContent.substring(index, end))
-                    thinkingText.text = sb.toString()
-                    index = end
-                    
-                    smoothScrollToBottom()
-                    delay(10) // 思考过程刷快一点
-                }
-                thinkingText.text = thinkContent // 确保完整
-                delay(200) // 思考完停顿一下
-            }
-            
-            // 2. 播放正文打字机
-            val sb = StringBuilder()
-            val chunkSize = 2 // 正文稍微慢一点，更像打字
-            var index = 0
-            while (index < realContent.length) {
-                val end = minOf(index + chunkSize, realContent.length)
-                val chunk = realContent.substring(index, end)
-                sb.append(chunk)
-                messageContent.text = sb.toString()
-                index = end
-                
-                smoothScrollToBottom()
-                
-                // 根据标点调整节奏
-                val lastChar = chunk.lastOrNull() ?: ' '
-                val d = when (lastChar) {
-                    '。', '！', '？', '\n' -> 50L
-                    '，', '；' -> 30L
-                    else -> 10L // 默认很快，丝滑
-                }
-                delay(d)
-            }
-            messageContent.text = realContent
-            
-            // 动画结束后显示底部操作栏（分割线+复制/重试）
-            val actionArea = view.findViewById<View>(R.id.action_area)
-            actionArea.visibility = View.VISIBLE
-            smoothScrollToBottom()
-        }
-        
-        // 绑定复制和重试按钮事件
-        val btnCopy = view.findViewById<View>(R.id.btn_copy)
-        btnCopy.setOnClickListener {
-            val cm = getSystemService(android.content.Context.CLIPBOARD_SERVICE) as android.content.ClipboardManager
-            // 复制时是否包含思考过程？Aries AI 默认只复制正文
-            val clip = android.content.ClipData.newPlainText("AI Reply", realContent)
-            cm.setPrimaryClip(clip)
-            Toast.makeText(this@MainActivity, "已复制内容", Toast.LENGTH_SHORT).show()
-        }
-
-        val btnRetry = view.findViewById<View>(R.id.btn_retry)
-        btnRetry.setOnClickListener {
-            // 重试逻辑：获取上一条用户消息，重新发送
-            val retryText = retryUserText ?: activeConversation?.messages?.findLast { it.isUser }?.content
-            if (!retryText.isNullOrBlank()) {
-                sendMessage(retryText, resendUser = false)
-            } else {
-                Toast.makeText(this@MainActivity, "未找到可重试的用户问题", Toast.LENGTH_SHORT).show()
-            }
-        }
-        
-        if (!animate) {
-            // 如果非动画模式（如历史记录），直接显示操作栏
-            view.findViewById<View>(R.id.action_area).visibility = View.VISIBLE
-        }
-    }
-    
-    /**
-     * 丝滑滚动到底部
-     */
-    private fun smoothScrollToBottom() {
-        binding.messagesContainer.post {
-            val scrollView = binding.messagesContainer.parent as? android.widget.ScrollView ?: return@post
-            // 检查是否需要滚动：如果已经在底部附近，则跟随滚动
-            val viewHeight = binding.messagesContainer.height
-            val scrollViewHeight = scrollView.height
-            val scrollY = scrollView.scrollY
-            
-            // 容差值，判定是否在底部
-            val isAtBottom = (viewHeight - (scrollY + scrollViewHeight)) < 300 
-            
-            // 强制滚动，或者仅当用户没往回滚时滚动？
-            // 用户要求“同步下移”，通常是强制跟随。
-            scrollView.smoothScrollTo(0, viewHeight)
-        }
-    }
-
-    /**
-     * 重新进入页面时，确保所有已渲染的 AI 气泡都展示底部操作区（复制/重试）。
-     * 某些情况下（如动画被打断或 Activity 复用）action_area 可能保持 GONE 状态。
-     */
-    private fun revealActionAreasForMessages() {
-        val container = binding.messagesContainer
-        for (i in 0 until container.childCount) {
-            val child = container.getChildAt(i)
-            val actionArea = child.findViewById<View?>(R.id.action_area)
-            // thinking 占位或非标准布局可能没有 action_area，这里仅对存在的进行显隐修正
-            if (actionArea != null && actionArea.visibility != View.VISIBLE) {
-                actionArea.visibility = View.VISIBLE
-            }
-        }
     }
 
     /**
      * 用户消息复杂气泡：淡水蓝背景，右侧对齐，并与底部输入栏左右边界保持一致。
      */
-    private fun appendComplexUserMessage(author: String, content: String, animate: Boolean) {
-        val bubble = layoutInflater.inflate(R.layout.item_user_message_complex, binding.messagesContainer, false)
-        val tv = bubble.findViewById<TextView>(R.id.message_content)
-        val authorTv = bubble.findViewById<TextView>(R.id.user_author_name)
-        authorTv.text = author
-        authorTv.visibility = View.GONE
-
-        val density = resources.displayMetrics.density
-        fun dp(v: Int): Int = (v * density).toInt()
-
-        // 用 row 容器把气泡贴到右侧（row 宽度 match_parent）
-        val row = LinearLayout(this).apply {
-            orientation = LinearLayout.HORIZONTAL
-            gravity = Gravity.END
-        }
-
-        row.addView(
-            bubble,
-            LinearLayout.LayoutParams(
-                LinearLayout.LayoutParams.WRAP_CONTENT,
-                LinearLayout.LayoutParams.WRAP_CONTENT
-            ).apply {
-                // 左侧留出空间制造“对话层次”，右侧贴边由 row + ScrollView padding 保证
-                setMargins(dp(48), dp(8), 0, dp(8))
-            }
-        )
-
-        binding.messagesContainer.addView(
-            row,
-            LinearLayout.LayoutParams(
-                LinearLayout.LayoutParams.MATCH_PARENT,
-                LinearLayout.LayoutParams.WRAP_CONTENT
-            )
-        )
-
+    private fun appendComplexUserMessage(content: String, animate: Boolean) {
+        transcript.append(ChatTranscriptAdapter.Item.User(content, animate))
         smoothScrollToBottom()
-
-        if (!animate) {
-            tv.text = content
-            return
-        }
-
-        lifecycleScope.launch {
-            val sb = StringBuilder()
-            val chunkSize = 2
-            var idx = 0
-            while (idx < content.length) {
-                val end = minOf(idx + chunkSize, content.length)
-                sb.append(content.substring(idx, end))
-                tv.text = sb.toString()
-                idx = end
-                smoothScrollToBottom()
-                delay(10)
-            }
-            tv.text = content
-        }
     }
-    
+
     /**
-     * 【优化】使用StringBuilder批量更新方式显示消息
-    * 参考groupBy 算法，每次收到一点就拼接，然后刷新整个文本
+     * 初始化对话列表：RecyclerView 只为屏幕附近的消息创建视图，滚动时复用
      */
-    private fun appendMessageBatch(
-            author: String,
-            content: String,
-            isUser: Boolean,
-    ) {
-        val tv =
-                TextView(this).apply {
-                    text = "$author："
-                    setPadding(20, 12, 20, 12)
-                    background =
-                            ContextCompat.getDrawable(
-                                    this@MainActivity,
-                                    if (isUser) R.drawable.bg_user_bubble_water else R.drawable.bubble_bot
-                            )
-                    setTextColor(ContextCompat.getColor(this@MainActivity, R.color.blue_glass_text))
-                }
-
-        val lp =
-                LinearLayout.LayoutParams(
-                                LinearLayout.LayoutParams.WRAP_CONTENT,
-                                LinearLayout.LayoutParams.WRAP_CONTENT
-                        )
-                        .apply {
-                            setMargins(12, 8, 12, 8)
-                            gravity = if (isUser) Gravity.END else Gravity.START
+    private fun setupTranscript() {
+        transcript =
+            ChatTranscriptAdapter(
+                inflater = layoutInflater,
+                scope = lifecycleScope,
+                listener =
+                    object : ChatTranscriptAdapter.Listener {
+                        override fun onCopy(text: String) {
+                            val cm = getSystemService(android.content.Context.CLIPBOARD_SERVICE) as android.content.ClipboardManager
+                            // 复制时是否包含思考过程？Aries AI 默认只复制正文
+                            val clip = android.content.ClipData.newPlainText("AI Reply", text)
+                            cm.setPrimaryClip(clip)
+                            Toast.makeText(this@MainActivity, "已复制内容", Toast.LENGTH_SHORT).show()
                         }
 
-        binding.messagesContainer.addView(tv, lp)
-
-        binding.messagesContainer.post {
-            (binding.messagesContainer.parent as? android.widget.ScrollView)?.smoothScrollTo(
-                    0,
-                    binding.messagesContainer.height
-            )
-        }
-
-        // 使用StringBuilder批量构建文本，分块更新UI
-        lifecycleScope.launch {
-            val sb = StringBuilder("$author：")
-            val chunkSize = 5 // 每5个字符批量更新一次
-            var charIndex = 0
-            
-            while (charIndex < content.length) {
-                // 计算本次要添加的字符数
-                val endIndex = minOf(charIndex + chunkSize, content.length)
-                val chunk = content.substring(charIndex, endIndex)
-                sb.append(chunk)
-                
-                // 刷新整个文本到界面
-                tv.text = sb.toString()
-                
-                charIndex = endIndex
-                
-                // 根据标点符号调整延迟，让显示更自然
-                val lastChar = chunk.lastOrNull() ?: ' '
-                val delayMs = when (lastChar) {
-                    '。', '！', '？', '.', '!', '?' -> 80L
-                    '，', '、', '；', ',', ';', '：', ':' -> 50L
-                    '\n' -> 60L
-                    else -> 25L
-                }
-                delay(delayMs)
-            }
-            
-            // 最终滚动到底部
-            binding.messagesContainer.post {
-                (binding.messagesContainer.parent as? android.widget.ScrollView)?.smoothScrollTo(
-                        0,
-                        binding.messagesContainer.height
-                )
-            }
-        }
-    }
+                        override fun onRetry(retryUserText: String?) {
+                            // 重试逻辑：获取上一条用户消息，重新发送
+                            val retryText = retryUserText ?: activeConversation?.messages?.findLast { it.isUser }?.content
+                            if (!retryText.isNullOrBlank()) {
+                                sendMessage(retryText, resendUser = false)
+                            } else {
+                                Toast.makeText(this@MainActivity, "未找到可重试的用户问题", Toast.LENGTH_SHORT).show()
+                            }
+                        }
 
-    private fun appendMessageInstant(author: String, content: String, isUser: Boolean) {
-        val tv =
-                TextView(this).apply {
-                    text = "$author：$content"
-                    setPadding(20, 12, 20, 12)
-                    background =
-                            ContextCompat.getDrawable(
-                                    this@MainActivity,
-                                    if (isUser) R.drawable.bg_user_bubble_water else R.drawable.bubble_bot
-                            )
-                    setTextColor(ContextCompat.getColor(this@MainActivity, R.color.blue_glass_text))
-                }
-        val lp =
-                LinearLayout.LayoutParams(
-                                LinearLayout.LayoutParams.WRAP_CONTENT,
-                                LinearLayout.LayoutParams.WRAP_CONTENT
-                        )
-                        .apply {
-                            setMargins(12, 8, 12, 8)
-                            gravity = if (isUser) Gravity.END else Gravity.START
+                        override fun onContentGrow() {
+                            smoothScrollToBottom()
                         }
-        binding.messagesContainer.addView(tv, lp)
-        binding.messagesContainer.post {
-            (binding.messagesContainer.parent as? android.widget.ScrollView)?.smoothScrollTo(
-                    0,
-                    binding.messagesContainer.height
+                    }
             )
-        }
-    }
-
-    private fun appendMessageTyping(
-            author: String,
-            content: String,
-            isUser: Boolean,
-            natural: Boolean = false
-    ) {
-
-        val tv =
-                TextView(this).apply {
-                    text = "$author："
-
-                    setPadding(20, 12, 20, 12)
-
-                    background =
-                            ContextCompat.getDrawable(
-                                    this@MainActivity,
-                                    if (isUser) R.drawable.bg_user_bubble_water else R.drawable.bubble_bot
-                            )
-
-                    setTextColor(ContextCompat.getColor(this@MainActivity, R.color.blue_glass_text))
-                }
-
-        val lp =
-                LinearLayout.LayoutParams(
-                                LinearLayout.LayoutParams.WRAP_CONTENT,
-                                LinearLayout.LayoutParams.WRAP_CONTENT
-                        )
-                        .apply {
-                            setMargins(12, 8, 12, 8)
-
-                            gravity = if (isUser) Gravity.END else Gravity.START
+        binding.messagesList.apply {
+            layoutManager = LinearLayoutManager(this@MainActivity)
+            adapter = transcript
+            // 流式消息换成普通消息时不做交叉淡入，避免闪烁
+            (itemAnimator as? androidx.recyclerview.widget.SimpleItemAnimator)?.supportsChangeAnimations = false
+            // 多缓存几条离屏视图，来回小幅滚动时无需重新绑定
+            setItemViewCacheSize(6)
+            addOnScrollListener(
+                object : RecyclerView.OnScrollListener() {
+                    override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                        if (dy > 0) return
+                        val first = (recyclerView.layoutManager as LinearLayoutManager).findFirstVisibleItemPosition()
+                        if (first != RecyclerView.NO_POSITION && first <= LOAD_OLDER_THRESHOLD) {
+                            loadOlderMessages()
                         }
-
-        binding.messagesContainer.addView(tv, lp)
-
-        binding.messagesContainer.post {
-            (binding.messagesContainer.parent as? android.widget.ScrollView)?.smoothScrollTo(
-                    0,
-                    binding.messagesContainer.height
+                    }
+                }
             )
         }
+    }
 
-        lifecycleScope.launch {
-            for (i in 1..content.length) {
-
-                tv.text = "$author：${content.take(i)}"
-
-                val ch = content[i - 1]
-                val d =
-                        if (natural) {
-                            when (ch) {
-                                '。', '，', '、', '！', '？', '；', '.', ',', '!', '?', ';', '：', ':' ->
-                                        130L
-                                ' ' -> 30L
-                                else -> 28L
-                            }
-                        } else 12L
-                delay(d)
+    /**
+     * 丝滑滚动到底部：末尾消息在屏幕附近时平滑滚动，否则直接定位
+     */
+    private fun smoothScrollToBottom() {
+        val list = binding.messagesList
+        list.post {
+            val last = transcript.itemCount - 1
+            if (last < 0) return@post
+            val lastView = list.layoutManager?.findViewByPosition(last)
+            if (lastView == null) {
+                list.scrollToPosition(last)
+                return@post
             }
+            val lp = lastView.layoutParams as RecyclerView.LayoutParams
+            val delta = lastView.bottom + lp.bottomMargin - (list.height - list.paddingBottom)
+            if (delta > 0) list.smoothScrollBy(0, delta)
         }
     }
 
-    private fun showThinking() {
-        removeThinking()
-
-        val view = layoutInflater.inflate(R.layout.item_ai_message_complex, binding.messagesContainer, false)
-        val authorName = view.findViewById<TextView>(R.id.ai_author_name)
-        val messageContent = view.findViewById<TextView>(R.id.message_content)
-        val thinkingLayout = view.findViewById<View>(R.id.thinking_layout)
-        val actionArea = view.findViewById<View>(R.id.action_area)
-
-        authorName.text = "Aries AI"
-        authorName.visibility = View.VISIBLE
-        thinkingLayout.visibility = View.GONE
-        actionArea.visibility = View.GONE
-
-        messageContent.text = "正在思考"
-        messageContent.setTextColor(Color.parseColor("#80505050"))
-
-        binding.messagesContainer.addView(view)
-        thinkingView = view
-        thinkingTextView = messageContent
-
-        lifecycleScope.launch {
-            var n = 0
-            while (thinkingView === view) {
-                val dots = ".".repeat(n % 4)
-                thinkingTextView?.text = "正在思考$dots"
-                n++
-                delay(400)
+    /**
+     * 重新进入页面时，确保所有已渲染的 AI 气泡都展示底部操作区（复制/重试）。
+     * 某些情况下（如流式输出被打断或 Activity 复用）action_area 可能保持 GONE 状态。
+     */
+    private fun revealActionAreasForMessages() {
+        val list = binding.messagesList
+        for (i in 0 until list.childCount) {
+            val child = list.getChildAt(i)
+            val actionArea = child.findViewById<View?>(R.id.action_area)
+            // 用户气泡没有 action_area，这里仅对存在的进行显隐修正
+            if (actionArea != null && actionArea.visibility != View.VISIBLE) {
+                actionArea.visibility = View.VISIBLE
             }
         }
-        binding.messagesContainer.post {
-            (binding.messagesContainer.parent as? android.widget.ScrollView)?.smoothScrollTo(
-                    0,
-                    binding.messagesContainer.height
-            )
-        }
-    }
-
-    private fun removeThinking() {
-        val v = thinkingView ?: return
-        binding.messagesContainer.removeView(v)
-        thinkingView = null
-        thinkingTextView = null
     }
 
     private fun initSherpaModel() {
@@ -2440,7 +2167,7 @@ class MainActivity : AppCompatActivity() {
     }
 
     private fun showHistoryDialog() {
-        val displayed = conversations.filter { it.messages.isNotEmpty() }.toMutableList()
+        val displayed = conversations.filter { it.messageCount > 0 }.toMutableList()
         if (displayed.isEmpty()) {
             Toast.makeText(this, "暂无历史对话", Toast.LENGTH_SHORT).show()
             return
@@ -2472,9 +2199,7 @@ class MainActivity : AppCompatActivity() {
             ConversationAdapter(
                 items = displayed,
                 onClick = { conv ->
-                    activeConversation = conv
-                    renderConversation(conv)
-                    persistConversations()
+                    lifecycleScope.launch { openConversation(conv) }
                 }
             )
         rv.adapter = adapter
@@ -2512,13 +2237,13 @@ class MainActivity : AppCompatActivity() {
                         if (pos == RecyclerView.NO_POSITION) return
                         val removed = displayed.removeAt(pos)
                         conversations.removeAll { it.id == removed.id }
+                        conversationStore.deleteConversation(removed.id)
 
                         if (activeConversation?.id == removed.id) {
                             activeConversation = null
                             startNewChat(clearUi = true)
                         }
                         adapter.notifyItemRemoved(pos)
-                        persistConversations()
                     }
                 }
             )
@@ -2920,8 +2645,6 @@ class MainActivity : AppCompatActivity() {
 
         super.onStop()
 
-        persistConversations()
-
         stopLocalVoiceInput()
     }
 
@@ -2,6 +2,7 @@ package com.ai.phoneagent
 
 import android.accessibilityservice.AccessibilityService
 import android.accessibilityservice.GestureDescription
+import android.content.Intent
 import android.graphics.Bitmap
 import android.graphics.Path
 import android.graphics.Rect
@@ -13,24 +14,38 @@ import android.util.Base64
 import android.util.Log
 import android.view.accessibility.AccessibilityEvent
 import android.view.accessibility.AccessibilityNodeInfo
+import com.ai.phoneagent.core.cache.ScreenshotEncodePolicy
+import com.ai.phoneagent.core.cache.ScreenshotEncoder
+import com.ai.phoneagent.core.cache.UiElementIndex
+import com.ai.phoneagent.core.cache.UiTreeCompressor
+import com.ai.phoneagent.core.cache.UiTreeFetcher
+import com.ai.phoneagent.core.cache.UiTreeIndex
+import com.ai.phoneagent.core.cache.UiTreeNode
+import com.ai.phoneagent.core.cache.UiTreeSerializer
+import com.ai.phoneagent.core.config.AgentConfiguration
 import com.ai.phoneagent.ui.UIAutomationProgressOverlay
-import java.io.ByteArrayOutputStream
+import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
 import org.json.JSONArray
 import org.json.JSONObject
 import kotlin.coroutines.resume
+import kotlinx.coroutines.channels.BufferOverflow
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withTimeoutOrNull
 
 class PhoneAgentAccessibilityService : AccessibilityService() {
 
     companion object {
         @Volatile var instance: PhoneAgentAccessibilityService? = null
-        
-        // 截图压缩配置
-        private const val SCREENSHOT_QUALITY = 85  // JPEG质量 (0-100)
-        private const val SCREENSHOT_SCALE_PERCENT = 75  // 缩放百分比 (50-100)
-        private const val USE_JPEG_COMPRESSION = true  // 是否使用JPEG压缩
+
+        private const val WINDOW_EVENT_REPLAY = 32
+        // 元素等待的兜底检查间隔：部分应用内容变化时不发事件
+        private const val ELEMENT_FALLBACK_CHECK_MS = 1000L
         
         /**
          * 文本规范化：去除空白、繁简转换
@@ -66,30 +81,94 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
 
     private val mainHandler = Handler(Looper.getMainLooper())
 
+    // 截图回调线程：长期复用，编码器的缓冲区只在该线程上访问
+    private val screenshotExecutorDelegate = lazy {
+        Executors.newSingleThreadExecutor { r -> Thread(r, "aries-screenshot") }
+    }
+    private val screenshotExecutor: ExecutorService by screenshotExecutorDelegate
+    private val screenshotEncoder = ScreenshotEncoder()
+
+    // 当前任务的 Agent 配置，由 applyConfiguration 在任务开始时设置
+    private val configLock = Any()
+    @Volatile private var agentConfig: AgentConfiguration = AgentConfiguration.DEFAULT
+    // 未指定时使用当前配置中的截图预算/质量/缩放
+    @Volatile private var defaultEncodePolicy = ScreenshotEncodePolicy.fromConfig(agentConfig)
+
+    // 由无障碍事件增量维护的 UI 树快照，配置中相关参数变化时重建
+    @Volatile private var currentUiTreeIndex: UiTreeIndex? = null
+    private val uiTreeIndex: UiTreeIndex
+        get() = currentUiTreeIndex ?: synchronized(configLock) {
+            currentUiTreeIndex ?: createUiTreeIndex(agentConfig).also { currentUiTreeIndex = it }
+        }
+
+    private fun createUiTreeIndex(config: AgentConfiguration): UiTreeIndex =
+            UiTreeIndex(
+                    selfPackage = packageName,
+                    maxNodes = config.elementFindMaxNodes,
+                    maxAgeMs = config.uiTreeIndexMaxAgeMs,
+                    textNormalizer = { normalizeText(it) },
+                    fetcher = UiTreeFetcher(
+                            strategy = UiTreeFetcher.Strategy.fromName(config.uiTreeFetchStrategy),
+                            parallelism = config.uiTreeFetchParallelism,
+                    ),
+            )
+
+    /**
+     * 应用本次任务的 Agent 配置
+     *
+     * UI 树快照的节点上限、有效期、抓取策略或增量维护开关变化时丢弃旧快照，下次读取时按新配置完整重建；
+     * 增量维护关闭期间快照不接收事件，重新开启时同样需要重建。
+     */
+    fun applyConfiguration(config: AgentConfiguration) {
+        synchronized(configLock) {
+            val previous = agentConfig
+            agentConfig = config
+            defaultEncodePolicy = ScreenshotEncodePolicy.fromConfig(config)
+            if (previous.incrementalUiTree != config.incrementalUiTree ||
+                    previous.elementFindMaxNodes != config.elementFindMaxNodes ||
+                    previous.uiTreeIndexMaxAgeMs != config.uiTreeIndexMaxAgeMs ||
+                    previous.uiTreeFetchStrategy != config.uiTreeFetchStrategy ||
+                    previous.uiTreeFetchParallelism != config.uiTreeFetchParallelism
+            ) {
+                currentUiTreeIndex = null
+            }
+        }
+    }
+
+    // UI 树 XML/JSON 流式序列化，缓冲区在多次 dump 之间复用
+    private val uiTreeSerializer = UiTreeSerializer()
+
     @Volatile private var lastEventTimeMs: Long = 0L
     @Volatile private var lastWindowEventTimeMs: Long = 0L
+    @Volatile private var lastWindowStateEventTimeMs: Long = 0L
+    // 最近一次来自其他应用（非本应用悬浮窗/进度条）的窗口/内容变化事件时间
+    @Volatile private var lastForeignUiEventTimeMs: Long = 0L
 
-        private enum class UiDetailLevel { MINIMAL, SUMMARY, FULL }
-
-        private data class UiNodeSnapshot(
-            val nodeId: String,
-            val className: String,
-            val packageName: String,
-            val text: String?,
-            val contentDesc: String?,
-            val resourceId: String?,
-            val bounds: String,
-            val clickable: Boolean,
-            val enabled: Boolean,
-            val focused: Boolean,
-            val checkable: Boolean,
-            val checked: Boolean,
-            val selected: Boolean,
-            val scrollable: Boolean,
-            val longClickable: Boolean,
-            val editable: Boolean,
-            val children: List<UiNodeSnapshot>,
-        )
+    /**
+     * 窗口事件（从 AccessibilityEvent 中拷贝出的字段，事件对象本身会被系统回收）
+     */
+    data class WindowEvent(
+            val type: Int,
+            val packageName: String?,
+            val sourceClassName: String?,
+            val eventTimeMs: Long,
+    ) {
+        val isContentChange: Boolean
+            get() = type == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+
+        val isStateChange: Boolean
+            get() = type == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+    }
+
+    // 保留少量最近事件用于重放，避免“先检查时间戳、后订阅”之间漏掉事件
+    private val _windowEvents =
+            MutableSharedFlow<WindowEvent>(
+                    replay = WINDOW_EVENT_REPLAY,
+                    onBufferOverflow = BufferOverflow.DROP_OLDEST,
+            )
+
+    /** 窗口/内容变化事件流，由 onAccessibilityEvent 驱动 */
+    val windowEvents: SharedFlow<WindowEvent> = _windowEvents.asSharedFlow()
 
     override fun onServiceConnected() {
         super.onServiceConnected()
@@ -101,25 +180,59 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
     override fun onAccessibilityEvent(event: AccessibilityEvent?) {
         if (event == null) return
         lastEventTimeMs = event.eventTime
+        if (agentConfig.incrementalUiTree) {
+            uiTreeIndex.onEvent(event)
+        }
         when (event.eventType) {
             AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED,
             AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED,
             AccessibilityEvent.TYPE_WINDOWS_CHANGED -> {
                 lastWindowEventTimeMs = event.eventTime
+                if (event.eventType == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) {
+                    lastWindowStateEventTimeMs = event.eventTime
+                }
+                if (event.packageName?.toString() != packageName) {
+                    lastForeignUiEventTimeMs = event.eventTime
+                }
+                _windowEvents.tryEmit(
+                        WindowEvent(
+                                type = event.eventType,
+                                packageName = event.packageName?.toString(),
+                                sourceClassName = event.className?.toString(),
+                                eventTimeMs = event.eventTime,
+                        )
+                )
             }
         }
     }
 
     override fun onDestroy() {
         instance = null
+        if (screenshotExecutorDelegate.isInitialized()) {
+            screenshotExecutor.execute { screenshotEncoder.release() }
+            screenshotExecutor.shutdown()
+        }
         super.onDestroy()
     }
 
-    data class ScreenshotData(
+    /**
+     * 截图数据
+     * @param width 原始宽度（用于坐标计算）
+     * @param height 原始高度
+     * @param imageBytes 压缩后的图片字节，Base64 编码推迟到写入请求体时进行
+     * @param perceptualHash 截图内容的感知哈希，用于判断屏幕是否变化（容忍微小差异，仅作提示）
+     * @param contentHash 整屏像素的精确指纹，用于复用已编码图片
+     */
+    class ScreenshotData(
             val width: Int,
             val height: Int,
-            val base64Png: String,
-    )
+            val imageBytes: ByteArray,
+            val mimeType: String = "image/jpeg",
+            val perceptualHash: Long = 0L,
+            val contentHash: Long = 0L,
+    ) {
+        fun toBase64(): String = Base64.encodeToString(imageBytes, Base64.NO_WRAP)
+    }
 
     fun currentAppPackage(): String {
         return rootInActiveWindow?.packageName?.toString().orEmpty()
@@ -151,8 +264,17 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
         return setTextOnFocused(text)
     }
 
-    suspend fun tryCaptureScreenshotBase64(): ScreenshotData? {
+    /**
+     * 截图并压缩
+     * @param reuseEncoded 按内容指纹查找像素完全相同的已编码截图，命中时跳过压缩
+     * @param encodePolicy 按字节预算选择缩放/格式/质量的编码策略
+     */
+    suspend fun tryCaptureScreenshotBase64(
+            reuseEncoded: ((Long) -> ScreenshotData?)? = null,
+            encodePolicy: ScreenshotEncodePolicy = defaultEncodePolicy,
+    ): ScreenshotData? {
         if (Build.VERSION.SDK_INT < 30) return null
+        val appPackage = currentAppPackage()
 
         val progressOverlay = UIAutomationProgressOverlay.getInstance(this)
         val hideProgressOverlay = progressOverlay.isShowing()
@@ -166,11 +288,10 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
                 delay(80)
             }
             return suspendCancellableCoroutine { cont ->
-                val executor = Executors.newSingleThreadExecutor()
                 try {
                     takeScreenshot(
                             0,
-                            executor,
+                            screenshotExecutor,
                             object : AccessibilityService.TakeScreenshotCallback {
                                 override fun onSuccess(
                                         screenshot: AccessibilityService.ScreenshotResult
@@ -186,36 +307,61 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
                                             return
                                         }
 
+                                        // 硬件位图无法直接缩放/压缩，需先拷贝为软件位图
                                         val originalBmp = hw.copy(Bitmap.Config.ARGB_8888, false)
                                         hw.recycle()
                                         
                                         val originalWidth = originalBmp.width
                                         val originalHeight = originalBmp.height
                                         
-                                        // 按比例缩放截图以减少大小
-                                        val scaleFactor = SCREENSHOT_SCALE_PERCENT / 100.0
-                                        val bmpForCompress = if (scaleFactor < 1.0) {
-                                            val newWidth = (originalWidth * scaleFactor).toInt().coerceAtLeast(1)
-                                            val newHeight = (originalHeight * scaleFactor).toInt().coerceAtLeast(1)
-                                            val scaled = Bitmap.createScaledBitmap(originalBmp, newWidth, newHeight, true)
+                                        // 同一屏幕已编码过则直接复用，否则按字节预算自适应缩放并压缩
+                                        val hash: Long
+                                        val contentHash: Long
+                                        val imageBytes: ByteArray
+                                        val mimeType: String
+                                        try {
+                                            hash = screenshotEncoder.perceptualHash(originalBmp)
+                                            contentHash =
+                                                    if (reuseEncoded != null) {
+                                                        screenshotEncoder.contentFingerprint(originalBmp)
+                                                    } else {
+                                                        0L
+                                                    }
+                                            val reused =
+                                                    reuseEncoded?.invoke(contentHash)?.takeIf {
+                                                        it.width == originalWidth && it.height == originalHeight
+                                                    }
+                                            if (reused != null) {
+                                                imageBytes = reused.imageBytes
+                                                mimeType = reused.mimeType
+                                            } else {
+                                                val encoded =
+                                                        screenshotEncoder.encodeAdaptive(
+                                                                source = originalBmp,
+                                                                policy = encodePolicy,
+                                                                profileKey =
+                                                                        ScreenshotEncodePolicy.profileKey(
+                                                                                originalWidth,
+                                                                                originalHeight,
+                                                                                appPackage
+                                                                        ),
+                                                        )
+                                                imageBytes = encoded.bytes
+                                                mimeType = encoded.mimeType
+                                            }
+                                        } finally {
                                             originalBmp.recycle()
-                                            scaled
-                                        } else {
-                                            originalBmp
                                         }
-                                        
-                                        val out = ByteArrayOutputStream()
-                                        // 使用JPEG压缩以大幅减少文件大小
-                                        if (USE_JPEG_COMPRESSION) {
-                                            bmpForCompress.compress(Bitmap.CompressFormat.JPEG, SCREENSHOT_QUALITY, out)
-                                        } else {
-                                            bmpForCompress.compress(Bitmap.CompressFormat.PNG, 100, out)
-                                        }
-                                        val bytes = out.toByteArray()
-                                        val base64 = Base64.encodeToString(bytes, Base64.NO_WRAP)
                                         // 返回原始尺寸供坐标计算使用
-                                        val result = ScreenshotData(originalWidth, originalHeight, base64)
-                                        bmpForCompress.recycle()
+                                        val result =
+                                                ScreenshotData(
+                                                        width = originalWidth,
+                                                        height = originalHeight,
+                                                        imageBytes = imageBytes,
+                                                        mimeType = mimeType,
+                                                        perceptualHash = hash,
+                                                        contentHash = contentHash,
+                                                )
                                         if (cont.isActive) cont.resume(result)
                                     } catch (_: Exception) {
                                         if (cont.isActive) cont.resume(null)
@@ -223,21 +369,16 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
                                         runCatching {
                                                     screenshot.hardwareBuffer.close()
                                                 }
-                                        runCatching { executor.shutdown() }
                                     }
                                 }
 
                                 override fun onFailure(errorCode: Int) {
-                                    runCatching { executor.shutdown() }
                                     if (cont.isActive) cont.resume(null)
                                 }
                             }
                     )
                 } catch (_: Exception) {
-                    runCatching { executor.shutdown() }
                     if (cont.isActive) cont.resume(null)
-                } finally {
-                    cont.invokeOnCancellation { runCatching { executor.shutdownNow() } }
                 }
             }
         } finally {
@@ -246,224 +387,42 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
         }
     }
 
-    private fun normalizeDetailLevel(detail: String?): UiDetailLevel {
+    private fun normalizeDetailLevel(detail: String?): UiTreeSerializer.Detail {
         return when (detail?.lowercase()) {
-            "minimal" -> UiDetailLevel.MINIMAL
-            "full" -> UiDetailLevel.FULL
-            else -> UiDetailLevel.SUMMARY
+            "minimal" -> UiTreeSerializer.Detail.MINIMAL
+            "full" -> UiTreeSerializer.Detail.FULL
+            else -> UiTreeSerializer.Detail.SUMMARY
         }
     }
 
-    private fun sanitizeAttr(value: CharSequence?, maxLength: Int): String? {
-        if (value.isNullOrBlank()) return null
-        val cleaned =
-                value
-                        .toString()
-                        .replace("\n", " ")
-                        .replace("\r", " ")
-                        .trim()
-        if (cleaned.isBlank()) return null
-        return if (cleaned.length > maxLength) cleaned.take(maxLength) else cleaned
-    }
-
-    private fun Rect.toBoundsString(): String = toShortString()
-
-    private fun buildNodeSnapshot(
-            node: AccessibilityNodeInfo,
-            detailLevel: UiDetailLevel,
+    /**
+     * 序列化当前活动窗口的 UI 树：启用增量 UI 树时从内存模型读取，否则直接遍历无障碍节点
+     */
+    private fun serializeUiTree(
+            root: AccessibilityNodeInfo,
+            format: UiTreeSerializer.Format,
+            detailLevel: UiTreeSerializer.Detail,
             maxNodes: Int,
-            counter: IntArray,
-    ): UiNodeSnapshot? {
-        if (counter[0] >= maxNodes) return null
-        counter[0]++
-
-        val bounds = Rect().also { node.getBoundsInScreen(it) }
-        val maxAttrLen = when (detailLevel) {
-            UiDetailLevel.MINIMAL -> 40
-            UiDetailLevel.SUMMARY -> 80
-            UiDetailLevel.FULL -> 140
-        }
-
-        val className = sanitizeAttr(node.className, maxAttrLen) ?: ""
-        val packageName = sanitizeAttr(node.packageName, maxAttrLen) ?: ""
-        val text = sanitizeAttr(node.text, maxAttrLen)
-        val contentDesc = sanitizeAttr(node.contentDescription, maxAttrLen)
-        val resourceId = sanitizeAttr(node.viewIdResourceName, maxAttrLen)
-        val editable = node.isEditable || className.contains("edittext", ignoreCase = true)
-
-        val children = mutableListOf<UiNodeSnapshot>()
-        val childCount = node.childCount
-        for (i in 0 until childCount) {
-            if (counter[0] >= maxNodes) break
-            node.getChild(i)?.let { child ->
-                buildNodeSnapshot(child, detailLevel, maxNodes, counter)?.let { children.add(it) }
-            }
-        }
-
-        return UiNodeSnapshot(
-                nodeId = bounds.toBoundsString(),
-                className = className,
-                packageName = packageName,
-                text = text,
-                contentDesc = contentDesc,
-                resourceId = resourceId,
-                bounds = bounds.toBoundsString(),
-                clickable = node.isClickable,
-                enabled = node.isEnabled,
-                focused = node.isFocused,
-                checkable = node.isCheckable,
-                checked = node.isChecked,
-                selected = node.isSelected,
-                scrollable = node.isScrollable,
-                longClickable = node.isLongClickable,
-                editable = editable,
-                children = children,
-        )
-    }
-
-    private fun escapeXml(value: String): String {
-        return buildString(value.length) {
-            value.forEach { c ->
-                when (c) {
-                    '&' -> append("&amp;")
-                    '<' -> append("&lt;")
-                    '>' -> append("&gt;")
-                    '"' -> append("&quot;")
-                    '\'' -> append("&apos;")
-                    else -> append(c)
-                }
-            }
-        }
-    }
-
-    private fun appendNodeXml(
-            sb: StringBuilder,
-            node: UiNodeSnapshot,
-            detailLevel: UiDetailLevel,
-            depth: Int,
-    ) {
-        val compact = detailLevel == UiDetailLevel.MINIMAL
-        val indent = if (!compact && detailLevel == UiDetailLevel.FULL) "  ".repeat(depth) else ""
-        if (!compact) {
-            sb.append("\n").append(indent)
-        }
-        sb.append("<node")
-
-        val minimalAllowed = setOf("class", "text", "resource-id", "bounds", "clickable")
-        fun appendAttr(key: String, value: String?) {
-            if (value.isNullOrEmpty()) return
-            if (compact && key !in minimalAllowed) return
-            sb.append(' ').append(key).append("=\"").append(escapeXml(value)).append('"')
-        }
-
-        if (!compact) appendAttr("node_id", node.nodeId)
-        appendAttr("class", node.className)
-        if (!compact) appendAttr("package", node.packageName)
-        appendAttr("text", node.text)
-        appendAttr("content-desc", node.contentDesc)
-        appendAttr("resource-id", node.resourceId)
-        appendAttr("bounds", node.bounds)
-
-        // summary/full detail flags
-        if (detailLevel != UiDetailLevel.MINIMAL) {
-            appendAttr("clickable", node.clickable.toString())
-            appendAttr("focused", node.focused.toString())
-            if (detailLevel == UiDetailLevel.FULL) {
-                appendAttr("enabled", node.enabled.toString())
-                appendAttr("checkable", node.checkable.toString())
-                appendAttr("checked", node.checked.toString())
-                appendAttr("selected", node.selected.toString())
-                appendAttr("scrollable", node.scrollable.toString())
-                appendAttr("long-clickable", node.longClickable.toString())
-                appendAttr("editable", node.editable.toString())
-            }
-        } else {
-            // 在minimal模式下仍保留clickable信息以保障自动化准确度
-            appendAttr("clickable", node.clickable.toString())
-        }
-
-        if (node.children.isEmpty()) {
-            sb.append("/>")
-            return
-        }
-
-        sb.append(">")
-        node.children.forEach { child -> appendNodeXml(sb, child, detailLevel, depth + 1) }
-        if (!compact) {
-            sb.append("\n").append(indent)
-        }
-        sb.append("</node>")
-    }
-
-    private fun nodeToJson(node: UiNodeSnapshot, detailLevel: UiDetailLevel): JSONObject {
-        val obj = JSONObject()
-        obj.put("node_id", node.nodeId)
-        obj.put("class", node.className)
-        obj.put("package", node.packageName)
-        if (!node.text.isNullOrEmpty()) obj.put("text", node.text)
-        if (!node.contentDesc.isNullOrEmpty()) obj.put("content_desc", node.contentDesc)
-        if (!node.resourceId.isNullOrEmpty()) obj.put("resource_id", node.resourceId)
-        obj.put("bounds", node.bounds)
-        if (detailLevel != UiDetailLevel.MINIMAL) {
-            obj.put("clickable", node.clickable)
-            obj.put("focused", node.focused)
-            if (detailLevel == UiDetailLevel.FULL) {
-                obj.put("enabled", node.enabled)
-                obj.put("checkable", node.checkable)
-                obj.put("checked", node.checked)
-                obj.put("selected", node.selected)
-                obj.put("scrollable", node.scrollable)
-                obj.put("long_clickable", node.longClickable)
-                obj.put("editable", node.editable)
-            }
+    ): String? {
+        if (!agentConfig.incrementalUiTree) {
+            return uiTreeSerializer.serialize(root, format, detailLevel, maxNodes)
         }
-
-        val children = JSONArray()
-        node.children.forEach { child -> children.put(nodeToJson(child, detailLevel)) }
-        obj.put("children", children)
-        return obj
+        return uiTreeIndex.read(root) { tree -> uiTreeSerializer.serialize(tree, format, detailLevel, maxNodes) }
     }
 
     fun dumpUiTreeXml(maxNodes: Int = 30, detail: String = "minimal"): String {
         val root = rootInActiveWindow ?: return "(no active window)"
         val detailLevel = normalizeDetailLevel(detail)
-        val counter = intArrayOf(0)
-        val snapshot = buildNodeSnapshot(root, detailLevel, maxNodes, counter) ?: return "(no active window)"
-
-        val pkg = sanitizeAttr(root.packageName, 120).orEmpty()
-        val activity = sanitizeAttr(root.className, 120)
-
-        val sb = StringBuilder()
-        sb.append("<ui_hierarchy")
-        if (pkg.isNotBlank()) sb.append(" package=\"").append(escapeXml(pkg)).append('\"')
-        if (!activity.isNullOrBlank()) sb.append(" activity=\"").append(escapeXml(activity)).append('\"')
-        sb.append(">")
-        appendNodeXml(sb, snapshot, detailLevel, 0)
-        sb.append("\n</ui_hierarchy>")
-        if (counter[0] >= maxNodes) {
-            sb.append("<!-- truncated, maxNodes=").append(maxNodes).append(" -->")
-        }
-        
-        val result = sb.toString()
-        Log.d("UI_TREE", "XML格式已生成: 根元素=<ui_hierarchy>, package=$pkg, activity=$activity, 节点数=${counter[0]}, 长度=${result.length}")
+        val result = serializeUiTree(root, UiTreeSerializer.Format.XML, detailLevel, maxNodes)
+                ?: return "(no active window)"
+        Log.d("UI_TREE", "XML格式已生成: 根元素=<ui_hierarchy>, package=${root.packageName}, activity=${root.className}, 节点数=${uiTreeSerializer.lastNodeCount}, 长度=${result.length}")
         return result
     }
 
     fun dumpUiTreeJson(maxNodes: Int = 30, detail: String = "minimal"): String {
         val root = rootInActiveWindow ?: return "{}"
         val detailLevel = normalizeDetailLevel(detail)
-        val counter = intArrayOf(0)
-        val snapshot = buildNodeSnapshot(root, detailLevel, maxNodes, counter) ?: return "{}"
-
-        val rootObj = JSONObject()
-        sanitizeAttr(root.packageName, 120)?.let { rootObj.put("package", it) }
-        sanitizeAttr(root.className, 120)?.let { rootObj.put("activity", it) }
-        rootObj.put("tree", nodeToJson(snapshot, detailLevel))
-        if (counter[0] >= maxNodes) {
-            rootObj.put("truncated", true)
-            rootObj.put("max_nodes", maxNodes)
-        }
-        return rootObj.toString()
+        return serializeUiTree(root, UiTreeSerializer.Format.JSON, detailLevel, maxNodes) ?: "{}"
     }
 
     fun getUiHierarchy(format: String = "xml", detail: String = "minimal", maxNodes: Int = 30): String {
@@ -496,6 +455,39 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
         return dumpUiTreeXml(maxNodes = maxNodes, detail = "summary")
     }
 
+    /**
+     * 按 token 预算压缩 UI 树（见 UiTreeCompressor）
+     * @return 压缩结果；无活动窗口时返回 null
+     */
+    fun compressUiTree(maxTokens: Int): UiTreeCompressor.Result? {
+        val root = rootInActiveWindow ?: return null
+        // 未启用增量维护时快照不会随事件更新，每次都完整重建
+        if (!agentConfig.incrementalUiTree) uiTreeIndex.invalidate()
+        val result = uiTreeIndex.read(root) { tree -> UiTreeCompressor(maxTokens).compress(tree) } ?: return null
+        Log.d("UI_TREE", "压缩UI树: 节点=${result.totalNodes}, 输出=${result.items.size}, 省略=${result.omitted}")
+        return result
+    }
+
+    /**
+     * 带重试机制的压缩 UI 树获取
+     */
+    suspend fun compressUiTreeWithRetry(
+            maxTokens: Int,
+            maxRetries: Int = 3,
+            retryDelayMs: Long = 300,
+    ): UiTreeCompressor.Result? {
+        repeat(maxRetries) { attempt ->
+            val result = compressUiTree(maxTokens)
+            if (result != null) {
+                return result
+            }
+            if (attempt < maxRetries - 1) {
+                delay(retryDelayMs)
+            }
+        }
+        return null
+    }
+
     fun setTextOnFocused(text: String): Boolean {
         val root = rootInActiveWindow ?: return false
         val focused =
@@ -625,13 +617,104 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
 
     fun lastWindowEventTime(): Long = lastWindowEventTimeMs
 
-    suspend fun awaitWindowEvent(afterTimeMs: Long, timeoutMs: Long = 1500L): Boolean {
+    /** 最近一次窗口切换（TYPE_WINDOW_STATE_CHANGED）的时间 */
+    fun lastWindowStateChangeTime(): Long = lastWindowStateEventTimeMs
+
+    /** 最近一次来自其他应用的窗口/内容变化时间（忽略本应用悬浮窗自身的变化） */
+    fun lastForeignUiChangeTime(): Long = lastForeignUiEventTimeMs
+
+    /**
+     * 启动指定包名的应用（经 [LaunchProxyActivity] 转发，避免后台启动限制）
+     * @return 未安装或没有可启动入口时返回 false
+     */
+    fun launchPackage(packageName: String): Boolean {
+        val pm = packageManager
+
+        // 检查应用是否已安装
+        val installed = runCatching {
+            @Suppress("DEPRECATION")
+            pm.getPackageInfo(packageName, 0)
+            true
+        }.getOrDefault(false)
+        if (!installed) return false
+
+        // 构建启动Intent
+        val intent = pm.getLaunchIntentForPackage(packageName) ?: run {
+            val query = Intent(Intent.ACTION_MAIN).addCategory(Intent.CATEGORY_LAUNCHER)
+            val ai = runCatching { pm.queryIntentActivities(query, 0) }
+                .getOrNull()
+                ?.firstOrNull { it.activityInfo?.packageName == packageName }
+                ?.activityInfo
+                ?: return false
+            Intent(Intent.ACTION_MAIN)
+                .addCategory(Intent.CATEGORY_LAUNCHER)
+                .setClassName(ai.packageName, ai.name)
+        }
+        intent.addFlags(
+            Intent.FLAG_ACTIVITY_NEW_TASK or
+            Intent.FLAG_ACTIVITY_NO_ANIMATION or
+            Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED
+        )
+        LaunchProxyActivity.launch(this, intent)
+        return true
+    }
+
+    /**
+     * 等待 [afterTimeMs] 之后的窗口事件（挂起直到事件到达，无轮询）
+     * @param packageName 仅匹配指定包名的事件（为空则不过滤）
+     * @param sourceClassName 仅匹配指定来源类名的事件（为空则不过滤）
+     */
+    suspend fun awaitWindowEvent(
+            afterTimeMs: Long,
+            timeoutMs: Long = 1500L,
+            packageName: String? = null,
+            sourceClassName: String? = null,
+    ): Boolean {
+        if (packageName == null && sourceClassName == null && lastWindowEventTimeMs > afterTimeMs) {
+            return true
+        }
+        val event =
+                withTimeoutOrNull(timeoutMs) {
+                    windowEvents.first { e ->
+                        e.eventTimeMs > afterTimeMs &&
+                                (packageName == null || e.packageName == packageName) &&
+                                (sourceClassName == null || e.sourceClassName == sourceClassName)
+                    }
+                }
+        return event != null
+    }
+
+    /**
+     * 等待界面空闲：连续 [quietMs] 内没有来自其他应用的窗口/内容变化事件即视为稳定
+     *
+     * 动作刚执行完时应用可能还没来得及发出任何事件，因此安静期从开始等待后的第一个事件算起；
+     * 若 [minWaitMs] 内一直没有事件，则从 [minWaitMs] 结束时算起。
+     * @param maxWaitMs 等待上限，超过后直接返回
+     * @param minWaitMs 等待首个事件的时长
+     * @return 实际等待时长（ms）
+     */
+    suspend fun awaitUiIdle(quietMs: Long, maxWaitMs: Long, minWaitMs: Long = 0L): Long {
+        val selfPackage = packageName
         val start = android.os.SystemClock.uptimeMillis()
-        while (android.os.SystemClock.uptimeMillis() - start < timeoutMs) {
-            if (lastWindowEventTimeMs > afterTimeMs) return true
-            delay(60L)
+        val deadline = start + maxWaitMs
+        var lastActivity = start + minWaitMs
+        var since = start
+        while (true) {
+            val now = android.os.SystemClock.uptimeMillis()
+            val quietLeft = quietMs - (now - lastActivity)
+            if (quietLeft <= 0L || now >= deadline) break
+            val after = since
+            val event =
+                    withTimeoutOrNull(minOf(quietLeft, deadline - now)) {
+                        // 忽略本应用（悬浮窗/进度条）自身引起的变化
+                        windowEvents.first { it.eventTimeMs > after && it.packageName != selfPackage }
+                    }
+            if (event != null) {
+                lastActivity = event.eventTimeMs
+                since = event.eventTimeMs
+            }
         }
-        return false
+        return android.os.SystemClock.uptimeMillis() - start
     }
 
     // ============================================================================
@@ -639,13 +722,15 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
     // ============================================================================
     
     /**
-     * 等待元素出现（轮询机制）
+     * 等待元素出现（事件驱动）
+     *
+     * 仅在收到窗口/内容变化事件时重新检查；若长时间无事件，按兜底间隔检查一次。
      * @param resourceId 资源ID（如 "com.example:id/button"）
      * @param text 文本内容（模糊匹配）
      * @param contentDesc 内容描述（模糊匹配）
      * @param className 类名（如 "Button" 或完整类名）
      * @param timeoutMs 超时时间（默认5000ms）
-     * @param pollIntervalMs 轮询间隔（默认200ms）
+     * @param pollIntervalMs 无事件时的兜底检查间隔（默认1000ms）
      * @return 是否找到元素
      */
     suspend fun waitForElement(
@@ -654,7 +739,7 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
         contentDesc: String? = null,
         className: String? = null,
         timeoutMs: Long = 5000L,
-        pollIntervalMs: Long = 200L,
+        pollIntervalMs: Long = ELEMENT_FALLBACK_CHECK_MS,
     ): Boolean {
         if (resourceId.isNullOrBlank() && text.isNullOrBlank() && 
             contentDesc.isNullOrBlank() && className.isNullOrBlank()) {
@@ -662,7 +747,10 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
         }
         
         val startTime = android.os.SystemClock.uptimeMillis()
-        while (android.os.SystemClock.uptimeMillis() - startTime < timeoutMs) {
+        val deadline = startTime + timeoutMs
+        while (true) {
+            // 先记下事件时间再检查，检查期间到达的事件会触发下一轮
+            val checkedAt = lastWindowEventTimeMs
             val root = rootInActiveWindow
             if (root != null) {
                 val found = findNode(root, resourceId, text, contentDesc, className, 0)
@@ -671,7 +759,12 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
                     return true
                 }
             }
-            delay(pollIntervalMs)
+
+            val remaining = deadline - android.os.SystemClock.uptimeMillis()
+            if (remaining <= 0L) break
+            withTimeoutOrNull(remaining.coerceAtMost(pollIntervalMs.coerceAtLeast(1L))) {
+                windowEvents.first { it.eventTimeMs > checkedAt }
+            }
         }
         Log.d("WAIT_ELEMENT", "等待超时: resourceId=$resourceId, text=$text, timeout=${timeoutMs}ms")
         return false
@@ -755,6 +848,18 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
             }
         }
 
+        if (agentConfig.incrementalUiTree) {
+            val selector = UiElementIndex.Selector(resourceId, text, contentDesc, className)
+            val matched =
+                    uiTreeIndex.readElements(root) { index ->
+                        index.find(selector, UiElementIndex.MatchMode.SEARCH, maxResults).map { it.info }
+                    }
+            if (matched != null) {
+                matched.forEachIndexed { i, node -> results.add(nodeToJson(node, i)) }
+                return
+            }
+        }
+
         val q = ArrayDeque<AccessibilityNodeInfo>()
         q.add(root)
         var seen = 0
@@ -980,9 +1085,8 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
     ): Boolean {
         val root = rootInActiveWindow
         if (root != null) {
-            val target = findNode(root, resourceId, text, contentDesc, className, index)
-            if (target != null) {
-                val clickable = findClickableAncestor(target) ?: target
+            val clickable = findClickTarget(root, resourceId, text, contentDesc, className, index)
+            if (clickable != null) {
                 if (clickable.isClickable && clickable.performAction(AccessibilityNodeInfo.ACTION_CLICK)) {
                     Log.d("CLICK_ELEMENT", "selector点击成功: res=$resourceId text=$text class=$className idx=$index")
                     return true
@@ -1058,6 +1162,36 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
         return null
     }
 
+    /**
+     * 查找目标元素并返回其最近的可点击祖先（含自身），找不到可点击祖先时返回元素本身
+     */
+    private fun findClickTarget(
+            root: AccessibilityNodeInfo,
+            resourceId: String?,
+            text: String?,
+            contentDesc: String?,
+            className: String?,
+            index: Int,
+    ): AccessibilityNodeInfo? {
+        if (agentConfig.incrementalUiTree) {
+            val selector = UiElementIndex.Selector(resourceId, text, contentDesc, className)
+            return uiTreeIndex.readElements(root) { elements ->
+                val target = elements.nth(selector, UiElementIndex.MatchMode.TARGET, index)
+                        ?: return@readElements null
+                var cur: UiTreeNode? = target
+                var guard = 0
+                while (cur != null && guard < 10) {
+                    guard++
+                    if (cur.clickable) return@readElements cur.info
+                    cur = cur.parent
+                }
+                target.info
+            }
+        }
+        val target = findNode(root, resourceId, text, contentDesc, className, index) ?: return null
+        return findClickableAncestor(target) ?: target
+    }
+
     private fun findNode(
             root: AccessibilityNodeInfo,
             resourceId: String?,
@@ -1066,6 +1200,13 @@ class PhoneAgentAccessibilityService : AccessibilityService() {
             className: String?,
             index: Int,
     ): AccessibilityNodeInfo? {
+        if (agentConfig.incrementalUiTree) {
+            val selector = UiElementIndex.Selector(resourceId, text, contentDesc, className)
+            return uiTreeIndex.readElements(root) { elements ->
+                elements.nth(selector, UiElementIndex.MatchMode.TARGET, index)?.info
+            }
+        }
+
         fun matches(node: AccessibilityNodeInfo): Boolean {
             val id = node.viewIdResourceName?.trim().orEmpty()
             val clsFull = node.className?.toString()?.trim().orEmpty()
@@ -1,21 +1,35 @@
 ﻿package com.ai.phoneagent
 
-import android.accessibilityservice.AccessibilityService
 import com.ai.phoneagent.core.agent.ParsedAgentAction
+import com.ai.phoneagent.core.agent.StepMetrics
+import com.ai.phoneagent.core.agent.StepTraceWriter
 import com.ai.phoneagent.core.cache.ScreenshotManager
+import com.ai.phoneagent.core.cache.UiTreeCompressor
+import com.ai.phoneagent.core.cache.UiTreeDiff
 import com.ai.phoneagent.core.config.AgentConfiguration
 import com.ai.phoneagent.core.executor.ActionExecutor
 import com.ai.phoneagent.core.parser.ActionParser
+import com.ai.phoneagent.core.parser.StreamingActionDetector
+import com.ai.phoneagent.core.platform.AccessibilityDeviceController
+import com.ai.phoneagent.core.platform.DeviceController
+import com.ai.phoneagent.core.platform.ScreenSettleStats
 import com.ai.phoneagent.core.templates.PromptTemplates
 import com.ai.phoneagent.core.utils.ActionUtils
 import com.ai.phoneagent.net.AutoGlmClient
+import com.ai.phoneagent.net.ChatImagePart
 import com.ai.phoneagent.net.ChatRequestMessage
+import java.io.File
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.NonCancellable
 import kotlinx.coroutines.async
+import kotlinx.coroutines.channels.BufferOverflow
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 
@@ -36,7 +50,9 @@ import kotlinx.coroutines.withContext
  * 4. 管理任务状态和进度
  */
 class UiAutomationAgent(
-    private val config: AgentConfiguration = AgentConfiguration.DEFAULT
+    private val config: AgentConfiguration = AgentConfiguration.DEFAULT,
+    /** 步骤指标追踪文件目录，为 null 时不写追踪文件 */
+    private val traceDir: File? = null,
 ) {
     // 组件实例化
     private val actionParser = ActionParser()
@@ -47,6 +63,27 @@ class UiAutomationAgent(
     private var lastActionWasTap = false
     private var lastTapAction: ParsedAgentAction? = null
 
+    // 步骤指标：当前步的计时、本次任务的追踪文件、最近一次流式请求的首 token 时间
+    private var stepTiming: StepTiming? = null
+    private var traceWriter: StepTraceWriter? = null
+    @Volatile private var lastTtftMs = -1L
+    // 最近一次流式请求中由检测器解析出的完整动作，省去对同一段输出的重复解析
+    @Volatile private var lastStreamedAction: ParsedAgentAction? = null
+
+    private val _stepMetrics = MutableSharedFlow<StepMetrics>(
+        extraBufferCapacity = 64,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST,
+    )
+
+    /** 每步结束时发出的耗时指标（不重放，需在 run 之前订阅） */
+    val stepMetrics: SharedFlow<StepMetrics> = _stepMetrics.asSharedFlow()
+
+    private val runMetrics = ArrayList<StepMetrics>()
+
+    /** 最近一次（或正在进行的）run 已结束各步的指标 */
+    val lastRunMetrics: List<StepMetrics>
+        @Synchronized get() = runMetrics.toList()
+
     interface Control {
         fun isPaused(): Boolean
         suspend fun confirm(message: String): Boolean
@@ -75,16 +112,55 @@ class UiAutomationAgent(
             service: PhoneAgentAccessibilityService,
             control: Control = NoopControl,
             onLog: (String) -> Unit,
+    ): AgentResult = run(apiKey, model, task, AccessibilityDeviceController(service), control, onLog)
+
+    /**
+     * 在任意设备实现上运行Agent（离线基准中使用回放录制界面的假设备）
+     */
+    suspend fun run(
+            apiKey: String,
+            model: String,
+            task: String,
+            device: DeviceController,
+            control: Control = NoopControl,
+            onLog: (String) -> Unit,
+    ): AgentResult {
+        synchronized(this) { runMetrics.clear() }
+        ScreenSettleStats.clear()
+        traceWriter = traceDir?.let { dir ->
+            withContext(Dispatchers.IO) {
+                runCatching { StepTraceWriter(dir).also { it.open(task) } }.getOrNull()
+            }
+        }
+        try {
+            return runSteps(apiKey, model, task, device, control, onLog)
+        } finally {
+            // 提前结束（完成/失败/取消）的最后一步也要记录
+            withContext(NonCancellable) {
+                endStep()
+                reportSettleStats(onLog)
+            }
+            traceWriter?.close()
+            traceWriter = null
+        }
+    }
+
+    private suspend fun runSteps(
+            apiKey: String,
+            model: String,
+            task: String,
+            device: DeviceController,
+            control: Control,
+            onLog: (String) -> Unit,
     ): AgentResult {
-        val metrics = service.resources.displayMetrics
-        val screenW = metrics.widthPixels
-        val screenH = metrics.heightPixels
+        val (screenW, screenH) = device.getScreenSize()
+        device.applyConfiguration(config)
 
         // 初始化截图管理器
         screenshotManager = ScreenshotManager(config)
         
         // 智能应用启动
-        val smartLaunched = trySmartAppLaunch(task, service, onLog)
+        val smartLaunched = trySmartAppLaunch(task, device, onLog)
         if (smartLaunched) {
             onLog("✓ 应用已快速启动，继续后续操作...")
         }
@@ -104,11 +180,24 @@ class UiAutomationAgent(
         lastTapAction = null
 
         var step = 0
+        // 流水线模式下由上一步预先采集的观测
+        var prefetched: Observation? = null
+        // 上一步的观测，用于判断“屏幕未变化”
+        var previousObservation: Observation? = null
+        var skippedPreviousScreenshot = false
+        // 差分观测：上一步的压缩UI树、最近一次完整UI树（关键帧）在历史中的位置
+        var lastUiTree: UiTreeCompressor.Result? = null
+        var keyframeIndex = -1
+        var stepsSinceKeyframe = 0
         
         while (step < config.maxSteps) {
             kotlinx.coroutines.currentCoroutineContext().ensureActive()
+            // 暂停期间界面可能已变化，预取的观测作废
+            if (control.isPaused()) prefetched = null
             awaitIfPaused(control)
             step++
+            val timing = StepTiming(step, nowMs())
+            stepTiming = timing
             
             // 更新进度
             AutomationOverlay.updateProgress(
@@ -118,14 +207,15 @@ class UiAutomationAgent(
                     subtitle = "读取界面"
             )
             
-            // 并行获取截图和UI树
-            val (screenshot, rawUiDump) = coroutineScope {
-                val screenshotDeferred = async { 
-                    screenshotManager?.getOptimizedScreenshot(service) 
-                }
-                val uiDumpDeferred = async { service.dumpUiTreeWithRetry(maxNodes = config.uiTreeMaxNodes) }
-                Pair(screenshotDeferred.await(), uiDumpDeferred.await())
-            }
+            // 获取截图和UI树（优先使用上一步预取的观测）
+            val observation = prefetched ?: captureObservation(device)
+            prefetched = null
+            val screenshot = observation.screenshot
+            val rawUiDump = observation.rawUiDump
+            val sensitiveUiText = observation.sensitiveText
+            timing.captureMs = observation.captureMs
+            timing.uiDumpMs = observation.uiDumpMs
+            timing.uiNodes = observation.uiNodes
             
             // 更新进度
             AutomationOverlay.updateProgress(
@@ -135,47 +225,83 @@ class UiAutomationAgent(
                     subtitle = "解析界面"
             )
             
-            // 截断UI树
-            val uiDump = ActionUtils.truncateUiTree(rawUiDump, config.maxUiTreeChars)
+            // 压缩模式下已按 token 预算输出，否则按字符数截断
+            val uiDump = if (config.compressUiTree) {
+                rawUiDump
+            } else {
+                ActionUtils.truncateUiTree(rawUiDump, config.maxUiTreeChars)
+            }
 
-            val currentApp = service.currentAppPackage()
+            val currentApp = device.getCurrentAppPackage()
             val screenInfo = "{\"current_app\":\"${currentApp.replace("\"", "")}\"}"
 
+            // 屏幕与上一步相同（截图感知哈希一致且UI树未变）时可省略本步截图，但不连续省略
+            val screenUnchanged = isScreenUnchanged(previousObservation, observation)
+            val skipScreenshot = screenUnchanged && config.skipUnchangedScreenshot && !skippedPreviousScreenshot
+            skippedPreviousScreenshot = skipScreenshot
+            previousObservation = observation
+
             // 记录截图信息
-            if (screenshot != null) {
+            if (skipScreenshot) {
+                onLog("[Step $step] 截图：与上一步相同，本步省略")
+            } else if (screenshot != null) {
                 onLog("[Step $step] 截图：${screenshot.width}x${screenshot.height}")
             } else {
                 onLog("[Step $step] 截图：不可用（将使用纯文本/无障碍树模式）")
             }
 
+            // 修剪历史（先于构建消息，以便判断关键帧是否仍在上下文中）
+            keyframeIndex -= trimHistory(history)
+
+            // 差分观测：关键帧仍在历史中且未到关键帧间隔时，只发送相对上一步的变化
+            val uiTree = observation.uiTree
+            val uiDelta = if (config.differentialUiTree && uiTree != null) {
+                buildUiDelta(
+                    previous = lastUiTree,
+                    current = uiTree,
+                    keyframeAlive = keyframeIndex >= 1,
+                    stepsSinceKeyframe = stepsSinceKeyframe,
+                )
+            } else {
+                null
+            }
+            lastUiTree = uiTree
+            val uiSection = if (uiDelta != null && uiTree != null) {
+                "UI树变化（相对上一步，未列出的节点保持不变）：\n${uiDelta.render(uiTree.header)}"
+            } else {
+                "UI树：\n$uiDump"
+            }
+
             // 构建用户消息
+            val unchangedNote = if (screenUnchanged) "（屏幕与上一步相同，上一步操作可能未生效）\n\n" else ""
             val userMsg = if (step == 1) {
-                        "$task\n\n$screenInfo\n\nUI树：\n$uiDump"
+                        "$task\n\n$screenInfo\n\n$uiSection"
                     } else {
-                        "$screenInfo\n\nUI树：\n$uiDump"
+                        "$unchangedNote$screenInfo\n\n$uiSection"
                     }
 
             // 构建消息内容
-            val userContent: Any = if (screenshot != null) {
+            val userContent: Any = if (screenshot != null && !skipScreenshot) {
                         listOf(
-                                mapOf(
-                                        "type" to "image_url",
-                        "image_url" to mapOf(
-                            "url" to "data:image/jpeg;base64,${screenshot.base64Png}"
-                                                )
-                                ),
+                                // 图片字节在写入请求体时才编码为 Base64（见 ChatRequestBody）
+                                ChatImagePart(screenshot.imageBytes, screenshot.mimeType),
                                 mapOf("type" to "text", "text" to userMsg)
                         )
                     } else {
                         userMsg
                     }
             
-            // 修剪历史
-            trimHistory(history)
-            
             // 添加用户消息
             history += ChatRequestMessage(role = "user", content = userContent)
             val observationUserIndex = history.lastIndex
+            if (uiDelta == null) {
+                keyframeIndex = observationUserIndex
+                stepsSinceKeyframe = 0
+            } else {
+                stepsSinceKeyframe++
+            }
+            timing.promptBytes = promptBytes(history)
+            timing.promptTokens = ActionUtils.estimateHistoryTokens(history, config.imageTokenEstimate)
 
             // 更新进度
             onLog("[Step $step] 请求模型…")
@@ -189,6 +315,8 @@ class UiAutomationAgent(
             AutomationOverlay.startThinking()
             
             // 调用模型
+            val modelStart = nowMs()
+            lastTtftMs = -1L
             val replyResult = requestModelWithRetry(
                 apiKey = apiKey,
                 model = model,
@@ -197,6 +325,8 @@ class UiAutomationAgent(
                 purpose = "请求模型",
                 onLog = onLog,
             )
+            timing.modelMs = nowMs() - modelStart
+            timing.ttftMs = lastTtftMs
 
             val finalReply = replyResult.getOrNull()?.trim().orEmpty()
             AutomationOverlay.stopThinking()
@@ -217,6 +347,7 @@ class UiAutomationAgent(
             )
 
             // 解析思考和回答
+            val parseStart = nowMs()
             val (thinking, answer) = actionParser.parseWithThinking(finalReply)
             if (!thinking.isNullOrBlank()) {
                 onLog("[Step $step] 思考：${thinking.take(config.logThinkingTruncateLength)}")
@@ -242,6 +373,8 @@ class UiAutomationAgent(
                             answerText = answer,
                             onLog = onLog,
                     )
+            timing.parseMs = nowMs() - parseStart
+            timing.action = action.actionName ?: action.metadata
             
             // 检查是否完成
             if (action.metadata == "finish") {
@@ -262,6 +395,7 @@ class UiAutomationAgent(
             )
 
             // 执行动作
+            val executeStart = nowMs()
             var currentAction = action
             var execOk = false
             var repairAttempt = 0
@@ -306,16 +440,16 @@ class UiAutomationAgent(
                                 if (previousTapAction != null) {
                                     onLog("[合并执行] Tap + Type")
                                     executeTapAndTypeCombined(
-                                        service = service,
+                                        device = device,
                                         tapAction = previousTapAction,
                                         typeAction = currentAction,
-                                        uiDump = uiDump,
+                                        uiDump = sensitiveUiText,
                                         screenW = screenW,
                                         screenH = screenH,
                                         onLog = onLog
                                     )
                                 } else {
-                            actionExecutor.execute(currentAction, service, uiDump, screenW, screenH, onLog)
+                            actionExecutor.execute(currentAction, device, sensitiveUiText, screenW, screenH, onLog)
                                 }
                             } else {
                                 // 正常执行
@@ -326,7 +460,7 @@ class UiAutomationAgent(
                                     lastActionWasTap = false
                                     lastTapAction = null
                                 }
-                        actionExecutor.execute(currentAction, service, uiDump, screenW, screenH, onLog)
+                        actionExecutor.execute(currentAction, device, sensitiveUiText, screenW, screenH, onLog)
                             }
                         } catch (e: TakeOverException) {
                             val msg = e.message.orEmpty().ifBlank { "需要用户接管" }
@@ -407,6 +541,9 @@ class UiAutomationAgent(
                 }
             }
 
+            timing.executeMs = nowMs() - executeStart
+            timing.action = currentAction.actionName ?: currentAction.metadata
+
             // 计算延迟
             val extraDelayMs = config.getActionDelayMs(currentAction.actionName ?: "")
 
@@ -426,19 +563,297 @@ class UiAutomationAgent(
                 }
             }
 
-            // 延迟等待
-            delay((config.stepDelayMs + extraDelayMs).coerceAtLeast(0L))
+            // 等待界面稳定
+            val settleCeilingMs = (config.stepDelayMs + extraDelayMs).coerceAtLeast(0L)
+            val settledAction = currentAction.actionName.orEmpty()
+            val settleStart = nowMs()
+            if (config.pipelinedObservation) {
+                prefetched = prefetchObservation(device, settledAction, settleCeilingMs, step, onLog)
+            } else {
+                waitForScreenSettle(device, settledAction, settleCeilingMs)
+            }
+            timing.settleMs = nowMs() - settleStart
+            endStep()
         }
 
         return AgentResult(false, "达到最大步数限制（${config.maxSteps}）", config.maxSteps)
     }
 
+    /**
+     * 一次界面观测：截图 + UI树
+     */
+    private data class Observation(
+        val screenshot: PhoneAgentAccessibilityService.ScreenshotData?,
+        val rawUiDump: String,
+        /** 压缩模式下的结构化UI树，用于差分观测 */
+        val uiTree: UiTreeCompressor.Result? = null,
+        val captureMs: Long = 0L,
+        val uiDumpMs: Long = 0L,
+        val uiNodes: Int = 0,
+    ) {
+        /** 未经 token 预算压缩或字符截断的UI文本，敏感界面检测只看它，提示词另用压缩后的文本 */
+        val sensitiveText: String
+            get() = uiTree?.sensitiveText() ?: rawUiDump
+    }
+
+    /**
+     * 采集当前界面的截图和UI树
+     */
+    private suspend fun captureObservation(device: DeviceController): Observation {
+        if (!config.parallelScreenshotAndUi) {
+            val captureStart = nowMs()
+            val screenshot = screenshotManager?.getOptimizedScreenshot(device)
+            val dumpStart = nowMs()
+            val (uiDump, uiTree) = dumpObservationTree(device)
+            val dumpEnd = nowMs()
+            return Observation(
+                screenshot, uiDump, uiTree,
+                captureMs = dumpStart - captureStart,
+                uiDumpMs = dumpEnd - dumpStart,
+                uiNodes = uiTree?.totalNodes ?: countUiNodes(uiDump),
+            )
+        }
+
+        // 并行获取截图和UI树
+        return coroutineScope {
+            val screenshotDeferred = async {
+                val start = nowMs()
+                val shot = screenshotManager?.getOptimizedScreenshot(device)
+                shot to nowMs() - start
+            }
+            val uiDumpDeferred = async {
+                val start = nowMs()
+                val dump = dumpObservationTree(device)
+                dump to nowMs() - start
+            }
+            val (dump, uiDumpMs) = uiDumpDeferred.await()
+            val (uiDump, uiTree) = dump
+            val (screenshot, captureMs) = screenshotDeferred.await()
+            Observation(
+                screenshot, uiDump, uiTree,
+                captureMs = captureMs,
+                uiDumpMs = uiDumpMs,
+                uiNodes = uiTree?.totalNodes ?: countUiNodes(uiDump),
+            )
+        }
+    }
+
+    /** 统计 XML 格式 UI 树中的节点数 */
+    private fun countUiNodes(uiDump: String): Int {
+        var count = 0
+        var index = uiDump.indexOf("<node")
+        while (index >= 0) {
+            count++
+            index = uiDump.indexOf("<node", index + 5)
+        }
+        return count
+    }
+
+    /** 单调时钟（ms），不依赖 Android 框架，离线基准中同样可用 */
+    private fun nowMs(): Long = System.nanoTime() / 1_000_000L
+
+    /**
+     * 一步的各阶段耗时，步骤结束时转换为 [StepMetrics]
+     */
+    private class StepTiming(val step: Int, val startMs: Long) {
+        var captureMs = 0L
+        var uiDumpMs = 0L
+        var uiNodes = 0
+        var promptBytes = 0
+        var promptTokens = 0
+        var ttftMs = -1L
+        var modelMs = 0L
+        var parseMs = 0L
+        var executeMs = 0L
+        var settleMs = 0L
+        var action = ""
+
+        fun toMetrics(endMs: Long) = StepMetrics(
+            step = step,
+            captureMs = captureMs,
+            uiDumpMs = uiDumpMs,
+            uiNodes = uiNodes,
+            promptBytes = promptBytes,
+            promptTokens = promptTokens,
+            ttftMs = ttftMs,
+            modelMs = modelMs,
+            parseMs = parseMs,
+            executeMs = executeMs,
+            settleMs = settleMs,
+            totalMs = endMs - startMs,
+            action = action,
+        )
+    }
+
+    /**
+     * 结束当前步：发出指标并追加到追踪文件（每步只记录一次）
+     */
+    private suspend fun endStep() {
+        val timing = stepTiming ?: return
+        stepTiming = null
+        val metrics = timing.toMetrics(nowMs())
+        synchronized(this) { runMetrics += metrics }
+        _stepMetrics.tryEmit(metrics)
+        val writer = traceWriter ?: return
+        withContext(Dispatchers.IO) {
+            runCatching { writer.append(metrics) }
+        }
+    }
+
+    /**
+     * 输出本次任务的界面稳定耗时统计（日志 + 追踪文件），用于根据真实数据调校动作延迟
+     */
+    private suspend fun reportSettleStats(onLog: (String) -> Unit) {
+        val entries = ScreenSettleStats.snapshot()
+        if (entries.isEmpty()) return
+        onLog("界面稳定耗时统计：\n" + entries.joinToString("\n") { it.format() })
+        val writer = traceWriter ?: return
+        withContext(Dispatchers.IO) {
+            runCatching { writer.appendSettleStats(entries) }
+        }
+    }
+
+    /**
+     * 估算请求的提示词字节数：文本按 UTF-8 计，图片按压缩后字节计（未计 Base64 膨胀）
+     */
+    private fun promptBytes(history: List<ChatRequestMessage>): Int {
+        var total = 0
+        for (msg in history) {
+            when (val content = msg.content) {
+                is String -> total += utf8Length(content)
+                is List<*> -> for (item in content) {
+                    when (item) {
+                        is ChatImagePart -> total += item.bytes.size
+                        is Map<*, *> -> (item["text"] as? String)?.let { total += utf8Length(it) }
+                    }
+                }
+            }
+        }
+        return total
+    }
+
+    private fun utf8Length(text: String): Int {
+        var bytes = 0
+        var i = 0
+        while (i < text.length) {
+            val c = text[i]
+            bytes += when {
+                c.code < 0x80 -> 1
+                c.code < 0x800 -> 2
+                Character.isHighSurrogate(c) && i + 1 < text.length && Character.isLowSurrogate(text[i + 1]) -> {
+                    i++
+                    4
+                }
+                else -> 3
+            }
+            i++
+        }
+        return bytes
+    }
+
+    /**
+     * 获取用于提示词的UI树：优先按 token 预算压缩
+     * @return UI树文本，以及压缩模式下的结构化结果
+     */
+    private suspend fun dumpObservationTree(
+        device: DeviceController
+    ): Pair<String, UiTreeCompressor.Result?> {
+        if (!config.compressUiTree) {
+            return device.dumpUiTreeWithRetry(maxNodes = config.uiTreeMaxNodes) to null
+        }
+        val tree = device.compressUiTreeWithRetry(config.uiTreeMaxTokens)
+        return (tree?.render() ?: "(no active window)") to tree
+    }
+
+    /**
+     * 计算相对上一步的UI树差分；需要发送完整UI树（关键帧）时返回 null
+     *
+     * 以下情况发送关键帧：没有上一步的树、关键帧已被历史修剪移除、达到关键帧间隔、
+     * 应用/页面（树头）变化，或变化节点超过当前节点数的一半（差分不再划算）。
+     */
+    private fun buildUiDelta(
+        previous: UiTreeCompressor.Result?,
+        current: UiTreeCompressor.Result,
+        keyframeAlive: Boolean,
+        stepsSinceKeyframe: Int,
+    ): UiTreeDiff.Delta? {
+        if (previous == null || !keyframeAlive) return null
+        if (stepsSinceKeyframe + 1 >= config.uiTreeKeyframeInterval) return null
+        if (previous.header != current.header) return null
+        val delta = UiTreeDiff.diff(previous.items, current.items)
+        return delta.takeIf { it.size * 2 <= current.items.size }
+    }
+
+    /**
+     * 当前观测与上一步观测是否为同一屏幕
+     */
+    private fun isScreenUnchanged(previous: Observation?, current: Observation): Boolean {
+        val prevShot = previous?.screenshot ?: return false
+        val curShot = current.screenshot ?: return false
+        val manager = screenshotManager ?: return false
+        return manager.isSameScreen(prevShot, curShot) && previous.rawUiDump == current.rawUiDump
+    }
+
+    /**
+     * 流水线模式：预取下一步的观测
+     *
+     * 执行层在动作后已等待窗口事件，此时立即开始采集，与界面稳定等待重叠进行。
+     * 采集开始后只要界面又有变化（窗口切换或内容变化，如下拉展开、列表加载、输入回显），
+     * 预取结果即作废，由下一步在界面稳定后重新采集（重新采集不受截图节流限制）。
+     */
+    private suspend fun prefetchObservation(
+        device: DeviceController,
+        actionName: String,
+        settleCeilingMs: Long,
+        step: Int,
+        onLog: (String) -> Unit,
+    ): Observation? {
+        val changeTimeBefore = device.getLastUiChangeTime()
+        val observation = coroutineScope {
+            val deferred = async { captureObservation(device) }
+            waitForScreenSettle(device, actionName, settleCeilingMs)
+            deferred.await()
+        }
+        if (device.getLastUiChangeTime() != changeTimeBefore) {
+            onLog("[Step $step] 等待期间界面已变化，下一步重新读取界面")
+            // 重新采集紧跟在预取之后，不能被截图节流挡掉
+            screenshotManager?.resetThrottle()
+            return null
+        }
+        return observation
+    }
+
+    /**
+     * 动作后等待界面稳定
+     *
+     * 启用自适应检测时，界面空闲即返回，[ceilingMs] 为等待上限；否则固定等待 [ceilingMs]。
+     * @return 实际等待时长（ms）
+     */
+    private suspend fun waitForScreenSettle(
+        device: DeviceController,
+        actionName: String,
+        ceilingMs: Long,
+    ): Long {
+        if (!config.adaptiveSettle) {
+            delay(ceilingMs)
+            return ceilingMs
+        }
+        val settleMs = device.awaitUiIdle(config.settleQuietMs, ceilingMs, config.getMinSettleMs(actionName))
+        ScreenSettleStats.record(
+            action = actionName,
+            packageName = device.getCurrentAppPackage(),
+            settleMs = settleMs,
+            hitCeiling = settleMs >= ceilingMs,
+        )
+        return settleMs
+    }
+
     /**
      * 检测用户任务中是否包含需要打开的应用，如果包含则自动启动
      */
     private suspend fun trySmartAppLaunch(
         task: String,
-        service: PhoneAgentAccessibilityService,
+        device: DeviceController,
         onLog: (String) -> Unit,
     ): Boolean {
         val launchPatterns = listOf(
@@ -475,38 +890,28 @@ class UiAutomationAgent(
             return false
         }
         
-        val currentApp = service.currentAppPackage()
+        val currentApp = device.getCurrentAppPackage()
         if (currentApp == appMatch.packageName) {
             onLog("[⚡快速启动] ${appMatch.appLabel} 已在前台，跳过启动（无需连接模型）")
             return true
         }
         
-        val pm = service.packageManager
-        val intent = pm.getLaunchIntentForPackage(appMatch.packageName)
-        if (intent == null) {
-            onLog("[⚡快速启动] 未找到 ${appMatch.appLabel}(${appMatch.packageName}) 的启动入口")
-            return false
-        }
-        
-        intent.addFlags(
-            android.content.Intent.FLAG_ACTIVITY_NEW_TASK or
-            android.content.Intent.FLAG_ACTIVITY_NO_ANIMATION or
-            android.content.Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED
-        )
-        
         try {
-            val beforeTime = service.lastWindowEventTime()
-            LaunchProxyActivity.launch(service, intent)
+            val beforeTime = device.getLastWindowEventTime()
+            if (!device.launchApp(appMatch.packageName)) {
+                onLog("[⚡快速启动] 未找到 ${appMatch.appLabel}(${appMatch.packageName}) 的启动入口")
+                return false
+            }
             onLog("[⚡快速启动] 后台启动 ${appMatch.appLabel}（无需连接模型，节省时间）")
             // 等待更长时间确保应用加载完成
-            service.awaitWindowEvent(beforeTime, timeoutMs = config.appLaunchWaitTimeoutMs)
+            device.awaitWindowEvent(beforeTime, timeoutMs = config.appLaunchWaitTimeoutMs)
             delay(config.appLaunchExtraDelayMs)
             
             // 清理截图缓存，确保获取最新的应用界面截图
             screenshotManager?.clear()
             
             // 验证应用是否真的启动了
-            val newApp = service.currentAppPackage()
+            val newApp = device.getCurrentAppPackage()
             if (newApp != appMatch.packageName) {
                 onLog("[⚡快速启动] ${appMatch.appLabel} 启动验证失败（当前：$newApp），将在后续步骤中处理")
             } else {
@@ -523,7 +928,7 @@ class UiAutomationAgent(
      * 合并执行 Tap+Type 操作
      */
     private suspend fun executeTapAndTypeCombined(
-        service: PhoneAgentAccessibilityService,
+        device: DeviceController,
         tapAction: ParsedAgentAction,
         typeAction: ParsedAgentAction,
         uiDump: String,
@@ -540,7 +945,7 @@ class UiAutomationAgent(
         
         if (element == null) {
             onLog("[合并执行] 无法获取点击坐标，回退到分别执行")
-            return actionExecutor.execute(typeAction, service, uiDump, screenW, screenH, onLog)
+            return actionExecutor.execute(typeAction, device, uiDump, screenW, screenH, onLog)
         }
         
         val (x, y) = ActionUtils.parsePointToScreen(element, screenW, screenH)
@@ -551,7 +956,7 @@ class UiAutomationAgent(
         delay(30)
 
         // 执行点击
-        val clickOk = service.clickAwait(x, y)
+        val clickOk = device.click(x, y)
         if (!clickOk) {
             AutomationOverlay.restoreVisibility()
             return false
@@ -561,15 +966,15 @@ class UiAutomationAgent(
         delay(config.tapTypeCombineKeyboardWaitMs)
 
         // 执行输入
-        var ok = service.setTextOnFocused(inputText)
+        var ok = device.setTextOnFocused(inputText)
 
         // 如果失败，尝试查找可编辑元素
         if (!ok) {
             onLog("[合并执行] 直接输入失败，尝试查找输入框...")
-        val inputClicked = service.clickFirstEditableElement()
+        val inputClicked = device.clickFirstEditableElement()
         if (inputClicked) {
                         delay(200)
-                        ok = service.setTextOnFocused(inputText)
+                        ok = device.setTextOnFocused(inputText)
             }
         }
 
@@ -588,7 +993,8 @@ class UiAutomationAgent(
         answerText: String,
             onLog: (String) -> Unit,
     ): ParsedAgentAction {
-        var action = actionParser.parse(ActionUtils.extractFirstActionSnippet(answerText) ?: answerText)
+        var action = lastStreamedAction?.takeIf { it.metadata == "do" || it.metadata == "finish" }
+            ?: actionParser.parse(ActionUtils.extractFirstActionSnippet(answerText) ?: answerText)
         
         if (action.metadata == "do" || action.metadata == "finish") {
             return action
@@ -646,19 +1052,24 @@ class UiAutomationAgent(
         
         for (attempt in 0 until maxAttempts) {
             kotlinx.coroutines.currentCoroutineContext().ensureActive()
+            lastStreamedAction = null
             
-            val result = withContext(Dispatchers.IO) {
-                AutoGlmClient.sendChatResult(
-                    apiKey = apiKey,
-                    messages = messages,
-                    model = model,
-                    temperature = config.temperature,
-                    maxTokens = config.maxTokens,
-                    topP = config.topP,
-                    frequencyPenalty = config.frequencyPenalty,
-                )
+            val result = if (config.useStreamingWithEarlyStop) {
+                requestModelStreaming(apiKey, model, messages, step, onLog)
+            } else {
+                withContext(Dispatchers.IO) {
+                    AutoGlmClient.sendChatResult(
+                        apiKey = apiKey,
+                        messages = messages,
+                        model = model,
+                        temperature = config.temperature,
+                        maxTokens = config.maxTokens,
+                        topP = config.topP,
+                        frequencyPenalty = config.frequencyPenalty,
+                    )
+                }
             }
-            
+
             if (result.isSuccess) return result
             
             val err = result.exceptionOrNull()
@@ -675,7 +1086,56 @@ class UiAutomationAgent(
         
         return kotlin.Result.failure(lastErr ?: java.io.IOException("Unknown model error"))
     }
-    
+
+    /**
+     * 流式请求模型，检测到完整动作后立即停止读取剩余响应
+     */
+    private suspend fun requestModelStreaming(
+        apiKey: String,
+        model: String,
+        messages: List<ChatRequestMessage>,
+        step: Int,
+        onLog: (String) -> Unit,
+    ): kotlin.Result<String> {
+        val detector = StreamingActionDetector(onActionComplete = { lastStreamedAction = it })
+        val requestStart = nowMs()
+        var firstDeltaSeen = false
+        val markFirstDelta = {
+            if (!firstDeltaSeen) {
+                firstDeltaSeen = true
+                lastTtftMs = nowMs() - requestStart
+            }
+        }
+        val result = AutoGlmClient.sendChatStreamResult(
+            apiKey = apiKey,
+            messages = messages,
+            model = model,
+            temperature = config.temperature,
+            maxTokens = config.maxTokens,
+            topP = config.topP,
+            frequencyPenalty = config.frequencyPenalty,
+            onReasoningDelta = { markFirstDelta() },
+            onContentDelta = { delta ->
+                markFirstDelta()
+                detector.append(delta)
+            },
+            shouldStop = { detector.isComplete },
+        )
+
+        if (result.isFailure) {
+            return kotlin.Result.failure(result.exceptionOrNull() ?: java.io.IOException("Unknown model error"))
+        }
+
+        if (detector.isComplete) {
+            onLog("[Step $step] 已收到完整动作，提前结束流式读取")
+        }
+        val content = detector.textUpToAction()
+        if (content.isBlank()) {
+            return kotlin.Result.failure(java.io.IOException("Empty model response"))
+        }
+        return kotlin.Result.success(content)
+    }
+
     /**
      * 等待暂停状态恢复
      */
@@ -687,15 +1147,16 @@ class UiAutomationAgent(
     
     /**
      * 修剪历史消息，保持上下文在限制内
+     * @return 被移除的消息数（均为最早的非 system 消息）
      */
-    private fun trimHistory(history: MutableList<ChatRequestMessage>) {
+    private fun trimHistory(history: MutableList<ChatRequestMessage>): Int {
+        var removed = 0
         // 移除图片只保留文本
         for (i in history.indices) {
             val msg = history[i]
             if (msg.content is List<*>) {
-                @Suppress("UNCHECKED_CAST")
-                val content = msg.content as List<Map<String, Any>>
-                val textOnly = content.filter { it["type"] == "text" }
+                val content = msg.content as List<*>
+                val textOnly = content.filter { it is Map<*, *> && it["type"] == "text" }
                 if (textOnly.isNotEmpty()) {
                     history[i] = ChatRequestMessage(role = msg.role, content = textOnly)
                 }
@@ -707,8 +1168,10 @@ class UiAutomationAgent(
             val removeIndex = history.indexOfFirst { it.role != "system" }
             if (removeIndex >= 0) {
                 history.removeAt(removeIndex)
+                removed++
                 if (removeIndex < history.size && history[removeIndex].role == "assistant") {
                     history.removeAt(removeIndex)
+                    removed++
                 }
             } else {
                 break
@@ -727,6 +1190,8 @@ class UiAutomationAgent(
             val idx = history.indexOfFirst { it.role != "system" }
             if (idx < 0 || idx >= history.size - turns) break
             history.removeAt(idx)
+            removed++
         }
+        return removed
     }
 }
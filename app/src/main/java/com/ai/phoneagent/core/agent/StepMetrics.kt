@@ -0,0 +1,106 @@
+package com.ai.phoneagent.core.agent
+
+/**
+ * 单步耗时指标
+ *
+ * 由 UiAutomationAgent 在每一步结束时（包括提前结束的最后一步）发出，
+ * 未经历的阶段记为 0；非流式请求没有首 token 时间，记为 -1。
+ * 流水线模式下观测在上一步的等待期间预取，captureMs/uiDumpMs 与上一步的 settleMs 重叠。
+ */
+data class StepMetrics(
+    val step: Int,
+    /** 截图耗时（含编码） */
+    val captureMs: Long,
+    /** UI 树获取耗时 */
+    val uiDumpMs: Long,
+    /** UI 树节点数 */
+    val uiNodes: Int,
+    /** 本次请求的提示词字节数（文本 UTF-8 + 图片） */
+    val promptBytes: Int,
+    /** 本次请求的估算 token 数 */
+    val promptTokens: Int,
+    /** 首 token 时间（从发出请求到收到第一个增量） */
+    val ttftMs: Long,
+    /** 模型请求总耗时（含重试） */
+    val modelMs: Long,
+    /** 解析耗时（含解析修正） */
+    val parseMs: Long,
+    /** 动作执行耗时（含动作修复） */
+    val executeMs: Long,
+    /** 等待界面稳定耗时 */
+    val settleMs: Long,
+    /** 整步耗时 */
+    val totalMs: Long,
+    val action: String,
+) {
+
+    fun toCsvRow(): String {
+        return buildString {
+            append(step).append(',')
+            append(captureMs).append(',')
+            append(uiDumpMs).append(',')
+            append(uiNodes).append(',')
+            append(promptBytes).append(',')
+            append(promptTokens).append(',')
+            append(ttftMs).append(',')
+            append(modelMs).append(',')
+            append(parseMs).append(',')
+            append(executeMs).append(',')
+            append(settleMs).append(',')
+            append(totalMs).append(',')
+            // 动作名只含字母/下划线，保险起见去掉分隔符
+            append(action.replace(',', ' ').replace('\n', ' '))
+        }
+    }
+
+    /**
+     * 多步指标汇总（各阶段平均值）
+     */
+    data class Summary(
+        val steps: Int,
+        val avgTotalMs: Long,
+        val avgCaptureMs: Long,
+        val avgUiDumpMs: Long,
+        val avgModelMs: Long,
+        val avgTtftMs: Long,
+        val avgParseMs: Long,
+        val avgExecuteMs: Long,
+        val avgSettleMs: Long,
+        val avgPromptTokens: Int,
+    ) {
+        fun format(): String {
+            val ttft = if (avgTtftMs >= 0) "${avgTtftMs}ms" else "-"
+            return "步骤耗时（平均，共${steps}步）：总计${avgTotalMs}ms｜截图${avgCaptureMs}ms｜UI树${avgUiDumpMs}ms｜" +
+                "模型${avgModelMs}ms（首token $ttft）｜解析${avgParseMs}ms｜执行${avgExecuteMs}ms｜" +
+                "等待${avgSettleMs}ms｜提示词≈${avgPromptTokens} tokens"
+        }
+    }
+
+    companion object {
+        const val CSV_HEADER =
+            "step,capture_ms,ui_dump_ms,ui_nodes,prompt_bytes,prompt_tokens,ttft_ms," +
+                "model_ms,parse_ms,execute_ms,settle_ms,total_ms,action"
+
+        /**
+         * 汇总多步指标
+         * @return 列表为空时返回 null
+         */
+        fun summarize(metrics: List<StepMetrics>): Summary? {
+            if (metrics.isEmpty()) return null
+            val n = metrics.size
+            val withTtft = metrics.filter { it.ttftMs >= 0 }
+            return Summary(
+                steps = n,
+                avgTotalMs = metrics.sumOf { it.totalMs } / n,
+                avgCaptureMs = metrics.sumOf { it.captureMs } / n,
+                avgUiDumpMs = metrics.sumOf { it.uiDumpMs } / n,
+                avgModelMs = metrics.sumOf { it.modelMs } / n,
+                avgTtftMs = if (withTtft.isEmpty()) -1L else withTtft.sumOf { it.ttftMs } / withTtft.size,
+                avgParseMs = metrics.sumOf { it.parseMs } / n,
+                avgExecuteMs = metrics.sumOf { it.executeMs } / n,
+                avgSettleMs = metrics.sumOf { it.settleMs } / n,
+                avgPromptTokens = metrics.sumOf { it.promptTokens } / n,
+            )
+        }
+    }
+}
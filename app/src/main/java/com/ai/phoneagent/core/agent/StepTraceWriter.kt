@@ -0,0 +1,91 @@
+package com.ai.phoneagent.core.agent
+
+import com.ai.phoneagent.core.platform.ScreenSettleStats
+import java.io.BufferedWriter
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+
+/**
+ * 单次任务的步骤指标追踪文件（CSV）
+ *
+ * 每个任务一个文件：trace_<开始时间>.csv，每步追加一行并立即 flush，任务中途异常退出也能保留已完成的步骤。
+ * 目录中只保留最近 [maxFiles] 个追踪文件。写入为阻塞 IO，调用方负责切换到 IO 线程。
+ */
+class StepTraceWriter(
+    private val dir: File,
+    private val maxFiles: Int = DEFAULT_MAX_FILES,
+) : Closeable {
+
+    private var writer: BufferedWriter? = null
+
+    /** 当前追踪文件 */
+    var file: File? = null
+        private set
+
+    /**
+     * 创建新的追踪文件并写入表头
+     * @param task 任务描述，写为注释行
+     */
+    @Throws(IOException::class)
+    fun open(task: String, startTimeMs: Long = System.currentTimeMillis()) {
+        close()
+        if (!dir.exists()) dir.mkdirs()
+        pruneOldFiles()
+        val f = File(dir, "trace_$startTimeMs.csv")
+        val w = f.bufferedWriter()
+        w.write("# task: ")
+        w.write(task.replace('\n', ' ').take(MAX_TASK_LENGTH))
+        w.newLine()
+        w.write(StepMetrics.CSV_HEADER)
+        w.newLine()
+        w.flush()
+        writer = w
+        file = f
+    }
+
+    @Throws(IOException::class)
+    fun append(metrics: StepMetrics) {
+        val w = writer ?: return
+        w.write(metrics.toCsvRow())
+        w.newLine()
+        w.flush()
+    }
+
+    /**
+     * 任务结束时追加界面稳定耗时统计，以 # 开头的注释行写在步骤行之后，便于离线汇总调校动作延迟
+     */
+    @Throws(IOException::class)
+    fun appendSettleStats(entries: List<ScreenSettleStats.Entry>) {
+        val w = writer ?: return
+        if (entries.isEmpty()) return
+        w.write("# settle: ")
+        w.write(ScreenSettleStats.CSV_HEADER)
+        w.newLine()
+        for (entry in entries) {
+            w.write("# settle: ")
+            w.write(entry.toCsvRow())
+            w.newLine()
+        }
+        w.flush()
+    }
+
+    override fun close() {
+        runCatching { writer?.close() }
+        writer = null
+    }
+
+    private fun pruneOldFiles() {
+        val files = dir.listFiles { f -> f.isFile && f.name.startsWith("trace_") && f.name.endsWith(".csv") }
+            ?: return
+        if (files.size < maxFiles) return
+        files.sortedBy { it.lastModified() }
+            .take(files.size - maxFiles + 1)
+            .forEach { it.delete() }
+    }
+
+    companion object {
+        const val DEFAULT_MAX_FILES = 20
+        private const val MAX_TASK_LENGTH = 200
+    }
+}
@@ -0,0 +1,78 @@
+package com.ai.phoneagent.core.cache
+
+/**
+ * 感知哈希（dHash）
+ *
+ * 将截图缩成 9x8 灰度网格，逐行比较相邻像素亮度得到 64 位指纹。
+ * 状态栏时间跳动、光标闪烁等微小变化只会翻转少量位，
+ * 因此用汉明距离判断两张截图是否为“同一屏幕”。
+ *
+ * 纯计算逻辑不依赖 Android，位图采样由 ScreenshotEncoder 完成。
+ */
+object PerceptualHash {
+
+    /** 哈希网格宽度（比高度多 1 列用于相邻差分） */
+    const val GRID_WIDTH = 9
+    const val GRID_HEIGHT = 8
+
+    /** 采样位图尺寸：每个网格单元 4x4 像素，先平均再比较，抗噪声 */
+    const val SAMPLE_WIDTH = GRID_WIDTH * 4
+    const val SAMPLE_HEIGHT = GRID_HEIGHT * 4
+
+    /**
+     * 根据 ARGB 像素计算 dHash
+     * @param pixels 行优先的 ARGB 像素（长度为 width * height）
+     * @param width 采样宽度（需为 GRID_WIDTH 的整数倍）
+     * @param height 采样高度（需为 GRID_HEIGHT 的整数倍）
+     */
+    fun dHash(pixels: IntArray, width: Int = SAMPLE_WIDTH, height: Int = SAMPLE_HEIGHT): Long {
+        require(pixels.size >= width * height) { "pixels too small: ${pixels.size} < ${width * height}" }
+        val cellW = (width / GRID_WIDTH).coerceAtLeast(1)
+        val cellH = (height / GRID_HEIGHT).coerceAtLeast(1)
+
+        val grid = IntArray(GRID_WIDTH * GRID_HEIGHT)
+        for (gy in 0 until GRID_HEIGHT) {
+            for (gx in 0 until GRID_WIDTH) {
+                var sum = 0
+                for (y in gy * cellH until gy * cellH + cellH) {
+                    val row = y * width
+                    for (x in gx * cellW until gx * cellW + cellW) {
+                        sum += luma(pixels[row + x])
+                    }
+                }
+                grid[gy * GRID_WIDTH + gx] = sum
+            }
+        }
+
+        var hash = 0L
+        var bit = 0
+        for (gy in 0 until GRID_HEIGHT) {
+            val row = gy * GRID_WIDTH
+            for (gx in 0 until GRID_WIDTH - 1) {
+                if (grid[row + gx] > grid[row + gx + 1]) {
+                    hash = hash or (1L shl bit)
+                }
+                bit++
+            }
+        }
+        return hash
+    }
+
+    /**
+     * 两个哈希的汉明距离（0-64）
+     */
+    fun distance(a: Long, b: Long): Int = java.lang.Long.bitCount(a xor b)
+
+    /**
+     * 是否视为同一屏幕
+     */
+    fun isSimilar(a: Long, b: Long, maxDistance: Int): Boolean = distance(a, b) <= maxDistance
+
+    // ITU-R BT.601 近似亮度，整数运算
+    private fun luma(argb: Int): Int {
+        val r = argb shr 16 and 0xff
+        val g = argb shr 8 and 0xff
+        val b = argb and 0xff
+        return (r * 299 + g * 587 + b * 114) / 1000
+    }
+}
@@ -4,7 +4,9 @@ import android.util.Log
 
 /**
  * 截图缓存管理器
- * 实现LRU缓存策略，避免短时间内重复截图
+ * 以截图的内容指纹（整屏像素 CRC32）为键，实现LRU缓存策略。
+ * 像素完全相同的屏幕再次出现时直接复用已编码的图片，省去压缩耗时。
+ * 不按感知哈希的相似度匹配：相似的截图可能只差一个输入字符或开关状态，复用会把旧画面发给模型。
  */
 class ScreenshotCache(
     private val maxSize: Int = 3,           // 最大缓存条目数
@@ -16,44 +18,44 @@ class ScreenshotCache(
         val timestamp: Long                 // 创建时间戳
     )
     
-    // LRU缓存实现
-    private val cache = object : LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
-        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, CacheEntry>?): Boolean {
+    // LRU缓存实现（键为内容指纹）
+    private val cache = object : LinkedHashMap<Long, CacheEntry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, CacheEntry>?): Boolean {
             return size > maxSize
         }
     }
     
     /**
-     * 获取缓存的截图
-     * @param key 缓存键（通常基于屏幕状态）
+     * 获取内容相同的缓存截图
+     * @param key 当前截图的内容指纹
      * @return 有效的截图数据，如果不存在或已过期则返回null
      */
     @Synchronized
-    fun get(key: String): Any? {
+    fun get(key: Long): Any? {
         val entry = cache[key] ?: return null
         
         // 检查是否过期
         val currentTime = System.currentTimeMillis()
         if (currentTime - entry.timestamp > ttlMs) {
             cache.remove(key)
-            Log.d("SCREENSHOT_CACHE", "缓存过期移除: $key")
+            Log.d("SCREENSHOT_CACHE", "缓存过期移除: ${java.lang.Long.toHexString(key)}")
             return null
         }
         
-        Log.d("SCREENSHOT_CACHE", "缓存命中: $key")
+        Log.d("SCREENSHOT_CACHE", "缓存命中: ${java.lang.Long.toHexString(key)}")
         return entry.screenshot
     }
     
     /**
      * 存储截图到缓存
-     * @param key 缓存键
+     * @param key 截图的内容指纹
      * @param screenshot 截图数据
      */
     @Synchronized
-    fun put(key: String, screenshot: Any) {
+    fun put(key: Long, screenshot: Any) {
         val currentTime = System.currentTimeMillis()
         cache[key] = CacheEntry(screenshot, currentTime)
-        Log.d("SCREENSHOT_CACHE", "缓存存储: $key, 总数: ${cache.size}")
+        Log.d("SCREENSHOT_CACHE", "缓存存储: ${java.lang.Long.toHexString(key)}, 总数: ${cache.size}")
     }
     
     /**
@@ -97,14 +99,4 @@ class ScreenshotCache(
             "maxSize" to maxSize
         )
     }
-    
-    /**
-     * 生成缓存键
-     * 基于应用包名和窗口变化时间戳生成唯一键
-     */
-    fun generateKey(packageName: String, windowEventTime: Long): String {
-        // 将时间戳按500ms分组，减少缓存键的变化频率
-        val timeSlot = (windowEventTime / 500) * 500
-        return "${packageName}_${timeSlot}"
-    }
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+package com.ai.phoneagent.core.cache
+
+import com.ai.phoneagent.core.config.AgentConfiguration
+
+/**
+ * 截图编码策略 - 按字节预算自适应选择缩放/格式/质量
+ *
+ * 先降质量、再降缩放比例，直到压缩结果不超过 `screenshotMaxSizeKB`。
+ * 每个“屏幕尺寸 + 应用”找到的可用参数会记录在 [ScreenshotEncodeProfiles] 中，
+ * 下次直接从该参数开始，通常一次压缩即可命中预算；明显低于预算时逐步回升画质。
+ *
+ * 纯计算逻辑不依赖 Android，实际压缩由 ScreenshotEncoder 完成。
+ */
+class ScreenshotEncodePolicy(
+    /** 字节预算 */
+    val maxBytes: Int,
+    /** 最高（初始）质量 */
+    val maxQuality: Int,
+    /** 最大（初始）缩放百分比 */
+    val maxScalePercent: Int,
+    /** 是否允许使用 WebP（同等画质体积更小，但需模型网关支持） */
+    val allowWebp: Boolean = false,
+) {
+
+    enum class Format(val mimeType: String) {
+        JPEG("image/jpeg"),
+        WEBP("image/webp"),
+    }
+
+    data class Settings(
+        val scalePercent: Int,
+        val quality: Int,
+        val format: Format,
+    )
+
+    private val preferredFormat = if (allowWebp) Format.WEBP else Format.JPEG
+
+    /**
+     * 本次压缩的起始参数：优先使用记住的参数
+     */
+    fun initial(profileKey: String): Settings {
+        return ScreenshotEncodeProfiles.get(budgetKey(profileKey))
+            ?.takeIf { it.format == preferredFormat }
+            ?: Settings(
+                scalePercent = maxScalePercent.coerceIn(MIN_SCALE_PERCENT, 100),
+                quality = maxQuality.coerceIn(MIN_QUALITY, 100),
+                format = preferredFormat,
+            )
+    }
+
+    /**
+     * 压缩结果超出预算时的下一组参数
+     * @return null 表示已在预算内，或已降到下限无法继续
+     */
+    fun next(current: Settings, sizeBytes: Int): Settings? {
+        if (sizeBytes <= maxBytes) return null
+        if (current.quality > MIN_QUALITY) {
+            // 按超出比例决定降幅，体积大幅超标时一次多降一些
+            val step = if (sizeBytes > maxBytes * 3 / 2) QUALITY_STEP * 2 else QUALITY_STEP
+            return current.copy(quality = (current.quality - step).coerceAtLeast(MIN_QUALITY))
+        }
+        if (current.scalePercent > MIN_SCALE_PERCENT) {
+            return current.copy(scalePercent = (current.scalePercent - SCALE_STEP).coerceAtLeast(MIN_SCALE_PERCENT))
+        }
+        return null
+    }
+
+    /**
+     * 记录本次最终使用的参数
+     *
+     * 结果远低于预算时，下次尝试回升一档（先恢复缩放，再恢复质量），避免画质一直停留在低档。
+     */
+    fun remember(profileKey: String, settings: Settings, sizeBytes: Int) {
+        val nextStart = if (sizeBytes < maxBytes * UPGRADE_RATIO_PERCENT / 100) {
+            when {
+                settings.scalePercent < maxScalePercent ->
+                    settings.copy(scalePercent = (settings.scalePercent + SCALE_STEP).coerceAtMost(maxScalePercent))
+                settings.quality < maxQuality ->
+                    settings.copy(quality = (settings.quality + QUALITY_STEP).coerceAtMost(maxQuality))
+                else -> settings
+            }
+        } else {
+            settings
+        }
+        ScreenshotEncodeProfiles.put(budgetKey(profileKey), nextStart)
+    }
+
+    private fun budgetKey(profileKey: String): String =
+        "$maxBytes|$maxQuality|$maxScalePercent|$profileKey"
+
+    companion object {
+        const val MIN_QUALITY = 50
+        const val MIN_SCALE_PERCENT = 40
+        const val QUALITY_STEP = 10
+        const val SCALE_STEP = 10
+        /** 单次截图最多压缩次数，避免极端画面拖慢一步 */
+        const val MAX_ATTEMPTS = 4
+        /** 结果低于预算的该百分比时尝试回升画质 */
+        private const val UPGRADE_RATIO_PERCENT = 60
+
+        fun fromConfig(config: AgentConfiguration): ScreenshotEncodePolicy {
+            return ScreenshotEncodePolicy(
+                maxBytes = config.screenshotMaxSizeKB.coerceAtLeast(1) * 1024,
+                maxQuality = config.screenshotCompressionQuality,
+                maxScalePercent = config.screenshotScalePercent,
+                allowWebp = config.screenshotAllowWebp,
+            )
+        }
+
+        /** 画像键：屏幕尺寸 + 应用包名 */
+        fun profileKey(width: Int, height: Int, packageName: String): String =
+            "${width}x$height|$packageName"
+    }
+}
+
+/**
+ * 已验证可用的编码参数（进程内记忆）
+ */
+object ScreenshotEncodeProfiles {
+
+    private const val MAX_ENTRIES = 64
+
+    private val profiles = object : LinkedHashMap<String, ScreenshotEncodePolicy.Settings>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, ScreenshotEncodePolicy.Settings>?): Boolean {
+            return size > MAX_ENTRIES
+        }
+    }
+
+    @Synchronized
+    fun get(key: String): ScreenshotEncodePolicy.Settings? = profiles[key]
+
+    @Synchronized
+    fun put(key: String, settings: ScreenshotEncodePolicy.Settings) {
+        profiles[key] = settings
+    }
+
+    @Synchronized
+    fun clear() {
+        profiles.clear()
+    }
+}
@@ -0,0 +1,179 @@
+package com.ai.phoneagent.core.cache
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Rect
+import android.os.Build
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.util.zip.CRC32
+
+/**
+ * 截图编码器 - 复用缓冲区的缩放/压缩
+ *
+ * 缩放目标位图、压缩输出缓冲均在多次截图之间复用，
+ * 只在屏幕尺寸变化或内容超出容量时重新分配，避免每步产生大量临时对象触发 GC。
+ * 压缩结果只拷贝一次到按实际大小分配的数组中交给调用方；Base64 不在这里做，
+ * 由请求体写入时分块编码（见 ChatRequestBody），因此不需要 Base64 缓冲。
+ *
+ * 注意：内部缓冲区不做同步，所有调用必须在同一个线程（截图回调线程）上进行。
+ */
+class ScreenshotEncoder(initialCapacity: Int = DEFAULT_CAPACITY) {
+
+    private var scaledBitmap: Bitmap? = null
+    private val canvas = Canvas()
+    private val paint = Paint(Paint.FILTER_BITMAP_FLAG)
+    private val dstRect = Rect()
+
+    // 压缩输出缓冲：reset 后保留容量。结果必须拷贝出去，因为截图会被缓存、放入对话历史，
+    // 生命周期长于下一次截图，不能直接引用这块会被覆盖的缓冲区
+    private val compressed = ByteArrayOutputStream(initialCapacity)
+
+    // 感知哈希采样缓冲
+    private var hashBitmap: Bitmap? = null
+    private val hashRect = Rect(0, 0, PerceptualHash.SAMPLE_WIDTH, PerceptualHash.SAMPLE_HEIGHT)
+    private val hashPixels = IntArray(PerceptualHash.SAMPLE_WIDTH * PerceptualHash.SAMPLE_HEIGHT)
+
+    // 内容指纹：整屏像素拷贝缓冲
+    private var pixelBuffer: ByteBuffer? = null
+    private val crc = CRC32()
+
+    /**
+     * 计算截图的感知哈希（dHash）
+     *
+     * 先缩放到很小的采样位图再计算，开销远小于一次JPEG压缩。
+     * @param source 软件位图（不能是 HARDWARE 配置）
+     */
+    fun perceptualHash(source: Bitmap): Long {
+        var target = hashBitmap
+        if (target == null || target.isRecycled) {
+            target = Bitmap.createBitmap(
+                PerceptualHash.SAMPLE_WIDTH,
+                PerceptualHash.SAMPLE_HEIGHT,
+                Bitmap.Config.ARGB_8888
+            )
+            hashBitmap = target
+        }
+        canvas.setBitmap(target)
+        canvas.drawBitmap(source, null, hashRect, paint)
+        canvas.setBitmap(null)
+        target.getPixels(
+            hashPixels, 0, PerceptualHash.SAMPLE_WIDTH,
+            0, 0, PerceptualHash.SAMPLE_WIDTH, PerceptualHash.SAMPLE_HEIGHT
+        )
+        return PerceptualHash.dHash(hashPixels)
+    }
+
+    /**
+     * 计算截图的内容指纹（整屏像素的 CRC32）
+     *
+     * 与感知哈希不同，任何像素变化（输入的字符、开关状态、角标数字）都会改变指纹，
+     * 可作为复用已编码图片的键。拷贝像素 + CRC 的开销仍远小于一次压缩。
+     * @param source 软件位图（不能是 HARDWARE 配置）
+     */
+    fun contentFingerprint(source: Bitmap): Long {
+        val size = source.byteCount
+        var buffer = pixelBuffer
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size)
+            pixelBuffer = buffer
+        }
+        buffer.clear()
+        source.copyPixelsToBuffer(buffer)
+        buffer.flip()
+        crc.reset()
+        crc.update(buffer)
+        return crc.value
+    }
+
+    /**
+     * 编码结果
+     */
+    class Encoded(
+        val bytes: ByteArray,
+        val mimeType: String,
+        val settings: ScreenshotEncodePolicy.Settings,
+    )
+
+    /**
+     * 按字节预算自适应压缩
+     *
+     * 从策略记住的参数开始，超出预算则逐档降低质量/缩放（最多 MAX_ATTEMPTS 次），
+     * 最终参数回写给策略供下次使用。
+     * @param profileKey 画像键（屏幕尺寸 + 应用），见 ScreenshotEncodePolicy.profileKey
+     */
+    fun encodeAdaptive(
+        source: Bitmap,
+        policy: ScreenshotEncodePolicy,
+        profileKey: String,
+    ): Encoded {
+        var settings = policy.initial(profileKey)
+        var size = compressInto(source, settings)
+        var attempts = 1
+        while (attempts < ScreenshotEncodePolicy.MAX_ATTEMPTS) {
+            val next = policy.next(settings, size) ?: break
+            settings = next
+            size = compressInto(source, settings)
+            attempts++
+        }
+        policy.remember(profileKey, settings, size)
+        return Encoded(compressed.toByteArray(), settings.format.mimeType, settings)
+    }
+
+    private fun compressInto(source: Bitmap, settings: ScreenshotEncodePolicy.Settings): Int {
+        val format = when (settings.format) {
+            ScreenshotEncodePolicy.Format.JPEG -> Bitmap.CompressFormat.JPEG
+            ScreenshotEncodePolicy.Format.WEBP ->
+                if (Build.VERSION.SDK_INT >= 30) Bitmap.CompressFormat.WEBP_LOSSY
+                else @Suppress("DEPRECATION") Bitmap.CompressFormat.WEBP
+        }
+        return compressInto(source, settings.scalePercent, format, settings.quality)
+    }
+
+    private fun compressInto(
+        source: Bitmap,
+        scalePercent: Int,
+        format: Bitmap.CompressFormat,
+        quality: Int,
+    ): Int {
+        val bmp = scaleInto(source, scalePercent)
+        compressed.reset()
+        bmp.compress(format, quality, compressed)
+        return compressed.size()
+    }
+
+    /**
+     * 释放复用的位图（服务销毁时调用）
+     */
+    fun release() {
+        scaledBitmap?.recycle()
+        scaledBitmap = null
+        hashBitmap?.recycle()
+        hashBitmap = null
+        pixelBuffer = null
+    }
+
+    private fun scaleInto(source: Bitmap, scalePercent: Int): Bitmap {
+        if (scalePercent >= 100) return source
+        val w = (source.width * scalePercent / 100).coerceAtLeast(1)
+        val h = (source.height * scalePercent / 100).coerceAtLeast(1)
+
+        var target = scaledBitmap
+        if (target == null || target.isRecycled || target.width != w || target.height != h) {
+            target?.recycle()
+            target = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888)
+            scaledBitmap = target
+        }
+
+        canvas.setBitmap(target)
+        dstRect.set(0, 0, w, h)
+        canvas.drawBitmap(source, null, dstRect, paint)
+        canvas.setBitmap(null)
+        return target
+    }
+
+    companion object {
+        private const val DEFAULT_CAPACITY = 256 * 1024
+    }
+}
@@ -2,6 +2,7 @@
 
 import com.ai.phoneagent.PhoneAgentAccessibilityService
 import com.ai.phoneagent.core.config.AgentConfiguration
+import com.ai.phoneagent.core.platform.DeviceController
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 
@@ -16,82 +17,93 @@ class ScreenshotManager(
 ) {
     private val cache = ScreenshotCache(
         maxSize = config.screenshotCacheMaxSize,
-        ttlMs = config.screenshotCacheTtlMs
+        ttlMs = config.screenshotContentCacheTtlMs
     )
     private val throttler = ScreenshotThrottler(
         minIntervalMs = config.screenshotThrottleMinIntervalMs
     )
+    private val encodePolicy = ScreenshotEncodePolicy.fromConfig(config)
     private val mutex = Mutex()
+
+    // 最近一次截图及其对应的窗口事件时间
+    @Volatile private var lastScreenshot: PhoneAgentAccessibilityService.ScreenshotData? = null
+    @Volatile private var lastScreenshotEventTime = 0L
+    @Volatile private var lastScreenshotAt = 0L
     
     /**
      * 优化的截图获取方法
-     * 1. 检查节流器，防止频繁截图
-     * 2. 检查缓存，避免重复截图
-     * 3. 执行截图并压缩优化
+     * 1. 自上次截图以来没有任何窗口事件时直接返回上次截图
+     * 2. 检查节流器，防止频繁截图
+     * 3. 执行截图；像素与缓存中某张截图完全相同时复用其已编码图片，否则按字节预算自适应压缩
      */
     suspend fun getOptimizedScreenshot(
-        service: PhoneAgentAccessibilityService
+        device: DeviceController
     ): PhoneAgentAccessibilityService.ScreenshotData? {
+        // 界面未发生任何变化，无需重新截图
+        if (config.enableScreenshotCache) {
+            val unchanged = getIfNoWindowEvent(device)
+            if (unchanged != null) return unchanged
+        }
+
         // 检查节流器
         if (!throttler.canTakeScreenshot()) {
-            val remainingWait = throttler.getRemainingWaitTime()
-            if (remainingWait > 0 && config.enableScreenshotCache) {
-                // 尝试从缓存获取
-                val cached = getFromCache(service)
-                if (cached != null) return cached
-            }
             return null
         }
         
-        // 检查缓存
-        if (config.enableScreenshotCache) {
-            val cached = getFromCache(service)
-            if (cached != null) {
-                throttler.reset() // 使用缓存时也重置节流时间
-                return cached
-            }
+        // 执行截图（按内容指纹复用像素完全相同的已编码截图）
+        val eventTime = device.getLastWindowEventTime()
+        val screenshot = if (config.enableScreenshotCache) {
+            cache.evictExpired()
+            device.tryCaptureScreenshot(
+                reuseEncoded = { hash -> cache.get(hash) as? PhoneAgentAccessibilityService.ScreenshotData },
+                encodePolicy = encodePolicy
+            )
+        } else {
+            device.tryCaptureScreenshot(encodePolicy = encodePolicy)
         }
-        
-        // 执行截图
-        val screenshot = service.tryCaptureScreenshotBase64()
         if (screenshot != null && config.enableScreenshotCache) {
-            putToCache(service, screenshot)
-            cache.evictExpired()
+            cache.put(screenshot.contentHash, screenshot)
+            lastScreenshot = screenshot
+            lastScreenshotEventTime = eventTime
+            lastScreenshotAt = System.currentTimeMillis()
         }
         
         return screenshot
     }
-    
+
     /**
-     * 从缓存获取截图
+     * 两张截图是否为同一屏幕（感知哈希足够接近）
+     *
+     * 感知哈希会忽略细小变化，只用于“屏幕未变化”的提示判断，不用于复用图片。
      */
-    private fun getFromCache(service: PhoneAgentAccessibilityService): PhoneAgentAccessibilityService.ScreenshotData? {
-        if (!config.enableScreenshotCache) return null
-        
-        val currentApp = service.currentAppPackage()
-        val windowEventTime = service.lastWindowEventTime()
-        val cacheKey = cache.generateKey(currentApp, windowEventTime)
-        
-        @Suppress("UNCHECKED_CAST")
-        return cache.get(cacheKey) as? PhoneAgentAccessibilityService.ScreenshotData
+    fun isSameScreen(
+        a: PhoneAgentAccessibilityService.ScreenshotData,
+        b: PhoneAgentAccessibilityService.ScreenshotData
+    ): Boolean {
+        return a.width == b.width && a.height == b.height &&
+            PerceptualHash.isSimilar(a.perceptualHash, b.perceptualHash, config.screenshotHashMaxDistance)
     }
     
     /**
-     * 存储截图到缓存
+     * 自上次截图以来没有窗口事件且未过期时返回上次截图
      */
-    private fun putToCache(
-        service: PhoneAgentAccessibilityService,
-        screenshot: PhoneAgentAccessibilityService.ScreenshotData
-    ) {
-        if (!config.enableScreenshotCache) return
-        
-        val currentApp = service.currentAppPackage()
-        val windowEventTime = service.lastWindowEventTime()
-        val cacheKey = cache.generateKey(currentApp, windowEventTime)
-        
-        cache.put(cacheKey, screenshot)
+    private fun getIfNoWindowEvent(device: DeviceController): PhoneAgentAccessibilityService.ScreenshotData? {
+        val last = lastScreenshot ?: return null
+        if (System.currentTimeMillis() - lastScreenshotAt > config.screenshotCacheTtlMs) return null
+        if (device.getLastWindowEventTime() != lastScreenshotEventTime) return null
+        return last
     }
     
+    /**
+     * 重置节流器，使下一次截图不受最小间隔限制
+     *
+     * 预取的观测因界面变化作废后调用：重新采集距预取时的截图往往不足节流间隔，
+     * 不重置的话这一步会在没有截图的情况下发给模型。
+     */
+    fun resetThrottle() {
+        throttler.reset()
+    }
+
     /**
      * 清理截图缓存（在任务开始/结束时调用）
      */
@@ -99,6 +111,7 @@ class ScreenshotManager(
         mutex.withLock {
             if (config.enableScreenshotCache) {
                 cache.clear()
+                lastScreenshot = null
             }
             if (config.enableScreenshotThrottle) {
                 throttler.reset()
@@ -0,0 +1,307 @@
+package com.ai.phoneagent.core.cache
+
+/**
+ * UI 元素索引 - 基于一次 UI 树快照构建
+ *
+ * - resource-id：按完整 id 分组，查询时只扫描去重后的 id 集合
+ * - class：完整类名 / 短类名两级哈希分桶
+ * - text / content-desc：二元组（bigram）倒排索引，先取候选再精确校验
+ *
+ * 所有查询结果按广度优先顺序返回，与原先逐节点遍历的 index 语义一致。
+ * 由 [UiTreeIndex.readElements] 按快照版本缓存，快照变化后重新构建。
+ */
+class UiElementIndex private constructor(
+    private val nodes: Array<UiTreeNode>,
+    private val normalize: (String) -> String,
+) {
+
+    /**
+     * 匹配模式
+     */
+    enum class MatchMode {
+        /** 定位单个目标（click/scroll/wait）：id 后缀匹配、类名精确匹配、文本支持规范化匹配 */
+        TARGET,
+
+        /** 搜索（find_elements）：id 包含匹配、类名包含匹配、文本忽略大小写包含 */
+        SEARCH,
+    }
+
+    /**
+     * 元素选择器，空字段表示不限制
+     */
+    data class Selector(
+        val resourceId: String? = null,
+        val text: String? = null,
+        val contentDesc: String? = null,
+        val className: String? = null,
+    ) {
+        val isEmpty: Boolean
+            get() = resourceId.isNullOrBlank() && text.isNullOrBlank() &&
+                contentDesc.isNullOrBlank() && className.isNullOrBlank()
+    }
+
+    private val byResourceId = HashMap<String, IntList>()
+    private val byClassFull = HashMap<String, IntList>()
+    private val byClassShort = HashMap<String, IntList>()
+    private val textGrams = HashMap<Int, IntList>()
+    private val descGrams = HashMap<Int, IntList>()
+    private val normTextGrams = HashMap<Int, IntList>()
+    private val normDescGrams = HashMap<Int, IntList>()
+    private val withText = IntList()
+    private val withDesc = IntList()
+
+    // 规范化文本只计算一次
+    private val normText = arrayOfNulls<String>(nodes.size)
+    private val normDesc = arrayOfNulls<String>(nodes.size)
+
+    init {
+        for (i in nodes.indices) {
+            val node = nodes[i]
+            node.resourceId?.let { byResourceId.getOrPut(it) { IntList() }.add(i) }
+            if (node.className.isNotEmpty()) {
+                byClassFull.getOrPut(node.className) { IntList() }.add(i)
+                byClassShort.getOrPut(node.className.substringAfterLast('.')) { IntList() }.add(i)
+            }
+            node.text?.let {
+                withText.add(i)
+                addGrams(textGrams, it, i)
+                val n = normalize(it)
+                normText[i] = n
+                addGrams(normTextGrams, n, i)
+            }
+            node.contentDesc?.let {
+                withDesc.add(i)
+                addGrams(descGrams, it, i)
+                val n = normalize(it)
+                normDesc[i] = n
+                addGrams(normDescGrams, n, i)
+            }
+        }
+    }
+
+    val size: Int get() = nodes.size
+
+    /**
+     * 查找第 index 个匹配元素（从 0 开始）
+     */
+    fun nth(selector: Selector, mode: MatchMode, index: Int): UiTreeNode? {
+        val target = index.coerceAtLeast(0)
+        return find(selector, mode, target + 1).getOrNull(target)
+    }
+
+    /**
+     * 查找匹配元素（广度优先顺序）
+     * @param limit 最多返回数量
+     */
+    fun find(selector: Selector, mode: MatchMode, limit: Int = Int.MAX_VALUE): List<UiTreeNode> {
+        if (limit <= 0) return emptyList()
+        val candidates = candidates(selector, mode)
+        val result = ArrayList<UiTreeNode>(minOf(limit, 16))
+        if (candidates == null) {
+            // 选择器无可索引字段：顺序校验全部节点
+            for (i in nodes.indices) {
+                if (matches(i, selector, mode)) {
+                    result.add(nodes[i])
+                    if (result.size >= limit) break
+                }
+            }
+            return result
+        }
+        for (i in candidates) {
+            if (matches(i, selector, mode)) {
+                result.add(nodes[i])
+                if (result.size >= limit) break
+            }
+        }
+        return result
+    }
+
+    /**
+     * 根据最有选择性的字段生成候选（升序），null 表示无法缩小范围
+     */
+    private fun candidates(selector: Selector, mode: MatchMode): IntArray? {
+        var best: IntArray? = null
+        fun offer(set: IntArray?) {
+            if (set != null && (best == null || set.size < best!!.size)) best = set
+        }
+
+        val rid = selector.resourceId
+        if (!rid.isNullOrBlank()) {
+            offer(union(byResourceId.filterKeys { id ->
+                if (mode == MatchMode.TARGET) id.endsWith(rid) else id.endsWith(rid) || id.contains(rid)
+            }.values))
+        }
+        val cls = selector.className
+        if (!cls.isNullOrBlank()) {
+            offer(
+                if (mode == MatchMode.TARGET) {
+                    union(listOfNotNull(byClassFull[cls], byClassShort[cls]))
+                } else {
+                    union(byClassFull.filterKeys { full ->
+                        full == cls || full.substringAfterLast('.') == cls || full.contains(cls, ignoreCase = true)
+                    }.values)
+                }
+            )
+        }
+        val text = selector.text
+        if (!text.isNullOrBlank()) {
+            offer(textCandidates(text, mode, textGrams, normTextGrams, withText))
+        }
+        val desc = selector.contentDesc
+        if (!desc.isNullOrBlank()) {
+            offer(textCandidates(desc, mode, descGrams, normDescGrams, withDesc))
+        }
+        return best
+    }
+
+    private fun textCandidates(
+        query: String,
+        mode: MatchMode,
+        grams: Map<Int, IntList>,
+        normGrams: Map<Int, IntList>,
+        all: IntList,
+    ): IntArray {
+        val raw = lookupGrams(grams, query) ?: return all.toArray()
+        if (mode == MatchMode.SEARCH) return raw
+        // TARGET 模式下原文或规范化文本任一包含即可
+        val norm = lookupGrams(normGrams, normalize(query)) ?: return all.toArray()
+        return mergeSorted(raw, norm)
+    }
+
+    private fun matches(i: Int, selector: Selector, mode: MatchMode): Boolean {
+        val node = nodes[i]
+        val rid = selector.resourceId
+        if (!rid.isNullOrBlank()) {
+            val id = node.resourceId ?: return false
+            val ok = if (mode == MatchMode.TARGET) id.endsWith(rid) else id.endsWith(rid) || id.contains(rid)
+            if (!ok) return false
+        }
+        val cls = selector.className
+        if (!cls.isNullOrBlank()) {
+            val full = node.className
+            val short = full.substringAfterLast('.')
+            val ok = full == cls || short == cls ||
+                (mode == MatchMode.SEARCH && full.contains(cls, ignoreCase = true))
+            if (!ok) return false
+        }
+        val text = selector.text
+        if (!text.isNullOrBlank()) {
+            val t = node.text ?: return false
+            if (!textMatches(t, normText[i], text, mode)) return false
+        }
+        val desc = selector.contentDesc
+        if (!desc.isNullOrBlank()) {
+            val d = node.contentDesc ?: return false
+            if (!textMatches(d, normDesc[i], desc, mode)) return false
+        }
+        return true
+    }
+
+    private fun textMatches(value: String, normalized: String?, query: String, mode: MatchMode): Boolean {
+        if (value.contains(query, ignoreCase = true)) return true
+        if (mode == MatchMode.SEARCH) return false
+        return (normalized ?: normalize(value)).contains(normalize(query))
+    }
+
+    /**
+     * 可增长的 int 列表（升序追加），避免装箱
+     */
+    private class IntList {
+        var data = IntArray(4)
+        var size = 0
+
+        fun add(value: Int) {
+            // 同一节点的重复二元组只记录一次
+            if (size > 0 && data[size - 1] == value) return
+            if (size == data.size) data = data.copyOf(size * 2)
+            data[size++] = value
+        }
+
+        fun toArray(): IntArray = data.copyOf(size)
+    }
+
+    companion object {
+        private val EMPTY = IntArray(0)
+
+        /**
+         * 从快照根节点构建索引（广度优先编号）
+         * @param normalize 文本规范化函数（TARGET 模式的规范化匹配使用）
+         */
+        fun build(root: UiTreeNode, normalize: (String) -> String): UiElementIndex {
+            val ordered = ArrayList<UiTreeNode>()
+            val queue = ArrayDeque<UiTreeNode>()
+            queue.add(root)
+            while (queue.isNotEmpty()) {
+                val n = queue.removeFirst()
+                ordered.add(n)
+                queue.addAll(n.children)
+            }
+            return UiElementIndex(ordered.toTypedArray(), normalize)
+        }
+
+        // 与 String.contains(ignoreCase = true) 的逐字符比较规则一致
+        private fun fold(c: Char): Int = Character.toLowerCase(Character.toUpperCase(c)).code
+
+        private fun gramKey(a: Char, b: Char): Int = (fold(a) shl 16) or fold(b)
+
+        private fun addGrams(index: HashMap<Int, IntList>, value: String, ordinal: Int) {
+            for (k in 0 until value.length - 1) {
+                index.getOrPut(gramKey(value[k], value[k + 1])) { IntList() }.add(ordinal)
+            }
+        }
+
+        /**
+         * 查询串所有二元组的倒排表求交；查询串长度不足 2 时返回 null（无法用索引缩小）
+         */
+        private fun lookupGrams(index: Map<Int, IntList>, query: String): IntArray? {
+            if (query.length < 2) return null
+            var result: IntArray? = null
+            for (k in 0 until query.length - 1) {
+                val posting = index[gramKey(query[k], query[k + 1])] ?: return EMPTY
+                val arr = posting.toArray()
+                result = if (result == null) arr else intersectSorted(result, arr)
+                if (result.isEmpty()) return EMPTY
+            }
+            return result
+        }
+
+        private fun intersectSorted(a: IntArray, b: IntArray): IntArray {
+            val out = IntArray(minOf(a.size, b.size))
+            var i = 0
+            var j = 0
+            var n = 0
+            while (i < a.size && j < b.size) {
+                when {
+                    a[i] < b[j] -> i++
+                    a[i] > b[j] -> j++
+                    else -> { out[n++] = a[i]; i++; j++ }
+                }
+            }
+            return out.copyOf(n)
+        }
+
+        private fun mergeSorted(a: IntArray, b: IntArray): IntArray {
+            val out = IntArray(a.size + b.size)
+            var i = 0
+            var j = 0
+            var n = 0
+            while (i < a.size || j < b.size) {
+                val v = when {
+                    j >= b.size -> a[i++]
+                    i >= a.size -> b[j++]
+                    a[i] < b[j] -> a[i++]
+                    a[i] > b[j] -> b[j++]
+                    else -> { j++; a[i++] }
+                }
+                out[n++] = v
+            }
+            return out.copyOf(n)
+        }
+
+        private fun union(lists: Collection<IntList>): IntArray {
+            var result = EMPTY
+            for (list in lists) result = mergeSorted(result, list.toArray())
+            return result
+        }
+    }
+}
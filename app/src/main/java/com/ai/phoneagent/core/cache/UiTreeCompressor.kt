@@ -0,0 +1,260 @@
+package com.ai.phoneagent.core.cache
+
+import android.graphics.Rect
+import com.ai.phoneagent.core.utils.ActionUtils
+
+/**
+ * UI 树压缩器 - 在 token 预算内输出价值最高的节点
+ *
+ * 1. 跳过屏幕外节点；无文本、不可交互的包装布局不单独输出（子节点直接上提）
+ * 2. 同一父节点下结构相同的重复子树（列表行）只完整输出前几行，其余每行压成一条摘要
+ * 3. 按节点价值打分（可点击/可编辑/有文本/有描述等），超出预算时从低分节点开始丢弃，
+ *    输出仍保持原有的文档顺序
+ *
+ * 代替按字符数截断 UI 树（头尾截断常常丢掉中间的可交互元素）。
+ */
+class UiTreeCompressor(
+    /** 输出 token 预算（按 ActionUtils.estimateTokens 估算） */
+    private val maxTokens: Int,
+    /** 重复列表行中完整输出的行数 */
+    private val keepFullRows: Int = DEFAULT_KEEP_FULL_ROWS,
+    /** 单个属性最多保留字符数 */
+    private val maxAttrLength: Int = DEFAULT_MAX_ATTR_LENGTH,
+) {
+
+    /**
+     * 压缩后的一个输出条目
+     * @param key 稳定标识（类名 + resource-id + bounds），用于与上一步观测做差分
+     * @param line 渲染后的 XML 行
+     * @param score 价值分，预算不足时低分先丢弃
+     */
+    class Item(
+        val key: String,
+        val line: String,
+        val score: Int,
+    )
+
+    /**
+     * 压缩结果
+     * @param items 保留的条目（文档顺序）
+     * @param omitted 因预算丢弃的条目数
+     * @param fullText 整棵树所有节点（含丢弃、折叠为摘要和屏幕外的节点）的文本、描述与 resource-id，
+     *   供敏感界面检测使用，不受预算影响；为空时退回 [render] 的结果
+     */
+    class Result(
+        val header: String,
+        val items: List<Item>,
+        val omitted: Int,
+        val totalNodes: Int,
+        val fullText: String = "",
+    ) {
+        /** 敏感界面检测使用的未压缩文本 */
+        fun sensitiveText(): String = fullText.ifEmpty { render() }
+
+        /** 渲染为完整文本 */
+        fun render(): String {
+            val sb = StringBuilder(header.length + items.sumOf { it.line.length + 1 } + 64)
+            sb.append(header)
+            items.forEach { sb.append('\n').append(it.line) }
+            if (omitted > 0) sb.append("\n<!-- 已省略 ").append(omitted).append(" 个低优先级节点 -->")
+            sb.append("\n</ui_hierarchy>")
+            return sb.toString()
+        }
+    }
+
+    /**
+     * 压缩以 root 为根的 UI 树
+     */
+    fun compress(root: UiTreeNode): Result {
+        val screen = Rect(root.bounds)
+        val signatures = HashMap<UiTreeNode, Int>()
+        computeSignature(root, signatures)
+
+        val items = ArrayList<Item>()
+        fun visit(node: UiTreeNode) {
+            if (!isOnScreen(node, screen)) return
+            val score = score(node)
+            if (score > 0) items.add(renderNode(node, score))
+
+            // 同结构子节点出现次数达到阈值视为列表行
+            val children = node.children
+            val counts = if (children.size >= ROW_REPEAT_MIN) {
+                children.groupingBy { signatures[it] ?: 0 }.eachCount()
+            } else {
+                emptyMap()
+            }
+            val seen = HashMap<Int, Int>()
+            for (child in children) {
+                val sig = signatures[child] ?: 0
+                val isRow = (counts[sig] ?: 0) >= ROW_REPEAT_MIN && child.children.isNotEmpty()
+                if (isRow) {
+                    val rowIndex = seen.getOrDefault(sig, 0)
+                    seen[sig] = rowIndex + 1
+                    if (rowIndex >= keepFullRows) {
+                        if (isOnScreen(child, screen)) summarizeRow(child)?.let { items.add(it) }
+                        continue
+                    }
+                }
+                visit(child)
+            }
+        }
+        visit(root)
+
+        val kept = fitBudget(items)
+        return Result(
+            header = renderHeader(root),
+            items = kept,
+            omitted = items.size - kept.size,
+            totalNodes = signatures.size,
+            fullText = collectText(root),
+        )
+    }
+
+    /**
+     * 超出预算时按分数从低到高丢弃（同分时先丢文档靠后的），保持原顺序输出
+     */
+    private fun fitBudget(items: List<Item>): List<Item> {
+        val tokens = IntArray(items.size) { ActionUtils.estimateTokens(items[it].line) }
+        var sum = tokens.sum()
+        if (sum <= maxTokens) return items
+
+        val dropOrder = items.indices.sortedWith(compareBy<Int> { items[it].score }.thenByDescending { it })
+        val dropped = BooleanArray(items.size)
+        for (i in dropOrder) {
+            if (sum <= maxTokens) break
+            dropped[i] = true
+            sum -= tokens[i]
+        }
+        return items.filterIndexed { i, _ -> !dropped[i] }
+    }
+
+    private fun score(node: UiTreeNode): Int {
+        var s = 0
+        if (node.clickable || node.longClickable) s += 3
+        if (node.editable) s += 4
+        if (node.scrollable) s += 1
+        if (node.checkable) s += 1
+        if (!node.text.isNullOrEmpty()) s += 3
+        if (!node.contentDesc.isNullOrEmpty()) s += 2
+        if (s == 0) return 0
+        if (node.focused || node.selected) s += 1
+        if (!node.resourceId.isNullOrEmpty()) s += 1
+        if (!node.enabled) s -= 1
+        return s.coerceAtLeast(1)
+    }
+
+    private fun renderNode(node: UiTreeNode, score: Int): Item {
+        val sb = StringBuilder(96)
+        val cls = node.className.substringAfterLast('.')
+        sb.append("<node")
+        attr(sb, "class", cls)
+        attr(sb, "text", node.text)
+        attr(sb, "content-desc", node.contentDesc)
+        val id = shortResourceId(node.resourceId)
+        attr(sb, "resource-id", id)
+        val bounds = node.bounds.toShortString()
+        attr(sb, "bounds", bounds)
+        if (node.clickable) sb.append(" clickable=\"true\"")
+        if (node.longClickable) sb.append(" long-clickable=\"true\"")
+        if (node.editable) sb.append(" editable=\"true\"")
+        if (node.scrollable) sb.append(" scrollable=\"true\"")
+        if (node.checkable) sb.append(" checked=\"").append(node.checked).append('"')
+        if (node.focused) sb.append(" focused=\"true\"")
+        if (node.selected) sb.append(" selected=\"true\"")
+        if (!node.enabled) sb.append(" enabled=\"false\"")
+        sb.append("/>")
+        return Item(key = "$cls|${id.orEmpty()}|$bounds", line = sb.toString(), score = score)
+    }
+
+    /**
+     * 将一行列表项压成一条摘要：拼接行内文本，坐标取行本身（通常即点击区域）
+     */
+    private fun summarizeRow(row: UiTreeNode): Item? {
+        val texts = ArrayList<String>(4)
+        collectTexts(row, texts)
+        if (texts.isEmpty()) return null
+        val sb = StringBuilder(80)
+        sb.append("<item")
+        attr(sb, "text", texts.joinToString(" | "))
+        val bounds = row.bounds.toShortString()
+        attr(sb, "bounds", bounds)
+        sb.append("/>")
+        return Item(key = "row|$bounds", line = sb.toString(), score = ROW_SUMMARY_SCORE)
+    }
+
+    private fun collectTexts(node: UiTreeNode, out: MutableList<String>) {
+        if (out.size >= MAX_ROW_TEXTS) return
+        (node.text ?: node.contentDesc)?.let { out.add(it) }
+        node.children.forEach { collectTexts(it, out) }
+    }
+
+    private fun renderHeader(root: UiTreeNode): String {
+        val sb = StringBuilder(96)
+        sb.append("<ui_hierarchy")
+        attr(sb, "package", root.packageName)
+        attr(sb, "activity", root.className)
+        sb.append('>')
+        return sb.toString()
+    }
+
+    private fun attr(sb: StringBuilder, key: String, value: String?) {
+        if (value.isNullOrEmpty()) return
+        sb.append(' ').append(key).append("=\"")
+        val end = minOf(value.length, maxAttrLength)
+        for (i in 0 until end) {
+            when (val c = value[i]) {
+                '&' -> sb.append("&amp;")
+                '<' -> sb.append("&lt;")
+                '>' -> sb.append("&gt;")
+                '"' -> sb.append("&quot;")
+                else -> sb.append(c)
+            }
+        }
+        if (value.length > end) sb.append('…')
+        sb.append('"')
+    }
+
+    private fun isOnScreen(node: UiTreeNode, screen: Rect): Boolean {
+        val b = node.bounds
+        return b.width() > 0 && b.height() > 0 && Rect.intersects(b, screen)
+    }
+
+    /** 结构签名：类名 + resource-id + 子节点签名（不含文本），用于识别重复列表行 */
+    private fun computeSignature(node: UiTreeNode, out: MutableMap<UiTreeNode, Int>): Int {
+        var h = node.className.hashCode()
+        h = 31 * h + (node.resourceId?.hashCode() ?: 0)
+        for (child in node.children) {
+            h = 31 * h + computeSignature(child, out)
+        }
+        out[node] = h
+        return h
+    }
+
+    /** 收集整棵树的文本、描述与 resource-id，每个节点一行 */
+    private fun collectText(root: UiTreeNode): String {
+        val sb = StringBuilder(1024)
+        fun visit(node: UiTreeNode) {
+            node.text?.let { sb.append(it).append('\n') }
+            node.contentDesc?.let { sb.append(it).append('\n') }
+            node.resourceId?.let { sb.append(it).append('\n') }
+            node.children.forEach { visit(it) }
+        }
+        visit(root)
+        return sb.toString()
+    }
+
+    private fun shortResourceId(id: String?): String? {
+        if (id.isNullOrEmpty()) return null
+        val idx = id.indexOf(":id/")
+        return if (idx >= 0) id.substring(idx + 4) else id
+    }
+
+    companion object {
+        const val DEFAULT_KEEP_FULL_ROWS = 2
+        const val DEFAULT_MAX_ATTR_LENGTH = 60
+        /** 同结构子树至少出现几次才视为列表行 */
+        private const val ROW_REPEAT_MIN = 3
+        private const val ROW_SUMMARY_SCORE = 2
+        private const val MAX_ROW_TEXTS = 4
+    }
+}
@@ -0,0 +1,80 @@
+package com.ai.phoneagent.core.cache
+
+/**
+ * UI 树差分 - 比较两次压缩结果（见 UiTreeCompressor）
+ *
+ * 节点以“类名 + resource-id + bounds”作为稳定标识；同一标识出现多次时按出现顺序区分。
+ * 标识相同但内容（文本/状态）不同视为变化。
+ */
+object UiTreeDiff {
+
+    class Delta(
+        val added: List<UiTreeCompressor.Item>,
+        val removed: List<UiTreeCompressor.Item>,
+        val changed: List<UiTreeCompressor.Item>,
+    ) {
+        val size: Int get() = added.size + removed.size + changed.size
+
+        val isEmpty: Boolean get() = size == 0
+
+        /**
+         * 渲染为差分文本
+         * @param header 当前树的 <ui_hierarchy ...> 头，用于携带包名/Activity
+         */
+        fun render(header: String): String {
+            val sb = StringBuilder(64 + (added + removed + changed).sumOf { it.line.length + 1 })
+            sb.append(header.replaceFirst("<ui_hierarchy", "<ui_hierarchy_delta"))
+            if (isEmpty) {
+                sb.append("\n<!-- 与上一步相比无变化 -->")
+            }
+            appendSection(sb, "added", added)
+            appendSection(sb, "removed", removed)
+            appendSection(sb, "changed", changed)
+            sb.append("\n</ui_hierarchy_delta>")
+            return sb.toString()
+        }
+
+        private fun appendSection(sb: StringBuilder, name: String, items: List<UiTreeCompressor.Item>) {
+            if (items.isEmpty()) return
+            sb.append("\n<").append(name).append('>')
+            items.forEach { sb.append('\n').append(it.line) }
+            sb.append("\n</").append(name).append('>')
+        }
+    }
+
+    /**
+     * 计算 current 相对 previous 的差分（各列表保持各自的文档顺序）
+     */
+    fun diff(previous: List<UiTreeCompressor.Item>, current: List<UiTreeCompressor.Item>): Delta {
+        val before = HashMap<String, UiTreeCompressor.Item>(previous.size * 2)
+        keyed(previous) { key, item -> before[key] = item }
+
+        val added = ArrayList<UiTreeCompressor.Item>()
+        val changed = ArrayList<UiTreeCompressor.Item>()
+        val matched = HashSet<String>(current.size * 2)
+        keyed(current) { key, item ->
+            val old = before[key]
+            when {
+                old == null -> added.add(item)
+                old.line != item.line -> changed.add(item)
+            }
+            matched.add(key)
+        }
+
+        val removed = ArrayList<UiTreeCompressor.Item>()
+        keyed(previous) { key, item -> if (key !in matched) removed.add(item) }
+        return Delta(added, removed, changed)
+    }
+
+    private inline fun keyed(
+        items: List<UiTreeCompressor.Item>,
+        action: (String, UiTreeCompressor.Item) -> Unit,
+    ) {
+        val occurrences = HashMap<String, Int>()
+        for (item in items) {
+            val n = occurrences.getOrDefault(item.key, 0)
+            occurrences[item.key] = n + 1
+            action(if (n == 0) item.key else "${item.key}#$n", item)
+        }
+    }
+}
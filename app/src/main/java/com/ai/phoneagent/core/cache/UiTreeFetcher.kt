@@ -0,0 +1,167 @@
+package com.ai.phoneagent.core.cache
+
+import android.os.Build
+import android.os.SystemClock
+import android.view.accessibility.AccessibilityNodeInfo
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinTask
+import java.util.concurrent.RecursiveAction
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * UI 树子树抓取器
+ *
+ * 逐个 getChild(i) 向下遍历时，每个未缓存的节点都是一次串行的 Binder 往返，几百个节点的树
+ * 耗时主要花在这里。按系统版本选择抓取策略：
+ * - [Strategy.PREFETCH]（API 33+）：getChild 时带 FLAG_PREFETCH_DESCENDANTS_DEPTH_FIRST，
+ *   一次 IPC 顺带预取一批后代节点到系统缓存，后续 getChild 直接命中缓存；
+ * - [Strategy.PARALLEL]：兄弟子树分发到有界的 ForkJoinPool 并行抓取；
+ * - [Strategy.SEQUENTIAL]：原有的串行深度优先遍历。
+ *
+ * 抓取只构建游离的 [UiTreeNode] 子树，注册到索引由调用方在自己的线程上完成。
+ * 子节点顺序与串行遍历一致；节点数达到上限时，并行策略下被截掉的节点不保证是先序最靠后的那些。
+ *
+ * @param strategy 抓取策略，[Strategy.AUTO] 按系统版本自动选择
+ * @param parallelism 并行策略的最大线程数
+ */
+class UiTreeFetcher(
+    strategy: Strategy = Strategy.AUTO,
+    private val parallelism: Int = DEFAULT_PARALLELISM,
+) {
+
+    enum class Strategy {
+        AUTO,
+        PREFETCH,
+        PARALLEL,
+        SEQUENTIAL;
+
+        companion object {
+            fun fromName(name: String?): Strategy =
+                values().firstOrNull { it.name.equals(name?.trim(), ignoreCase = true) } ?: AUTO
+        }
+    }
+
+    /**
+     * 一次抓取的统计
+     * @param fetchedNodes 本次新建的节点数
+     * @param truncated 是否因节点数上限被截断
+     */
+    data class Stats(
+        val strategy: Strategy,
+        val fetchedNodes: Int,
+        val truncated: Boolean,
+        val elapsedMs: Long,
+    )
+
+    /** 实际使用的策略（AUTO 已解析） */
+    val strategy: Strategy = resolve(strategy)
+
+    @Volatile var lastStats: Stats? = null
+        private set
+
+    private val pool by lazy { ForkJoinPool(parallelism.coerceAtLeast(2)) }
+
+    /**
+     * 抓取 parent 下的全部子孙节点，挂到 parent.childList 上
+     * @param budget 最多新建的节点数
+     * @return 本次抓取的统计
+     */
+    fun fetchChildren(parent: UiTreeNode, budget: Int): Stats {
+        val start = SystemClock.uptimeMillis()
+        val remaining = AtomicInteger(budget)
+        val truncated = when (strategy) {
+            Strategy.PARALLEL -> {
+                val task = FetchTask(parent, remaining)
+                pool.invoke(task)
+                task.truncated
+            }
+            else -> fetchSequential(parent, remaining)
+        }
+        val stats = Stats(
+            strategy = strategy,
+            fetchedNodes = budget - remaining.get().coerceAtLeast(0),
+            truncated = truncated,
+            elapsedMs = SystemClock.uptimeMillis() - start,
+        )
+        lastStats = stats
+        return stats
+    }
+
+    /** 深度优先（先序）逐个抓取 @return 是否被截断 */
+    private fun fetchSequential(node: UiTreeNode, remaining: AtomicInteger): Boolean {
+        val info = node.info
+        val childCount = info.childCount
+        for (i in 0 until childCount) {
+            if (remaining.get() <= 0) return true
+            val child = fetchChild(node, i) ?: continue
+            remaining.decrementAndGet()
+            if (fetchSequential(child, remaining)) return true
+        }
+        return false
+    }
+
+    private fun fetchChild(parent: UiTreeNode, index: Int): UiTreeNode? {
+        val childInfo = if (strategy == Strategy.PREFETCH && Build.VERSION.SDK_INT >= 33) {
+            parent.info.getChild(index, AccessibilityNodeInfo.FLAG_PREFETCH_DESCENDANTS_DEPTH_FIRST)
+        } else {
+            parent.info.getChild(index)
+        } ?: return null
+        val child = UiTreeNode(childInfo, parent)
+        child.readAttributes()
+        parent.childList.add(child)
+        return child
+    }
+
+    /**
+     * 并行抓取任务：先串行取出本节点的直接子节点（保证顺序），再把各子树 fork 出去
+     */
+    private inner class FetchTask(
+        private val node: UiTreeNode,
+        private val remaining: AtomicInteger,
+    ) : RecursiveAction() {
+
+        @Volatile var truncated = false
+            private set
+
+        override fun compute() {
+            val info = node.info
+            val childCount = info.childCount
+            for (i in 0 until childCount) {
+                if (remaining.getAndDecrement() <= 0) {
+                    remaining.incrementAndGet()
+                    truncated = true
+                    break
+                }
+                if (fetchChild(node, i) == null) remaining.incrementAndGet()
+            }
+
+            val subtasks = ArrayList<FetchTask>(node.childList.size)
+            for (child in node.childList) {
+                if (child.info.childCount > 0) subtasks.add(FetchTask(child, remaining))
+            }
+            when (subtasks.size) {
+                0 -> Unit
+                1 -> subtasks[0].compute()
+                else -> ForkJoinTask.invokeAll(subtasks)
+            }
+            if (subtasks.any { it.truncated }) truncated = true
+        }
+    }
+
+    private fun resolve(requested: Strategy): Strategy {
+        return when (requested) {
+            Strategy.AUTO -> when {
+                Build.VERSION.SDK_INT >= 33 -> Strategy.PREFETCH
+                parallelism > 1 -> Strategy.PARALLEL
+                else -> Strategy.SEQUENTIAL
+            }
+            // 低版本没有预取接口，退回并行
+            Strategy.PREFETCH -> if (Build.VERSION.SDK_INT >= 33) Strategy.PREFETCH else Strategy.PARALLEL
+            else -> requested
+        }
+    }
+
+    companion object {
+        const val DEFAULT_PARALLELISM = 4
+    }
+}
@@ -0,0 +1,365 @@
+package com.ai.phoneagent.core.cache
+
+import android.os.Build
+import android.os.SystemClock
+import android.util.Log
+import android.view.accessibility.AccessibilityEvent
+import android.view.accessibility.AccessibilityNodeInfo
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 增量维护的 UI 树快照
+ *
+ * 首次读取（或窗口切换后）完整抓取一次活动窗口的节点树；之后根据
+ * TYPE_WINDOW_CONTENT_CHANGED / TYPE_VIEW_SCROLLED 等事件只重新抓取发生变化的子树，
+ * XML/JSON 输出和元素查找都基于内存中的 [UiTreeNode] 模型完成。
+ *
+ * 事件回调（主线程）只负责记录，真正的抓取推迟到下一次 [read] 时在调用线程上进行。
+ *
+ * @param selfPackage 本应用包名，自身悬浮窗产生的事件不会使快照失效
+ * @param maxNodes 快照最多保留的节点数
+ * @param maxAgeMs 快照最长存活时间，超过后强制完整重建，兜底少数不发事件的控件
+ * @param textNormalizer 元素索引使用的文本规范化函数
+ * @param fetcher 子树抓取器（预取/并行策略见 [UiTreeFetcher]）
+ */
+class UiTreeIndex(
+    private val selfPackage: String,
+    private val maxNodes: Int = DEFAULT_MAX_NODES,
+    private val maxAgeMs: Long = DEFAULT_MAX_AGE_MS,
+    private val textNormalizer: (String) -> String = { it },
+    private val fetcher: UiTreeFetcher = UiTreeFetcher(),
+) {
+
+    /**
+     * 一次刷新的统计
+     * @param fullRebuild 是否完整重建
+     * @param refreshedNodes 本次重新抓取的节点数
+     * @param fetchMs 其中子树抓取（Binder 调用）耗时
+     */
+    data class RefreshStats(
+        val fullRebuild: Boolean,
+        val refreshedNodes: Int,
+        val totalNodes: Int,
+        val elapsedMs: Long,
+        val fetchStrategy: UiTreeFetcher.Strategy,
+        val fetchMs: Long,
+    )
+
+    private val pendingEvents = ConcurrentLinkedQueue<AccessibilityEvent>()
+    private val pendingCount = AtomicInteger(0)
+    private val invalidated = AtomicBoolean(true)
+
+    // 以下字段只在 lock 内访问
+    private val lock = Any()
+    private var root: UiTreeNode? = null
+    private val nodes = HashMap<AccessibilityNodeInfo, UiTreeNode>()
+    private var builtAtMs = 0L
+    private var fetchedCount = 0
+    private var fetchMs = 0L
+    private var elementIndex: UiElementIndex? = null
+    private var elementIndexGeneration = -1
+
+    /** 快照内容每变化一次加 1，可用于判断基于快照的派生数据是否过期 */
+    @Volatile var generation = 0
+        private set
+
+    @Volatile var lastStats: RefreshStats? = null
+        private set
+
+    /** 节点数是否达到上限（树被截断） */
+    @Volatile var truncated = false
+        private set
+
+    /**
+     * 记录无障碍事件（在 onAccessibilityEvent 中调用）
+     */
+    fun onEvent(event: AccessibilityEvent) {
+        when (event.eventType) {
+            AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED,
+            AccessibilityEvent.TYPE_WINDOWS_CHANGED -> {
+                if (event.packageName?.toString() == selfPackage) return
+                invalidate()
+            }
+            AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED,
+            AccessibilityEvent.TYPE_VIEW_SCROLLED,
+            AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED,
+            AccessibilityEvent.TYPE_VIEW_FOCUSED,
+            AccessibilityEvent.TYPE_VIEW_SELECTED -> {
+                if (event.packageName?.toString() == selfPackage) return
+                if (invalidated.get()) return
+                // 事件过多时增量刷新不再划算，直接整体重建
+                if (pendingCount.incrementAndGet() > MAX_PENDING_EVENTS) {
+                    pendingCount.decrementAndGet()
+                    invalidate()
+                    return
+                }
+                pendingEvents.add(copyEvent(event))
+            }
+        }
+    }
+
+    /**
+     * 使快照整体失效，下次读取时完整重建
+     */
+    fun invalidate() {
+        invalidated.set(true)
+        clearPending()
+    }
+
+    /**
+     * 刷新快照并在锁内读取
+     *
+     * 回调期间快照不会被其他线程修改；不要在回调外保留 [UiTreeNode] 引用。
+     * @param rootInfo 当前活动窗口根节点（rootInActiveWindow）
+     * @return 回调结果；无法获取树时返回 null
+     */
+    fun <T> read(rootInfo: AccessibilityNodeInfo, block: (UiTreeNode) -> T): T? {
+        synchronized(lock) {
+            refresh(rootInfo)
+            val current = root ?: return null
+            return block(current)
+        }
+    }
+
+    /**
+     * 刷新快照并在锁内使用元素索引查询
+     *
+     * 元素索引按快照版本缓存，快照未变化时多次查询不会重复构建。
+     */
+    fun <T> readElements(rootInfo: AccessibilityNodeInfo, block: (UiElementIndex) -> T): T? {
+        synchronized(lock) {
+            refresh(rootInfo)
+            val current = root ?: return null
+            val index = elementIndex?.takeIf { elementIndexGeneration == generation }
+                ?: UiElementIndex.build(current, textNormalizer).also {
+                    elementIndex = it
+                    elementIndexGeneration = generation
+                }
+            return block(index)
+        }
+    }
+
+    private fun refresh(rootInfo: AccessibilityNodeInfo) {
+        val start = SystemClock.uptimeMillis()
+        // 先取出此刻已排队的事件再判断是否重建：这些事件都早于随后的抓取，重建时可以丢弃；
+        // 之后到达的事件留在队列中，由下一次刷新处理，不会被本次重建清掉
+        val events = drainPending()
+        val current = root
+        val needRebuild = invalidated.getAndSet(false) ||
+            current == null ||
+            current.info != rootInfo ||
+            start - builtAtMs > maxAgeMs
+        if (needRebuild) {
+            recycleEvents(events, from = 0)
+            rebuild(rootInfo, start)
+            return
+        }
+
+        // 收集脏节点：值为 true 表示需要重新抓取整棵子树
+        val dirty = LinkedHashMap<UiTreeNode, Boolean>()
+        for (i in events.indices) {
+            val event = events[i]
+            val structural = isStructuralChange(event)
+            val source = event.source
+            recycleEvent(event)
+            if (source == null || source.windowId != rootInfo.windowId) continue
+
+            val known = nodes[source]
+            if (known != null) {
+                dirty[known] = dirty[known] == true || structural
+                continue
+            }
+            // 新出现的节点：找到已在快照中的最近祖先并刷新其子树
+            val ancestor = findIndexedAncestor(source)
+            if (ancestor == null) {
+                recycleEvents(events, from = i + 1)
+                rebuild(rootInfo, start)
+                return
+            }
+            dirty[ancestor] = true
+        }
+        if (dirty.isEmpty()) return
+
+        var refreshed = 0
+        fetchMs = 0L
+        for ((node, subtree) in dirty) {
+            if (hasDirtySubtreeAncestor(node, dirty)) continue
+            val count = if (subtree) refetchSubtree(node) else refreshNode(node)
+            if (count < 0) {
+                // 节点已失效（被移除），整体重建
+                rebuild(rootInfo, start)
+                return
+            }
+            refreshed += count
+        }
+        generation++
+        lastStats = RefreshStats(
+            fullRebuild = false,
+            refreshedNodes = refreshed,
+            totalNodes = nodes.size,
+            elapsedMs = SystemClock.uptimeMillis() - start,
+            fetchStrategy = fetcher.strategy,
+            fetchMs = fetchMs,
+        )
+        Log.d(TAG, "增量刷新: 脏节点=${dirty.size}, 重新抓取=$refreshed, 总节点=${nodes.size}, 耗时=${lastStats?.elapsedMs}ms, 抓取(${fetcher.strategy})=${fetchMs}ms")
+    }
+
+    /** 重建前已取出的事件由调用方回收；重建期间到达的事件保留 */
+    private fun rebuild(rootInfo: AccessibilityNodeInfo, start: Long) {
+        nodes.clear()
+        fetchedCount = 0
+        fetchMs = 0L
+        truncated = false
+
+        val newRoot = UiTreeNode(rootInfo, null)
+        newRoot.readAttributes()
+        register(newRoot)
+        fetchChildren(newRoot)
+        root = newRoot
+        builtAtMs = SystemClock.uptimeMillis()
+        generation++
+        lastStats = RefreshStats(
+            fullRebuild = true,
+            refreshedNodes = nodes.size,
+            totalNodes = nodes.size,
+            elapsedMs = builtAtMs - start,
+            fetchStrategy = fetcher.strategy,
+            fetchMs = fetchMs,
+        )
+        Log.d(TAG, "完整重建: 节点=${nodes.size}, 耗时=${lastStats?.elapsedMs}ms, 抓取(${fetcher.strategy})=${fetchMs}ms")
+    }
+
+    /**
+     * 只刷新单个节点的属性；子节点数量变化时改为刷新子树
+     * @return 重新抓取的节点数，-1 表示节点已失效
+     */
+    private fun refreshNode(node: UiTreeNode): Int {
+        if (!node.info.refresh()) return -1
+        node.readAttributes()
+        if (!truncated && node.info.childCount != node.childList.size) {
+            return refetchSubtree(node, alreadyRefreshed = true)
+        }
+        return 1
+    }
+
+    /**
+     * 重新抓取整棵子树
+     * @return 重新抓取的节点数，-1 表示节点已失效
+     */
+    private fun refetchSubtree(node: UiTreeNode, alreadyRefreshed: Boolean = false): Int {
+        if (!alreadyRefreshed) {
+            if (!node.info.refresh()) return -1
+            node.readAttributes()
+        }
+        node.childList.forEach { unregisterSubtree(it) }
+        node.childList.clear()
+        val before = fetchedCount
+        fetchChildren(node)
+        return fetchedCount - before + 1
+    }
+
+    /** 抓取 node 的全部子孙节点（见 UiTreeFetcher），然后在当前线程注册 */
+    private fun fetchChildren(node: UiTreeNode) {
+        val stats = fetcher.fetchChildren(node, (maxNodes - nodes.size).coerceAtLeast(0))
+        fetchMs += stats.elapsedMs
+        if (stats.truncated) truncated = true
+        node.childList.forEach { registerSubtree(it) }
+    }
+
+    private fun register(node: UiTreeNode) {
+        nodes[node.info] = node
+        fetchedCount++
+    }
+
+    private fun registerSubtree(node: UiTreeNode) {
+        register(node)
+        node.childList.forEach { registerSubtree(it) }
+    }
+
+    private fun unregisterSubtree(node: UiTreeNode) {
+        nodes.remove(node.info)
+        node.childList.forEach { unregisterSubtree(it) }
+        node.parent = null
+    }
+
+    private fun findIndexedAncestor(source: AccessibilityNodeInfo): UiTreeNode? {
+        var current: AccessibilityNodeInfo? = source.parent
+        var depth = 0
+        while (current != null && depth < MAX_ANCESTOR_LOOKUP) {
+            nodes[current]?.let { return it }
+            current = current.parent
+            depth++
+        }
+        return null
+    }
+
+    private fun hasDirtySubtreeAncestor(node: UiTreeNode, dirty: Map<UiTreeNode, Boolean>): Boolean {
+        var p = node.parent
+        while (p != null) {
+            if (dirty[p] == true) return true
+            p = p.parent
+        }
+        return false
+    }
+
+    private fun isStructuralChange(event: AccessibilityEvent): Boolean {
+        return when (event.eventType) {
+            AccessibilityEvent.TYPE_VIEW_SCROLLED -> true
+            AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED -> {
+                val types = event.contentChangeTypes
+                types == AccessibilityEvent.CONTENT_CHANGE_TYPE_UNDEFINED ||
+                    types and AccessibilityEvent.CONTENT_CHANGE_TYPE_SUBTREE != 0
+            }
+            else -> false
+        }
+    }
+
+    private fun drainPending(): List<AccessibilityEvent> {
+        if (pendingCount.get() == 0) return emptyList()
+        val drained = ArrayList<AccessibilityEvent>(pendingCount.get())
+        while (true) {
+            val event = pendingEvents.poll() ?: break
+            pendingCount.decrementAndGet()
+            drained += event
+        }
+        return drained
+    }
+
+    private fun recycleEvents(events: List<AccessibilityEvent>, from: Int) {
+        for (i in from until events.size) recycleEvent(events[i])
+    }
+
+    private fun clearPending() {
+        while (true) {
+            val event = pendingEvents.poll() ?: break
+            pendingCount.decrementAndGet()
+            recycleEvent(event)
+        }
+    }
+
+    private fun copyEvent(event: AccessibilityEvent): AccessibilityEvent {
+        return if (Build.VERSION.SDK_INT >= 30) {
+            AccessibilityEvent(event)
+        } else {
+            @Suppress("DEPRECATION")
+            AccessibilityEvent.obtain(event)
+        }
+    }
+
+    private fun recycleEvent(event: AccessibilityEvent) {
+        if (Build.VERSION.SDK_INT < 33) {
+            @Suppress("DEPRECATION")
+            runCatching { event.recycle() }
+        }
+    }
+
+    companion object {
+        private const val TAG = "UI_TREE"
+        const val DEFAULT_MAX_NODES = 2000
+        const val DEFAULT_MAX_AGE_MS = 10_000L
+        private const val MAX_PENDING_EVENTS = 64
+        private const val MAX_ANCESTOR_LOOKUP = 8
+    }
+}
@@ -0,0 +1,86 @@
+package com.ai.phoneagent.core.cache
+
+import android.graphics.Rect
+import android.view.accessibility.AccessibilityNodeInfo
+
+/**
+ * UI 树节点（进程内模型）
+ *
+ * 抓取时一次性读出节点属性，之后的序列化、查找都只访问内存，不再产生 Binder 调用。
+ * 由 [UiTreeIndex] 创建和维护，读取时需在 UiTreeIndex.read 的回调内进行。
+ */
+class UiTreeNode internal constructor(
+    /** 对应的无障碍节点，用于增量刷新和执行动作 */
+    val info: AccessibilityNodeInfo,
+    parent: UiTreeNode?,
+) {
+    var parent: UiTreeNode? = parent
+        internal set
+
+    var className: String = ""
+        private set
+    var packageName: String = ""
+        private set
+    var text: String? = null
+        private set
+    var contentDesc: String? = null
+        private set
+    var resourceId: String? = null
+        private set
+
+    /** 屏幕坐标（只读，请勿修改） */
+    val bounds = Rect()
+
+    var clickable = false
+        private set
+    var enabled = false
+        private set
+    var focused = false
+        private set
+    var checkable = false
+        private set
+    var checked = false
+        private set
+    var selected = false
+        private set
+    var scrollable = false
+        private set
+    var longClickable = false
+        private set
+    var editable = false
+        private set
+
+    /** 深度（根节点为 0） */
+    val depth: Int = if (parent == null) 0 else parent.depth + 1
+
+    internal val childList = ArrayList<UiTreeNode>(0)
+    val children: List<UiTreeNode> get() = childList
+
+    /** 从 info 读取属性（纯内存读取，不产生 IPC） */
+    internal fun readAttributes() {
+        className = clean(info.className).orEmpty()
+        packageName = clean(info.packageName).orEmpty()
+        text = clean(info.text)
+        contentDesc = clean(info.contentDescription)
+        resourceId = clean(info.viewIdResourceName)
+        info.getBoundsInScreen(bounds)
+        clickable = info.isClickable
+        enabled = info.isEnabled
+        focused = info.isFocused
+        checkable = info.isCheckable
+        checked = info.isChecked
+        selected = info.isSelected
+        scrollable = info.isScrollable
+        longClickable = info.isLongClickable
+        editable = info.isEditable || className.contains("edittext", ignoreCase = true)
+    }
+
+    companion object {
+        // 保留完整文本（元素查找需要），按详情级别的截断在序列化时进行
+        private fun clean(value: CharSequence?): String? {
+            if (value.isNullOrBlank()) return null
+            val cleaned = value.toString().replace("\n", " ").replace("\r", " ").trim()
+            return cleaned.ifEmpty { null }
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.ai.phoneagent.core.cache
+
+import android.graphics.Rect
+import android.view.accessibility.AccessibilityNodeInfo
+
+/**
+ * UI 树序列化器 - 流式输出 XML/JSON
+ *
+ * 边遍历边写入复用的 StringBuilder：属性的换行替换、去空白、截断和转义都在写入时逐字符完成，
+ * 不再构建中间快照列表、JSONObject 或临时字符串。各详情级别输出哪些属性、按什么顺序，
+ * 由静态属性表决定。
+ *
+ * 内部缓冲区复用，serialize 调用之间互斥。
+ */
+class UiTreeSerializer {
+
+    enum class Format { XML, JSON }
+
+    /**
+     * 详情级别
+     * @param maxAttrLength 文本类属性的截断长度
+     */
+    enum class Detail(val maxAttrLength: Int) {
+        MINIMAL(40),
+        SUMMARY(80),
+        FULL(140),
+    }
+
+    private var sb = StringBuilder(INITIAL_CAPACITY)
+    private var format = Format.XML
+    private var detail = Detail.SUMMARY
+    private var maxNodes = 0
+    private var count = 0
+
+    // XML：当前开始标签尚未闭合（出现第一个子节点时补 '>'，没有子节点则写 '/>'）
+    private var tagOpen = false
+    // JSON：下一个节点前需要逗号
+    private var needComma = false
+    // JSON：当前对象还没有写入任何字段
+    private var firstField = true
+
+    // 当前节点属性，写开始标签前读入；子节点会覆盖，因此只在 openNode 内使用
+    private var className: CharSequence? = null
+    private var packageName: CharSequence? = null
+    private var text: CharSequence? = null
+    private var contentDesc: CharSequence? = null
+    private var resourceId: CharSequence? = null
+    private val bounds = Rect()
+    private var flags = 0
+
+    /** 最近一次序列化输出的节点数 */
+    var lastNodeCount = 0
+        private set
+
+    /**
+     * 序列化内存中的 UI 树模型（需在 UiTreeIndex.read 回调内调用）
+     * @return 序列化结果；没有输出任何节点时返回 null
+     */
+    @Synchronized
+    fun serialize(root: UiTreeNode, format: Format, detail: Detail, maxNodes: Int): String? {
+        begin(format, detail, maxNodes, root.packageName, root.className)
+        writeNode(root, 0)
+        return finish()
+    }
+
+    /**
+     * 直接遍历无障碍节点序列化（未启用增量 UI 树时使用）
+     * @return 序列化结果；没有输出任何节点时返回 null
+     */
+    @Synchronized
+    fun serialize(root: AccessibilityNodeInfo, format: Format, detail: Detail, maxNodes: Int): String? {
+        begin(format, detail, maxNodes, root.packageName, root.className)
+        writeNode(root, 0)
+        return finish()
+    }
+
+    private fun begin(
+        format: Format,
+        detail: Detail,
+        maxNodes: Int,
+        rootPackage: CharSequence?,
+        rootActivity: CharSequence?,
+    ) {
+        this.format = format
+        this.detail = detail
+        this.maxNodes = maxNodes
+        count = 0
+        tagOpen = false
+        needComma = false
+        sb.setLength(0)
+
+        if (format == Format.XML) {
+            sb.append("<ui_hierarchy")
+            appendString("package", rootPackage, HEADER_ATTR_LENGTH, required = false)
+            appendString("activity", rootActivity, HEADER_ATTR_LENGTH, required = false)
+            sb.append('>')
+        } else {
+            sb.append('{')
+            firstField = true
+            appendString("package", rootPackage, HEADER_ATTR_LENGTH, required = false)
+            appendString("activity", rootActivity, HEADER_ATTR_LENGTH, required = false)
+            if (!firstField) sb.append(',')
+            sb.append("\"tree\":")
+        }
+    }
+
+    private fun finish(): String? {
+        lastNodeCount = count
+        if (count == 0) {
+            sb.setLength(0)
+            return null
+        }
+        val truncated = count >= maxNodes
+        if (format == Format.XML) {
+            sb.append("\n</ui_hierarchy>")
+            if (truncated) sb.append("<!-- truncated, maxNodes=").append(maxNodes).append(" -->")
+        } else {
+            if (truncated) sb.append(",\"truncated\":true,\"max_nodes\":").append(maxNodes)
+            sb.append('}')
+        }
+        val result = sb.toString()
+        // 偶发的超大树不长期占用内存
+        if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+            sb = StringBuilder(INITIAL_CAPACITY)
+        } else {
+            sb.setLength(0)
+        }
+        return result
+    }
+
+    private fun writeNode(node: UiTreeNode, depth: Int) {
+        if (count >= maxNodes) return
+        count++
+
+        className = node.className
+        packageName = node.packageName
+        text = node.text
+        contentDesc = node.contentDesc
+        resourceId = node.resourceId
+        bounds.set(node.bounds)
+        flags = flag(ATTR_CLICKABLE, node.clickable) or
+            flag(ATTR_FOCUSED, node.focused) or
+            flag(ATTR_ENABLED, node.enabled) or
+            flag(ATTR_CHECKABLE, node.checkable) or
+            flag(ATTR_CHECKED, node.checked) or
+            flag(ATTR_SELECTED, node.selected) or
+            flag(ATTR_SCROLLABLE, node.scrollable) or
+            flag(ATTR_LONG_CLICKABLE, node.longClickable) or
+            flag(ATTR_EDITABLE, node.editable)
+        openNode(depth)
+
+        val children = node.childList
+        for (i in children.indices) {
+            if (count >= maxNodes) break
+            writeNode(children[i], depth + 1)
+        }
+        closeNode(depth)
+    }
+
+    private fun writeNode(node: AccessibilityNodeInfo, depth: Int) {
+        if (count >= maxNodes) return
+        count++
+
+        val cls = node.className
+        className = cls
+        packageName = node.packageName
+        text = node.text
+        contentDesc = node.contentDescription
+        resourceId = node.viewIdResourceName
+        node.getBoundsInScreen(bounds)
+        flags = flag(ATTR_CLICKABLE, node.isClickable) or
+            flag(ATTR_FOCUSED, node.isFocused) or
+            flag(ATTR_ENABLED, node.isEnabled) or
+            flag(ATTR_CHECKABLE, node.isCheckable) or
+            flag(ATTR_CHECKED, node.isChecked) or
+            flag(ATTR_SELECTED, node.isSelected) or
+            flag(ATTR_SCROLLABLE, node.isScrollable) or
+            flag(ATTR_LONG_CLICKABLE, node.isLongClickable) or
+            flag(ATTR_EDITABLE, node.isEditable || cls?.contains("edittext", ignoreCase = true) == true)
+        openNode(depth)
+
+        val childCount = node.childCount
+        for (i in 0 until childCount) {
+            if (count >= maxNodes) break
+            val child = node.getChild(i) ?: continue
+            writeNode(child, depth + 1)
+        }
+        closeNode(depth)
+    }
+
+    private fun openNode(depth: Int) {
+        if (format == Format.XML) {
+            if (tagOpen) sb.append('>')
+            if (detail != Detail.MINIMAL) {
+                sb.append('\n')
+                if (detail == Detail.FULL) appendIndent(depth)
+            }
+            sb.append("<node")
+            for (attr in XML_ATTRS[detail.ordinal]) appendAttr(attr)
+            tagOpen = true
+        } else {
+            if (needComma) sb.append(',')
+            sb.append('{')
+            firstField = true
+            for (attr in JSON_ATTRS[detail.ordinal]) appendAttr(attr)
+            if (!firstField) sb.append(',')
+            sb.append("\"children\":[")
+            needComma = false
+        }
+    }
+
+    private fun closeNode(depth: Int) {
+        if (format == Format.XML) {
+            if (tagOpen) {
+                sb.append("/>")
+                tagOpen = false
+                return
+            }
+            if (detail != Detail.MINIMAL) {
+                sb.append('\n')
+                if (detail == Detail.FULL) appendIndent(depth)
+            }
+            sb.append("</node>")
+        } else {
+            sb.append("]}")
+            needComma = true
+        }
+    }
+
+    private fun appendAttr(attr: Int) {
+        val json = format == Format.JSON
+        val name = if (json) JSON_NAMES[attr] else XML_NAMES[attr]
+        val max = detail.maxAttrLength
+        when (attr) {
+            ATTR_NODE_ID, ATTR_BOUNDS -> {
+                appendKey(name)
+                sb.append('"')
+                sb.append('[').append(bounds.left).append(',').append(bounds.top).append("][")
+                    .append(bounds.right).append(',').append(bounds.bottom).append(']')
+                sb.append('"')
+            }
+            // JSON 中 class/package 即使为空也输出
+            ATTR_CLASS -> appendString(name, className, max, required = json)
+            ATTR_PACKAGE -> appendString(name, packageName, max, required = json)
+            ATTR_TEXT -> appendString(name, text, max, required = false)
+            ATTR_CONTENT_DESC -> appendString(name, contentDesc, max, required = false)
+            ATTR_RESOURCE_ID -> appendString(name, resourceId, max, required = false)
+            else -> {
+                val value = flags and (1 shl attr) != 0
+                appendKey(name)
+                if (json) {
+                    sb.append(value)
+                } else {
+                    sb.append('"').append(value).append('"')
+                }
+            }
+        }
+    }
+
+    private fun appendKey(name: String) {
+        if (format == Format.XML) {
+            sb.append(' ').append(name).append('=')
+        } else {
+            if (!firstField) sb.append(',')
+            firstField = false
+            sb.append('"').append(name).append("\":")
+        }
+    }
+
+    /**
+     * 写入文本属性：换行替换为空格、去掉首尾空白、截断到 maxLength 并转义
+     * @param required 为空时是否仍输出空字符串
+     */
+    private fun appendString(name: String, value: CharSequence?, maxLength: Int, required: Boolean) {
+        var start = 0
+        var end = value?.length ?: 0
+        if (value != null) {
+            while (start < end && value[start].isWhitespace()) start++
+            while (end > start && value[end - 1].isWhitespace()) end--
+        }
+        if (start == end && !required) return
+
+        appendKey(name)
+        sb.append('"')
+        if (value != null) {
+            val limit = minOf(end, start + maxLength)
+            if (format == Format.XML) {
+                for (i in start until limit) appendXmlChar(value[i])
+            } else {
+                for (i in start until limit) appendJsonChar(value[i])
+            }
+        }
+        sb.append('"')
+    }
+
+    private fun appendXmlChar(c: Char) {
+        when (c) {
+            '\n', '\r' -> sb.append(' ')
+            '&' -> sb.append("&amp;")
+            '<' -> sb.append("&lt;")
+            '>' -> sb.append("&gt;")
+            '"' -> sb.append("&quot;")
+            '\'' -> sb.append("&apos;")
+            else -> sb.append(c)
+        }
+    }
+
+    private fun appendJsonChar(c: Char) {
+        when {
+            c == '\n' || c == '\r' -> sb.append(' ')
+            c == '"' -> sb.append("\\\"")
+            c == '\\' -> sb.append("\\\\")
+            c == '\t' -> sb.append("\\t")
+            c == '\b' -> sb.append("\\b")
+            c == '\u000C' -> sb.append("\\f")
+            c < ' ' -> {
+                sb.append("\\u00")
+                sb.append(HEX_DIGITS[c.code shr 4]).append(HEX_DIGITS[c.code and 0xF])
+            }
+            else -> sb.append(c)
+        }
+    }
+
+    private fun appendIndent(depth: Int) {
+        for (i in 0 until depth) sb.append("  ")
+    }
+
+    private fun flag(attr: Int, value: Boolean): Int = if (value) 1 shl attr else 0
+
+    companion object {
+        private const val INITIAL_CAPACITY = 8 * 1024
+        private const val MAX_RETAINED_CAPACITY = 256 * 1024
+        private const val HEADER_ATTR_LENGTH = 120
+        private const val HEX_DIGITS = "0123456789abcdef"
+
+        private const val ATTR_NODE_ID = 0
+        private const val ATTR_CLASS = 1
+        private const val ATTR_PACKAGE = 2
+        private const val ATTR_TEXT = 3
+        private const val ATTR_CONTENT_DESC = 4
+        private const val ATTR_RESOURCE_ID = 5
+        private const val ATTR_BOUNDS = 6
+        // 以下为布尔属性，值存放在 flags 的对应位上
+        private const val ATTR_CLICKABLE = 7
+        private const val ATTR_FOCUSED = 8
+        private const val ATTR_ENABLED = 9
+        private const val ATTR_CHECKABLE = 10
+        private const val ATTR_CHECKED = 11
+        private const val ATTR_SELECTED = 12
+        private const val ATTR_SCROLLABLE = 13
+        private const val ATTR_LONG_CLICKABLE = 14
+        private const val ATTR_EDITABLE = 15
+
+        private val XML_NAMES = arrayOf(
+            "node_id", "class", "package", "text", "content-desc", "resource-id", "bounds",
+            "clickable", "focused", "enabled", "checkable", "checked", "selected",
+            "scrollable", "long-clickable", "editable",
+        )
+
+        private val JSON_NAMES = arrayOf(
+            "node_id", "class", "package", "text", "content_desc", "resource_id", "bounds",
+            "clickable", "focused", "enabled", "checkable", "checked", "selected",
+            "scrollable", "long_clickable", "editable",
+        )
+
+        private val FULL_ATTRS = intArrayOf(
+            ATTR_NODE_ID, ATTR_CLASS, ATTR_PACKAGE, ATTR_TEXT, ATTR_CONTENT_DESC, ATTR_RESOURCE_ID,
+            ATTR_BOUNDS, ATTR_CLICKABLE, ATTR_FOCUSED, ATTR_ENABLED, ATTR_CHECKABLE, ATTR_CHECKED,
+            ATTR_SELECTED, ATTR_SCROLLABLE, ATTR_LONG_CLICKABLE, ATTR_EDITABLE,
+        )
+
+        /** 各详情级别输出的属性（按 Detail.ordinal 索引），minimal 下保留 clickable 以保障自动化准确度 */
+        private val XML_ATTRS = arrayOf(
+            intArrayOf(ATTR_CLASS, ATTR_TEXT, ATTR_RESOURCE_ID, ATTR_BOUNDS, ATTR_CLICKABLE),
+            intArrayOf(
+                ATTR_NODE_ID, ATTR_CLASS, ATTR_PACKAGE, ATTR_TEXT, ATTR_CONTENT_DESC,
+                ATTR_RESOURCE_ID, ATTR_BOUNDS, ATTR_CLICKABLE, ATTR_FOCUSED,
+            ),
+            FULL_ATTRS,
+        )
+
+        private val JSON_ATTRS = arrayOf(
+            intArrayOf(
+                ATTR_NODE_ID, ATTR_CLASS, ATTR_PACKAGE, ATTR_TEXT, ATTR_CONTENT_DESC,
+                ATTR_RESOURCE_ID, ATTR_BOUNDS,
+            ),
+            intArrayOf(
+                ATTR_NODE_ID, ATTR_CLASS, ATTR_PACKAGE, ATTR_TEXT, ATTR_CONTENT_DESC,
+                ATTR_RESOURCE_ID, ATTR_BOUNDS, ATTR_CLICKABLE, ATTR_FOCUSED,
+            ),
+            FULL_ATTRS,
+        )
+    }
+}
@@ -119,6 +119,7 @@ data class AgentConfiguration(
      *
      * UI 树一般来自无障碍节点 dump。过长会显著增加 token 消耗。
      * 超过阈值时通常需要截断/摘要（见 UI 树截断参数）。
+     * 启用 `compressUiTree` 时改用 `uiTreeMaxTokens` 预算，本参数不生效。
      */
     val maxUiTreeChars: Int = 3000,
     
@@ -143,6 +144,14 @@ data class AgentConfiguration(
      * 作用：减少每步采集状态的总耗时，但在少数机型上可能提升瞬时负载。
      */
     val parallelScreenshotAndUi: Boolean = true,
+
+    /**
+     * 是否启用“观测流水线”。
+     *
+     * 作用：动作执行并等到窗口事件后，立即开始采集下一步的截图与 UI 树，
+     * 与动作后的等待重叠进行；采集开始后界面若再有变化（窗口切换或内容变化）则丢弃并重新采集。
+     */
+    val pipelinedObservation: Boolean = true,
     
     // ========== 截图优化参数 ==========
     /** 是否启用截图缓存（重复页面可复用截图，降低频繁截屏开销） */
@@ -151,21 +160,67 @@ data class AgentConfiguration(
     /** 是否启用截图节流（限制最小截屏间隔，避免高频截屏拖慢系统） */
     val enableScreenshotThrottle: Boolean = true,
 
-    /** 截图压缩质量（0-100）。值越大越清晰但体积更大 */
+    /** 截图压缩质量（0-100）。值越大越清晰但体积更大；作为自适应编码的最高质量 */
     val screenshotCompressionQuality: Int = 85,
 
-    /** 截图目标最大体积（KB）。超过时会降低质量或缩放 */
+    /**
+     * 截图目标最大体积（KB）。超过时先降低质量、再降低缩放比例；
+     * 每个“屏幕尺寸 + 应用”命中预算的参数会被记住，下次直接使用
+     */
     val screenshotMaxSizeKB: Int = 150,
 
+    /** 是否允许使用 WebP 编码截图（同等画质体积更小，需模型网关支持 image/webp） */
+    val screenshotAllowWebp: Boolean = false,
+
     /** 截图缓存最大张数。通常 2-4 即可覆盖“当前页/上一步页” */
     val screenshotCacheMaxSize: Int = 3,
 
-    /** 截图缓存 TTL（ms）。短 TTL 可避免 UI 变化时复用到旧截图 */
+    /** 截图缓存 TTL（ms）。无窗口事件时直接复用上次截图的最长时间，短 TTL 可避免 UI 变化时复用到旧截图 */
     val screenshotCacheTtlMs: Long = 2000L,
 
+    /**
+     * 按内容指纹复用已编码截图的 TTL（ms）。
+     * 键是整屏像素的 CRC32，只有像素完全相同时才复用，因此可比 `screenshotCacheTtlMs` 长得多。
+     */
+    val screenshotContentCacheTtlMs: Long = 60_000L,
+
+    /**
+     * 感知哈希（64 位 dHash）汉明距离不超过该值即视为同一屏幕。0 表示要求完全一致。
+     * 仅用于“屏幕未变化”判断（还要求 UI 树相同），不用于复用已编码图片
+     */
+    val screenshotHashMaxDistance: Int = 0,
+
+    /**
+     * 屏幕与上一步相同时是否省略本步截图。
+     *
+     * 作用：等待/无效操作后画面未变时只发送 UI 树和“屏幕未变化”提示，节省上传和图片 token；
+     * 不会连续两步省略，保证模型至少每隔一步看到一次真实画面。
+     */
+    val skipUnchangedScreenshot: Boolean = true,
+
     /** 截图最小间隔（ms）。过小可能造成卡顿/发热 */
     val screenshotThrottleMinIntervalMs: Long = 1100L,
     
+    // ========== 界面稳定检测参数 ==========
+    /**
+     * 是否用“界面空闲检测”代替固定的动作后延迟。
+     *
+     * 启用后，动作后的等待在界面连续 `settleQuietMs` 无变化事件时即结束，
+     * `stepDelayMs + 动作延迟` 仅作为等待上限，因此不会比固定延迟更慢。
+     */
+    val adaptiveSettle: Boolean = true,
+
+    /** 连续多久（ms）没有窗口/内容变化事件即视为界面已稳定 */
+    val settleQuietMs: Long = 200L,
+
+    /**
+     * 动作后等待首个界面事件的时长（ms），在此之前没有事件不开始计算安静期。
+     * 应用刚收到点击/启动时可能还未发出任何事件，只看安静期会过早返回、读到旧界面。
+     */
+    val launchMinSettleMs: Long = 700L,
+    val homeMinSettleMs: Long = 300L,
+    val defaultMinSettleMs: Long = 120L,
+
     // ========== 动作延迟参数 ==========
     val launchActionDelayMs: Long = 1050L,
     val typeActionDelayMs: Long = 260L,
@@ -188,6 +243,50 @@ data class AgentConfiguration(
     // ========== UI树参数 ==========
     /** UI 树最多保留节点数（用于摘要/精简）。越大信息越全但 token 越多 */
     val uiTreeMaxNodes: Int = 30,
+
+    /**
+     * 是否由无障碍事件增量维护 UI 树快照。
+     *
+     * 作用：窗口切换后完整抓取一次，之后只重新抓取内容变化的子树，
+     * 导出 XML/JSON 时直接读内存模型，避免每步逐节点的 Binder 调用。
+     */
+    val incrementalUiTree: Boolean = true,
+
+    /** 增量 UI 树快照的最长存活时间（ms），超过后强制完整重建，兜底不发事件的控件 */
+    val uiTreeIndexMaxAgeMs: Long = 10_000L,
+
+    /**
+     * UI 树子树抓取策略："auto" / "prefetch" / "parallel" / "sequential"。
+     *
+     * auto：API 33+ 使用系统预取（一次 IPC 带回一批后代节点），更低版本把兄弟子树分发到
+     * 有界线程池并行抓取。各策略耗时见日志 UI_TREE 中的“抓取”字段，便于在真机上对比。
+     */
+    val uiTreeFetchStrategy: String = "auto",
+
+    /** 并行抓取策略的最大线程数 */
+    val uiTreeFetchParallelism: Int = 4,
+
+    /**
+     * 是否按 token 预算压缩发送给模型的 UI 树（代替按字符数头尾截断）。
+     *
+     * 作用：跳过屏幕外节点和无信息的包装布局，重复列表行只完整保留前几行，
+     * 超出预算时优先丢弃低价值节点，保留可点击/可编辑/有文本的元素。
+     */
+    val compressUiTree: Boolean = true,
+
+    /** 压缩 UI 树的 token 预算（按 ActionUtils.estimateTokens 估算） */
+    val uiTreeMaxTokens: Int = 1500,
+
+    /**
+     * 是否发送差分观测（需开启 `compressUiTree`）。
+     *
+     * 作用：与上一步的 UI 树按“类名 + resource-id + bounds”比较，只发送新增/移除/变化的节点；
+     * 页面切换、变化过多或关键帧已被历史修剪移除时自动发送完整 UI 树。
+     */
+    val differentialUiTree: Boolean = true,
+
+    /** 差分观测的关键帧间隔（步）：每隔多少步强制发送一次完整 UI 树 */
+    val uiTreeKeyframeInterval: Int = 4,
     
     // ========== Tap+Type合并执行参数 ==========
     val tapTypeCombineKeyboardWaitMs: Long = 400L,
@@ -288,8 +387,8 @@ data class AgentConfiguration(
     val windowEventPollIntervalMs: Long = 60L,
     
     // ========== 截图参数 ==========
-    /** 截图缩放比例（百分比）。缩小可以降低体积与 token，但可能损失小字细节 */
-    val screenshotScalePercent: Int = 80,
+    /** 截图缩放比例（百分比）。缩小可以降低体积与 token，但可能损失小字细节；作为自适应编码的最大缩放 */
+    val screenshotScalePercent: Int = 75,
 
     /** 截图编码质量（0-100）。与 `screenshotCompressionQuality` 类似，保留用于兼容旧调用 */
     val screenshotQuality: Int = 85,
@@ -329,6 +428,7 @@ data class AgentConfiguration(
      * 根据动作名称映射动作延迟。
      *
      * 注意：`actionName` 可能来自模型输出，因此这里做了归一化（去空格、转小写）。
+     * 启用 `adaptiveSettle` 时，该值作为界面稳定等待的上限。
      */
     fun getActionDelayMs(actionName: String): Long {
         val normalized = actionName.replace(" ", "").lowercase()
@@ -344,6 +444,18 @@ data class AgentConfiguration(
         }
     }
     
+    /**
+     * 根据动作名称映射界面稳定检测的最短等待（等待首个事件的时长）。
+     */
+    fun getMinSettleMs(actionName: String): Long {
+        val normalized = actionName.replace(" ", "").lowercase()
+        return when (normalized) {
+            "launch", "open_app", "start_app" -> launchMinSettleMs
+            "home" -> homeMinSettleMs
+            else -> defaultMinSettleMs
+        }
+    }
+
     /**
      * 根据动作名称映射窗口事件等待超时。
      *
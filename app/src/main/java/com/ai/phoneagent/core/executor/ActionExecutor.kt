@@ -1,11 +1,10 @@
 package com.ai.phoneagent.core.executor
 
-import android.accessibilityservice.AccessibilityService
-import android.graphics.Rect
-import com.ai.phoneagent.LaunchProxyActivity
-import com.ai.phoneagent.PhoneAgentAccessibilityService
+import com.ai.phoneagent.AppPackageMapping
 import com.ai.phoneagent.core.agent.ParsedAgentAction
 import com.ai.phoneagent.core.config.AgentConfiguration
+import com.ai.phoneagent.core.platform.DeviceController
+import com.ai.phoneagent.core.tools.AppPackageManager
 import com.ai.phoneagent.core.utils.ActionUtils
 import kotlinx.coroutines.delay
 
@@ -22,10 +21,11 @@ class ActionExecutor(
 
     /**
      * 执行动作
+     * @param uiDump 完整的（未压缩、未截断的）UI文本，用于敏感界面检测
      */
     suspend fun execute(
         action: ParsedAgentAction,
-        service: PhoneAgentAccessibilityService,
+        device: DeviceController,
         uiDump: String,
         screenW: Int,
         screenH: Int,
@@ -36,22 +36,22 @@ class ActionExecutor(
         val nameKey = name.replace(" ", "")
 
         return when (nameKey) {
-            "launch", "open_app", "start_app" -> executeLaunch(action, service, onLog)
-            "back" -> executeBack(service, onLog)
-            "home" -> executeHome(service, onLog)
+            "launch", "open_app", "start_app" -> executeLaunch(action, device, onLog)
+            "back" -> executeBack(device, onLog)
+            "home" -> executeHome(device, onLog)
             "wait", "sleep" -> executeWait(action, onLog)
-            "type", "input", "text" -> executeType(action, service, uiDump, screenW, screenH, onLog)
-            "tap", "click", "press" -> executeTap(action, service, uiDump, screenW, screenH, onLog)
-            "longpress", "long_press" -> executeLongPress(action, service, screenW, screenH, onLog)
-            "doubletap", "double_tap" -> executeDoubleTap(action, service, screenW, screenH, onLog)
-            "swipe", "scroll" -> executeSwipe(action, service, screenW, screenH, onLog)
+            "type", "input", "text" -> executeType(action, device, uiDump, screenW, screenH, onLog)
+            "tap", "click", "press" -> executeTap(action, device, uiDump, screenW, screenH, onLog)
+            "longpress", "long_press" -> executeLongPress(action, device, screenW, screenH, onLog)
+            "doubletap", "double_tap" -> executeDoubleTap(action, device, screenW, screenH, onLog)
+            "swipe", "scroll" -> executeSwipe(action, device, screenW, screenH, onLog)
             else -> false
         }
     }
 
     private suspend fun executeLaunch(
         action: ParsedAgentAction,
-        service: PhoneAgentAccessibilityService,
+        device: DeviceController,
         onLog: (String) -> Unit
     ): Boolean {
         val rawTarget = action.fields["package"]
@@ -62,98 +62,50 @@ class ActionExecutor(
         val t = rawTarget.trim().trim('"', '\'', ' ')
         if (t.isBlank()) return false
 
-        val pm = service.packageManager
-        val beforeTime = service.lastWindowEventTime()
-
-        // 检查应用是否已安装
-        fun isInstalled(pkgName: String): Boolean {
-            return runCatching {
-                @Suppress("DEPRECATION")
-                pm.getPackageInfo(pkgName, 0)
-                true
-            }.getOrDefault(false)
-        }
-
-        // 构建启动Intent
-        fun buildLaunchIntent(pkgName: String): android.content.Intent? {
-            val direct = pm.getLaunchIntentForPackage(pkgName)
-            if (direct != null) return direct
-
-            val query = android.content.Intent(android.content.Intent.ACTION_MAIN)
-                .addCategory(android.content.Intent.CATEGORY_LAUNCHER)
-            val ri = runCatching { pm.queryIntentActivities(query, 0) }
-                .getOrNull()
-                ?.firstOrNull { it.activityInfo?.packageName == pkgName }
-                ?: return null
-
-            val ai = ri.activityInfo ?: return null
-            return android.content.Intent(android.content.Intent.ACTION_MAIN)
-                .addCategory(android.content.Intent.CATEGORY_LAUNCHER)
-                .setClassName(ai.packageName, ai.name)
-        }
-
         // 构建候选包名列表
         val candidates = buildList {
             if (t.contains('.')) add(t)
-            com.ai.phoneagent.AppPackageMapping.resolve(t)?.let { add(it) }
-            com.ai.phoneagent.core.tools.AppPackageManager.resolvePackageByLabel(service, t)?.let { add(it) }
+            AppPackageMapping.resolve(t)?.let { add(it) }
+            AppPackageManager.resolvePackageName(t)?.let { add(it) }
             if (!t.contains('.')) add(t)
         }.distinct()
 
-        var pkgName = candidates.firstOrNull().orEmpty().ifBlank { t }
-        var intent: android.content.Intent? = null
-
-        for (candidate in candidates) {
-            if (candidate.contains('.') && !isInstalled(candidate)) continue
-            val i = buildLaunchIntent(candidate)
-            if (i != null) {
-                pkgName = candidate
-                intent = i
-                break
-            }
-        }
-
-        onLog("执行：Launch($pkgName)")
-        if (intent == null) {
-            onLog("Launch 失败：未找到可启动入口：$pkgName（candidates=${candidates.joinToString()}）")
+        val beforeTime = device.getLastWindowEventTime()
+        val pkgName = try {
+            candidates.firstOrNull { device.launchApp(it) }
+        } catch (e: Exception) {
+            onLog("Launch 失败：${e.message.orEmpty()}")
             return false
         }
 
-        intent.addFlags(
-            android.content.Intent.FLAG_ACTIVITY_NEW_TASK or
-            android.content.Intent.FLAG_ACTIVITY_NO_ANIMATION or
-            android.content.Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED
-        )
-
-        return try {
-            LaunchProxyActivity.launch(service, intent)
-            service.awaitWindowEvent(beforeTime, timeoutMs = config.launchAwaitWindowTimeoutMs)
-            true
-        } catch (e: Exception) {
-            onLog("Launch 失败：${e.message.orEmpty()}")
-            false
+        if (pkgName == null) {
+            onLog("Launch 失败：未找到可启动入口：$t（candidates=${candidates.joinToString()}）")
+            return false
         }
+        onLog("执行：Launch($pkgName)")
+        device.awaitWindowEvent(beforeTime, timeoutMs = config.launchAwaitWindowTimeoutMs)
+        return true
     }
 
     private suspend fun executeBack(
-        service: PhoneAgentAccessibilityService,
+        device: DeviceController,
         onLog: (String) -> Unit
     ): Boolean {
         onLog("执行：Back")
-        val beforeTime = service.lastWindowEventTime()
-        service.performGlobalAction(AccessibilityService.GLOBAL_ACTION_BACK)
-        service.awaitWindowEvent(beforeTime, timeoutMs = config.backAwaitWindowTimeoutMs)
+        val beforeTime = device.getLastWindowEventTime()
+        device.performGlobalBack()
+        device.awaitWindowEvent(beforeTime, timeoutMs = config.backAwaitWindowTimeoutMs)
         return true
     }
 
     private suspend fun executeHome(
-        service: PhoneAgentAccessibilityService,
+        device: DeviceController,
         onLog: (String) -> Unit
     ): Boolean {
         onLog("执行：Home")
-        val beforeTime = service.lastWindowEventTime()
-        service.performGlobalAction(AccessibilityService.GLOBAL_ACTION_HOME)
-        service.awaitWindowEvent(beforeTime, timeoutMs = config.homeAwaitWindowTimeoutMs)
+        val beforeTime = device.getLastWindowEventTime()
+        device.performGlobalHome()
+        device.awaitWindowEvent(beforeTime, timeoutMs = config.homeAwaitWindowTimeoutMs)
         return true
     }
 
@@ -177,7 +129,7 @@ class ActionExecutor(
 
     private suspend fun executeType(
         action: ParsedAgentAction,
-        service: PhoneAgentAccessibilityService,
+        device: DeviceController,
         uiDump: String,
         screenW: Int,
         screenH: Int,
@@ -205,14 +157,14 @@ class ActionExecutor(
         if (element != null) {
             val (x, y) = ActionUtils.parsePointToScreen(element, screenW, screenH)
             onLog("执行：先点击输入框(${element.first},${element.second})")
-            service.clickAwait(x, y)
+            device.click(x, y)
             delay(300)
         }
 
         onLog("执行：Type(${inputText.take(config.logInputTextTruncateLength)})")
 
         var ok = if (resourceId != null || contentDesc != null || className != null || elementText != null) {
-            service.setTextOnElement(
+            device.setTextOnElement(
                 text = inputText,
                 resourceId = resourceId,
                 elementText = elementText,
@@ -221,25 +173,25 @@ class ActionExecutor(
                 index = index
             )
         } else {
-            service.setTextOnFocused(inputText)
+            device.setTextOnFocused(inputText)
         }
 
         if (!ok) {
             onLog("输入失败，尝试查找并激活输入框…")
-            val inputClicked = service.clickFirstEditableElement()
+            val inputClicked = device.clickFirstEditableElement()
             if (inputClicked) {
                 delay(300)
-                ok = service.setTextOnFocused(inputText)
+                ok = device.setTextOnFocused(inputText)
             }
         }
 
-        service.awaitWindowEvent(service.lastWindowEventTime(), timeoutMs = config.typeAwaitWindowTimeoutMs)
+        device.awaitWindowEvent(device.getLastWindowEventTime(), timeoutMs = config.typeAwaitWindowTimeoutMs)
         return ok
     }
 
     private suspend fun executeTap(
         action: ParsedAgentAction,
-        service: PhoneAgentAccessibilityService,
+        device: DeviceController,
         uiDump: String,
         screenW: Int,
         screenH: Int,
@@ -262,7 +214,7 @@ class ActionExecutor(
         // 优先使用 selector
         val selectorOk = if (resourceId != null || contentDesc != null || className != null || elementText != null) {
             onLog("执行：Tap(selector)")
-            service.clickElement(
+            device.clickElement(
                 resourceId = resourceId,
                 text = elementText,
                 contentDesc = contentDesc,
@@ -274,7 +226,7 @@ class ActionExecutor(
         }
 
         if (selectorOk) {
-            service.awaitWindowEvent(service.lastWindowEventTime(), timeoutMs = config.tapAwaitWindowTimeoutMs)
+            device.awaitWindowEvent(device.getLastWindowEventTime(), timeoutMs = config.tapAwaitWindowTimeoutMs)
             return true
         }
 
@@ -287,14 +239,14 @@ class ActionExecutor(
 
         val (x, y) = ActionUtils.parsePointToScreen(xRel to yRel, screenW, screenH)
         onLog("执行：Tap($xRel,$yRel)")
-        service.clickAwait(x, y)
-        service.awaitWindowEvent(service.lastWindowEventTime(), timeoutMs = config.tapAwaitWindowTimeoutMs)
+        device.click(x, y)
+        device.awaitWindowEvent(device.getLastWindowEventTime(), timeoutMs = config.tapAwaitWindowTimeoutMs)
         return true
     }
 
     private suspend fun executeLongPress(
         action: ParsedAgentAction,
-        service: PhoneAgentAccessibilityService,
+        device: DeviceController,
         screenW: Int,
         screenH: Int,
         onLog: (String) -> Unit
@@ -303,14 +255,14 @@ class ActionExecutor(
         val (x, y) = ActionUtils.parsePointToScreen(element, screenW, screenH)
 
         onLog("执行：Long Press(${element.first},${element.second})")
-        service.clickAwait(x, y, durationMs = config.longPressDurationMs)
-        service.awaitWindowEvent(service.lastWindowEventTime(), timeoutMs = config.tapAwaitWindowTimeoutMs)
+        device.click(x, y, durationMs = config.longPressDurationMs)
+        device.awaitWindowEvent(device.getLastWindowEventTime(), timeoutMs = config.tapAwaitWindowTimeoutMs)
         return true
     }
 
     private suspend fun executeDoubleTap(
         action: ParsedAgentAction,
-        service: PhoneAgentAccessibilityService,
+        device: DeviceController,
         screenW: Int,
         screenH: Int,
         onLog: (String) -> Unit
@@ -319,16 +271,16 @@ class ActionExecutor(
         val (x, y) = ActionUtils.parsePointToScreen(element, screenW, screenH)
 
         onLog("执行：Double Tap(${element.first},${element.second})")
-        val ok1 = service.clickAwait(x, y, durationMs = config.clickDurationMs)
+        val ok1 = device.click(x, y, durationMs = config.clickDurationMs)
         delay(config.doubleTapIntervalMs)
-        val ok2 = service.clickAwait(x, y, durationMs = config.clickDurationMs)
-        service.awaitWindowEvent(service.lastWindowEventTime(), timeoutMs = config.tapAwaitWindowTimeoutMs)
+        val ok2 = device.click(x, y, durationMs = config.clickDurationMs)
+        device.awaitWindowEvent(device.getLastWindowEventTime(), timeoutMs = config.tapAwaitWindowTimeoutMs)
         return ok1 && ok2
     }
 
     private suspend fun executeSwipe(
         action: ParsedAgentAction,
-        service: PhoneAgentAccessibilityService,
+        device: DeviceController,
         screenW: Int,
         screenH: Int,
         onLog: (String) -> Unit
@@ -352,8 +304,8 @@ class ActionExecutor(
         val (ex, ey) = ActionUtils.parsePointToScreen(exRel to eyRel, screenW, screenH)
 
         onLog("执行：Swipe($sxRel,$syRel -> $exRel,$eyRel, ${dur}ms)")
-        service.swipeAwait(sx, sy, ex, ey, dur)
-        service.awaitWindowEvent(service.lastWindowEventTime(), timeoutMs = config.swipeAwaitWindowTimeoutMs)
+        device.swipe(sx, sy, ex, ey, dur)
+        device.awaitWindowEvent(device.getLastWindowEventTime(), timeoutMs = config.swipeAwaitWindowTimeoutMs)
         return true
     }
 }
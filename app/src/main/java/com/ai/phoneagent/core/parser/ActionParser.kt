@@ -12,104 +12,70 @@ class ActionParser {
     
     /**
      * 解析Agent动作
+     *
+     * 先单遍扫描整段文本收集截断/长文本判断所需的信息和最后一个动作的位置，
+     * 再由 [ActionSyntax] 从该位置一次性解析参数，不使用正则。流式早停时每个分块都会调用，需保持轻量。
      */
     fun parse(raw: String): ParsedAgentAction {
         val original = raw.trim()
-        
-        // 检测截断迹象
-        val hasTruncationSign = original.contains("\uFFFD") ||
-            original.endsWith("…") ||
-            original.endsWith("...") ||
-            (original.contains("我需要") && !original.contains("do(") && !original.contains("finish("))
-        
+
+        var lastActionStart = -1
+        var equalsCount = 0
+        var hasReplacementChar = false
+        var hasTextAttr = false
+        var hasNeedPhrase = false
+        for (i in original.indices) {
+            when (original[i]) {
+                '=' -> equalsCount++
+                '\uFFFD' -> hasReplacementChar = true
+                'd', 'f' -> if (ActionSyntax.actionOpenParen(original, i) >= 0) lastActionStart = i
+                't' -> if (!hasTextAttr && original.startsWith(TEXT_ATTR, i)) hasTextAttr = true
+                '我' -> if (!hasNeedPhrase && original.startsWith(NEED_PHRASE, i)) hasNeedPhrase = true
+            }
+        }
+        val hasAction = lastActionStart >= 0
+
         // 检测长文本无动作的情况
-        if (original.contains("text=\"") && original.count { it == '=' } > 10 && 
-            !original.contains("do(") && !original.contains("finish(")) {
+        if (!hasAction && hasTextAttr && equalsCount > 10) {
             return ParsedAgentAction("unknown", null, emptyMap(), original.take(200))
         }
-        
+
         // 截断检测
-        if (hasTruncationSign && !original.contains("do(") && !original.contains("finish(")) {
+        val hasTruncationSign = hasReplacementChar ||
+            original.endsWith("…") ||
+            original.endsWith("...") ||
+            hasNeedPhrase
+        if (!hasAction && hasTruncationSign) {
             return ParsedAgentAction("unknown", null, emptyMap(), "输出被截断，未包含动作")
         }
-        
-        // 查找动作开始位置
-        val finishIndex = original.lastIndexOf("finish(")
-        val doIndex = original.lastIndexOf("do(")
-        val startIndex = when {
-            finishIndex >= 0 && doIndex >= 0 -> maxOf(finishIndex, doIndex)
-            finishIndex >= 0 -> finishIndex
-            doIndex >= 0 -> doIndex
-            else -> -1
-        }
-        val trimmed = if (startIndex >= 0) original.substring(startIndex).trim() else original
 
-        // 解析 finish
-        if (trimmed.startsWith("finish")) {
-            val messageRegex = Regex(
-                """finish\s*\(\s*message\s*=\s*"(.*)"""",
-                RegexOption.DOT_MATCHES_ALL
-            )
-            val message = messageRegex.find(trimmed)?.groupValues?.getOrNull(1) ?: ""
-            return ParsedAgentAction("finish", null, mapOf("message" to message), trimmed)
+        if (!hasAction) {
+            return when {
+                original.startsWith("finish") ->
+                    ParsedAgentAction("finish", null, mapOf("message" to ""), original)
+                original.startsWith("do") ->
+                    ParsedAgentAction("unknown", null, emptyMap(), "do命令不完整")
+                else -> ParsedAgentAction("unknown", null, emptyMap(), original.take(200))
+            }
         }
 
-        // 检查是否为 do 动作
-        if (!trimmed.startsWith("do")) {
-            return ParsedAgentAction("unknown", null, emptyMap(), trimmed.take(200))
-        }
+        val actionText = original.substring(lastActionStart)
+        val openParen = ActionSyntax.actionOpenParen(actionText, 0)
+        val fields = LinkedHashMap<String, String>()
+        ActionSyntax.parseArguments(actionText, openParen + 1, fields)
 
-        // 找到参数区域的括号
-        val openParenIndex = trimmed.indexOf('(')
-        if (openParenIndex < 0) {
-            return ParsedAgentAction("unknown", null, emptyMap(), "do命令不完整")
-        }
-        
-        // 找到匹配的闭括号
-        var parenCount = 0
-        var closeParenIndex = -1
-        for (i in openParenIndex until trimmed.length) {
-            when (trimmed[i]) {
-                '(' -> parenCount++
-                ')' -> {
-                    parenCount--
-                    if (parenCount == 0) {
-                        closeParenIndex = i
-                        break
-                    }
-                }
-            }
-        }
-        
-        val inner = if (closeParenIndex > openParenIndex) {
-            trimmed.substring(openParenIndex + 1, closeParenIndex).trim()
-        } else {
-            trimmed.substring(openParenIndex + 1).trim().trimEnd(')', ',', ' ')
+        // 解析 finish
+        if (actionText.startsWith("finish")) {
+            return ParsedAgentAction("finish", null, mapOf("message" to fields["message"].orEmpty()), actionText)
         }
-        
-        // 解析参数
-        val fields = parseParameters(inner)
-        
+
         // 获取 action 参数
-        if (fields.containsKey("action")) {
-            return ParsedAgentAction("do", fields["action"], fields, trimmed)
+        val actionName = fields["action"]
+        if (actionName != null) {
+            return ParsedAgentAction("do", actionName, fields, actionText)
         }
 
-        return ParsedAgentAction("unknown", null, emptyMap(), trimmed.take(200))
-    }
-    
-    /**
-     * 解析参数字符串
-     */
-    private fun parseParameters(paramsStr: String): Map<String, String> {
-        val fields = mutableMapOf<String, String>()
-        val regex = Regex("""(\w+)\s*=\s*(?:\[(.*?)\]|"(.*?)"|'([^']*)'|([^,)]+))""")
-        regex.findAll(paramsStr).forEach { m ->
-            val key = m.groupValues[1]
-            val value = m.groupValues.drop(2).firstOrNull { it.isNotEmpty() } ?: ""
-            fields[key] = value
-        }
-        return fields
+        return ParsedAgentAction("unknown", null, emptyMap(), actionText.take(200))
     }
     
     /**
@@ -197,8 +163,13 @@ class ActionParser {
      * 提取标签内容
      */
     private fun extractTagContent(text: String, tag: String): String? {
-        val pattern = Regex("""<$tag>(.*?)</$tag>""", RegexOption.DOT_MATCHES_ALL)
-        return pattern.find(text)?.groupValues?.getOrNull(1)?.trim()
+        val openTag = "<$tag>"
+        val start = text.indexOf(openTag)
+        if (start < 0) return null
+        val contentStart = start + openTag.length
+        val end = text.indexOf("</$tag>", contentStart)
+        if (end < 0) return null
+        return text.substring(contentStart, end).trim()
     }
     
     /**
@@ -206,11 +177,7 @@ class ActionParser {
      */
     fun parseEstimatedSteps(thinking: String): Int {
         // 显式模式
-        val explicitPatterns = listOf(
-            Regex("""(?:需要|大约|共|总共|预计)\s*(\d+)\s*(?:步|个步骤|个操作)"""),
-            Regex("""(\d+)\s*(?:步|个步骤|个操作)(?:完成|即可|就能)"""),
-        )
-        for (pattern in explicitPatterns) {
+        for (pattern in EXPLICIT_STEP_PATTERNS) {
             val match = pattern.find(thinking)
             if (match != null) {
                 val num = match.groupValues.getOrNull(1)?.toIntOrNull()
@@ -219,11 +186,10 @@ class ActionParser {
         }
         
         // "我需要" 模式
-        val needPattern = Regex("""我需要[：:]\s*([\s\S]*?)(?:首先|然后|接下来|现在|$)""")
-        val needMatch = needPattern.find(thinking)
+        val needMatch = NEED_PATTERN.find(thinking)
         if (needMatch != null) {
             val needContent = needMatch.groupValues.getOrNull(1).orEmpty()
-            val numbers = Regex("""(\d+)\s*[\.、）\)：:]""")
+            val numbers = LIST_NUMBER_PATTERN
                 .findAll(needContent)
                 .mapNotNull { it.groupValues.getOrNull(1)?.toIntOrNull() }
                 .toList()
@@ -234,7 +200,7 @@ class ActionParser {
         }
         
         // 编号步骤模式
-        val numberedSteps = Regex("""(?:^|\n|\s|，|。|；)(\d+)\s*[\.、）\)：:]|第(\d+)步""")
+        val numberedSteps = NUMBERED_STEP_PATTERN
             .findAll(thinking)
             .mapNotNull { 
                 it.groupValues.getOrNull(1)?.toIntOrNull() 
@@ -248,8 +214,7 @@ class ActionParser {
         }
         
         // 动作关键词计数
-        val actionKeywords = listOf("点击", "输入", "滑动", "打开", "选择", "返回", "等待", "启动", "查询", "修改")
-        val actionCount = actionKeywords.sumOf { keyword -> 
+        val actionCount = ACTION_KEYWORDS.sumOf { keyword -> 
             thinking.split(keyword).size - 1 
         }
         if (actionCount >= 2) {
@@ -258,5 +223,19 @@ class ActionParser {
         
         return 0
     }
-}
 
+    companion object {
+        private const val TEXT_ATTR = "text=\""
+        private const val NEED_PHRASE = "我需要"
+
+        // 预估步骤数的正则只编译一次
+        private val EXPLICIT_STEP_PATTERNS = listOf(
+            Regex("""(?:需要|大约|共|总共|预计)\s*(\d+)\s*(?:步|个步骤|个操作)"""),
+            Regex("""(\d+)\s*(?:步|个步骤|个操作)(?:完成|即可|就能)"""),
+        )
+        private val NEED_PATTERN = Regex("""我需要[：:]\s*([\s\S]*?)(?:首先|然后|接下来|现在|$)""")
+        private val LIST_NUMBER_PATTERN = Regex("""(\d+)\s*[\.、）\)：:]""")
+        private val NUMBERED_STEP_PATTERN = Regex("""(?:^|\n|\s|，|。|；)(\d+)\s*[\.、）\)：:]|第(\d+)步""")
+        private val ACTION_KEYWORDS = listOf("点击", "输入", "滑动", "打开", "选择", "返回", "等待", "启动", "查询", "修改")
+    }
+}
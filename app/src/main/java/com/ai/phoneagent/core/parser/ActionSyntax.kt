@@ -0,0 +1,194 @@
+package com.ai.phoneagent.core.parser
+
+/**
+ * 动作语法扫描器：do(...) / finish(...)
+ *
+ * 手写的单遍扫描，不使用正则：参数值支持双引号/单引号字符串、列表 [..]（可嵌套）与嵌套括号。
+ * 字符串内允许 \" 转义；未转义的引号只有在其后（跳过空白）紧跟 , ) ] 或文本结尾时才视为字符串结束，
+ * 因此 text="点击"确定"按钮" 这类模型常见输出也能完整取到。
+ * 输入可以是流式接收中尚不完整的文本，扫描到末尾即停止，不会抛异常。
+ */
+internal object ActionSyntax {
+
+    /**
+     * 判断 [i] 处是否为动作起始（do / finish，后跟可选空白和左括号，且前一个字符不是标识符字符）
+     * @return 左括号下标，不是动作起始时返回 -1
+     */
+    fun actionOpenParen(text: CharSequence, i: Int): Int {
+        val keywordLength = when {
+            text.startsWith(DO, i) -> DO.length
+            text.startsWith(FINISH, i) -> FINISH.length
+            else -> return -1
+        }
+        if (i > 0 && isKeyChar(text[i - 1])) return -1
+        var j = i + keywordLength
+        while (j < text.length && text[j].isWhitespace()) j++
+        return if (j < text.length && text[j] == '(') j else -1
+    }
+
+    /**
+     * 查找第一个动作起始位置
+     * @return 动作关键字下标，没有时返回 -1
+     */
+    fun findFirstAction(text: CharSequence, from: Int = 0): Int {
+        for (i in from until text.length) {
+            val c = text[i]
+            if ((c == 'd' || c == 'f') && actionOpenParen(text, i) >= 0) return i
+        }
+        return -1
+    }
+
+    /**
+     * 从左括号 [open] 开始查找匹配的右括号，忽略字符串内的括号
+     * @return 右括号下标，未闭合时返回 -1
+     */
+    fun findClosingParen(text: CharSequence, open: Int): Int {
+        val end = skipNested(text, open)
+        return if (end > 0) end - 1 else -1
+    }
+
+    /**
+     * 解析 key=value 参数列表
+     * @param start 左括号之后的位置
+     * @param out 解析出的参数（列表值不含外层方括号）
+     * @return 匹配的右括号下标，未闭合时返回 text.length
+     */
+    fun parseArguments(text: CharSequence, start: Int, out: MutableMap<String, String>): Int {
+        val n = text.length
+        val value = StringBuilder()
+        var i = start
+        while (i < n) {
+            val c = text[i]
+            when {
+                c == ')' -> return i
+                c == ',' || c.isWhitespace() -> i++
+                isKeyChar(c) -> {
+                    val keyStart = i
+                    while (i < n && isKeyChar(text[i])) i++
+                    val keyEnd = i
+                    while (i < n && text[i].isWhitespace()) i++
+                    // 不是 key=value 的词直接跳过
+                    if (i >= n || text[i] != '=') continue
+                    i++
+                    while (i < n && text[i].isWhitespace()) i++
+                    if (i >= n) return n
+                    value.setLength(0)
+                    i = readValue(text, i, value)
+                    out[text.substring(keyStart, keyEnd)] = value.toString()
+                }
+                else -> i = skipValue(text, i)
+            }
+        }
+        return n
+    }
+
+    /**
+     * 读取一个参数值，写入 [out]
+     * @return 值之后的位置
+     */
+    private fun readValue(text: CharSequence, start: Int, out: StringBuilder): Int {
+        val n = text.length
+        return when (text[start]) {
+            '"', '\'' -> readQuoted(text, start, out)
+            '[', '(' -> {
+                val end = skipNested(text, start)
+                if (end > 0) {
+                    out.append(text, start + 1, end - 1)
+                    end
+                } else {
+                    out.append(text, start + 1, n)
+                    n
+                }
+            }
+            else -> {
+                var end = start
+                while (end < n && text[end] != ',' && text[end] != ')') end++
+                var last = end
+                while (last > start && text[last - 1].isWhitespace()) last--
+                out.append(text, start, last)
+                end
+            }
+        }
+    }
+
+    /** 跳过一个无法识别的片段（字符串/列表整体跳过） */
+    private fun skipValue(text: CharSequence, start: Int): Int {
+        return when (text[start]) {
+            '"', '\'' -> readQuoted(text, start, null)
+            '[', '(' -> skipNested(text, start).let { if (it > 0) it else text.length }
+            else -> start + 1
+        }
+    }
+
+    /**
+     * 读取引号字符串，内容（去掉引号、还原 \" 转义）写入 [out]
+     * @return 右引号之后的位置，未闭合时返回 text.length
+     */
+    private fun readQuoted(text: CharSequence, start: Int, out: StringBuilder?): Int {
+        val quote = text[start]
+        val n = text.length
+        var i = start + 1
+        while (i < n) {
+            val c = text[i]
+            if (c == '\\' && i + 1 < n) {
+                val next = text[i + 1]
+                if (next == quote) {
+                    out?.append(quote)
+                    i += 2
+                    continue
+                }
+                if (next == '\\') {
+                    // 保留原样，只是不让第二个反斜杠转义后面的引号
+                    out?.append(c)?.append(next)
+                    i += 2
+                    continue
+                }
+            }
+            if (c == quote && closesString(text, i + 1)) return i + 1
+            out?.append(c)
+            i++
+        }
+        return n
+    }
+
+    /** 引号之后（跳过空白）是参数分隔符、右括号或文本结尾时，才视为字符串结束 */
+    private fun closesString(text: CharSequence, from: Int): Boolean {
+        var i = from
+        while (i < text.length && text[i].isWhitespace()) i++
+        if (i >= text.length) return true
+        val c = text[i]
+        return c == ',' || c == ')' || c == ']'
+    }
+
+    /**
+     * 从 [start] 处的左括号/左方括号跳到匹配的右括号之后，忽略字符串内容
+     * @return 匹配右括号之后的位置，未闭合时返回 -1
+     */
+    private fun skipNested(text: CharSequence, start: Int): Int {
+        val n = text.length
+        var depth = 0
+        var i = start
+        while (i < n) {
+            when (text[i]) {
+                '"', '\'' -> {
+                    i = readQuoted(text, i, null)
+                    continue
+                }
+                '(', '[' -> depth++
+                ')', ']' -> {
+                    depth--
+                    if (depth == 0) return i + 1
+                }
+            }
+            i++
+        }
+        return -1
+    }
+
+    /** 与正则 \w 一致：ASCII 字母、数字、下划线 */
+    private fun isKeyChar(c: Char): Boolean =
+        c in 'a'..'z' || c in 'A'..'Z' || c in '0'..'9' || c == '_'
+
+    private const val DO = "do"
+    private const val FINISH = "finish"
+}
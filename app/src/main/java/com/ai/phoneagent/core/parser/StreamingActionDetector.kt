@@ -0,0 +1,266 @@
+package com.ai.phoneagent.core.parser
+
+import com.ai.phoneagent.core.agent.ParsedAgentAction
+import com.ai.phoneagent.helper.AriesStreamParser
+import com.ai.phoneagent.helper.TagMatcher
+
+/**
+ * 流式动作检测器
+ *
+ * 在模型流式输出过程中增量检测是否已收到一个语法完整的 do(...) / finish(...) 调用，
+ * 供自动化主循环实现“早停”：动作完整后即可取消剩余响应，省掉尾部 token 的等待。
+ *
+ * 说明：
+ * - 只扫描新追加的字符，跨 delta 保留状态（思考/回答、标记匹配、括号深度、引号与转义），从不回扫已接收内容
+ * - 思考/回答的划分与 [AriesStreamParser] 使用同一套标记：<think>、<思考>、<思考：...>、【思考开始】等，
+ *   标记与 do / finish 关键字由同一个 [TagMatcher] 逐字符匹配；思考内的动作不参与检测
+ * - 参数区的语法与 [ActionSyntax] 一致：未转义的引号只有后面紧跟 , ) ] 时才结束字符串
+ * - 括号闭合后只解析动作片段本身，解析结果为 do / finish 才算完整动作，结果通过 [action] 与 [onActionComplete] 给出；
+ *   正文里碰巧出现的 “do (...)” 之类解析为 unknown，忽略后继续检测
+ *
+ * @param onActionComplete 检测到完整动作时回调一次，在调用 [append] 的线程上执行
+ */
+class StreamingActionDetector(
+    private val onActionComplete: ((ParsedAgentAction) -> Unit)? = null,
+) {
+
+    private enum class State {
+        /** 回答区：查找思考标记与动作起始 */
+        ANSWER,
+        /** 已匹配到 do / finish，等待可选空白后的左括号 */
+        KEYWORD,
+        /** 思考区：查找思考结束标记 */
+        THINKING,
+        /** <思考：...> 格式的思考，以 '>' 结束 */
+        THINKING_ANGLE,
+        /** 动作参数区：跟踪括号深度与引号 */
+        ACTION,
+    }
+
+    private val parser = ActionParser()
+    private val content = StringBuilder()
+    private var scanPos = 0
+    private var state = State.ANSWER
+    // 标记/关键字匹配状态，跨 delta 保留
+    private var matchState = TagMatcher.INITIAL_STATE
+
+    private var actionStart = -1
+    private var actionEnd = -1
+    private var depth = 0
+    private var quote: Char? = null
+    private var escaped = false
+    // 字符串内遇到与起始相同的引号，需等下一个非空白字符才能确定字符串是否结束
+    private var quotePendingClose = false
+
+    /** 解析出的完整动作，未完成时为 null */
+    @Volatile
+    var action: ParsedAgentAction? = null
+        private set
+
+    /** 是否已检测到完整动作 */
+    @Volatile
+    var isComplete: Boolean = false
+        private set
+
+    /**
+     * 追加一段 content 增量
+     * @return 是否已检测到完整动作
+     */
+    fun append(delta: String): Boolean {
+        if (isComplete || delta.isEmpty()) return isComplete
+        content.append(delta)
+        scan()
+        return isComplete
+    }
+
+    /** 已接收的全部内容 */
+    fun text(): String = content.toString()
+
+    /** 已接收内容，截止到完整动作的右括号（未完成时返回全部内容） */
+    fun textUpToAction(): String {
+        return if (actionEnd > 0) content.substring(0, actionEnd) else content.toString()
+    }
+
+    /** 完整的动作片段，未完成时返回 null */
+    fun actionSnippet(): String? {
+        if (!isComplete) return null
+        return content.substring(actionStart, actionEnd)
+    }
+
+    fun reset() {
+        content.clear()
+        scanPos = 0
+        state = State.ANSWER
+        matchState = TagMatcher.INITIAL_STATE
+        actionStart = -1
+        actionEnd = -1
+        depth = 0
+        quote = null
+        escaped = false
+        quotePendingClose = false
+        action = null
+        isComplete = false
+    }
+
+    private fun scan() {
+        var i = scanPos
+        while (i < content.length) {
+            val c = content[i]
+            when (state) {
+                State.ACTION -> {
+                    if (consumeActionChar(c) && complete(i + 1)) return
+                }
+
+                State.THINKING_ANGLE -> {
+                    if (c == '>') state = State.ANSWER
+                }
+
+                State.KEYWORD -> when {
+                    c == '(' -> {
+                        depth = 1
+                        state = State.ACTION
+                    }
+                    c.isWhitespace() -> Unit
+                    else -> {
+                        // 关键字后不是左括号，当前字符重新按回答区处理
+                        state = State.ANSWER
+                        matchState = TagMatcher.INITIAL_STATE
+                        continue
+                    }
+                }
+
+                State.THINKING, State.ANSWER -> {
+                    matchState = MATCHER.next(matchState, c)
+                    val tag = relevantTag(MATCHER.matches(matchState), i)
+                    if (tag >= 0) {
+                        matchState = TagMatcher.INITIAL_STATE
+                        val kinds = TAG_KINDS[tag]
+                        state = when {
+                            state == State.THINKING -> State.ANSWER
+                            kinds and KIND_THINKING_START != 0 -> State.THINKING
+                            kinds and KIND_ANGLE_THINKING_START != 0 -> State.THINKING_ANGLE
+                            else -> {
+                                actionStart = i + 1 - MATCHER.tags[tag].length
+                                State.KEYWORD
+                            }
+                        }
+                    }
+                }
+            }
+            i++
+        }
+        scanPos = i
+    }
+
+    /**
+     * 在位置 [end] 结束的匹配中挑出当前状态需要识别的一个
+     * 关键字还要求前一个字符不是标识符字符（与 ActionSyntax 一致）
+     */
+    private fun relevantTag(matches: IntArray, end: Int): Int {
+        if (matches.isEmpty()) return -1
+        val kinds = if (state == State.THINKING) {
+            KIND_THINKING_END
+        } else {
+            KIND_THINKING_START or KIND_ANGLE_THINKING_START or KIND_ACTION_KEYWORD
+        }
+        for (tag in matches) {
+            val tagKinds = TAG_KINDS[tag]
+            if (tagKinds and kinds == 0) continue
+            if (tagKinds and KIND_ACTION_KEYWORD != 0) {
+                val before = end - MATCHER.tags[tag].length
+                if (before >= 0 && isKeyChar(content[before])) continue
+            }
+            return tag
+        }
+        return -1
+    }
+
+    /**
+     * 括号闭合后解析动作片段
+     * @return 是否为完整的 do / finish 动作；否则丢弃该片段，从 [end] 处继续按回答区检测
+     */
+    private fun complete(end: Int): Boolean {
+        val parsed = parser.parse(content.substring(actionStart, end))
+        if (parsed.metadata != "do" && parsed.metadata != "finish") {
+            actionStart = -1
+            depth = 0
+            matchState = TagMatcher.INITIAL_STATE
+            state = State.ANSWER
+            return false
+        }
+        actionEnd = end
+        scanPos = end
+        action = parsed
+        isComplete = true
+        onActionComplete?.invoke(parsed)
+        return true
+    }
+
+    /**
+     * 处理动作参数区内的一个字符
+     * @return 是否遇到了与起始括号匹配的右括号
+     */
+    private fun consumeActionChar(c: Char): Boolean {
+        val q = quote
+        if (q != null) {
+            if (!quotePendingClose) {
+                consumeStringChar(c, q)
+                return false
+            }
+            if (c.isWhitespace()) return false
+            quotePendingClose = false
+            if (c != ',' && c != ')' && c != ']') {
+                // 上一个引号属于字符串内容
+                consumeStringChar(c, q)
+                return false
+            }
+            // 字符串已在上一个引号处结束，当前字符按参数区处理
+            quote = null
+        }
+        when (c) {
+            '"', '\'' -> quote = c
+            '(', '[' -> depth++
+            ')', ']' -> {
+                depth--
+                if (depth == 0) return true
+            }
+        }
+        return false
+    }
+
+    private fun consumeStringChar(c: Char, q: Char) {
+        when {
+            escaped -> escaped = false
+            c == '\\' -> escaped = true
+            c == q -> quotePendingClose = true
+        }
+    }
+
+    /** 与 ActionSyntax 一致：ASCII 字母、数字、下划线 */
+    private fun isKeyChar(c: Char): Boolean =
+        c in 'a'..'z' || c in 'A'..'Z' || c in '0'..'9' || c == '_'
+
+    companion object {
+        private val ACTION_KEYWORDS = arrayOf("do", "finish")
+
+        private const val KIND_THINKING_START = 1
+        private const val KIND_ANGLE_THINKING_START = 1 shl 1
+        private const val KIND_THINKING_END = 1 shl 2
+        private const val KIND_ACTION_KEYWORD = 1 shl 3
+
+        /** 全部标记与关键字去重后的类别位（如【回答】只作思考结束标记） */
+        private val TAG_KIND_MAP = LinkedHashMap<String, Int>().apply {
+            fun register(tags: Array<String>, kind: Int) {
+                for (tag in tags) this[tag] = (this[tag] ?: 0) or kind
+            }
+            register(AriesStreamParser.THINKING_START_TAGS, KIND_THINKING_START)
+            register(AriesStreamParser.ANGLE_THINKING_START_TAGS, KIND_ANGLE_THINKING_START)
+            register(AriesStreamParser.THINKING_END_TAGS, KIND_THINKING_END)
+            register(ACTION_KEYWORDS, KIND_ACTION_KEYWORD)
+        }
+
+        private val MATCHER = TagMatcher(TAG_KIND_MAP.keys.toList())
+
+        private val TAG_KINDS = TAG_KIND_MAP.values.toIntArray()
+    }
+}
@@ -1,28 +1,58 @@
 package com.ai.phoneagent.core.platform
 
 import com.ai.phoneagent.PhoneAgentAccessibilityService
+import com.ai.phoneagent.core.cache.ScreenshotEncodePolicy
+import com.ai.phoneagent.core.cache.UiTreeCompressor
+import com.ai.phoneagent.core.config.AgentConfiguration
 
 /**
  * 设备控制器接口 - 平台抽象层
  * 
- * 解耦 Android AccessibilityService 依赖，提高可测试性
+ * 解耦 Android AccessibilityService 依赖，提高可测试性。
+ * UiAutomationAgent、ActionExecutor、ScreenshotManager 只通过本接口访问设备，
+ * 离线基准中可替换为回放录制界面的假设备。
  */
 interface DeviceController {
+
+    /**
+     * 应用本次任务的 Agent 配置（UI 树增量维护与抓取策略、元素索引有效期、默认截图编码策略）
+     */
+    fun applyConfiguration(config: AgentConfiguration)
     
     /**
      * 获取当前应用包名
      */
     fun getCurrentAppPackage(): String
+
+    /**
+     * 获取屏幕尺寸（宽, 高）
+     */
+    fun getScreenSize(): Pair<Int, Int>
     
     /**
      * 尝试截取截图
+     * @param reuseEncoded 按内容指纹（整屏像素精确匹配）查找可复用的已编码截图
+     * @param encodePolicy 编码策略，为 null 时使用默认配置
      */
-    suspend fun tryCaptureScreenshot(): PhoneAgentAccessibilityService.ScreenshotData?
+    suspend fun tryCaptureScreenshot(
+        reuseEncoded: ((Long) -> PhoneAgentAccessibilityService.ScreenshotData?)? = null,
+        encodePolicy: ScreenshotEncodePolicy? = null
+    ): PhoneAgentAccessibilityService.ScreenshotData?
     
     /**
      * 获取UI树
      */
     fun dumpUiTree(maxNodes: Int = 30, detail: String = "summary"): String
+
+    /**
+     * 带重试的 UI 树获取
+     */
+    suspend fun dumpUiTreeWithRetry(maxNodes: Int = 30): String
+
+    /**
+     * 带重试的按 token 预算压缩 UI 树；无活动窗口时返回 null
+     */
+    suspend fun compressUiTreeWithRetry(maxTokens: Int): UiTreeCompressor.Result?
     
     /**
      * 点击坐标
@@ -82,19 +112,37 @@ interface DeviceController {
     fun performGlobalHome(): Boolean
     
     /**
-     * 获取包管理器
+     * 启动应用
+     * @param packageName 已解析的包名（应用名到包名的解析由调用方完成）
+     * @return 未安装或没有可启动入口时返回 false
      */
-    fun getPackageManager(): android.content.pm.PackageManager
+    fun launchApp(packageName: String): Boolean
     
     /**
      * 获取最后一次窗口事件时间
      */
     fun getLastWindowEventTime(): Long
+
+    /**
+     * 获取最后一次窗口切换（TYPE_WINDOW_STATE_CHANGED）时间
+     */
+    fun getLastWindowStateChangeTime(): Long
+
+    /**
+     * 获取最后一次界面变化（其他应用的窗口切换或内容变化）时间，不含本应用自身的变化
+     */
+    fun getLastUiChangeTime(): Long
     
     /**
      * 等待窗口事件
      */
     suspend fun awaitWindowEvent(afterTimeMs: Long, timeoutMs: Long = 1500L): Boolean
+
+    /**
+     * 等待界面空闲，返回实际等待时长
+     * @param minWaitMs 等待动作引起的首个事件的时长，在此之前没有事件不算空闲
+     */
+    suspend fun awaitUiIdle(quietMs: Long, maxWaitMs: Long, minWaitMs: Long = 0L): Long
 }
 
 /**
@@ -103,14 +151,34 @@ interface DeviceController {
 class AccessibilityDeviceController(
     private val service: PhoneAgentAccessibilityService
 ) : DeviceController {
+
+    override fun applyConfiguration(config: AgentConfiguration) = service.applyConfiguration(config)
     
     override fun getCurrentAppPackage(): String = service.currentAppPackage()
-    
-    override suspend fun tryCaptureScreenshot(): PhoneAgentAccessibilityService.ScreenshotData? = 
-        service.tryCaptureScreenshotBase64()
+
+    override fun getScreenSize(): Pair<Int, Int> {
+        val metrics = service.resources.displayMetrics
+        return metrics.widthPixels to metrics.heightPixels
+    }
+    
+    override suspend fun tryCaptureScreenshot(
+        reuseEncoded: ((Long) -> PhoneAgentAccessibilityService.ScreenshotData?)?,
+        encodePolicy: ScreenshotEncodePolicy?
+    ): PhoneAgentAccessibilityService.ScreenshotData? =
+        if (encodePolicy != null) {
+            service.tryCaptureScreenshotBase64(reuseEncoded, encodePolicy)
+        } else {
+            service.tryCaptureScreenshotBase64(reuseEncoded)
+        }
     
     override fun dumpUiTree(maxNodes: Int, detail: String): String =
         service.dumpUiTree(maxNodes)
+
+    override suspend fun dumpUiTreeWithRetry(maxNodes: Int): String =
+        service.dumpUiTreeWithRetry(maxNodes)
+
+    override suspend fun compressUiTreeWithRetry(maxTokens: Int): UiTreeCompressor.Result? =
+        service.compressUiTreeWithRetry(maxTokens)
     
     override suspend fun click(x: Float, y: Float, durationMs: Long): Boolean = 
         service.clickAwait(x, y, durationMs)
@@ -160,13 +228,19 @@ class AccessibilityDeviceController(
     override fun performGlobalBack(): Boolean = service.performGlobalBack()
     
     override fun performGlobalHome(): Boolean = service.performGlobalHome()
-    
-    override fun getPackageManager(): android.content.pm.PackageManager = 
-        service.packageManager
+
+    override fun launchApp(packageName: String): Boolean = service.launchPackage(packageName)
     
     override fun getLastWindowEventTime(): Long = service.lastWindowEventTime()
+
+    override fun getLastWindowStateChangeTime(): Long = service.lastWindowStateChangeTime()
+
+    override fun getLastUiChangeTime(): Long = service.lastForeignUiChangeTime()
     
     override suspend fun awaitWindowEvent(afterTimeMs: Long, timeoutMs: Long): Boolean = 
         service.awaitWindowEvent(afterTimeMs, timeoutMs)
+
+    override suspend fun awaitUiIdle(quietMs: Long, maxWaitMs: Long, minWaitMs: Long): Long =
+        service.awaitUiIdle(quietMs, maxWaitMs, minWaitMs)
 }
 
@@ -0,0 +1,78 @@
+package com.ai.phoneagent.core.platform
+
+/**
+ * 界面稳定耗时统计
+ *
+ * 按“动作类型 + 应用包名”记录每次动作后实际观测到的界面稳定时间，
+ * 用于根据真实数据调校 AgentConfiguration 中的动作延迟默认值。
+ */
+object ScreenSettleStats {
+
+    data class Entry(
+        val action: String,
+        val packageName: String,
+        val count: Int,
+        val avgMs: Long,
+        val maxMs: Long,
+        /** 达到等待上限（未检测到空闲）的次数 */
+        val ceilingHits: Int,
+    ) {
+        fun format(): String =
+            "$action@$packageName 平均${avgMs}ms 最大${maxMs}ms（${count}次，到达上限${ceilingHits}次）"
+
+        fun toCsvRow(): String = "$action,$packageName,$count,$avgMs,$maxMs,$ceilingHits"
+    }
+
+    private class Accumulator {
+        var count = 0
+        var totalMs = 0L
+        var maxMs = 0L
+        var ceilingHits = 0
+    }
+
+    private val stats = HashMap<String, Accumulator>()
+
+    /**
+     * 记录一次稳定耗时
+     * @param hitCeiling 是否因达到上限而结束等待
+     */
+    @Synchronized
+    fun record(action: String, packageName: String, settleMs: Long, hitCeiling: Boolean) {
+        val key = normalizeAction(action) + "|" + packageName
+        val acc = stats.getOrPut(key) { Accumulator() }
+        acc.count++
+        acc.totalMs += settleMs
+        if (settleMs > acc.maxMs) acc.maxMs = settleMs
+        if (hitCeiling) acc.ceilingHits++
+    }
+
+    /**
+     * 获取统计快照（按记录次数降序）
+     */
+    @Synchronized
+    fun snapshot(): List<Entry> {
+        return stats.map { (key, acc) ->
+            val action = key.substringBefore('|')
+            val pkg = key.substringAfter('|')
+            Entry(
+                action = action,
+                packageName = pkg,
+                count = acc.count,
+                avgMs = if (acc.count > 0) acc.totalMs / acc.count else 0L,
+                maxMs = acc.maxMs,
+                ceilingHits = acc.ceilingHits,
+            )
+        }.sortedByDescending { it.count }
+    }
+
+    @Synchronized
+    fun clear() {
+        stats.clear()
+    }
+
+    const val CSV_HEADER = "action,package,count,avg_ms,max_ms,ceiling_hits"
+
+    private fun normalizeAction(action: String): String {
+        return action.trim().trim('"', '\'', ' ').replace(" ", "").lowercase().ifBlank { "unknown" }
+    }
+}
@@ -138,7 +138,7 @@ object ToolRegistration {
                             result = ImageResultData(
                                 width = screenshot.width,
                                 height = screenshot.height,
-                                base64Data = screenshot.base64Png
+                                base64Data = screenshot.toBase64()
                             )
                         )
                     } else {
@@ -437,7 +437,7 @@ object ToolRegistration {
                     val contentDesc = tool.parameters.find { it.name == "content_desc" }?.value
                     val className = tool.parameters.find { it.name == "class_name" }?.value
                     val timeoutMs = tool.parameters.find { it.name == "timeout_ms" }?.value?.toLongOrNull() ?: 5000L
-                    val pollIntervalMs = tool.parameters.find { it.name == "poll_interval_ms" }?.value?.toLongOrNull() ?: 200L
+                    val pollIntervalMs = tool.parameters.find { it.name == "poll_interval_ms" }?.value?.toLongOrNull() ?: 1000L
                     
                     if (resourceId.isNullOrBlank() && text.isNullOrBlank() && 
                         contentDesc.isNullOrBlank() && className.isNullOrBlank()) {
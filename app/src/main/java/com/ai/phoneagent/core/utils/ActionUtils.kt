@@ -1,5 +1,7 @@
 package com.ai.phoneagent.core.utils
 
+import com.ai.phoneagent.core.parser.ActionSyntax
+import com.ai.phoneagent.net.ChatImagePart
 import java.util.concurrent.ConcurrentHashMap
 import java.util.regex.Pattern
 
@@ -72,7 +74,9 @@ object ActionUtils {
                 is String -> total += estimateTokens(content)
                 is List<*> -> {
                     for (item in content) {
-                        if (item is Map<*, *>) {
+                        if (item is ChatImagePart) {
+                            total += imageTokenEstimate
+                        } else if (item is Map<*, *>) {
                             @Suppress("UNCHECKED_CAST")
                             val map = item as Map<String, Any>
                             val type = map["type"]
@@ -149,9 +153,12 @@ object ActionUtils {
         val trimmed = text.trim()
         if (trimmed.startsWith("do") || trimmed.startsWith("finish")) return trimmed
 
-        val m = Regex("""(do\s*\(.*?\))|(finish\s*\(.*?\))""", RegexOption.DOT_MATCHES_ALL)
-                .find(trimmed)
-        return m?.value?.trim()
+        // 手写扫描：找到第一个 do(/finish( 及其匹配的右括号（忽略字符串内的括号）
+        val start = ActionSyntax.findFirstAction(trimmed)
+        if (start < 0) return null
+        val close = ActionSyntax.findClosingParen(trimmed, ActionSyntax.actionOpenParen(trimmed, start))
+        if (close < 0) return null
+        return trimmed.substring(start, close + 1)
     }
     
     /**
@@ -0,0 +1,350 @@
+package com.ai.phoneagent.data
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+import android.util.Log
+import java.util.concurrent.Executors
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.withContext
+
+/**
+ * 对话存储（SQLite）
+ *
+ * 替代原先把全部对话序列化成一个 JSON 字符串写入 SharedPreferences 的做法：
+ * - 每条消息单独一行，发送/收到消息时只追加这一行，写入开销与历史总量无关
+ * - 对话头（标题、更新时间、消息数）与消息正文分表，列表只读对话头，正文按对话分页读取
+ * - 悬浮窗消息同样逐条追加，供悬浮窗重启和主界面同步使用
+ *
+ * 所有读写都串行在同一个后台线程上：写入只排队、不阻塞调用方；读取是挂起函数，在该线程上执行，
+ * 一定排在此前提交的写入之后，读到的总是最新内容，调用方线程（包括主线程）不会被阻塞。
+ */
+class ConversationStore private constructor(context: Context) :
+    SQLiteOpenHelper(context, DB_NAME, null, DB_VERSION) {
+
+    data class Header(
+        val id: Long,
+        val title: String,
+        val updatedAt: Long,
+        val messageCount: Int,
+    )
+
+    /** [seq] 在全部消息中递增，可作为分页游标 */
+    data class Message(
+        val seq: Long,
+        val author: String,
+        val content: String,
+        val isUser: Boolean,
+    )
+
+    private val appContext = context
+
+    private val io = Executors.newSingleThreadExecutor { r -> Thread(r, "aries-conversation-store") }
+    private val ioDispatcher = io.asCoroutineDispatcher()
+
+    init {
+        setWriteAheadLoggingEnabled(true)
+    }
+
+    override fun onCreate(db: SQLiteDatabase) {
+        db.execSQL(
+            "CREATE TABLE conversations (" +
+                "id INTEGER PRIMARY KEY, " +
+                "title TEXT NOT NULL DEFAULT '', " +
+                "updated_at INTEGER NOT NULL, " +
+                "message_count INTEGER NOT NULL DEFAULT 0)"
+        )
+        db.execSQL(
+            "CREATE TABLE messages (" +
+                "seq INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "conversation_id INTEGER NOT NULL, " +
+                "author TEXT NOT NULL, " +
+                "content TEXT NOT NULL, " +
+                "is_user INTEGER NOT NULL)"
+        )
+        db.execSQL("CREATE INDEX messages_by_conversation ON messages(conversation_id, seq)")
+        db.execSQL(
+            "CREATE TABLE floating_messages (" +
+                "seq INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "content TEXT NOT NULL)"
+        )
+        // 已完成的一次性迁移标记，与迁移的数据在同一事务中写入
+        db.execSQL("CREATE TABLE migrations (name TEXT PRIMARY KEY)")
+    }
+
+    override fun onOpen(db: SQLiteDatabase) {
+        super.onOpen(db)
+        if (!db.isReadOnly) importLegacyPrefs(db)
+    }
+
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) = Unit
+
+    // ==================== 主界面对话 ====================
+
+    /** 新建或更新对话头（不涉及消息） */
+    fun saveHeader(id: Long, title: String, updatedAt: Long) = write { db ->
+        upsertHeader(db, id, title, updatedAt, addedMessages = 0)
+    }
+
+    /** 追加一条消息，同时更新对话头的标题、更新时间和消息数 */
+    fun appendMessage(
+        conversationId: Long,
+        title: String,
+        updatedAt: Long,
+        author: String,
+        content: String,
+        isUser: Boolean,
+    ) = write { db ->
+        insertMessage(db, conversationId, author, content, isUser)
+        upsertHeader(db, conversationId, title, updatedAt, addedMessages = 1)
+    }
+
+    fun deleteConversation(id: Long) = write { db ->
+        db.delete("messages", "conversation_id = ?", arrayOf(id.toString()))
+        db.delete("conversations", "id = ?", arrayOf(id.toString()))
+    }
+
+    /** 全部对话头，新建的在前 */
+    suspend fun loadHeaders(): List<Header> = read { db ->
+        db.query(
+            "conversations",
+            arrayOf("id", "title", "updated_at", "message_count"),
+            null, null, null, null,
+            "id DESC"
+        ).use { c ->
+            val list = ArrayList<Header>(c.count)
+            while (c.moveToNext()) {
+                list += Header(c.getLong(0), c.getString(1), c.getLong(2), c.getInt(3))
+            }
+            list
+        }
+    }
+
+    /**
+     * 读取对话中 [beforeSeq] 之前的最后 [limit] 条消息，按时间正序返回。
+     * 默认参数即读取整段对话；向前翻页时传入当前最早一条消息的 seq。
+     */
+    suspend fun loadMessages(
+        conversationId: Long,
+        beforeSeq: Long = Long.MAX_VALUE,
+        limit: Int = Int.MAX_VALUE,
+    ): List<Message> = read { db ->
+        db.query(
+            "messages",
+            arrayOf("seq", "author", "content", "is_user"),
+            "conversation_id = ? AND seq < ?",
+            arrayOf(conversationId.toString(), beforeSeq.toString()),
+            null, null,
+            "seq DESC",
+            limit.toString()
+        ).use { c ->
+            val list = ArrayList<Message>(minOf(c.count, limit))
+            while (c.moveToNext()) {
+                list += Message(c.getLong(0), c.getString(1), c.getString(2), c.getInt(3) != 0)
+            }
+            list.reverse()
+            list
+        }
+    }
+
+    // ==================== 悬浮窗消息 ====================
+
+    fun appendFloatingMessage(content: String) = write { db ->
+        db.insert("floating_messages", null, ContentValues().apply { put("content", content) })
+    }
+
+    /** 整体替换悬浮窗消息（主界面带着当前对话打开悬浮窗时） */
+    fun replaceFloatingMessages(list: List<String>) = write { db ->
+        db.delete("floating_messages", null, null)
+        for (content in list) {
+            db.insert("floating_messages", null, ContentValues().apply { put("content", content) })
+        }
+    }
+
+    fun removeLastFloatingMessage() = write { db ->
+        db.execSQL("DELETE FROM floating_messages WHERE seq = (SELECT MAX(seq) FROM floating_messages)")
+    }
+
+    fun clearFloatingMessages() = write { db ->
+        db.delete("floating_messages", null, null)
+    }
+
+    suspend fun loadFloatingMessages(): List<String> = read { db ->
+        db.query("floating_messages", arrayOf("content"), null, null, null, null, "seq").use { c ->
+            val list = ArrayList<String>(c.count)
+            while (c.moveToNext()) list += c.getString(0)
+            list
+        }
+    }
+
+    // ==================== 内部实现 ====================
+
+    private fun write(block: (SQLiteDatabase) -> Unit) {
+        io.execute {
+            try {
+                inTransaction(writableDatabase, block)
+            } catch (e: Exception) {
+                Log.e(TAG, "写入失败", e)
+            }
+        }
+    }
+
+    private fun inTransaction(db: SQLiteDatabase, block: (SQLiteDatabase) -> Unit) {
+        db.beginTransaction()
+        try {
+            block(db)
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    private suspend fun <T> read(block: (SQLiteDatabase) -> T): T =
+        withContext(ioDispatcher) { block(readableDatabase) }
+
+    private fun insertMessage(
+        db: SQLiteDatabase,
+        conversationId: Long,
+        author: String,
+        content: String,
+        isUser: Boolean,
+    ) {
+        db.insert(
+            "messages",
+            null,
+            ContentValues().apply {
+                put("conversation_id", conversationId)
+                put("author", author)
+                put("content", content)
+                put("is_user", if (isUser) 1 else 0)
+            }
+        )
+    }
+
+    private fun upsertHeader(db: SQLiteDatabase, id: Long, title: String, updatedAt: Long, addedMessages: Int) {
+        db.execSQL(
+            "UPDATE conversations SET title = ?, updated_at = ?, message_count = message_count + ? WHERE id = ?",
+            arrayOf<Any>(title, updatedAt, addedMessages, id)
+        )
+        db.insertWithOnConflict(
+            "conversations",
+            null,
+            ContentValues().apply {
+                put("id", id)
+                put("title", title)
+                put("updated_at", updatedAt)
+                put("message_count", addedMessages)
+            },
+            SQLiteDatabase.CONFLICT_IGNORE
+        )
+    }
+
+    /**
+     * 导入旧版保存在 SharedPreferences 中的 JSON
+     *
+     * 数据与迁移标记在同一事务中写入，事务提交后才删除旧数据；JSON 解析失败时保留旧数据，
+     * 下次打开时重试。删除旧数据前进程被杀也不会重复导入（迁移标记已存在，只补删旧数据）。
+     */
+    private fun importLegacyPrefs(db: SQLiteDatabase) {
+        val gson = com.google.gson.Gson()
+
+        val appPrefs = appContext.getSharedPreferences("app_prefs", Context.MODE_PRIVATE)
+        importLegacyKey(db, MIGRATION_CONVERSATIONS, appPrefs, LEGACY_CONVERSATIONS_KEY) { json ->
+            val type = object : com.google.gson.reflect.TypeToken<List<LegacyConversation>>() {}.type
+            val list: List<LegacyConversation> = gson.fromJson(json, type) ?: emptyList()
+            return@importLegacyKey { tx ->
+                for (conv in list) {
+                    val messages = conv.messages.orEmpty()
+                    for (m in messages) {
+                        insertMessage(tx, conv.id, m.author.orEmpty(), m.content.orEmpty(), m.isUser)
+                    }
+                    upsertHeader(tx, conv.id, conv.title.orEmpty(), conv.updatedAt, messages.size)
+                }
+            }
+        }
+
+        val floatingPrefs = appContext.getSharedPreferences("floating_chat_prefs", Context.MODE_PRIVATE)
+        importLegacyKey(db, MIGRATION_FLOATING, floatingPrefs, LEGACY_FLOATING_KEY, LEGACY_FLOATING_UPDATED_AT_KEY) { json ->
+            val type = object : com.google.gson.reflect.TypeToken<List<String>>() {}.type
+            val list: List<String> = gson.fromJson(json, type) ?: emptyList()
+            return@importLegacyKey { tx ->
+                for (content in list) {
+                    tx.insert("floating_messages", null, ContentValues().apply { put("content", content) })
+                }
+            }
+        }
+    }
+
+    /**
+     * 导入单个旧版键
+     * @param parse 解析 JSON 并返回写入操作；解析抛出异常时不写入、不删除旧数据
+     */
+    private fun importLegacyKey(
+        db: SQLiteDatabase,
+        migration: String,
+        prefs: android.content.SharedPreferences,
+        key: String,
+        vararg extraKeys: String,
+        parse: (String) -> (SQLiteDatabase) -> Unit,
+    ) {
+        val json = prefs.getString(key, null) ?: return
+        if (!isMigrated(db, migration)) {
+            val insert = try {
+                parse(json)
+            } catch (e: Exception) {
+                Log.e(TAG, "旧数据解析失败，保留原数据: $key", e)
+                return
+            }
+            try {
+                inTransaction(db) { tx ->
+                    insert(tx)
+                    tx.insert("migrations", null, ContentValues().apply { put("name", migration) })
+                }
+            } catch (e: Exception) {
+                Log.e(TAG, "旧数据导入失败，保留原数据: $key", e)
+                return
+            }
+        }
+        prefs.edit().apply {
+            remove(key)
+            extraKeys.forEach { remove(it) }
+        }.apply()
+    }
+
+    private fun isMigrated(db: SQLiteDatabase, migration: String): Boolean =
+        db.query("migrations", arrayOf("name"), "name = ?", arrayOf(migration), null, null, null).use { it.moveToFirst() }
+
+    // 旧版 JSON 结构，仅用于导入
+    private class LegacyMessage(val author: String?, val content: String?, val isUser: Boolean)
+
+    private class LegacyConversation(
+        val id: Long,
+        val title: String?,
+        val messages: List<LegacyMessage>?,
+        val updatedAt: Long,
+    )
+
+    companion object {
+        private const val TAG = "ConversationStore"
+
+        private const val DB_NAME = "conversations.db"
+        private const val DB_VERSION = 1
+
+        private const val LEGACY_CONVERSATIONS_KEY = "conversations_json"
+        private const val LEGACY_FLOATING_KEY = "floating_messages"
+        private const val LEGACY_FLOATING_UPDATED_AT_KEY = "floating_messages_updated_at"
+
+        private const val MIGRATION_CONVERSATIONS = "legacy_conversations_json"
+        private const val MIGRATION_FLOATING = "legacy_floating_messages"
+
+        @Volatile
+        private var instance: ConversationStore? = null
+
+        fun getInstance(context: Context): ConversationStore {
+            return instance ?: synchronized(this) {
+                instance ?: ConversationStore(context.applicationContext).also { instance = it }
+            }
+        }
+    }
+}
@@ -10,6 +10,10 @@ package com.ai.phoneagent.helper
  * - <思考：...> 或 <思考:...>
  * - 【思考开始】...【思考结束】
  * - reasoning_content 字段
+ *
+ * 解析是逐字符推进的：每个 delta 只扫描新追加的字符，所有标记由同一个 [TagMatcher] 一次匹配；
+ * 只有“可能是某个标记开头”的尾部字符（少于最长标记长度）会暂存到下一个 delta，
+ * 整条流的解析开销与输出长度成线性关系。
  */
 class AriesStreamParser {
 
@@ -19,28 +23,6 @@ class AriesStreamParser {
         CONTROL     // 控制信号
     }
 
-    private fun findAnswerStart(content: String): TagMatch? {
-        var best: TagMatch? = null
-        for (tag in ANSWER_START_TAGS) {
-            val idx = content.indexOf(tag)
-            if (idx != -1 && (best == null || idx < best.startIndex)) {
-                best = TagMatch(idx, idx + tag.length, tag, false)
-            }
-        }
-        return best
-    }
-
-    private fun findAnswerEnd(content: String): TagMatch? {
-        var best: TagMatch? = null
-        for (tag in ANSWER_END_TAGS) {
-            val idx = content.indexOf(tag)
-            if (idx != -1 && (best == null || idx < best.startIndex)) {
-                best = TagMatch(idx, idx + tag.length, tag, false)
-            }
-        }
-        return best
-    }
-
     data class ParsedChunk(
         val type: ChunkType,
         val content: String
@@ -54,22 +36,21 @@ class AriesStreamParser {
     }
 
     private var currentState = ParseState.IDLE
-    private val buffer = StringBuilder()
     private var hasReceivedReasoning = false
 
-    private val ANSWER_START_TAGS = listOf(
-        "【回答开始】",
-        "【回答】",
-    )
-
-    private val ANSWER_END_TAGS = listOf(
-        "【回答结束】",
-    )
+    // 标记匹配状态，跨 delta 保留
+    private var matchState = TagMatcher.INITIAL_STATE
+    // 可能仍是标记开头的尾部字符，尚未确定归属
+    private val carry = StringBuilder()
+    // 已确定属于当前状态、尚未输出的文本
+    private val segment = StringBuilder()
 
     fun reset() {
         currentState = ParseState.IDLE
-        buffer.clear()
         hasReceivedReasoning = false
+        matchState = TagMatcher.INITIAL_STATE
+        carry.clear()
+        segment.clear()
     }
 
     /**
@@ -77,12 +58,12 @@ class AriesStreamParser {
      */
     fun processReasoningDelta(delta: String): List<ParsedChunk> {
         if (delta.isEmpty()) return emptyList()
-        
+
         hasReceivedReasoning = true
         if (currentState == ParseState.IDLE) {
             currentState = ParseState.IN_THINKING
         }
-        
+
         return listOf(ParsedChunk(ChunkType.THINKING, delta))
     }
 
@@ -91,307 +72,159 @@ class AriesStreamParser {
      */
     fun processContentDelta(delta: String): List<ParsedChunk> {
         if (delta.isEmpty()) return emptyList()
-        
-        buffer.append(delta)
-        return parseBuffer()
-    }
 
-    private fun parseBuffer(): List<ParsedChunk> {
-        val results = mutableListOf<ParsedChunk>()
-        var content = buffer.toString()
-        
-        while (content.isNotEmpty()) {
-            when (currentState) {
-                ParseState.IDLE -> {
-                    val thinkStart = findThinkingStart(content)
-                    val answerStart = findAnswerStart(content)
-                    if (thinkStart != null && (answerStart == null || thinkStart.startIndex <= answerStart.startIndex)) {
-                        if (thinkStart.startIndex > 0) {
-                            val before = content.substring(0, thinkStart.startIndex)
-                            if (before.isNotBlank()) {
-                                results.add(ParsedChunk(ChunkType.ANSWER, before))
-                            }
-                        }
-                        // 根据标签类型决定状态
-                        currentState = if (thinkStart.isAngleFormat) {
-                            ParseState.IN_THINKING_ANGLE
-                        } else {
-                            ParseState.IN_THINKING
-                        }
-                        content = content.substring(thinkStart.endIndex)
-                        buffer.clear()
-                        buffer.append(content)
-                        continue
-                    }
-
-                    if (answerStart != null) {
-                        if (answerStart.startIndex > 0) {
-                            val before = content.substring(0, answerStart.startIndex)
-                            if (before.isNotBlank()) {
-                                results.add(ParsedChunk(ChunkType.ANSWER, before))
-                            }
-                        }
-                        results.add(ParsedChunk(ChunkType.CONTROL, "ANSWER_START"))
-                        currentState = ParseState.IN_ANSWER
-                        content = content.substring(answerStart.endIndex)
-                        buffer.clear()
-                        buffer.append(content)
-                        continue
-                    }
-                    
-                    if (isPotentialTagStart(content) || isPotentialAnswerStart(content) || isPotentialAnswerEnd(content)) {
-                        break
-                    }
-                    
-                    // 如果收到过 reasoning，content 默认是回答
-                    if (hasReceivedReasoning) {
-                        results.add(ParsedChunk(ChunkType.CONTROL, "ANSWER_START"))
-                    }
+        val results = ArrayList<ParsedChunk>(2)
+        for (c in delta) {
+            if (currentState == ParseState.IN_THINKING_ANGLE) {
+                // <思考：...> 格式，以 > 结束
+                if (c == '>') {
+                    emitSegment(results, ChunkType.THINKING)
+                    results.add(ParsedChunk(ChunkType.CONTROL, "THINKING_END"))
                     currentState = ParseState.IN_ANSWER
-                    results.add(ParsedChunk(ChunkType.ANSWER, content))
-                    buffer.clear()
-                    return results
-                }
-                
-                ParseState.IN_THINKING -> {
-                    val thinkEnd = findThinkingEnd(content, isAngleFormat = false)
-                    if (thinkEnd != null) {
-                        if (thinkEnd.startIndex > 0) {
-                            val thinkContent = content.substring(0, thinkEnd.startIndex)
-                            if (thinkContent.isNotBlank()) {
-                                results.add(ParsedChunk(ChunkType.THINKING, thinkContent))
-                            }
-                        }
-                        results.add(ParsedChunk(ChunkType.CONTROL, "THINKING_END"))
-                        currentState = ParseState.IN_ANSWER
-                        content = content.substring(thinkEnd.endIndex)
-                        buffer.clear()
-                        buffer.append(content)
-                        continue
-                    }
-                    
-                    if (isPotentialTagEnd(content) || isPotentialAnswerStart(content)) {
-                        val safeLen = (content.length - 12).coerceAtLeast(0)
-                        if (safeLen > 0) {
-                            results.add(ParsedChunk(ChunkType.THINKING, content.substring(0, safeLen)))
-                            buffer.clear()
-                            buffer.append(content.substring(safeLen))
-                        }
-                        break
-                    }
-                    
-                    if (content.isNotBlank()) {
-                        results.add(ParsedChunk(ChunkType.THINKING, content))
-                    }
-                    buffer.clear()
-                    break
-                }
-                
-                ParseState.IN_THINKING_ANGLE -> {
-                    // <思考：...> 格式，以 > 结束
-                    val endIdx = content.indexOf('>')
-                    if (endIdx != -1) {
-                        if (endIdx > 0) {
-                            val thinkContent = content.substring(0, endIdx)
-                            if (thinkContent.isNotBlank()) {
-                                results.add(ParsedChunk(ChunkType.THINKING, thinkContent))
-                            }
-                        }
-                        results.add(ParsedChunk(ChunkType.CONTROL, "THINKING_END"))
-                        currentState = ParseState.IN_ANSWER
-                        content = content.substring(endIdx + 1)
-                        buffer.clear()
-                        buffer.append(content)
-                        continue
-                    }
-                    
-                    // 全部作为思考内容
-                    if (content.isNotBlank()) {
-                        results.add(ParsedChunk(ChunkType.THINKING, content))
-                    }
-                    buffer.clear()
-                    break
-                }
-                
-                ParseState.IN_ANSWER -> {
-                    val answerStart = findAnswerStart(content)
-                    if (answerStart != null) {
-                        if (answerStart.startIndex > 0) {
-                            val before = content.substring(0, answerStart.startIndex)
-                            if (before.isNotBlank()) {
-                                results.add(ParsedChunk(ChunkType.ANSWER, before))
-                            }
-                        }
-                        results.add(ParsedChunk(ChunkType.CONTROL, "ANSWER_START"))
-                        content = content.substring(answerStart.endIndex)
-                        buffer.clear()
-                        buffer.append(content)
-                        continue
-                    }
-
-                    val answerEnd = findAnswerEnd(content)
-                    if (answerEnd != null) {
-                        if (answerEnd.startIndex > 0) {
-                            val before = content.substring(0, answerEnd.startIndex)
-                            if (before.isNotBlank()) {
-                                results.add(ParsedChunk(ChunkType.ANSWER, before))
-                            }
-                        }
-                        content = content.substring(answerEnd.endIndex)
-                        buffer.clear()
-                        buffer.append(content)
-                        continue
-                    }
-
-                    val thinkStart = findThinkingStart(content)
-                    if (thinkStart != null) {
-                        if (thinkStart.startIndex > 0) {
-                            val before = content.substring(0, thinkStart.startIndex)
-                            if (before.isNotBlank()) {
-                                results.add(ParsedChunk(ChunkType.ANSWER, before))
-                            }
-                        }
-                        currentState = if (thinkStart.isAngleFormat) {
-                            ParseState.IN_THINKING_ANGLE
-                        } else {
-                            ParseState.IN_THINKING
-                        }
-                        content = content.substring(thinkStart.endIndex)
-                        buffer.clear()
-                        buffer.append(content)
-                        continue
-                    }
-                    
-                    if (isPotentialTagStart(content) || isPotentialAnswerStart(content) || isPotentialAnswerEnd(content)) {
-                        val safeLen = (content.length - 10).coerceAtLeast(0)
-                        if (safeLen > 0) {
-                            results.add(ParsedChunk(ChunkType.ANSWER, content.substring(0, safeLen)))
-                            buffer.clear()
-                            buffer.append(content.substring(safeLen))
-                        }
-                        break
-                    }
-                    
-                    if (content.isNotBlank()) {
-                        results.add(ParsedChunk(ChunkType.ANSWER, content))
-                    }
-                    buffer.clear()
-                    break
+                } else {
+                    segment.append(c)
                 }
+                continue
             }
-        }
-        
-        return results
-    }
 
-    private fun findThinkingStart(content: String): TagMatch? {
-        // 按优先级检查各种开始标记
-        val patterns = listOf(
-            Triple("<think>", "<think>".length, false),
-            Triple("<思考>", "<思考>".length, false),
-            Triple("<思考：", "<思考：".length, true),  // angle format
-            Triple("<思考:", "<思考:".length, true),   // angle format (半角冒号)
-            Triple("【思考开始】", "【思考开始】".length, false),
-            Triple("【思考】", "【思考】".length, false)
-        )
-
-        var best: TagMatch? = null
-        for ((tag, len, isAngle) in patterns) {
-            val idx = content.indexOf(tag)
-            if (idx != -1 && (best == null || idx < best.startIndex)) {
-                best = TagMatch(idx, idx + len, tag, isAngle)
+            carry.append(c)
+            matchState = MATCHER.next(matchState, c)
+            val tag = relevantTag(MATCHER.matches(matchState))
+            if (tag >= 0) {
+                // 标记之前的字符属于当前状态，标记本身丢弃
+                segment.append(carry, 0, carry.length - MATCHER.tags[tag].length)
+                carry.clear()
+                matchState = TagMatcher.INITIAL_STATE
+                onTag(TAG_KINDS[tag] and stateKinds(), results)
+                continue
             }
-        }
-        return best
-    }
 
-    private fun findThinkingEnd(content: String, isAngleFormat: Boolean): TagMatch? {
-        if (isAngleFormat) {
-            // 对于 <思考：...> 格式，结束标记是 >
-            val idx = content.indexOf('>')
-            if (idx != -1) {
-                return TagMatch(idx, idx + 1, ">", false)
+            // 已不可能成为标记一部分的字符移出暂存区
+            val settled = carry.length - MATCHER.depth(matchState)
+            if (settled > 0) {
+                segment.append(carry, 0, settled)
+                carry.delete(0, settled)
             }
-            return null
         }
-        
-        val patterns = listOf(
-            "</think>" to "</think>".length,
-            "</思考>" to "</思考>".length,
-            "【思考结束】" to "【思考结束】".length,
-            "【回答】" to "【回答】".length,
-            "【回答开始】" to "【回答开始】".length
-        )
-
-        var best: TagMatch? = null
-        for ((tag, len) in patterns) {
-            val idx = content.indexOf(tag)
-            if (idx != -1 && (best == null || idx < best.startIndex)) {
-                best = TagMatch(idx, idx + len, tag, false)
+
+        when (currentState) {
+            ParseState.IDLE -> if (segment.isNotEmpty()) {
+                // 没有任何标记：如果收到过 reasoning，content 默认是回答
+                if (hasReceivedReasoning) {
+                    results.add(ParsedChunk(ChunkType.CONTROL, "ANSWER_START"))
+                }
+                currentState = ParseState.IN_ANSWER
+                results.add(ParsedChunk(ChunkType.ANSWER, segment.toString()))
+                segment.clear()
             }
+            ParseState.IN_THINKING, ParseState.IN_THINKING_ANGLE -> emitSegment(results, ChunkType.THINKING)
+            ParseState.IN_ANSWER -> emitSegment(results, ChunkType.ANSWER)
         }
-        return best
+        return results
     }
 
-    private fun isPotentialTagStart(content: String): Boolean {
-        val potentials = listOf(
-            "<", "<t", "<th", "<thi", "<thin", "<think",
-            "<思", "<思考", "<思考：", "<思考:",
-            "【", "【思", "【思考", "【思考开", "【思考开始"
-        )
-        return potentials.any { content.endsWith(it) }
+    /** 处理当前状态下匹配到的标记，[kinds] 为该标记在当前状态下有效的类别 */
+    private fun onTag(kinds: Int, results: MutableList<ParsedChunk>) {
+        if (currentState == ParseState.IN_THINKING) {
+            emitSegment(results, ChunkType.THINKING)
+            results.add(ParsedChunk(ChunkType.CONTROL, "THINKING_END"))
+            currentState = ParseState.IN_ANSWER
+            return
+        }
+
+        // IDLE / IN_ANSWER：标记之前的内容按回答输出
+        emitSegment(results, ChunkType.ANSWER)
+        when {
+            kinds and KIND_ANSWER_START != 0 -> {
+                results.add(ParsedChunk(ChunkType.CONTROL, "ANSWER_START"))
+                currentState = ParseState.IN_ANSWER
+            }
+            kinds and KIND_THINKING_START != 0 -> currentState = ParseState.IN_THINKING
+            kinds and KIND_ANGLE_THINKING_START != 0 -> currentState = ParseState.IN_THINKING_ANGLE
+            // 回答结束标记：只去掉标记本身
+        }
     }
 
-    private fun isPotentialAnswerStart(content: String): Boolean {
-        val potentials = listOf(
-            "【", "【回", "【回答", "【回答开", "【回答开始"
-        )
-        return potentials.any { content.endsWith(it) }
+    private fun emitSegment(results: MutableList<ParsedChunk>, type: ChunkType) {
+        if (segment.isNotBlank()) {
+            results.add(ParsedChunk(type, segment.toString()))
+        }
+        segment.clear()
     }
 
-    private fun isPotentialAnswerEnd(content: String): Boolean {
-        val potentials = listOf(
-            "【", "【回", "【回答", "【回答结", "【回答结束"
-        )
-        return potentials.any { content.endsWith(it) }
+    /** 当前状态下需要识别的标记类别 */
+    private fun stateKinds(): Int = when (currentState) {
+        ParseState.IDLE -> KIND_THINKING_START or KIND_ANGLE_THINKING_START or KIND_ANSWER_START
+        ParseState.IN_THINKING -> KIND_THINKING_END
+        ParseState.IN_THINKING_ANGLE -> 0
+        ParseState.IN_ANSWER ->
+            KIND_ANSWER_START or KIND_ANSWER_END or KIND_THINKING_START or KIND_ANGLE_THINKING_START
     }
 
-    private fun isPotentialTagEnd(content: String): Boolean {
-        val potentials = listOf(
-            "<", "</", "</t", "</th", "</thi", "</thin", "</think",
-            "</思", "</思考",
-            "【", "【思", "【思考", "【思考结", "【思考结束", "【回", "【回答"
-        )
-        return potentials.any { content.endsWith(it) }
+    /** 在本位置结束的标记中，挑出当前状态需要识别的一个 */
+    private fun relevantTag(matches: IntArray): Int {
+        if (matches.isEmpty()) return -1
+        val kinds = stateKinds()
+        for (tag in matches) {
+            if (TAG_KINDS[tag] and kinds != 0) return tag
+        }
+        return -1
     }
 
     fun flush(): List<ParsedChunk> {
         val results = mutableListOf<ParsedChunk>()
-        val remaining = buffer.toString()
-        if (remaining.isNotBlank()) {
-            when (currentState) {
-                ParseState.IN_THINKING, ParseState.IN_THINKING_ANGLE -> {
-                    results.add(ParsedChunk(ChunkType.THINKING, remaining))
-                }
-                else -> {
-                    results.add(ParsedChunk(ChunkType.ANSWER, remaining))
-                }
-            }
+        segment.append(carry)
+        carry.clear()
+        matchState = TagMatcher.INITIAL_STATE
+        when (currentState) {
+            ParseState.IN_THINKING, ParseState.IN_THINKING_ANGLE -> emitSegment(results, ChunkType.THINKING)
+            else -> emitSegment(results, ChunkType.ANSWER)
         }
-        buffer.clear()
         return results
     }
 
     fun isInThinkingPhase(): Boolean = currentState in listOf(
-        ParseState.IN_THINKING, 
-        ParseState.IN_THINKING_ANGLE, 
+        ParseState.IN_THINKING,
+        ParseState.IN_THINKING_ANGLE,
         ParseState.IDLE
     )
 
-    private data class TagMatch(
-        val startIndex: Int, 
-        val endIndex: Int, 
-        val tag: String,
-        val isAngleFormat: Boolean
-    )
+    companion object {
+        // 标记表与 StreamingActionDetector 共用，保证两边对思考/回答的划分一致
+
+        /** 思考开始标记（按数组顺序优先） */
+        internal val THINKING_START_TAGS = arrayOf("<think>", "<思考>", "【思考开始】", "【思考】")
+
+        /** <思考：...> 格式的开始标记，思考内容以 '>' 结束 */
+        internal val ANGLE_THINKING_START_TAGS = arrayOf("<思考：", "<思考:")
+
+        /** 思考结束标记；回答开始标记同样结束思考 */
+        internal val THINKING_END_TAGS = arrayOf("</think>", "</思考>", "【思考结束】", "【回答】", "【回答开始】")
+
+        internal val ANSWER_START_TAGS = arrayOf("【回答开始】", "【回答】")
+
+        internal val ANSWER_END_TAGS = arrayOf("【回答结束】")
+
+        private const val KIND_THINKING_START = 1
+        private const val KIND_ANGLE_THINKING_START = 1 shl 1
+        private const val KIND_THINKING_END = 1 shl 2
+        private const val KIND_ANSWER_START = 1 shl 3
+        private const val KIND_ANSWER_END = 1 shl 4
+
+        /** 全部标记去重后的类别位，同一标记可属于多个类别（如【回答】既结束思考也开始回答） */
+        private val TAG_KIND_MAP = LinkedHashMap<String, Int>().apply {
+            fun register(tags: Array<String>, kind: Int) {
+                for (tag in tags) this[tag] = (this[tag] ?: 0) or kind
+            }
+            register(THINKING_START_TAGS, KIND_THINKING_START)
+            register(ANGLE_THINKING_START_TAGS, KIND_ANGLE_THINKING_START)
+            register(THINKING_END_TAGS, KIND_THINKING_END)
+            register(ANSWER_START_TAGS, KIND_ANSWER_START)
+            register(ANSWER_END_TAGS, KIND_ANSWER_END)
+        }
+
+        private val MATCHER = TagMatcher(TAG_KIND_MAP.keys.toList())
+
+        private val TAG_KINDS = TAG_KIND_MAP.values.toIntArray()
+    }
 }
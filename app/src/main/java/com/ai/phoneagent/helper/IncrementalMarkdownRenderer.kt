@@ -0,0 +1,93 @@
+package com.ai.phoneagent.helper
+
+import android.text.Editable
+import android.text.SpannableStringBuilder
+
+/**
+ * 增量 Markdown 渲染器（用于流式输出）
+ *
+ * 渲染规则与 [SimpleMarkdownRenderer] 相同，但按块增量进行：
+ * - 已结束的块（完整的行、已闭合的代码块）只渲染一次，固定在 [output] 前部
+ * - 每次追加只重新渲染末尾尚未结束的块（当前行或未闭合的代码块）
+ *
+ * 因此每次追加的开销只与增量和末尾块的长度有关，与全文长度无关。
+ * 非线程安全，应始终在同一线程（通常是主线程）调用。
+ *
+ * @param output 渲染目标，已结束块部分只追加，末尾块部分在每次追加后替换；
+ *               可以直接传入 TextView 的 Editable，修改即时反映到视图上
+ */
+class IncrementalMarkdownRenderer(
+    val output: Editable = SpannableStringBuilder(),
+) {
+
+    // 最后一个换行之后尚未结束的行
+    private val pendingLine = StringBuilder()
+    // 未闭合代码块中已完整的行（每行带换行）
+    private val codeContent = StringBuilder()
+    private var inCodeBlock = false
+    // output 中已结束块的长度
+    private var committedLength = 0
+
+    fun append(delta: CharSequence) {
+        if (delta.isEmpty()) return
+        var start = 0
+        while (true) {
+            val nl = delta.indexOf('\n', start)
+            if (nl < 0) break
+            pendingLine.append(delta, start, nl)
+            commitLine(pendingLine.toString())
+            pendingLine.clear()
+            start = nl + 1
+        }
+        pendingLine.append(delta, start, delta.length)
+        renderTail()
+    }
+
+    fun reset() {
+        output.clear()
+        output.clearSpans()
+        pendingLine.clear()
+        codeContent.clear()
+        inCodeBlock = false
+        committedLength = 0
+    }
+
+    private fun commitLine(line: String) {
+        output.delete(committedLength, output.length)
+        when {
+            isFence(line) -> {
+                if (inCodeBlock) {
+                    output.append(SimpleMarkdownRenderer.renderCodeBlock(codeContent.toString()))
+                    codeContent.clear()
+                }
+                inCodeBlock = !inCodeBlock
+                output.append("\n")
+            }
+            inCodeBlock -> codeContent.append(line).append('\n')
+            else -> output.append(SimpleMarkdownRenderer.renderLine(line)).append("\n")
+        }
+        committedLength = output.length
+    }
+
+    /** 重新渲染末尾未结束的块 */
+    private fun renderTail() {
+        output.delete(committedLength, output.length)
+        when {
+            isFence(pendingLine) -> {
+                // 末尾的 ``` 行：闭合代码块时按完整代码块显示，开始代码块时不显示
+                if (inCodeBlock) {
+                    output.append(SimpleMarkdownRenderer.renderCodeBlock(codeContent.toString()))
+                }
+            }
+            inCodeBlock -> {
+                // 代码块尚未闭合，按代码块样式显示已收到的部分
+                if (codeContent.isNotEmpty() || pendingLine.isNotEmpty()) {
+                    output.append(SimpleMarkdownRenderer.renderCodeBlock(codeContent.toString() + pendingLine))
+                }
+            }
+            pendingLine.isNotEmpty() -> output.append(SimpleMarkdownRenderer.renderLine(pendingLine.toString()))
+        }
+    }
+
+    private fun isFence(line: CharSequence): Boolean = line.trim().startsWith("```")
+}
@@ -1,16 +1,14 @@
 package com.ai.phoneagent.helper
 
 import android.content.Context
+import android.graphics.Rect
+import android.text.Editable
+import android.view.Choreographer
 import android.view.View
 import android.view.animation.DecelerateInterpolator
 import android.widget.LinearLayout
 import android.widget.TextView
 import com.ai.phoneagent.R
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Job
-import kotlinx.coroutines.delay
-import kotlinx.coroutines.isActive
-import kotlinx.coroutines.launch
 import java.lang.ref.WeakReference
 import java.util.concurrent.ConcurrentHashMap
 
@@ -38,50 +36,43 @@ object StreamRenderHelper {
     )
 
     // 文本动画器（支持 Markdown 渲染）
+    // 增量先暂存，每个 vsync 合并成一次写入 TextView 的 Editable（只追加，不整体替换文本）；
+    // 视图不在屏幕上时跳过该帧，等重新可见或 stop() 时再写入
     private class TextAnimator(
         textView: TextView,
-        private val scope: CoroutineScope,
         private val onUpdate: () -> Unit,
         val useMarkdown: Boolean = false  // 添加 val 使其可访问
-    ) {
+    ) : Choreographer.FrameCallback {
         private val viewRef = WeakReference(textView)
+        private val choreographer = Choreographer.getInstance()
         private val textBuilder = StringBuilder()
-        private var job: Job? = null
-        private var displayedLength = 0
+        // 已接收、尚未写入视图的增量
+        private val pending = StringBuilder()
+        private var frameScheduled = false
+        // 当前写入的视图缓冲区；视图文本被外部替换后需重新绑定
+        private var editable: Editable? = null
+        // Markdown 模式下增量渲染，已结束的块不再重复解析
+        private var markdown: IncrementalMarkdownRenderer? = null
+        private val visibleRect = Rect()
 
         fun append(delta: String) {
+            if (delta.isEmpty()) return
             synchronized(textBuilder) {
                 textBuilder.append(delta)
+                pending.append(delta)
             }
-            
-            // 立即更新显示（不等待动画循环）
-            val view = viewRef.get()
-            if (view != null) {
-                val currentText = synchronized(textBuilder) { textBuilder.toString() }
-                if (useMarkdown) {
-                    view.text = SimpleMarkdownRenderer.render(currentText)
-                } else {
-                    view.text = currentText
-                }
-                displayedLength = currentText.length
-            }
-            
-            startAnimation()
+            scheduleFrame(0L)
         }
 
         fun setFullText(text: String) {
-            job?.cancel()
+            cancelFrame()
             synchronized(textBuilder) {
                 textBuilder.clear()
                 textBuilder.append(text)
+                pending.clear()
             }
             val view = viewRef.get() ?: return
-            if (useMarkdown) {
-                view.text = SimpleMarkdownRenderer.render(text)
-            } else {
-                view.text = text
-            }
-            displayedLength = text.length
+            bind(view)
         }
 
         fun getText(): String = synchronized(textBuilder) { textBuilder.toString() }
@@ -90,77 +81,104 @@ object StreamRenderHelper {
             if (delta.isEmpty()) return
             synchronized(textBuilder) {
                 textBuilder.append(delta)
-                displayedLength = textBuilder.length
             }
+            // 不立即显示；之后如果还要写入视图，则按全文重新绑定
+            editable = null
         }
         
         fun clear() {
-            job?.cancel()
+            cancelFrame()
             synchronized(textBuilder) {
                 textBuilder.clear()
+                pending.clear()
             }
-            displayedLength = 0
+            editable = null
+            markdown = null
             val view = viewRef.get() ?: return
             view.text = ""
         }
 
-        private fun startAnimation() {
-            if (job?.isActive == true) return
+        override fun doFrame(frameTimeNanos: Long) {
+            frameScheduled = false
+            val view = viewRef.get() ?: return
+            if (!isOnScreen(view)) {
+                // 不可见时不写入，低频检查是否重新可见
+                scheduleFrame(OFFSCREEN_RECHECK_MS)
+                return
+            }
+            if (flushPending(view)) {
+                view.post { onUpdate() }
+            }
+        }
 
-            job = scope.launch {
-                while (isActive) {
-                    val target = synchronized(textBuilder) { textBuilder.toString() }
-                    val targetLen = target.length
+        fun stop() {
+            cancelFrame()
+            val view = viewRef.get() ?: return
+            flushPending(view)
+        }
 
-                    if (displayedLength >= targetLen) {
-                        // 再检查一次，防止并发问题
-                        if (synchronized(textBuilder) { textBuilder.length } == targetLen) {
-                            break
-                        }
-                        continue
-                    }
+        private fun scheduleFrame(delayMs: Long) {
+            if (frameScheduled) return
+            frameScheduled = true
+            choreographer.postFrameCallbackDelayed(this, delayMs)
+        }
 
-                    val view = viewRef.get() ?: break
+        private fun cancelFrame() {
+            choreographer.removeFrameCallback(this)
+            frameScheduled = false
+        }
 
-                    // 计算步长（堆积多时加速）
-                    val remaining = targetLen - displayedLength
-                    val step = when {
-                        remaining > 100 -> 15
-                        remaining > 50 -> 8
-                        remaining > 20 -> 4
-                        else -> 1
-                    }
+        /**
+         * 把暂存的增量写入视图，同一帧内收到的多个增量只写一次
+         * @return 视图内容是否有变化
+         */
+        private fun flushPending(view: TextView): Boolean {
+            val target = editable
+            if (target == null || view.editableText !== target) {
+                bind(view)
+                return true
+            }
+            val delta = synchronized(textBuilder) {
+                if (pending.isEmpty()) return false
+                pending.toString().also { pending.clear() }
+            }
+            write(target, delta)
+            return true
+        }
 
-                    val nextLen = (displayedLength + step).coerceAtMost(targetLen)
-                    val displayText = target.substring(0, nextLen)
-                    
-                    // 应用 Markdown 渲染
-                    if (useMarkdown) {
-                        view.text = SimpleMarkdownRenderer.render(displayText)
-                    } else {
-                        view.text = displayText
-                    }
-                    displayedLength = nextLen
-                    
-                    view.post { onUpdate() }
-                    delay(16L)
-                }
+        /** 将视图文本换成可追加的 Editable，并写入已接收的全部文本 */
+        private fun bind(view: TextView) {
+            view.setText("", TextView.BufferType.EDITABLE)
+            val target = view.editableText
+            editable = target
+            markdown = if (useMarkdown) IncrementalMarkdownRenderer(target) else null
+            val all = synchronized(textBuilder) {
+                pending.clear()
+                textBuilder.toString()
             }
+            write(target, all)
         }
 
-        fun stop() {
-            job?.cancel()
-            val finalText = synchronized(textBuilder) { textBuilder.toString() }
-            val view = viewRef.get() ?: return
-            if (useMarkdown) {
-                view.text = SimpleMarkdownRenderer.render(finalText)
+        private fun write(target: Editable, text: String) {
+            val renderer = markdown
+            if (renderer != null) {
+                renderer.append(text)
             } else {
-                view.text = finalText
+                target.append(text)
             }
-            displayedLength = finalText.length
+        }
+
+        private fun isOnScreen(view: TextView): Boolean {
+            if (!view.isAttachedToWindow || !view.isShown) return false
+            // 尚未完成布局（高度为 0）时无法判断可见区域，按可见处理
+            if (view.width == 0 || view.height == 0) return true
+            return view.getLocalVisibleRect(visibleRect)
         }
     }
 
+    /** 视图不在屏幕上时检查是否重新可见的间隔 */
+    private const val OFFSCREEN_RECHECK_MS = 250L
+
     // 缓存
     private val animators = ConcurrentHashMap<Int, TextAnimator>()
     private val parsers = ConcurrentHashMap<Int, AriesStreamParser>()
@@ -234,7 +252,6 @@ object StreamRenderHelper {
 
     private fun getAnimator(
         textView: TextView,
-        scope: CoroutineScope,
         onScroll: () -> Unit,
         useMarkdown: Boolean = false
     ): TextAnimator {
@@ -253,7 +270,7 @@ object StreamRenderHelper {
         }
         
         // 创建新的 animator
-        val newAnimator = TextAnimator(textView, scope, onScroll, useMarkdown)
+        val newAnimator = TextAnimator(textView, onScroll, useMarkdown)
         animators[id] = newAnimator
         return newAnimator
     }
@@ -265,7 +282,6 @@ object StreamRenderHelper {
     fun processReasoningDelta(
         vh: ViewHolder,
         delta: String,
-        coroutineScope: CoroutineScope,
         onScroll: () -> Unit
     ) {
         if (delta.isEmpty()) return
@@ -280,7 +296,7 @@ object StreamRenderHelper {
         parser.processReasoningDelta(delta)
         
         // 追加到思考区域，使用 Markdown 渲染
-        val animator = getAnimator(vh.thinkingText, coroutineScope, onScroll, useMarkdown = true)
+        val animator = getAnimator(vh.thinkingText, onScroll, useMarkdown = true)
         animator.append(delta)
         
         // 立即刷新显示（调试用）
@@ -294,7 +310,6 @@ object StreamRenderHelper {
     fun processContentDelta(
         vh: ViewHolder,
         delta: String,
-        coroutineScope: CoroutineScope,
         context: Context,
         onScroll: () -> Unit,
         onPhaseChange: (Boolean) -> Unit  // true = 进入回答阶段
@@ -313,7 +328,7 @@ object StreamRenderHelper {
                     }
                     
                     // 追加到思考区域
-                    val animator = getAnimator(vh.thinkingText, coroutineScope, onScroll, useMarkdown = true)
+                    val animator = getAnimator(vh.thinkingText, onScroll, useMarkdown = true)
                     animator.append(chunk.content)
                 }
                 
@@ -325,7 +340,7 @@ object StreamRenderHelper {
                     }
                     
                     // 追加到回答区域
-                    val animator = getAnimator(vh.messageContent, coroutineScope, onScroll, useMarkdown = true)
+                    val animator = getAnimator(vh.messageContent, onScroll, useMarkdown = true)
                     animator.append(chunk.content)
                 }
                 
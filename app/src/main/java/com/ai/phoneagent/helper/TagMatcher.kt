@@ -0,0 +1,93 @@
+package com.ai.phoneagent.helper
+
+/**
+ * 多模式标签匹配器（Aho-Corasick 自动机）
+ *
+ * 对一组固定标签构建一次自动机，之后逐字符推进即可同时匹配全部标签，每个字符均摊 O(1)，
+ * 不回看已扫描的内容。匹配状态只是一个 Int，由调用方保存，可跨多个流式 delta 延续；
+ * 自动机本身不可变，可在多个解析器实例间共享。
+ *
+ * [depth] 是当前状态对应的“可能仍是某个标签开头”的尾部字符数，调用方据此只保留这部分字符待定。
+ */
+internal class TagMatcher(val tags: List<String>) {
+
+    private val keys: Array<CharArray>
+    private val targets: Array<IntArray>
+    private val fail: IntArray
+    private val depths: IntArray
+    private val outputs: Array<IntArray>
+
+    init {
+        val keyLists = arrayListOf(StringBuilder())
+        val targetLists = arrayListOf(ArrayList<Int>())
+        val depthList = arrayListOf(0)
+        val terminal = arrayListOf(-1)
+
+        tags.forEachIndexed { id, tag ->
+            require(tag.isNotEmpty()) { "empty tag" }
+            var node = 0
+            for (c in tag) {
+                val k = keyLists[node].indexOf(c)
+                node = if (k >= 0) {
+                    targetLists[node][k]
+                } else {
+                    val child = keyLists.size
+                    keyLists += StringBuilder()
+                    targetLists += ArrayList<Int>()
+                    depthList += depthList[node] + 1
+                    terminal += -1
+                    keyLists[node].append(c)
+                    targetLists[node] += child
+                    child
+                }
+            }
+            terminal[node] = id
+        }
+
+        val n = keyLists.size
+        keys = Array(n) { keyLists[it].toString().toCharArray() }
+        targets = Array(n) { targetLists[it].toIntArray() }
+        depths = depthList.toIntArray()
+        fail = IntArray(n)
+
+        // 广度优先计算失败链；节点的输出 = 自身结束的标签 + 失败链节点的输出（失败链节点更浅，已先算好）
+        val out = arrayOfNulls<IntArray>(n)
+        out[0] = NO_MATCH
+        val queue = ArrayDeque<Int>()
+        queue.addAll(targets[0].toList())
+        while (queue.isNotEmpty()) {
+            val node = queue.removeFirst()
+            val inherited = out[fail[node]]!!
+            out[node] = if (terminal[node] >= 0) intArrayOf(terminal[node]) + inherited else inherited
+            for (k in keys[node].indices) {
+                val child = targets[node][k]
+                fail[child] = if (node == 0) 0 else next(fail[node], keys[node][k])
+                queue.addLast(child)
+            }
+        }
+        outputs = Array(n) { out[it]!! }
+    }
+
+    /** 从 [state] 读入字符 [c] 后的状态 */
+    fun next(state: Int, c: Char): Int {
+        var s = state
+        while (true) {
+            val k = keys[s].indexOf(c)
+            if (k >= 0) return targets[s][k]
+            if (s == 0) return 0
+            s = fail[s]
+        }
+    }
+
+    /** 在 [state] 处结束的标签下标（可能为空，不要修改返回的数组） */
+    fun matches(state: Int): IntArray = outputs[state]
+
+    /** [state] 对应的待定尾部长度 */
+    fun depth(state: Int): Int = depths[state]
+
+    companion object {
+        const val INITIAL_STATE = 0
+
+        private val NO_MATCH = IntArray(0)
+    }
+}
@@ -1,13 +1,11 @@
 package com.ai.phoneagent.net
 
-import com.google.gson.Gson
 import com.google.gson.JsonParser
 import okhttp3.ConnectionPool
 import okhttp3.OkHttpClient
 import okhttp3.Protocol
 import okhttp3.Request
-import okhttp3.MediaType.Companion.toMediaType
-import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.RequestBody
 import okhttp3.logging.HttpLoggingInterceptor
 import retrofit2.Retrofit
 import retrofit2.converter.gson.GsonConverterFactory
@@ -18,7 +16,13 @@ import retrofit2.http.POST
 import com.ai.phoneagent.BuildConfig
 import java.io.IOException
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.awaitCancellation
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 
 /**
@@ -77,7 +81,7 @@ private object SharedHttpClient {
         }
 }
 
-/** 简化版 AutoGLM 客户端：仅用于单轮对话与 API 健康检查。 默认 BASE_URL 指向智谱官方 OpenAI 兼容接口，可根据需要调整。 */
+/** 简化版 AutoGLM 客户端：仅用于单轮对话与 API 健康检查。 默认 baseUrl 指向智谱官方 OpenAI 兼容接口，可根据需要调整。 */
 object AutoGlmClient {
 
         class ApiException(
@@ -96,8 +100,7 @@ object AutoGlmClient {
                         cause
                 )
 
-        // 如需替换其他网关，可修改此处
-        private const val BASE_URL = "https://open.bigmodel.cn/api/paas/v4/"
+        private const val DEFAULT_BASE_URL = "https://open.bigmodel.cn/api/paas/v4/"
         private const val DEFAULT_MODEL = "glm-4-flash"
         const val PHONE_MODEL = "autoglm-phone"
 
@@ -106,24 +109,41 @@ object AutoGlmClient {
         private const val DEFAULT_FREQUENCY_PENALTY = 0.2f
         private const val DEFAULT_MAX_TOKENS = 3000
 
-        private val service: AutoGlmService by lazy {
-                Retrofit.Builder()
-                        .baseUrl(BASE_URL)
-                        .client(SharedHttpClient.instance)
-                        .addConverterFactory(GsonConverterFactory.create())
-                        .build()
-                        .create(AutoGlmService::class.java)
+        /**
+         * 接口地址（须以 / 结尾）。如需替换其他网关，可修改此处；
+         * 离线基准测试中指向本地的 OpenAI 兼容桩服务。
+         */
+        @Volatile var baseUrl: String = DEFAULT_BASE_URL
+
+        /** 按 baseUrl 创建的 Retrofit 服务，baseUrl 变化后重新创建 */
+        private class Services(val baseUrl: String) {
+                val normal: AutoGlmService = create(SharedHttpClient.instance)
+                val fast: AutoGlmService = create(SharedHttpClient.fastInstance)
+
+                private fun create(client: OkHttpClient): AutoGlmService =
+                        Retrofit.Builder()
+                                .baseUrl(baseUrl)
+                                .client(client)
+                                .addConverterFactory(GsonConverterFactory.create())
+                                .build()
+                                .create(AutoGlmService::class.java)
         }
 
-        private val fastService: AutoGlmService by lazy {
-                Retrofit.Builder()
-                        .baseUrl(BASE_URL)
-                        .client(SharedHttpClient.fastInstance)
-                        .addConverterFactory(GsonConverterFactory.create())
-                        .build()
-                        .create(AutoGlmService::class.java)
+        @Volatile private var services: Services? = null
+
+        private fun services(): Services {
+                val url = baseUrl
+                val current = services
+                if (current != null && current.baseUrl == url) return current
+                return Services(url).also { services = it }
         }
 
+        private val service: AutoGlmService
+                get() = services().normal
+
+        private val fastService: AutoGlmService
+                get() = services().fast
+
         suspend fun sendChatStreamResult(
                 apiKey: String,
                 messages: List<ChatRequestMessage>,
@@ -141,6 +161,41 @@ object AutoGlmClient {
                 shouldStop: (() -> Boolean)? = null,
                 /** 自动化场景可启用更短超时，避免长卡住 */
                 useFastTimeouts: Boolean = false,
+        ): Result<Unit> = coroutineScope {
+                // 流在 IO 线程上阻塞读取，不会自行响应协程取消：取消时由这里主动取消 HTTP 调用，
+                // 阻塞中的读取随即抛出异常返回，不必等到整条回复读完或读超时
+                val activeCall = AtomicReference<okhttp3.Call?>()
+                val cancelWatcher = launch(start = CoroutineStart.UNDISPATCHED) {
+                        try {
+                                awaitCancellation()
+                        } finally {
+                                activeCall.get()?.cancel()
+                        }
+                }
+                try {
+                        readChatStream(
+                                apiKey, messages, model, temperature, maxTokens, topP, frequencyPenalty,
+                                onReasoningDelta, onContentDelta, shouldStop, useFastTimeouts, activeCall,
+                        )
+                } finally {
+                        activeCall.set(null)
+                        cancelWatcher.cancel()
+                }
+        }
+
+        private suspend fun readChatStream(
+                apiKey: String,
+                messages: List<ChatRequestMessage>,
+                model: String,
+                temperature: Float?,
+                maxTokens: Int?,
+                topP: Float?,
+                frequencyPenalty: Float?,
+                onReasoningDelta: (String) -> Unit,
+                onContentDelta: (String) -> Unit,
+                shouldStop: (() -> Boolean)?,
+                useFastTimeouts: Boolean,
+                activeCall: AtomicReference<okhttp3.Call?>,
         ): Result<Unit> {
                 return withContext(Dispatchers.IO) {
                         try {
@@ -154,23 +209,21 @@ object AutoGlmClient {
                                                 top_p = topP,
                                                 frequency_penalty = frequencyPenalty,
                                         )
-                                val bodyJson = Gson().toJson(reqObj)
                                 val request =
                                         Request.Builder()
-                                                .url(BASE_URL + "chat/completions")
+                                                .url(baseUrl + "chat/completions")
                                                 .addHeader("Authorization", "Bearer $apiKey")
                                                 .addHeader("Content-Type", "application/json")
-                                                .post(
-                                                        bodyJson.toRequestBody(
-                                                                "application/json; charset=utf-8".toMediaType()
-                                                        )
-                                                )
+                                                .post(ChatRequestBody(reqObj))
                                                 .build()
 
                                 var receivedAnyDelta = false
 
                                 val client = if (useFastTimeouts) SharedHttpClient.fastInstance else SharedHttpClient.instance
                                 val call = client.newCall(request)
+                                activeCall.set(call)
+                                // 登记之前已被取消时，取消监听已经执行过
+                                coroutineContext.ensureActive()
 
                                 call.execute().use { resp ->
                                         if (!resp.isSuccessful) {
@@ -251,6 +304,12 @@ object AutoGlmClient {
                                                                 receivedAnyDelta = true
                                                         }
                                                 }
+
+                                                // 回调后立即检查早停，避免阻塞在下一行的读取上
+                                                if (receivedAnyDelta && shouldStop?.invoke() == true) {
+                                                        call.cancel()
+                                                        break
+                                                }
                                         }
                                 }
 
@@ -274,6 +333,7 @@ object AutoGlmClient {
                                         service.chat(
                                                 auth = "Bearer $apiKey",
                                                 request =
+                                                        ChatRequestBody(
                                                         ChatRequest(
                                                                 model = model,
                                                                 messages =
@@ -287,6 +347,7 @@ object AutoGlmClient {
                                                                         ),
                                                                 stream = false
                                                         )
+                                                        )
                                         )
                                 !res.choices.isNullOrEmpty()
                         }
@@ -329,6 +390,7 @@ object AutoGlmClient {
                                 svc.chat(
                                         auth = "Bearer $apiKey",
                                         request =
+                                                ChatRequestBody(
                                                 ChatRequest(
                                                         model = model,
                                                         messages = messages,
@@ -338,6 +400,7 @@ object AutoGlmClient {
                                                         top_p = topP,
                                                         frequency_penalty = frequencyPenalty,
                                                 )
+                                                )
                                 )
                         val content = res.choices?.firstOrNull()?.message?.content
                         if (content.isNullOrBlank()) {
@@ -358,6 +421,7 @@ interface AutoGlmService {
         @POST("chat/completions")
         suspend fun chat(
                 @Header("Authorization") auth: String,
-                @Body request: ChatRequest
+                /** 使用 ChatRequestBody 流式序列化，图片 Base64 在写入时编码 */
+                @Body request: RequestBody
         ): ChatResponse
 }
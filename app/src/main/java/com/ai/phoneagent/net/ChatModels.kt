@@ -17,3 +17,11 @@ data class ChatResponse(val choices: List<ChatChoice>?)
 data class ChatChoice(val index: Int, val message: ChatResponseMessage?)
 
 data class ChatResponseMessage(val role: String, val content: String)
+
+/**
+ * 多模态消息中的图片片段
+ *
+ * 持有原始图片字节，序列化请求时由 ChatRequestBody 直接编码为
+ * {"type":"image_url","image_url":{"url":"data:<mime>;base64,..."}}。
+ */
+class ChatImagePart(val bytes: ByteArray, val mimeType: String = "image/jpeg")
@@ -0,0 +1,163 @@
+package com.ai.phoneagent.net
+
+import com.google.gson.Gson
+import okhttp3.MediaType
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.RequestBody
+import okio.BufferedSink
+import okio.ByteString
+import okio.ByteString.Companion.encodeUtf8
+
+/**
+ * 流式 JSON 请求体
+ *
+ * 将 ChatRequest 增量写入 sink：文本部分仍由 Gson 序列化（体积小），
+ * 图片片段（ChatImagePart）在写入时分块编码为 Base64，
+ * 省去 Base64 字符串、data URL 字符串与整份 JSON 字符串三份大拷贝。
+ *
+ * 请求体可重复写入（重试/重定向时 OkHttp 会再次调用 writeTo），并提供准确的 Content-Length。
+ */
+class ChatRequestBody(request: ChatRequest) : RequestBody() {
+
+    // 文本片段（ByteString）与图片片段（ChatImagePart）交替排列
+    private val segments: List<Any> = buildSegments(request)
+
+    private val length: Long = segments.sumOf { seg ->
+        when (seg) {
+            is ByteString -> seg.size.toLong()
+            is ChatImagePart -> base64Length(seg.bytes.size)
+            else -> 0L
+        }
+    }
+
+    override fun contentType(): MediaType = JSON_MEDIA_TYPE
+
+    override fun contentLength(): Long = length
+
+    override fun writeTo(sink: BufferedSink) {
+        val chunk = ByteArray(BASE64_CHUNK_OUT)
+        for (seg in segments) {
+            when (seg) {
+                is ByteString -> sink.write(seg)
+                is ChatImagePart -> writeBase64(sink, seg.bytes, chunk)
+            }
+        }
+    }
+
+    private class SegmentBuilder {
+        val segments = mutableListOf<Any>()
+        val text = StringBuilder()
+
+        fun image(part: ChatImagePart) {
+            text.append("{\"type\":\"image_url\",\"image_url\":{\"url\":\"data:")
+                .append(part.mimeType)
+                .append(";base64,")
+            flushText()
+            segments.add(part)
+            text.append("\"}}")
+        }
+
+        fun flushText() {
+            if (text.isNotEmpty()) {
+                segments.add(text.toString().encodeUtf8())
+                text.setLength(0)
+            }
+        }
+    }
+
+    companion object {
+        private val JSON_MEDIA_TYPE = "application/json; charset=utf-8".toMediaType()
+        private val gson = Gson()
+
+        // 3 字节输入对应 4 字节输出，按整组分块编码
+        private const val BASE64_CHUNK_IN = 3 * 1024
+        private const val BASE64_CHUNK_OUT = 4 * 1024
+        private const val PAD = '='.code.toByte()
+        private val ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toByteArray(Charsets.ISO_8859_1)
+
+        private fun buildSegments(request: ChatRequest): List<Any> {
+            val b = SegmentBuilder()
+            b.text.append("{\"model\":").append(gson.toJson(request.model))
+            b.text.append(",\"messages\":[")
+            request.messages.forEachIndexed { i, msg ->
+                if (i > 0) b.text.append(',')
+                b.text.append("{\"role\":").append(gson.toJson(msg.role))
+                b.text.append(",\"content\":")
+                appendContent(b, msg.content)
+                b.text.append('}')
+            }
+            b.text.append(']')
+            b.text.append(",\"stream\":").append(request.stream)
+            request.temperature?.let { b.text.append(",\"temperature\":").append(gson.toJson(it)) }
+            request.max_tokens?.let { b.text.append(",\"max_tokens\":").append(it) }
+            request.top_p?.let { b.text.append(",\"top_p\":").append(gson.toJson(it)) }
+            request.frequency_penalty?.let { b.text.append(",\"frequency_penalty\":").append(gson.toJson(it)) }
+            b.text.append('}')
+            b.flushText()
+            return b.segments
+        }
+
+        private fun appendContent(b: SegmentBuilder, content: Any) {
+            if (content !is List<*>) {
+                b.text.append(gson.toJson(content))
+                return
+            }
+            b.text.append('[')
+            content.forEachIndexed { i, part ->
+                if (i > 0) b.text.append(',')
+                when (part) {
+                    is ChatImagePart -> b.image(part)
+                    null -> b.text.append("null")
+                    else -> b.text.append(gson.toJson(part))
+                }
+            }
+            b.text.append(']')
+        }
+
+        private fun base64Length(len: Int): Long = (len + 2L) / 3L * 4L
+
+        private fun writeBase64(sink: BufferedSink, src: ByteArray, out: ByteArray) {
+            var si = 0
+            while (si < src.size) {
+                val n = minOf(BASE64_CHUNK_IN, src.size - si)
+                val fullEnd = si + n - n % 3
+                var di = 0
+                while (si < fullEnd) {
+                    val bits = (src[si].toInt() and 0xff shl 16) or
+                        (src[si + 1].toInt() and 0xff shl 8) or
+                        (src[si + 2].toInt() and 0xff)
+                    out[di] = ALPHABET[bits ushr 18 and 0x3f]
+                    out[di + 1] = ALPHABET[bits ushr 12 and 0x3f]
+                    out[di + 2] = ALPHABET[bits ushr 6 and 0x3f]
+                    out[di + 3] = ALPHABET[bits and 0x3f]
+                    si += 3
+                    di += 4
+                }
+                // 只有最后一块可能剩余 1~2 字节（其余块都是 3 的整数倍），按本块剩余判断
+                when (n % 3) {
+                    0 -> Unit
+                    1 -> {
+                        val bits = src[si].toInt() and 0xff shl 16
+                        out[di] = ALPHABET[bits ushr 18 and 0x3f]
+                        out[di + 1] = ALPHABET[bits ushr 12 and 0x3f]
+                        out[di + 2] = PAD
+                        out[di + 3] = PAD
+                        si += 1
+                        di += 4
+                    }
+                    2 -> {
+                        val bits = (src[si].toInt() and 0xff shl 16) or (src[si + 1].toInt() and 0xff shl 8)
+                        out[di] = ALPHABET[bits ushr 18 and 0x3f]
+                        out[di + 1] = ALPHABET[bits ushr 12 and 0x3f]
+                        out[di + 2] = ALPHABET[bits ushr 6 and 0x3f]
+                        out[di + 3] = PAD
+                        si += 2
+                        di += 4
+                    }
+                }
+                sink.write(out, 0, di)
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.ai.phoneagent.ui
+
+import android.text.Spanned
+import android.util.LruCache
+import android.view.Gravity
+import android.view.LayoutInflater
+import android.view.View
+import android.view.ViewGroup
+import android.widget.LinearLayout
+import android.widget.TextView
+import androidx.recyclerview.widget.RecyclerView
+import com.ai.phoneagent.R
+import com.ai.phoneagent.helper.MarkdownRenderer
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+
+/**
+ * 主界面对话记录适配器
+ *
+ * 用 RecyclerView 承载对话消息：只为屏幕附近的消息创建视图并复用，长对话不再常驻全部气泡。
+ * - AI 消息的 Markdown 渲染结果按消息做 LRU 缓存，滚动回来时直接套用，不重新解析
+ * - 正在流式输出的回复（[Item.Live]）使用 StreamRenderHelper 绑定的固定视图，不参与复用；
+ *   输出结束后由 [completeLive] 换成普通 AI 消息
+ */
+class ChatTranscriptAdapter(
+    private val inflater: LayoutInflater,
+    private val scope: CoroutineScope,
+    private val listener: Listener,
+) : RecyclerView.Adapter<RecyclerView.ViewHolder>() {
+
+    interface Listener {
+        /** 复制 AI 回复正文 */
+        fun onCopy(text: String)
+
+        /** 重试；[retryUserText] 为空时由调用方决定重试哪条用户消息 */
+        fun onRetry(retryUserText: String?)
+
+        /** 消息内容增长（打字效果），需要跟随滚动 */
+        fun onContentGrow()
+    }
+
+    sealed class Item {
+        /** 用户消息；[animate] 为 true 时首次显示播放打字效果 */
+        class User(val content: String, var animate: Boolean = false) : Item()
+
+        /** 已完成的 AI 消息，content 可能包含 <think>...</think> */
+        class Ai(
+            val author: String,
+            val content: String,
+            val retryUserText: String?,
+            val timeCostSec: Long = 0L,
+        ) : Item() {
+            private val parts by lazy(LazyThreadSafetyMode.NONE) { THINK_REGEX.find(content) }
+
+            val thinking: String? by lazy(LazyThreadSafetyMode.NONE) { parts?.groupValues?.get(1)?.trim() }
+            val answer: String by lazy(LazyThreadSafetyMode.NONE) { parts?.groupValues?.get(2)?.trim() ?: content }
+
+            /** 思考区是否展开，随消息保存，复用视图后保持不变 */
+            var thinkingExpanded = true
+        }
+
+        /** 正在流式输出的回复 */
+        class Live(val view: View) : Item()
+    }
+
+    private class Rendered(val thinking: Spanned?, val answer: Spanned)
+
+    private class UserHolder(val row: LinearLayout, val content: TextView) : RecyclerView.ViewHolder(row) {
+        var typing: Job? = null
+    }
+
+    private class AiHolder(view: View) : RecyclerView.ViewHolder(view) {
+        val thinkingLayout: View = view.findViewById(R.id.thinking_layout)
+        val thinkingHeader: LinearLayout = view.findViewById(R.id.thinking_header)
+        val thinkingText: TextView = view.findViewById(R.id.thinking_text)
+        val thinkingIndicator: TextView = view.findViewById(R.id.thinking_indicator_text)
+        val thinkingContentArea: View = view.findViewById(R.id.thinking_content_area)
+        val messageContent: TextView = view.findViewById(R.id.message_content)
+        val authorName: TextView = view.findViewById(R.id.ai_author_name)
+        val actionArea: View = view.findViewById(R.id.action_area)
+        val btnCopy: View = view.findViewById(R.id.btn_copy)
+        val btnRetry: View = view.findViewById(R.id.btn_retry)
+    }
+
+    private class LiveHolder(view: View) : RecyclerView.ViewHolder(view)
+
+    private val items = ArrayList<Item>()
+    private var liveView: View? = null
+    // 首次绑定 AI 消息时才初始化 Markwon，不占用启动时间
+    private val markdown by lazy(LazyThreadSafetyMode.NONE) { MarkdownRenderer.getInstance(inflater.context) }
+    private val renderCache = LruCache<Item.Ai, Rendered>(RENDER_CACHE_SIZE)
+
+    /** 替换全部消息 */
+    fun submit(newItems: List<Item>) {
+        items.clear()
+        items.addAll(newItems)
+        liveView = null
+        renderCache.evictAll()
+        notifyDataSetChanged()
+    }
+
+    fun clear() = submit(emptyList())
+
+    fun append(item: Item) {
+        items.add(item)
+        notifyItemInserted(items.size - 1)
+    }
+
+    /** 在顶部插入更早的消息（向上滚动时分页加载） */
+    fun prepend(older: List<Item>) {
+        if (older.isEmpty()) return
+        items.addAll(0, older)
+        notifyItemRangeInserted(0, older.size)
+    }
+
+    /** 追加正在流式输出的回复，[view] 由调用方交给 StreamRenderHelper 绑定 */
+    fun appendLive(view: View) {
+        liveView = view
+        append(Item.Live(view))
+    }
+
+    /** 流式输出结束：把固定视图换成普通 AI 消息 */
+    fun completeLive(item: Item.Ai) {
+        val index = items.indexOfFirst { it is Item.Live }
+        liveView = null
+        if (index < 0) return
+        items[index] = item
+        notifyItemChanged(index)
+    }
+
+    override fun getItemCount(): Int = items.size
+
+    override fun getItemViewType(position: Int): Int = when (items[position]) {
+        is Item.User -> TYPE_USER
+        is Item.Ai -> TYPE_AI
+        is Item.Live -> TYPE_LIVE
+    }
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): RecyclerView.ViewHolder {
+        return when (viewType) {
+            TYPE_USER -> createUserHolder(parent)
+            TYPE_AI -> AiHolder(inflater.inflate(R.layout.item_ai_message_complex, parent, false))
+            else -> {
+                val view = checkNotNull(liveView) { "no live reply" }
+                (view.parent as? ViewGroup)?.removeView(view)
+                LiveHolder(view).apply { setIsRecyclable(false) }
+            }
+        }
+    }
+
+    override fun onBindViewHolder(holder: RecyclerView.ViewHolder, position: Int) {
+        when (val item = items[position]) {
+            is Item.User -> bindUser(holder as UserHolder, item)
+            is Item.Ai -> bindAi(holder as AiHolder, item)
+            is Item.Live -> Unit
+        }
+    }
+
+    override fun onViewRecycled(holder: RecyclerView.ViewHolder) {
+        if (holder is UserHolder) {
+            holder.typing?.cancel()
+            holder.typing = null
+        }
+    }
+
+    override fun onViewAttachedToWindow(holder: RecyclerView.ViewHolder) {
+        // 可选中文本的 TextView 复用后需重新启用，否则长按选择失效
+        val content = when (holder) {
+            is UserHolder -> holder.content
+            is AiHolder -> holder.messageContent
+            else -> return
+        }
+        content.isEnabled = false
+        content.isEnabled = true
+    }
+
+    /** 用户气泡：row 容器把气泡贴到右侧，并与底部输入栏左右边界保持一致 */
+    private fun createUserHolder(parent: ViewGroup): UserHolder {
+        val bubble = inflater.inflate(R.layout.item_user_message_complex, parent, false)
+        bubble.findViewById<TextView>(R.id.user_author_name).visibility = View.GONE
+        val density = parent.resources.displayMetrics.density
+        fun dp(v: Int): Int = (v * density).toInt()
+
+        val row = LinearLayout(parent.context).apply {
+            orientation = LinearLayout.HORIZONTAL
+            gravity = Gravity.END
+            layoutParams = RecyclerView.LayoutParams(
+                RecyclerView.LayoutParams.MATCH_PARENT,
+                RecyclerView.LayoutParams.WRAP_CONTENT
+            )
+        }
+        row.addView(
+            bubble,
+            LinearLayout.LayoutParams(
+                LinearLayout.LayoutParams.WRAP_CONTENT,
+                LinearLayout.LayoutParams.WRAP_CONTENT
+            ).apply {
+                // 左侧留出空间制造“对话层次”
+                setMargins(dp(48), dp(8), 0, dp(8))
+            }
+        )
+        return UserHolder(row, bubble.findViewById(R.id.message_content))
+    }
+
+    private fun bindUser(holder: UserHolder, item: Item.User) {
+        holder.typing?.cancel()
+        holder.typing = null
+        if (!item.animate) {
+            holder.content.text = item.content
+            return
+        }
+        item.animate = false
+        val content = item.content
+        holder.typing = scope.launch {
+            val sb = StringBuilder()
+            val chunkSize = 2
+            var idx = 0
+            while (idx < content.length) {
+                val end = minOf(idx + chunkSize, content.length)
+                sb.append(content, idx, end)
+                holder.content.text = sb.toString()
+                idx = end
+                listener.onContentGrow()
+                delay(10)
+            }
+            holder.content.text = content
+        }
+    }
+
+    private fun bindAi(holder: AiHolder, item: Item.Ai) {
+        holder.authorName.text = if (item.author == "Aries") "Aries AI" else item.author
+        holder.authorName.visibility = View.VISIBLE
+
+        val thinking = item.thinking
+        val rendered = renderCache.get(item) ?: Rendered(
+            thinking = thinking?.takeIf { it.isNotBlank() }?.let { markdown.toSpanned(it) },
+            answer = markdown.toSpanned(item.answer),
+        ).also { renderCache.put(item, it) }
+
+        if (rendered.thinking != null) {
+            holder.thinkingLayout.visibility = View.VISIBLE
+            val seconds = item.timeCostSec.coerceAtLeast(1)
+            (holder.thinkingHeader.getChildAt(0) as TextView).text = "已思考 (用时 ${seconds} 秒)"
+            applyThinkingExpanded(holder, item.thinkingExpanded)
+            holder.thinkingHeader.setOnClickListener {
+                item.thinkingExpanded = !item.thinkingExpanded
+                applyThinkingExpanded(holder, item.thinkingExpanded)
+            }
+            markdown.setRendered(holder.thinkingText, rendered.thinking)
+        } else {
+            holder.thinkingLayout.visibility = View.GONE
+            holder.thinkingHeader.setOnClickListener(null)
+        }
+
+        if (item.answer.isBlank()) {
+            holder.messageContent.text = ""
+        } else {
+            markdown.setRendered(holder.messageContent, rendered.answer)
+        }
+
+        holder.actionArea.visibility = View.VISIBLE
+        holder.btnCopy.setOnClickListener { listener.onCopy(item.answer) }
+        holder.btnRetry.setOnClickListener { listener.onRetry(item.retryUserText) }
+    }
+
+    private fun applyThinkingExpanded(holder: AiHolder, expanded: Boolean) {
+        holder.thinkingText.visibility = if (expanded) View.VISIBLE else View.GONE
+        holder.thinkingContentArea.visibility = if (expanded) View.VISIBLE else View.GONE
+        holder.thinkingIndicator.text = if (expanded) " ⌄" else " ›"
+    }
+
+    companion object {
+        private const val TYPE_USER = 0
+        private const val TYPE_AI = 1
+        private const val TYPE_LIVE = 2
+
+        /** 缓存渲染结果的消息数，覆盖屏幕附近即可，避免长对话常驻全部 Spanned */
+        private const val RENDER_CACHE_SIZE = 48
+
+        private val THINK_REGEX = Regex("<think>([\\s\\S]*?)</think>([\\s\\S]*)")
+    }
+}
@@ -1,9 +1,23 @@
 package com.ai.phoneagent.core
 
+import com.ai.phoneagent.core.agent.ParsedAgentAction
+import com.ai.phoneagent.core.agent.StepMetrics
+import com.ai.phoneagent.core.cache.PerceptualHash
+import com.ai.phoneagent.core.cache.ScreenshotEncodePolicy
+import com.ai.phoneagent.core.cache.ScreenshotEncodeProfiles
+import com.ai.phoneagent.core.cache.UiTreeCompressor
+import com.ai.phoneagent.core.cache.UiTreeDiff
 import com.ai.phoneagent.core.config.AgentConfiguration
 import com.ai.phoneagent.core.parser.ActionParser
+import com.ai.phoneagent.core.parser.StreamingActionDetector
+import com.ai.phoneagent.core.platform.ScreenSettleStats
 import com.ai.phoneagent.core.templates.PromptTemplates
 import com.ai.phoneagent.core.utils.ActionUtils
+import com.ai.phoneagent.helper.AriesStreamParser
+import com.ai.phoneagent.net.ChatImagePart
+import com.ai.phoneagent.net.ChatRequest
+import com.ai.phoneagent.net.ChatRequestBody
+import com.ai.phoneagent.net.ChatRequestMessage
 import org.junit.Assert.*
 import org.junit.Test
 
@@ -97,6 +111,99 @@ class CoreModuleTest {
         assertTrue(answer!!.contains("do(action="))
     }
     
+    @Test
+    fun `ActionParser 单遍解析引号、括号与不完整输入`() {
+        val parser = ActionParser()
+
+        val type = parser.parse("do(action=\"Type\", text=\"点击\"确定\"按钮(右下角)\")")
+        assertEquals("Type", type.actionName)
+        assertEquals("点击\"确定\"按钮(右下角)", type.fields["text"])
+
+        val finish = parser.parse("<answer>finish(message=\"完成(已发送)\")</answer>")
+        assertEquals("finish", finish.metadata)
+        assertEquals("完成(已发送)", finish.fields["message"])
+
+        // 流式接收中尚未结束的动作
+        val partial = parser.parse("do(action=\"Tap\", element=[50")
+        assertEquals("Tap", partial.actionName)
+        assertEquals("50", partial.fields["element"])
+
+        assertEquals("unknown", parser.parse("undo(action=\"Tap\")").metadata)
+        assertEquals(
+            "do(action=\"Type\", text=\"a)b\")",
+            ActionUtils.extractFirstActionSnippet("好的 do(action=\"Type\", text=\"a)b\") 然后")
+        )
+    }
+
+    @Test
+    fun `StreamingActionDetector 跨 delta 检测完整动作`() {
+        val detector = StreamingActionDetector()
+
+        assertFalse(detector.append("<think>先 do(action=\"Back\") 再说</think>"))
+        assertFalse(detector.append("<answer>d"))
+        assertFalse(detector.append("o(action=\"Type\", text=\"a)"))
+        assertTrue(detector.append("b\")</answer> 多余内容"))
+        assertEquals("do(action=\"Type\", text=\"a)b\")", detector.actionSnippet())
+    }
+
+    @Test
+    fun `StreamingActionDetector 识别思考格式并回调解析结果`() {
+        var completed: ParsedAgentAction? = null
+        val detector = StreamingActionDetector(onActionComplete = { completed = it })
+
+        assertFalse(detector.append("<思考：先 finish(message=\"x\") 不算>【回答】do "))
+        assertFalse(detector.append("(action=\"Type\", text=\"点击\"确定"))
+        assertFalse(detector.append("\"按钮\" "))
+        assertTrue(detector.append(")后续"))
+
+        val action = completed!!
+        assertSame(action, detector.action)
+        assertEquals("Type", action.actionName)
+        assertEquals("点击\"确定\"按钮", action.fields["text"])
+    }
+
+    @Test
+    fun `StreamingActionDetector 忽略正文中解析为 unknown 的 do 调用`() {
+        val detector = StreamingActionDetector()
+
+        assertFalse(detector.append("我们先 do (一些检查) 再说，"))
+        assertNull(detector.action)
+        assertTrue(detector.append("然后 do(action=\"Back\") 结束"))
+        assertEquals("do(action=\"Back\")", detector.actionSnippet())
+        assertTrue(detector.textUpToAction().endsWith("do(action=\"Back\")"))
+    }
+
+    @Test
+    fun `AriesStreamParser 逐字符输入与整段输入结果一致`() {
+        val text = "【思考开始】先看<屏幕>【思考结束】【回答】do(action=\"Tap\",element=[1,2])【回答结束】"
+
+        fun parse(chunkSize: Int): List<AriesStreamParser.ParsedChunk> {
+            val parser = AriesStreamParser()
+            val chunks = text.chunked(chunkSize).flatMap { parser.processContentDelta(it) } + parser.flush()
+            // 合并相邻的同类文本块，便于比较
+            val merged = ArrayList<AriesStreamParser.ParsedChunk>()
+            for (chunk in chunks) {
+                val last = merged.lastOrNull()
+                if (last != null && last.type == chunk.type && chunk.type != AriesStreamParser.ChunkType.CONTROL) {
+                    merged[merged.size - 1] = last.copy(content = last.content + chunk.content)
+                } else {
+                    merged += chunk
+                }
+            }
+            return merged
+        }
+
+        val expected = listOf(
+            AriesStreamParser.ParsedChunk(AriesStreamParser.ChunkType.THINKING, "先看<屏幕>"),
+            AriesStreamParser.ParsedChunk(AriesStreamParser.ChunkType.CONTROL, "THINKING_END"),
+            AriesStreamParser.ParsedChunk(AriesStreamParser.ChunkType.CONTROL, "ANSWER_START"),
+            AriesStreamParser.ParsedChunk(AriesStreamParser.ChunkType.ANSWER, "do(action=\"Tap\",element=[1,2])"),
+        )
+        assertEquals(expected, parse(text.length))
+        assertEquals(expected, parse(1))
+        assertEquals(expected, parse(3))
+    }
+
     @Test
     fun `ActionParser 解析预估步骤数`() {
         val parser = ActionParser()
@@ -164,6 +271,118 @@ class CoreModuleTest {
         assertEquals(2800L, utils.computeModelRetryDelayMs(2, 700L))
     }
     
+    @Test
+    fun `ScreenSettleStats 按动作和应用聚合`() {
+        ScreenSettleStats.clear()
+        ScreenSettleStats.record("Tap", "com.tencent.mm", 120L, hitCeiling = false)
+        ScreenSettleStats.record(" tap ", "com.tencent.mm", 480L, hitCeiling = true)
+        ScreenSettleStats.record("Back", "com.tencent.mm", 90L, hitCeiling = false)
+
+        val tap = ScreenSettleStats.snapshot().first { it.action == "tap" }
+        assertEquals(2, tap.count)
+        assertEquals(300L, tap.avgMs)
+        assertEquals(480L, tap.maxMs)
+        assertEquals(1, tap.ceilingHits)
+        assertEquals("tap,com.tencent.mm,2,300,480,1", tap.toCsvRow())
+        assertEquals(ScreenSettleStats.CSV_HEADER.split(',').size, tap.toCsvRow().split(',').size)
+        ScreenSettleStats.clear()
+    }
+    
+    @Test
+    fun `PerceptualHash 相同画面哈希一致`() {
+        val w = PerceptualHash.SAMPLE_WIDTH
+        val h = PerceptualHash.SAMPLE_HEIGHT
+        // 左暗右亮的渐变
+        val gradient = IntArray(w * h) { i -> val v = (i % w) * 255 / w; (0xff shl 24) or (v shl 16) or (v shl 8) or v }
+        val flipped = IntArray(w * h) { i -> gradient[i - i % w + (w - 1 - i % w)] }
+
+        assertEquals(PerceptualHash.dHash(gradient), PerceptualHash.dHash(gradient.copyOf()))
+        assertTrue(PerceptualHash.distance(PerceptualHash.dHash(gradient), PerceptualHash.dHash(flipped)) > 32)
+    }
+    
+    @Test
+    fun `ScreenshotEncodePolicy 超预算逐档降级并记住参数`() {
+        ScreenshotEncodeProfiles.clear()
+        val policy = ScreenshotEncodePolicy(maxBytes = 100 * 1024, maxQuality = 85, maxScalePercent = 75)
+        val key = ScreenshotEncodePolicy.profileKey(1080, 2400, "com.tencent.mm")
+
+        val first = policy.initial(key)
+        assertEquals(85, first.quality)
+        assertEquals(75, first.scalePercent)
+
+        // 严重超标时一次降两档
+        val second = policy.next(first, 200 * 1024)!!
+        assertEquals(65, second.quality)
+        // 已在预算内则停止
+        assertNull(policy.next(second, 90 * 1024))
+
+        policy.remember(key, second, 90 * 1024)
+        assertEquals(second, policy.initial(key))
+        ScreenshotEncodeProfiles.clear()
+    }
+    
+    @Test
+    fun `UiTreeDiff 按稳定标识区分新增移除和变化`() {
+        fun item(key: String, line: String) = UiTreeCompressor.Item(key, line, score = 1)
+        val previous = listOf(
+            item("Button|ok|[0,0][10,10]", "<node text=\"确定\"/>"),
+            item("TextView||[0,20][10,30]", "<node text=\"1\"/>"),
+            item("TextView||[0,40][10,50]", "<node text=\"旧\"/>"),
+        )
+        val current = listOf(
+            item("Button|ok|[0,0][10,10]", "<node text=\"确定\"/>"),
+            item("TextView||[0,20][10,30]", "<node text=\"2\"/>"),
+            item("EditText|input|[0,60][10,70]", "<node editable=\"true\"/>"),
+        )
+
+        val delta = UiTreeDiff.diff(previous, current)
+        assertEquals(listOf("<node editable=\"true\"/>"), delta.added.map { it.line })
+        assertEquals(listOf("<node text=\"旧\"/>"), delta.removed.map { it.line })
+        assertEquals(listOf("<node text=\"2\"/>"), delta.changed.map { it.line })
+        assertTrue(UiTreeDiff.diff(current, current).isEmpty)
+    }
+    
+    @Test
+    fun `StepMetrics 汇总平均值并忽略缺失的首token时间`() {
+        fun metrics(step: Int, modelMs: Long, ttftMs: Long) = StepMetrics(
+            step = step, captureMs = 100, uiDumpMs = 40, uiNodes = 300,
+            promptBytes = 50_000, promptTokens = 2000, ttftMs = ttftMs,
+            modelMs = modelMs, parseMs = 2, executeMs = 300, settleMs = 500,
+            totalMs = 1000 + modelMs, action = "Tap",
+        )
+        val summary = StepMetrics.summarize(listOf(metrics(1, 3000, 800), metrics(2, 5000, -1)))!!
+        assertEquals(2, summary.steps)
+        assertEquals(4000L, summary.avgModelMs)
+        assertEquals(800L, summary.avgTtftMs)
+        assertNull(StepMetrics.summarize(emptyList()))
+
+        val columns = StepMetrics.CSV_HEADER.split(',').size
+        assertEquals(columns, metrics(1, 3000, 800).toCsvRow().split(',').size)
+    }
+    
+    // ========== 网络层测试 ==========
+
+    @Test
+    fun `ChatRequestBody 图片 Base64 与 JDK 编码一致`() {
+        val sizes = (0..7) + (3071..3075) + (6143..6147)
+        for (size in sizes) {
+            val bytes = ByteArray(size) { (it * 31 + 7).toByte() }
+            val request = ChatRequest(
+                model = "m",
+                messages = listOf(ChatRequestMessage("user", listOf(ChatImagePart(bytes)))),
+            )
+            val body = ChatRequestBody(request)
+            val buffer = okio.Buffer()
+            body.writeTo(buffer)
+            assertEquals("size=$size", body.contentLength(), buffer.size)
+
+            val json = buffer.readUtf8()
+            val start = json.indexOf(";base64,") + ";base64,".length
+            val end = json.indexOf("\"}}", start)
+            assertEquals("size=$size", java.util.Base64.getEncoder().encodeToString(bytes), json.substring(start, end))
+        }
+    }
+
     // ========== 模板测试 ==========
     
     @Test
@@ -0,0 +1,243 @@
+package com.ai.phoneagent.core.benchmark
+
+import com.ai.phoneagent.UiAutomationAgent
+import com.ai.phoneagent.core.agent.StepMetrics
+import com.ai.phoneagent.core.agent.StepTraceWriter
+import com.ai.phoneagent.core.config.AgentConfiguration
+import com.ai.phoneagent.net.AutoGlmClient
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.io.File
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Agent 主循环离线基准：假设备回放录制界面 + 本地模型桩，无需真机即可在 CI 中运行
+ *
+ * 断言任务结果、动作序列和发给模型的截图；各阶段耗时（[UiAutomationAgent.lastRunMetrics]）的汇总输出到测试日志，
+ * 逐步明细写入 app/build/agent-loop-benchmark/ 下的追踪文件，供 CI 归档对比。
+ * 不对墙钟时间设上限（CI 机器快慢不一），耗时对比交给 JMH 基准。
+ */
+class AgentLoopBenchmarkTest {
+
+    private lateinit var model: ModelStubServer
+    private var previousBaseUrl = AutoGlmClient.baseUrl
+
+    @Before
+    fun setUp() {
+        model = ModelStubServer().apply { start() }
+        previousBaseUrl = AutoGlmClient.baseUrl
+        AutoGlmClient.baseUrl = model.baseUrl
+    }
+
+    @After
+    fun tearDown() {
+        AutoGlmClient.baseUrl = previousBaseUrl
+        model.close()
+    }
+
+    @Test
+    fun `回放三步任务并记录各阶段耗时`() = runBlocking {
+        val device = FakeDeviceController(
+            screens = recordedSettingsScreens(),
+            captureLatencyMs = 20L,
+            uiDumpLatencyMs = 15L,
+            settleLatencyMs = 30L,
+        )
+        model.enqueueReply(
+            thinking = "当前在设置首页，需要点击搜索框",
+            answer = "do(action=\"Tap\", element=[500,80])",
+            ttftMs = 40L,
+        )
+        model.enqueueReply(
+            thinking = "搜索结果中有 WLAN，向上滑动查看更多",
+            answer = "do(action=\"Swipe\", start=[500,800], end=[500,300])",
+            ttftMs = 40L,
+        )
+        model.enqueueReply(
+            thinking = "已找到 WLAN 设置项，任务完成",
+            answer = "finish(message=\"已找到 WLAN\")",
+            ttftMs = 40L,
+        )
+
+        val agent = UiAutomationAgent(BENCHMARK_CONFIG)
+        val logs = ArrayList<String>()
+        val result = agent.run(
+            apiKey = "stub-key",
+            model = AutoGlmClient.PHONE_MODEL,
+            task = "在设置里搜索 WLAN",
+            device = device,
+        ) { logs += it }
+
+        assertTrue("任务应成功：${result.message}\n${logs.joinToString("\n")}", result.success)
+        assertEquals(3, result.steps)
+        assertEquals(3, model.requestCount)
+        assertEquals(listOf("click(540,192)", "swipe(540,1920->540,720)"), device.actions)
+
+        // 每步都带着录制的截图（各屏不同，不会被省略）
+        repeat(3) { i ->
+            val body = model.takeRequest()!!.body.readUtf8()
+            assertTrue("第 ${i + 1} 步请求应包含截图", body.contains("data:image/jpeg;base64,"))
+        }
+
+        val metrics = agent.lastRunMetrics
+        assertEquals(3, metrics.size)
+        metrics.forEach { m ->
+            assertTrue("首 token 时间应被记录：$m", m.ttftMs >= 0)
+            assertTrue(m.promptTokens > 0)
+            assertTrue("截图字节应计入提示词大小：$m", m.promptBytes >= SCREENSHOT_BYTES)
+            assertTrue(m.totalMs >= m.modelMs)
+        }
+        val summary = StepMetrics.summarize(metrics)
+        assertNotNull(summary)
+        reportMetrics("在设置里搜索 WLAN", metrics, summary!!)
+    }
+
+    @Test
+    fun `界面稳定期间内容变化时重新读取界面`() = runBlocking {
+        val (secondRequest, logs) = runSpinnerTask(BENCHMARK_CONFIG)
+        assertTrue("第二步应看到稳定后的界面", secondRequest.contains("FontSizeLarge"))
+        assertTrue("第二步请求应包含截图", secondRequest.contains("data:image/jpeg;base64,"))
+        assertTrue(logs.any { it.contains("界面已变化") })
+    }
+
+    @Test
+    fun `预取作废后重新读取界面不受截图节流限制`() = runBlocking {
+        // 默认节流间隔远大于一次稳定等待，重新采集必须绕过节流才能带上截图
+        val config = AgentConfiguration.DEFAULT.copy(modelRetryBaseDelayMs = 0L)
+        val (secondRequest, logs) = runSpinnerTask(config)
+        assertTrue(logs.any { it.contains("界面已变化") })
+        assertTrue("第二步应看到稳定后的界面", secondRequest.contains("FontSizeLarge"))
+        assertTrue("重新读取的界面应带着截图", secondRequest.contains("data:image/jpeg;base64,"))
+    }
+
+    @Test
+    fun `停止任务时立即中断正在读取的模型流`() = runBlocking {
+        val device = FakeDeviceController(screens = recordedSettingsScreens())
+        // 逐块慢速推送，完整读完需要二十多秒
+        model.enqueueReply(
+            thinking = "慢".repeat(400),
+            answer = "finish(message=\"完成\")",
+            chunkChars = 4,
+            chunkDelayMs = 200L,
+        )
+        val job = launch(Dispatchers.Default) {
+            UiAutomationAgent(BENCHMARK_CONFIG).run(
+                apiKey = "stub-key",
+                model = AutoGlmClient.PHONE_MODEL,
+                task = "在设置里搜索 WLAN",
+                device = device,
+            ) {}
+        }
+        assertNotNull("应已发出模型请求", model.takeRequest(timeoutMs = 5000L))
+        // 等流式读取开始
+        delay(500L)
+
+        val cancelStart = System.nanoTime()
+        job.cancelAndJoin()
+        val cancelMs = (System.nanoTime() - cancelStart) / 1_000_000
+        assertTrue("取消后应立即中断模型请求，实际等待 ${cancelMs}ms", cancelMs < 2000L)
+    }
+
+    /**
+     * 点击后下拉框在界面稳定期间才展开（窗口不切换），预取的观测会作废
+     * @return 第二步发给模型的请求体与运行日志
+     */
+    private suspend fun runSpinnerTask(config: AgentConfiguration): Pair<String, List<String>> {
+        val pkg = "com.android.settings"
+        val spinner = "<node class=\"Spinner\" text=\"字体大小\" resource-id=\"font_size\" bounds=\"[0,300][1080,420]\" clickable=\"true\"/>"
+        val collapsed = FakeDeviceController.screen(pkg, "DisplaySettings", listOf(spinner), screenshotId = 2L)
+        val expanded = FakeDeviceController.screen(
+            pkg, "DisplaySettings",
+            listOf(spinner, "<node class=\"CheckedTextView\" text=\"FontSizeLarge\" bounds=\"[0,420][1080,540]\" clickable=\"true\"/>"),
+            screenshotId = 3L,
+        )
+        val device = FakeDeviceController(
+            screens = listOf(recordedSettingsScreens().first(), collapsed.withAfterSettle(expanded)),
+            settleLatencyMs = 30L,
+        )
+        model.enqueueReply(thinking = "打开字体大小下拉框", answer = "do(action=\"Tap\", element=[500,150])")
+        model.enqueueReply(thinking = "下拉框已展开", answer = "finish(message=\"已展开\")")
+
+        val logs = ArrayList<String>()
+        val result = UiAutomationAgent(config).run(
+            apiKey = "stub-key",
+            model = AutoGlmClient.PHONE_MODEL,
+            task = "打开字体大小选项",
+            device = device,
+        ) { logs += it }
+
+        assertTrue("任务应成功：${result.message}\n${logs.joinToString("\n")}", result.success)
+        assertNotNull(model.takeRequest())
+        return model.takeRequest()!!.body.readUtf8() to logs
+    }
+
+    /** 录制的设置应用三屏：首页 → 搜索页 → 滑动后的结果列表 */
+    private fun recordedSettingsScreens(): List<FakeDeviceController.Screen> {
+        val pkg = "com.android.settings"
+        return listOf(
+            FakeDeviceController.screen(
+                pkg, "Settings",
+                listOf(
+                    "<node class=\"TextView\" text=\"搜索设置\" resource-id=\"search_action_bar\" bounds=\"[40,150][1040,240]\" clickable=\"true\"/>",
+                    "<node class=\"TextView\" text=\"网络和互联网\" bounds=\"[0,300][1080,420]\" clickable=\"true\"/>",
+                    "<node class=\"TextView\" text=\"已连接的设备\" bounds=\"[0,420][1080,540]\" clickable=\"true\"/>",
+                    "<node class=\"TextView\" text=\"应用\" bounds=\"[0,540][1080,660]\" clickable=\"true\"/>",
+                ),
+                screenshotId = 1L,
+            ),
+            FakeDeviceController.screen(
+                pkg, "SearchActivity",
+                listOf(
+                    "<node class=\"EditText\" text=\"WLAN\" resource-id=\"search_src_text\" bounds=\"[40,150][1040,240]\" editable=\"true\" focused=\"true\"/>",
+                    "<item text=\"WLAN | 网络和互联网\" bounds=\"[0,300][1080,420]\"/>",
+                    "<item text=\"WLAN 热点 | 网络和互联网\" bounds=\"[0,420][1080,540]\"/>",
+                ),
+                screenshotId = 2L,
+            ),
+            FakeDeviceController.screen(
+                pkg, "SearchActivity",
+                listOf(
+                    "<node class=\"EditText\" text=\"WLAN\" resource-id=\"search_src_text\" bounds=\"[40,150][1040,240]\" editable=\"true\"/>",
+                    "<item text=\"WLAN 偏好设置 | 网络和互联网\" bounds=\"[0,300][1080,420]\"/>",
+                    "<item text=\"WLAN 直连 | 网络和互联网\" bounds=\"[0,420][1080,540]\"/>",
+                ),
+                screenshotId = 3L,
+            ),
+        )
+    }
+
+    /** 汇总打印到测试日志，逐步明细写入 build 目录下的追踪文件 */
+    private fun reportMetrics(task: String, metrics: List<StepMetrics>, summary: StepMetrics.Summary) {
+        val trace = StepTraceWriter(File(TRACE_DIR))
+        try {
+            trace.open(task)
+            metrics.forEach(trace::append)
+        } finally {
+            trace.close()
+        }
+        println("[AgentLoopBenchmark] ${summary.format()}")
+        println("[AgentLoopBenchmark] 逐步耗时：${trace.file?.absolutePath}")
+    }
+
+    companion object {
+        /** 假设备每屏截图的字节数（[FakeDeviceController.screen] 的默认值） */
+        private const val SCREENSHOT_BYTES = 48 * 1024
+
+        /** 基准配置：关闭节流与固定等待，只保留假设备模拟的耗时 */
+        private val BENCHMARK_CONFIG = AgentConfiguration.DEFAULT.copy(
+            screenshotThrottleMinIntervalMs = 0L,
+            modelRetryBaseDelayMs = 0L,
+        )
+
+        /** 追踪文件目录；Gradle 运行单元测试时工作目录为模块目录，即 app/build/agent-loop-benchmark */
+        private const val TRACE_DIR = "build/agent-loop-benchmark"
+    }
+}
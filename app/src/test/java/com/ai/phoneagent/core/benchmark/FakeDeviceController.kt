@@ -0,0 +1,228 @@
+package com.ai.phoneagent.core.benchmark
+
+import com.ai.phoneagent.PhoneAgentAccessibilityService
+import com.ai.phoneagent.core.cache.ScreenshotEncodePolicy
+import com.ai.phoneagent.core.cache.UiTreeCompressor
+import com.ai.phoneagent.core.config.AgentConfiguration
+import com.ai.phoneagent.core.platform.DeviceController
+import kotlinx.coroutines.delay
+
+/**
+ * 回放录制界面的假设备
+ *
+ * 按顺序回放 [screens]：每个会改变界面的动作（点击、滑动、输入、返回、启动应用）前进到下一屏，
+ * 最后一屏保持不变。屏幕带有 [Screen.afterSettle] 时，界面稳定等待结束前内容变为该屏（模拟下拉展开、列表加载）。截图/UI 树/事件等待的耗时可配置，用于模拟真机的采集开销。
+ * 执行过的动作记录在 [actions] 中，供测试断言。
+ */
+class FakeDeviceController(
+    private val screens: List<Screen>,
+    private val screenSize: Pair<Int, Int> = 1080 to 2400,
+    /** 每次截图耗时 */
+    private val captureLatencyMs: Long = 0L,
+    /** 每次获取 UI 树耗时 */
+    private val uiDumpLatencyMs: Long = 0L,
+    /** 动作后到窗口事件到达的耗时 */
+    private val eventLatencyMs: Long = 0L,
+    /** 动作后界面稳定所需时间 */
+    private val settleLatencyMs: Long = 0L,
+) : DeviceController {
+
+    /**
+     * 一屏录制数据
+     * @param uiTree 压缩后的 UI 树（compressUiTree 模式下返回）
+     * @param uiXml 原始 UI 树 XML（非压缩模式下返回）
+     * @param afterSettle 进入本屏后、界面稳定前内容变成的屏幕
+     */
+    class Screen(
+        val packageName: String,
+        val uiTree: UiTreeCompressor.Result,
+        val uiXml: String = uiTree.render(),
+        val screenshot: PhoneAgentAccessibilityService.ScreenshotData? = null,
+        val afterSettle: Screen? = null,
+    ) {
+        fun withAfterSettle(next: Screen): Screen = Screen(packageName, uiTree, uiXml, screenshot, next)
+    }
+
+    private val lock = Any()
+    private var index = 0
+    private var clock = 1L
+    private var lastEventTime = clock
+    private var lastStateChangeTime = clock
+    // 界面稳定期间内容变化后显示的屏幕，下一个动作时清除
+    private var settledScreen: Screen? = null
+    private val performed = ArrayList<String>()
+
+    /** 已执行的动作（按顺序） */
+    val actions: List<String>
+        get() = synchronized(lock) { performed.toList() }
+
+    /** 当前回放到的界面下标 */
+    val screenIndex: Int
+        get() = synchronized(lock) { index }
+
+    private fun current(): Screen = synchronized(lock) { settledScreen ?: screens[index] }
+
+    /** 记录动作；changesScreen 为 true 时前进到下一屏并产生窗口事件 */
+    private fun perform(action: String, changesScreen: Boolean = true) {
+        synchronized(lock) {
+            performed += action
+            settledScreen = null
+            clock++
+            lastEventTime = clock
+            if (changesScreen && index < screens.lastIndex) {
+                index++
+                lastStateChangeTime = clock
+            }
+        }
+    }
+
+    /** 回放录制数据，UI 树与截图不受配置影响 */
+    override fun applyConfiguration(config: AgentConfiguration) = Unit
+
+    override fun getCurrentAppPackage(): String = current().packageName
+
+    override fun getScreenSize(): Pair<Int, Int> = screenSize
+
+    override suspend fun tryCaptureScreenshot(
+        reuseEncoded: ((Long) -> PhoneAgentAccessibilityService.ScreenshotData?)?,
+        encodePolicy: ScreenshotEncodePolicy?
+    ): PhoneAgentAccessibilityService.ScreenshotData? {
+        if (captureLatencyMs > 0) delay(captureLatencyMs)
+        val shot = current().screenshot ?: return null
+        return reuseEncoded?.invoke(shot.contentHash) ?: shot
+    }
+
+    override fun dumpUiTree(maxNodes: Int, detail: String): String = current().uiXml
+
+    override suspend fun dumpUiTreeWithRetry(maxNodes: Int): String {
+        if (uiDumpLatencyMs > 0) delay(uiDumpLatencyMs)
+        return current().uiXml
+    }
+
+    override suspend fun compressUiTreeWithRetry(maxTokens: Int): UiTreeCompressor.Result? {
+        if (uiDumpLatencyMs > 0) delay(uiDumpLatencyMs)
+        return current().uiTree
+    }
+
+    override suspend fun click(x: Float, y: Float, durationMs: Long): Boolean {
+        perform("click(${x.toInt()},${y.toInt()})")
+        return true
+    }
+
+    override suspend fun swipe(
+        startX: Float, startY: Float,
+        endX: Float, endY: Float,
+        durationMs: Long
+    ): Boolean {
+        perform("swipe(${startX.toInt()},${startY.toInt()}->${endX.toInt()},${endY.toInt()})")
+        return true
+    }
+
+    override fun setTextOnFocused(text: String): Boolean {
+        perform("type($text)")
+        return true
+    }
+
+    override suspend fun setTextOnElement(
+        text: String,
+        resourceId: String?,
+        elementText: String?,
+        contentDesc: String?,
+        className: String?,
+        index: Int
+    ): Boolean {
+        perform("type($text)")
+        return true
+    }
+
+    override suspend fun clickElement(
+        resourceId: String?,
+        text: String?,
+        contentDesc: String?,
+        className: String?,
+        index: Int
+    ): Boolean {
+        perform("clickElement(${resourceId ?: text ?: contentDesc ?: className})")
+        return true
+    }
+
+    override suspend fun clickFirstEditableElement(): Boolean {
+        perform("clickEditable", changesScreen = false)
+        return true
+    }
+
+    override fun performGlobalBack(): Boolean {
+        perform("back")
+        return true
+    }
+
+    override fun performGlobalHome(): Boolean {
+        perform("home")
+        return true
+    }
+
+    override fun launchApp(packageName: String): Boolean {
+        perform("launch($packageName)")
+        return true
+    }
+
+    override fun getLastWindowEventTime(): Long = synchronized(lock) { lastEventTime }
+
+    override fun getLastWindowStateChangeTime(): Long = synchronized(lock) { lastStateChangeTime }
+
+    override fun getLastUiChangeTime(): Long = synchronized(lock) { lastEventTime }
+
+    /**
+     * 动作已在调用时同步产生事件，这里只模拟事件到达的延迟
+     */
+    override suspend fun awaitWindowEvent(afterTimeMs: Long, timeoutMs: Long): Boolean {
+        if (eventLatencyMs > 0) delay(minOf(eventLatencyMs, timeoutMs))
+        return true
+    }
+
+    override suspend fun awaitUiIdle(quietMs: Long, maxWaitMs: Long, minWaitMs: Long): Long {
+        val waitMs = minOf(settleLatencyMs, maxWaitMs)
+        if (waitMs > 0) delay(waitMs)
+        // 等待期间界面内容发生变化（不切换窗口）
+        synchronized(lock) {
+            val next = screens[index].afterSettle
+            if (next != null && settledScreen == null) {
+                settledScreen = next
+                clock++
+                lastEventTime = clock
+            }
+        }
+        return waitMs
+    }
+
+    companion object {
+        /**
+         * 构造一屏：按给定的 XML 行生成压缩 UI 树，截图为固定字节（感知哈希与内容指纹取屏幕序号，保证各屏不同）
+         */
+        fun screen(
+            packageName: String,
+            activity: String,
+            lines: List<String>,
+            screenshotId: Long,
+            screenshotBytes: Int = 48 * 1024,
+        ): Screen {
+            val items = lines.mapIndexed { i, line ->
+                UiTreeCompressor.Item(key = "$activity|$i", line = line, score = 10)
+            }
+            val tree = UiTreeCompressor.Result(
+                header = "<ui_hierarchy package=\"$packageName\" activity=\"$activity\">",
+                items = items,
+                omitted = 0,
+                totalNodes = items.size,
+            )
+            val shot = PhoneAgentAccessibilityService.ScreenshotData(
+                width = 1080,
+                height = 2400,
+                imageBytes = ByteArray(screenshotBytes) { (it * 31 + screenshotId).toByte() },
+                perceptualHash = screenshotId * 0x0F0F0F0F0F0FL,
+                contentHash = screenshotId,
+            )
+            return Screen(packageName, tree, screenshot = shot)
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.ai.phoneagent.core.benchmark
+
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import java.io.Closeable
+import java.util.concurrent.TimeUnit
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+
+/**
+ * 本地 OpenAI 兼容模型桩服务（基于 MockWebServer）
+ *
+ * 按入队顺序回放 chat/completions 的 SSE 流式响应。每条回复可配置首 token 延迟（响应头延迟）
+ * 和逐块推送间隔（按块节流），用于模拟真实模型的 TTFT 与输出速度。
+ * 使用时将 AutoGlmClient.baseUrl 指向 [baseUrl]。
+ */
+class ModelStubServer : Closeable {
+
+    private val server = MockWebServer()
+
+    /** 服务地址（以 / 结尾） */
+    val baseUrl: String
+        get() = server.url("/").toString()
+
+    /** 已收到的请求数 */
+    val requestCount: Int
+        get() = server.requestCount
+
+    fun start() {
+        server.start()
+    }
+
+    /**
+     * 入队一条流式回复
+     * @param thinking 思考内容，放在 <think> 标签中
+     * @param answer 回答（动作）
+     * @param ttftMs 首 token 延迟
+     * @param chunkChars 每个 SSE 块的字符数
+     * @param chunkDelayMs 相邻两块的间隔
+     */
+    fun enqueueReply(
+        thinking: String,
+        answer: String,
+        ttftMs: Long = 0L,
+        chunkChars: Int = 8,
+        chunkDelayMs: Long = 0L,
+    ) {
+        val content = "<think>$thinking</think>\n<answer>$answer</answer>"
+        val events = content.chunked(chunkChars.coerceAtLeast(1)).map { sseEvent(it) }
+        val body = events.joinToString(separator = "") + "data: [DONE]\n\n"
+        val response = MockResponse()
+            .setHeader("Content-Type", "text/event-stream")
+            .setBody(body)
+            .setHeadersDelay(ttftMs, TimeUnit.MILLISECONDS)
+        if (chunkDelayMs > 0) {
+            // 按单个事件的字节数节流，近似逐块推送
+            val bytesPerChunk = body.toByteArray().size.toLong() / (events.size + 1)
+            response.throttleBody(bytesPerChunk.coerceAtLeast(1L), chunkDelayMs, TimeUnit.MILLISECONDS)
+        }
+        server.enqueue(response)
+    }
+
+    /** 入队一个错误响应（用于测试重试路径） */
+    fun enqueueError(code: Int, body: String = "{\"error\":\"stub\"}") {
+        server.enqueue(MockResponse().setResponseCode(code).setBody(body))
+    }
+
+    /** 取出下一条已收到的请求，超时返回 null */
+    fun takeRequest(timeoutMs: Long = 1000L): RecordedRequest? =
+        server.takeRequest(timeoutMs, TimeUnit.MILLISECONDS)
+
+    override fun close() {
+        server.shutdown()
+    }
+
+    private fun sseEvent(content: String): String {
+        val delta = JsonObject().apply { addProperty("content", content) }
+        val choice = JsonObject().apply {
+            addProperty("index", 0)
+            add("delta", delta)
+        }
+        val obj = JsonObject().apply {
+            add("choices", JsonArray().apply { add(choice) })
+        }
+        return "data: $obj\n\n"
+    }
+}
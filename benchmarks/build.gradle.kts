@@ -0,0 +1,153 @@
+import groovy.json.JsonSlurper
+
+plugins {
+    alias(libs.plugins.kotlin.jvm)
+    alias(libs.plugins.jmh)
+}
+
+// 直接编译 app 中的源文件（解析器、估算器、请求模型、UI 树序列化、Markdown 渲染），
+// 与 app 共用同一份代码，避免复制后基准与实际实现脱节。
+// UI 树与 Markdown 用到的少量 android.* 类型由 src/main/kotlin/android 下的纯 JVM 替身提供。
+val appSources = rootProject.file("app/src/main/java")
+
+sourceSets {
+    main {
+        kotlin {
+            srcDir(appSources)
+            // include 作用于所有源目录，本模块自带的替身也必须列出，否则会被一并过滤掉
+            include(
+                // 本模块自带的 android.* 替身、BuildConfig 替身与 UI 树构造工具
+                "android/**",
+                "com/ai/phoneagent/BuildConfig.kt",
+                "com/ai/phoneagent/core/cache/UiTreeFixtures.kt",
+                "com/ai/phoneagent/core/agent/AgentModels.kt",
+                "com/ai/phoneagent/core/cache/UiTreeNode.kt",
+                "com/ai/phoneagent/core/cache/UiTreeSerializer.kt",
+                "com/ai/phoneagent/core/parser/ActionParser.kt",
+                "com/ai/phoneagent/core/parser/ActionSyntax.kt",
+                "com/ai/phoneagent/core/utils/ActionUtils.kt",
+                "com/ai/phoneagent/helper/AriesStreamParser.kt",
+                "com/ai/phoneagent/helper/IncrementalMarkdownRenderer.kt",
+                "com/ai/phoneagent/helper/SimpleMarkdownRenderer.kt",
+                "com/ai/phoneagent/helper/TagMatcher.kt",
+                "com/ai/phoneagent/net/*.kt",
+            )
+        }
+    }
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+kotlin {
+    compilerOptions {
+        jvmTarget.set(org.jetbrains.kotlin.gradle.dsl.JvmTarget.JVM_11)
+    }
+}
+
+dependencies {
+    implementation("org.jetbrains.kotlinx:kotlinx-coroutines-core:1.8.1")
+    implementation("com.squareup.okhttp3:okhttp:4.12.0")
+    implementation("com.squareup.okhttp3:logging-interceptor:4.12.0")
+    implementation("com.squareup.retrofit2:retrofit:2.11.0")
+    implementation("com.squareup.retrofit2:converter-gson:2.11.0")
+    implementation("com.google.code.gson:gson:2.10.1")
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh.get())
+    // 可用 -PjmhInclude=ActionParser 只运行部分基准
+    (findProperty("jmhInclude") as String?)?.let { includes.set(listOf(it)) }
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+}
+
+/**
+ * 回归门禁：将本次结果与 jmh-baseline.json 对比，任一基准平均耗时变慢超过容差即失败。
+ * 基线文件不存在、或本次结果中有基线未记录的基准时同样失败，需显式更新基线。
+ * check 会先确认基线存在（jmhBaselineCheck，缺基线时立即失败，不必先跑完全部基准），再运行 jmh 与本门禁。
+ *
+ *   ./gradlew :benchmarks:jmh :benchmarks:jmhRegressionCheck
+ *   ./gradlew :benchmarks:jmhRegressionCheck -PjmhUpdateBaseline   # 用本次结果更新基线（在基准机器上运行）
+ *   -PjmhTolerance=0.2                                            # 容差，默认 15%
+ */
+val jmhRegressionCheck by tasks.registering {
+    group = "verification"
+    description = "Compares JMH results against the committed baseline."
+    val resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+    val baselineFile = layout.projectDirectory.file("jmh-baseline.json")
+    val tolerance = (findProperty("jmhTolerance") as String?)?.toDouble() ?: 0.15
+    val updateBaseline = hasProperty("jmhUpdateBaseline")
+    mustRunAfter(tasks.named("jmh"))
+    doLast {
+        val results = resultsFile.get().asFile
+        check(results.exists()) { "No JMH results at $results, run :benchmarks:jmh first" }
+        val baseline = baselineFile.asFile
+        if (updateBaseline) {
+            results.copyTo(baseline, overwrite = true)
+            logger.lifecycle("JMH baseline written to $baseline")
+            return@doLast
+        }
+        if (!baseline.exists()) {
+            throw GradleException("No JMH baseline at $baseline, rerun with -PjmhUpdateBaseline to record one")
+        }
+
+        fun scores(file: File): Map<String, Double> {
+            @Suppress("UNCHECKED_CAST")
+            val runs = JsonSlurper().parse(file) as List<Map<String, Any?>>
+            return runs.associate { run ->
+                val params = (run["params"] as Map<*, *>?)?.entries
+                    ?.joinToString(",", "(", ")") { "${it.key}=${it.value}" }
+                    .orEmpty()
+                val primary = run["primaryMetric"] as Map<*, *>
+                "${run["benchmark"]}$params" to (primary["score"] as Number).toDouble()
+            }
+        }
+
+        val current = scores(results)
+        val previous = scores(baseline)
+        val missing = current.keys - previous.keys
+        if (missing.isNotEmpty()) {
+            throw GradleException(
+                "No JMH baseline for ${missing.joinToString()}, rerun with -PjmhUpdateBaseline to record one"
+            )
+        }
+        val regressions = current.mapNotNull { (name, score) ->
+            val base = previous.getValue(name)
+            val ratio = score / base
+            logger.lifecycle(String.format("%-90s %12.3f -> %12.3f (%+.1f%%)", name, base, score, (ratio - 1) * 100))
+            if (ratio > 1 + tolerance) name else null
+        }
+        if (regressions.isNotEmpty()) {
+            throw GradleException("JMH regressions over ${(tolerance * 100).toInt()}%: ${regressions.joinToString()}")
+        }
+    }
+}
+
+/** 门禁前置检查：没有录制基线时直接失败并说明如何录制 */
+val jmhBaselineCheck by tasks.registering {
+    group = "verification"
+    description = "Fails when no JMH baseline has been recorded."
+    val baselineFile = layout.projectDirectory.file("jmh-baseline.json")
+    val updateBaseline = hasProperty("jmhUpdateBaseline")
+    doLast {
+        val baseline = baselineFile.asFile
+        if (!updateBaseline && !baseline.exists()) {
+            throw GradleException(
+                "No JMH baseline recorded at $baseline. On the benchmark machine run " +
+                    "./gradlew :benchmarks:jmh :benchmarks:jmhRegressionCheck -PjmhUpdateBaseline and commit the file."
+            )
+        }
+    }
+}
+
+tasks.named("jmh") { mustRunAfter(jmhBaselineCheck) }
+
+tasks.named("check") {
+    dependsOn(jmhBaselineCheck, tasks.named("jmh"), jmhRegressionCheck)
+}
@@ -0,0 +1,41 @@
+package com.ai.phoneagent.benchmarks
+
+import com.ai.phoneagent.core.parser.ActionParser
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * ActionParser：每次调用解析全部录制回复
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class ActionParserBenchmark {
+
+    private val parser = ActionParser()
+    private lateinit var replies: List<String>
+    private lateinit var answers: List<String>
+
+    @Setup
+    fun setUp() {
+        replies = RecordedInputs.modelReplies
+        answers = RecordedInputs.answers
+    }
+
+    @Benchmark
+    fun parse(bh: Blackhole) {
+        for (answer in answers) bh.consume(parser.parse(answer))
+    }
+
+    @Benchmark
+    fun parseWithThinking(bh: Blackhole) {
+        for (reply in replies) bh.consume(parser.parseWithThinking(reply))
+    }
+}
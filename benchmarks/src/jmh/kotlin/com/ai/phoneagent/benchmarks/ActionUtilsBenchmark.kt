@@ -0,0 +1,70 @@
+package com.ai.phoneagent.benchmarks
+
+import com.ai.phoneagent.core.utils.ActionUtils
+import com.ai.phoneagent.net.ChatImagePart
+import com.ai.phoneagent.net.ChatRequestMessage
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * ActionUtils：动作片段提取、历史 token 估算、UI 树截断
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class ActionUtilsBenchmark {
+
+    /** UI 树截断长度（字符） */
+    @Param("4000", "12000")
+    var maxUiChars: Int = 0
+
+    private lateinit var replies: List<String>
+    private lateinit var history: List<ChatRequestMessage>
+    private lateinit var uiDump: String
+
+    @Setup
+    fun setUp() {
+        replies = RecordedInputs.modelReplies
+        uiDump = RecordedInputs.uiDumpXml
+        history = buildHistory(steps = 8)
+    }
+
+    @Benchmark
+    fun extractFirstActionSnippet(bh: Blackhole) {
+        for (reply in replies) bh.consume(ActionUtils.extractFirstActionSnippet(reply))
+    }
+
+    @Benchmark
+    fun estimateHistoryTokens(): Int = ActionUtils.estimateHistoryTokens(history)
+
+    @Benchmark
+    fun truncateUiTree(): String = ActionUtils.truncateUiTree(uiDump, maxUiChars)
+
+    /**
+     * 与 UiAutomationAgent 相同结构的对话历史：system + 每步（截图 + 文本观测，助手回复）
+     */
+    private fun buildHistory(steps: Int): List<ChatRequestMessage> {
+        val image = ChatImagePart(ByteArray(64 * 1024))
+        val messages = ArrayList<ChatRequestMessage>()
+        messages += ChatRequestMessage(role = "system", content = "你是一个手机操作助手。".repeat(40))
+        for (i in 0 until steps) {
+            val text = "** 屏幕信息 **\n当前应用：com.tencent.mm\n" + uiDump.take(4000)
+            val content: List<Any> = if (i == steps - 1) {
+                listOf(image, mapOf("type" to "text", "text" to text))
+            } else {
+                listOf(mapOf("type" to "text", "text" to text))
+            }
+            messages += ChatRequestMessage(role = "user", content = content)
+            messages += ChatRequestMessage(role = "assistant", content = replies[i % replies.size])
+        }
+        return messages
+    }
+}
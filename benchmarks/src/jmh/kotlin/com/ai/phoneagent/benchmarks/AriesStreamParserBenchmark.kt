@@ -0,0 +1,46 @@
+package com.ai.phoneagent.benchmarks
+
+import com.ai.phoneagent.helper.AriesStreamParser
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * AriesStreamParser：按录制的流式分块逐块喂入，衡量整条回复的增量解析开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class AriesStreamParserBenchmark {
+
+    private val parser = AriesStreamParser()
+    private lateinit var streams: List<List<String>>
+
+    @Setup
+    fun setUp() {
+        streams = RecordedInputs.streamReplies
+    }
+
+    @Benchmark
+    fun processContentDeltas(bh: Blackhole) {
+        for (chunks in streams) {
+            parser.reset()
+            for (chunk in chunks) bh.consume(parser.processContentDelta(chunk))
+        }
+    }
+
+    /** 长回复：全部录制回复拼成一条，放大重复扫描缓冲区的代价 */
+    @Benchmark
+    fun processLongReply(bh: Blackhole) {
+        parser.reset()
+        for (chunks in streams) {
+            for (chunk in chunks) bh.consume(parser.processContentDelta(chunk))
+        }
+    }
+}
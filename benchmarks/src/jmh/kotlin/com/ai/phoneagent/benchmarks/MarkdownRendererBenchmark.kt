@@ -0,0 +1,53 @@
+package com.ai.phoneagent.benchmarks
+
+import com.ai.phoneagent.helper.IncrementalMarkdownRenderer
+import com.ai.phoneagent.helper.SimpleMarkdownRenderer
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * SimpleMarkdownRenderer：整段渲染，以及流式输出时按小块增量渲染
+ *
+ * android.text（SpannableStringBuilder、各类 span）与 android.graphics.Color 都是本模块的纯 JVM 替身，
+ * 不是真实的框架类：结果只反映渲染逻辑（逐行格式、正则、span 数量）的开销，不能当作设备上的渲染耗时。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class MarkdownRendererBenchmark {
+
+    private lateinit var replies: List<String>
+    private lateinit var streams: List<List<String>>
+
+    @Setup
+    fun setUp() {
+        replies = RecordedInputs.markdownReplies
+        streams = replies.map { it.chunked(STREAM_CHUNK_CHARS) }
+    }
+
+    @Benchmark
+    fun render(bh: Blackhole) {
+        for (reply in replies) bh.consume(SimpleMarkdownRenderer.render(reply))
+    }
+
+    @Benchmark
+    fun renderStreaming(bh: Blackhole) {
+        for (chunks in streams) {
+            val renderer = IncrementalMarkdownRenderer()
+            for (chunk in chunks) renderer.append(chunk)
+            bh.consume(renderer.output)
+        }
+    }
+
+    private companion object {
+        /** 流式增量的大小（字符），与模型流式输出每次的典型增量相当 */
+        const val STREAM_CHUNK_CHARS = 8
+    }
+}
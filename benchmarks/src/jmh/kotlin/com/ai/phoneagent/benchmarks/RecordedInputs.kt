@@ -0,0 +1,103 @@
+package com.ai.phoneagent.benchmarks
+
+import android.graphics.Rect
+import android.view.accessibility.AccessibilityNodeInfo
+
+/**
+ * 基准输入：src/jmh/resources/recorded 下录制的模型回复、流式分块、Markdown 回复与 UI 树
+ */
+object RecordedInputs {
+
+    /** 完整模型回复（多种格式：think/answer 标签、【思考】标记、无标签） */
+    val modelReplies: List<String> by lazy {
+        read("model_replies.txt").split("\n----\n").map { it.trim() }.filter { it.isNotEmpty() }
+    }
+
+    /** 回复中的回答部分（去掉思考），对应 ActionParser.parse 的实际输入 */
+    val answers: List<String> by lazy {
+        modelReplies.map { reply ->
+            val start = reply.indexOf("<answer>")
+            val end = reply.indexOf("</answer>")
+            when {
+                start >= 0 && end > start -> reply.substring(start + "<answer>".length, end)
+                reply.contains("【思考结束】") -> reply.substringAfter("【思考结束】").trim()
+                else -> reply
+            }
+        }
+    }
+
+    /** 流式回复的 content 增量，每条回复一个分块列表 */
+    val streamReplies: List<List<String>> by lazy {
+        val replies = ArrayList<List<String>>()
+        var current = ArrayList<String>()
+        for (line in read("aries_stream.txt").split('\n')) {
+            if (line.isEmpty()) {
+                if (current.isNotEmpty()) replies += current
+                current = ArrayList()
+            } else {
+                current += line.replace("\\n", "\n").replace("\\\\", "\\")
+            }
+        }
+        if (current.isNotEmpty()) replies += current
+        replies
+    }
+
+    /** 录制的 UI 树（XML，约 140 个节点） */
+    val uiDumpXml: String by lazy { read("ui_dump.xml") }
+
+    /** 录制的 UI 树还原成的无障碍节点树（替身），供序列化基准使用 */
+    val uiTreeRoot: AccessibilityNodeInfo by lazy { parseUiDump(uiDumpXml) }
+
+    /** 聊天界面的 Markdown 回复（标题、列表、行内格式、代码块） */
+    val markdownReplies: List<String> by lazy {
+        read("markdown_replies.md").split("\n----\n").map { it.trim() }.filter { it.isNotEmpty() }
+    }
+
+    /**
+     * 按行解析录制的 UI 树：每行一个 <node>，以 /> 结尾的没有子节点，</node> 闭合上一层。
+     * 旧版序列化器没有转义属性中的引号，属性值取到后面紧跟空白或标签结尾的引号为止。
+     */
+    private fun parseUiDump(xml: String): AccessibilityNodeInfo {
+        val attrRegex = Regex("([a-z_-]+)=\"(.*?)\"(?=\\s|/?>)")
+        val boundsRegex = Regex("\\[(-?\\d+),(-?\\d+)]\\[(-?\\d+),(-?\\d+)]")
+        var packageName: String? = null
+        var root: AccessibilityNodeInfo? = null
+        val stack = ArrayList<AccessibilityNodeInfo>()
+        for (raw in xml.lineSequence()) {
+            val line = raw.trim()
+            when {
+                line.startsWith("<ui_hierarchy") ->
+                    packageName = attrRegex.findAll(line).firstOrNull { it.groupValues[1] == "package" }?.groupValues?.get(2)
+                line.startsWith("<node") -> {
+                    val node = AccessibilityNodeInfo()
+                    node.packageName = packageName
+                    for (m in attrRegex.findAll(line)) {
+                        val value = m.groupValues[2]
+                        when (m.groupValues[1]) {
+                            "class" -> node.className = value
+                            "text" -> node.text = value
+                            "content-desc" -> node.contentDescription = value
+                            "resource-id" -> node.viewIdResourceName = value
+                            "clickable" -> node.isClickable = value == "true"
+                            "scrollable" -> node.isScrollable = value == "true"
+                            "bounds" -> boundsRegex.find(value)?.groupValues?.let { g ->
+                                node.setBoundsInScreen(Rect(g[1].toInt(), g[2].toInt(), g[3].toInt(), g[4].toInt()))
+                            }
+                        }
+                    }
+                    val parent = stack.lastOrNull()
+                    if (parent == null) root = node else parent.addChild(node)
+                    if (!line.endsWith("/>")) stack += node
+                }
+                line == "</node>" -> stack.removeAt(stack.lastIndex)
+            }
+        }
+        return root ?: error("Empty UI dump")
+    }
+
+    private fun read(name: String): String {
+        val stream = RecordedInputs::class.java.getResourceAsStream("/recorded/$name")
+            ?: error("Missing benchmark input: recorded/$name")
+        return stream.bufferedReader(Charsets.UTF_8).use { it.readText() }
+    }
+}
@@ -0,0 +1,47 @@
+package com.ai.phoneagent.benchmarks
+
+import com.ai.phoneagent.core.cache.UiTreeFixtures
+import com.ai.phoneagent.core.cache.UiTreeNode
+import com.ai.phoneagent.core.cache.UiTreeSerializer
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/**
+ * UiTreeSerializer：把录制的 UI 树（约 140 个节点）从内存模型序列化为 XML/JSON
+ *
+ * 节点背后的 AccessibilityNodeInfo 与 android.graphics.Rect 是本模块的纯 JVM 替身，不是真实的框架类：
+ * 结果只反映序列化本身的开销，不含设备上读取节点属性（Binder 调用）的耗时，不能当作设备上的 dump 耗时。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class UiTreeSerializerBenchmark {
+
+    @Param("XML", "JSON")
+    var format: UiTreeSerializer.Format = UiTreeSerializer.Format.XML
+
+    @Param("MINIMAL", "FULL")
+    var detail: UiTreeSerializer.Detail = UiTreeSerializer.Detail.MINIMAL
+
+    /** 节点上限：30 为 AgentConfiguration.uiTreeMaxNodes 默认值，300 时录制的树完整输出 */
+    @Param("30", "300")
+    var maxNodes: Int = 0
+
+    private val serializer = UiTreeSerializer()
+    private lateinit var root: UiTreeNode
+
+    @Setup
+    fun setUp() {
+        root = UiTreeFixtures.build(RecordedInputs.uiTreeRoot)
+    }
+
+    @Benchmark
+    fun serialize(): String? = serializer.serialize(root, format, detail, maxNodes)
+}
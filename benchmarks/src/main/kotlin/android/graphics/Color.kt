@@ -0,0 +1,16 @@
+package android.graphics
+
+/**
+ * android.graphics.Color 的替身：Markdown 渲染只用到 parseColor
+ */
+object Color {
+    /** 解析 #RRGGBB / #AARRGGBB */
+    fun parseColor(colorString: String): Int {
+        if (colorString.length != 7 && colorString.length != 9 || colorString[0] != '#') {
+            throw IllegalArgumentException("Unknown color")
+        }
+        var color = colorString.substring(1).toLong(16)
+        if (colorString.length == 7) color = color or 0xFF000000L
+        return color.toInt()
+    }
+}
@@ -0,0 +1,24 @@
+package android.graphics
+
+/**
+ * android.graphics.Rect 的替身：只保留 UI 树模型与序列化用到的坐标字段
+ */
+class Rect(
+    @JvmField var left: Int = 0,
+    @JvmField var top: Int = 0,
+    @JvmField var right: Int = 0,
+    @JvmField var bottom: Int = 0,
+) {
+    fun set(left: Int, top: Int, right: Int, bottom: Int) {
+        this.left = left
+        this.top = top
+        this.right = right
+        this.bottom = bottom
+    }
+
+    fun set(src: Rect) = set(src.left, src.top, src.right, src.bottom)
+
+    fun width(): Int = right - left
+
+    fun height(): Int = bottom - top
+}
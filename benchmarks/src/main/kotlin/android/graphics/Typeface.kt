@@ -0,0 +1,10 @@
+package android.graphics
+
+/**
+ * android.graphics.Typeface 的替身：只保留样式常量
+ */
+object Typeface {
+    const val NORMAL = 0
+    const val BOLD = 1
+    const val ITALIC = 2
+}
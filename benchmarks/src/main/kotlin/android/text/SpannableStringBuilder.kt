@@ -0,0 +1,86 @@
+package android.text
+
+/**
+ * android.text 的替身：文本存放在 StringBuilder 中，span 按插入顺序记录在列表里，
+ * 追加/替换时按 Android 的规则平移或丢弃。只实现 Markdown 渲染用到的接口，
+ * 开销与真机上的 SpannableStringBuilder 不同，基准用于对比渲染逻辑本身的变化。
+ */
+interface Spanned : CharSequence {
+    fun getSpanCount(): Int
+
+    companion object {
+        const val SPAN_EXCLUSIVE_EXCLUSIVE = 33
+    }
+}
+
+interface Editable : Spanned {
+    fun append(text: CharSequence): Editable
+    fun replace(st: Int, en: Int, text: CharSequence): Editable
+    fun delete(st: Int, en: Int): Editable
+    fun clear()
+    fun clearSpans()
+}
+
+class SpannableStringBuilder(text: CharSequence = "") : Editable {
+
+    private class Span(val what: Any, var start: Int, var end: Int, val flags: Int)
+
+    private val text = StringBuilder(text)
+    private val spans = ArrayList<Span>()
+
+    override val length: Int get() = text.length
+
+    override fun get(index: Int): Char = text[index]
+
+    override fun subSequence(startIndex: Int, endIndex: Int): CharSequence = text.substring(startIndex, endIndex)
+
+    override fun toString(): String = text.toString()
+
+    override fun getSpanCount(): Int = spans.size
+
+    fun setSpan(what: Any, start: Int, end: Int, flags: Int) {
+        if (start < 0 || end > text.length || start > end) {
+            throw IndexOutOfBoundsException("setSpan ($start ... $end) ends beyond length ${text.length}")
+        }
+        spans.removeAll { it.what === what }
+        spans += Span(what, start, end, flags)
+    }
+
+    override fun append(text: CharSequence): SpannableStringBuilder = replace(length, length, text)
+
+    override fun replace(st: Int, en: Int, text: CharSequence): SpannableStringBuilder {
+        val delta = text.length - (en - st)
+        this.text.replace(st, en, text.toString())
+        if (delta != 0 || en > st) {
+            val it = spans.iterator()
+            while (it.hasNext()) {
+                val span = it.next()
+                span.start = shift(span.start, st, en, delta)
+                span.end = shift(span.end, st, en, delta)
+                // 被替换区间完全覆盖的 EXCLUSIVE_EXCLUSIVE span 失效
+                if (span.start >= span.end) it.remove()
+            }
+        }
+        if (text is SpannableStringBuilder) {
+            for (span in text.spans) spans += Span(span.what, span.start + st, span.end + st, span.flags)
+        }
+        return this
+    }
+
+    override fun delete(st: Int, en: Int): SpannableStringBuilder = replace(st, en, "")
+
+    override fun clear() {
+        text.setLength(0)
+        spans.clear()
+    }
+
+    override fun clearSpans() {
+        spans.clear()
+    }
+
+    private fun shift(pos: Int, st: Int, en: Int, delta: Int): Int = when {
+        pos >= en -> pos + delta
+        pos > st -> st
+        else -> pos
+    }
+}
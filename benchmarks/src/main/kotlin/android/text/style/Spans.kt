@@ -0,0 +1,13 @@
+package android.text.style
+
+// android.text.style 中 Markdown 渲染用到的 span 的替身，只保存样式参数
+
+class StyleSpan(val style: Int)
+
+class RelativeSizeSpan(val sizeChange: Float)
+
+class ForegroundColorSpan(val foregroundColor: Int)
+
+class BackgroundColorSpan(val backgroundColor: Int)
+
+class TypefaceSpan(val family: String?)
@@ -0,0 +1,40 @@
+package android.view.accessibility
+
+import android.graphics.Rect
+
+/**
+ * AccessibilityNodeInfo 的替身：纯内存节点，属性与子节点由基准按录制的 UI 树填入，
+ * 读取不经过 Binder，因此只用于衡量序列化本身的开销。
+ */
+class AccessibilityNodeInfo {
+    var className: CharSequence? = null
+    var packageName: CharSequence? = null
+    var text: CharSequence? = null
+    var contentDescription: CharSequence? = null
+    var viewIdResourceName: String? = null
+
+    var isClickable = false
+    var isEnabled = true
+    var isFocused = false
+    var isCheckable = false
+    var isChecked = false
+    var isSelected = false
+    var isScrollable = false
+    var isLongClickable = false
+    var isEditable = false
+
+    private val boundsInScreen = Rect()
+    private val children = ArrayList<AccessibilityNodeInfo>()
+
+    val childCount: Int get() = children.size
+
+    fun getChild(index: Int): AccessibilityNodeInfo? = children.getOrNull(index)
+
+    fun addChild(child: AccessibilityNodeInfo) {
+        children += child
+    }
+
+    fun getBoundsInScreen(outBounds: Rect) = outBounds.set(boundsInScreen)
+
+    fun setBoundsInScreen(bounds: Rect) = boundsInScreen.set(bounds)
+}
@@ -0,0 +1,9 @@
+package com.ai.phoneagent
+
+/**
+ * app 中 BuildConfig 的替身（由 Android Gradle 插件生成，纯 JVM 模块中不存在）
+ */
+object BuildConfig {
+    const val DEBUG = false
+    const val GITHUB_TOKEN = ""
+}
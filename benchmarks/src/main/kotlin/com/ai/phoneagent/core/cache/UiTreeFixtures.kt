@@ -0,0 +1,23 @@
+package com.ai.phoneagent.core.cache
+
+import android.view.accessibility.AccessibilityNodeInfo
+
+/**
+ * 由无障碍节点一次性构建 UiTreeNode 树（与 UiTreeIndex 全量重建相同的读取顺序）
+ *
+ * UiTreeNode 的构造函数与子节点列表为 internal，需与 app 源文件在同一模块中构建。
+ */
+object UiTreeFixtures {
+
+    fun build(root: AccessibilityNodeInfo): UiTreeNode = build(root, null)
+
+    private fun build(info: AccessibilityNodeInfo, parent: UiTreeNode?): UiTreeNode {
+        val node = UiTreeNode(info, parent)
+        node.readAttributes()
+        for (i in 0 until info.childCount) {
+            val child = info.getChild(i) ?: continue
+            node.childList += build(child, node)
+        }
+        return node
+    }
+}
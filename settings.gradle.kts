@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "Phone Agent"
 include(":app")
+include(":benchmarks")